@@ -160,6 +160,8 @@ public interface DockerAdapterCommandExecutor {
     String DOCKER_IMAGE_TAG_PROP_NAME = "tag";
     String DOCKER_IMAGE_NAME_PROP_NAME = "imageName";
     String DOCKER_IMAGE_DATA_PROP_NAME = "imageData";
+    // image archive file to load instead of the image data, streamed to the host
+    String DOCKER_IMAGE_FILE_PROP_NAME = "imageFile";
     String DOCKER_IMAGE_REGISTRY_AUTH = "X-Registry-Auth";
 
     String DOCKER_VOLUME_NAME_PROP_NAME = "Name";
@@ -204,6 +206,8 @@ public interface DockerAdapterCommandExecutor {
 
     void tagImage(CommandInput input, CompletionHandler completionHandler);
 
+    void listImages(CommandInput input, CompletionHandler completionHandler);
+
     // Container operations:
     void createContainer(CommandInput input, CompletionHandler completionHandler);
 
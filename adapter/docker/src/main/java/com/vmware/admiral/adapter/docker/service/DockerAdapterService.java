@@ -60,7 +60,9 @@ import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExec
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_EXEC_ATTACH_STDOUT_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_EXEC_COMMAND_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_DATA_PROP_NAME;
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_FILE_PROP_NAME;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_FROM_PROP_NAME;
+import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_IMAGE_REGISTRY_AUTH;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.SINCE;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.STD_ERR;
 import static com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.STD_OUT;
@@ -89,6 +91,7 @@ import org.apache.http.HttpStatus;
 import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
 import com.vmware.admiral.adapter.docker.service.DockerAdapterCommandExecutor.DOCKER_CONTAINER_NETWORKING_CONNECT_CONFIG;
+import com.vmware.admiral.adapter.docker.service.DockerImagePullCoordinator.PullPolicy;
 import com.vmware.admiral.adapter.docker.util.CommandUtil;
 import com.vmware.admiral.adapter.docker.util.DockerDevice;
 import com.vmware.admiral.adapter.docker.util.DockerImage;
@@ -146,6 +149,11 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
      */
     private static final long[] INSPECT_RETRY_AFTER_SECONDS = { 10, 120, 600 };
 
+    /**
+     * maximum size of the stored container logs, 256 bytes spare for service document data
+     */
+    static final int MAX_LOG_DOCUMENT_SIZE = LogService.MAX_LOG_SIZE - 256;
+
     public static final String SELF_LINK = ManagementUriParts.ADAPTER_DOCKER;
 
     public static final String PROVISION_CONTAINER_RETRIES_COUNT_PARAM_NAME =
@@ -157,6 +165,8 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
 
     private SystemImageRetrievalManager imageRetrievalManager;
 
+    private final DockerImagePullCoordinator imagePulls = DockerImagePullCoordinator.getInstance();
+
     /**
      * Properties in an inspect response that we want to filter out
      *
@@ -339,10 +349,9 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
                 handleExceptions(context.request, context.operation, () -> {
                     byte[] log = null;
                     if (op.getBodyRaw() != null) {
-                        if (Operation.MEDIA_TYPE_APPLICATION_OCTET_STREAM.equals(
-                                op.getContentType())) {
-
-                            log = op.getBody(byte[].class);
+                        if (op.getBodyRaw() instanceof byte[]) {
+                            // the tail of the logs in the format returned by docker
+                            log = (byte[]) op.getBodyRaw();
                         } else {
                             /* TODO check for encoding header */
                             String logStr = op.getBody(String.class);
@@ -406,10 +415,8 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
         LogService.LogServiceState logServiceState = new LogService.LogServiceState();
         logServiceState.documentSelfLink = Service.getId(context.containerState.documentSelfLink);
 
-        // 256 bytes spare for service document data
-        int maxDocumentSize = LogService.MAX_LOG_SIZE - 256;
-        if (log.length > maxDocumentSize) {
-            log = Arrays.copyOfRange(log, log.length - maxDocumentSize, log.length);
+        if (log.length > MAX_LOG_DOCUMENT_SIZE) {
+            log = Arrays.copyOfRange(log, log.length - MAX_LOG_DOCUMENT_SIZE, log.length);
         }
 
         logServiceState.logs = log;
@@ -502,8 +509,8 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
             // use 'fromImage' - this will perform a docker pull
             createImageCommandInput.withProperty(DOCKER_IMAGE_FROM_PROP_NAME, fullImageName);
 
-            logInfo("Pulling image: %s %s", fullImageName, context.request.getRequestTrackingLog());
-            processPullImageFromRegistry(context, createImageCommandInput, imageCompletionHandler);
+            processPullImage(context, createImageCommandInput, fullImageName,
+                    imageCompletionHandler);
         } else {
             // fetch the image first, then execute a image load command
             logInfo("Downloading image from: %s %s", imageReference,
@@ -554,8 +561,8 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
     }
 
     /**
-     * read the temp file containing the downloaded image from the file system and proceed with
-     * imageCompletionHandler
+     * stream the file containing the downloaded image to the host and proceed with
+     * imageCompletionHandler. A temp file is deleted once the stream completes.
      *
      * @param context
      * @param tempFile
@@ -563,27 +570,29 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
      */
     private void processDownloadedImage(RequestContext context, File tempFile,
             CompletionHandler imageCompletionHandler, boolean isTempFile) {
+        String fileName = context.containerDescription.imageReference.toString();
+        if (!tempFile.isFile() || tempFile.length() == 0) {
+            if (isTempFile && !tempFile.delete()) {
+                this.logWarning("Failed to delete temp file: %s %s", tempFile,
+                        context.request.getRequestTrackingLog());
+            }
+            processLoadedImageData(context, null, fileName, imageCompletionHandler);
+            return;
+        }
 
-        Operation fileReadOp = Operation.createPatch(null)
-                .setContextId(context.request.getRequestId())
-                .setCompletion((o, ex) -> {
-                    if (ex != null) {
-                        fail(context.request, ex);
-                        return;
-                    }
-
-                    byte[] imageData = o.getBody(byte[].class);
-                    if (isTempFile && !tempFile.delete()) {
-                        this.logWarning("Failed to delete temp file: %s %s", tempFile,
-                                context.request.getRequestTrackingLog());
-                    }
-
-                    processLoadedImageData(context, imageData,
-                            context.containerDescription.imageReference.toString(),
-                            imageCompletionHandler);
-                });
+        logInfo("Streaming content of file: %s %s to host...", fileName,
+                context.request.getRequestTrackingLog());
 
-        FileUtils.readFileAndComplete(fileReadOp, tempFile);
+        CommandInput loadCommandInput = new CommandInput(context.commandInput)
+                .withProperty(DOCKER_IMAGE_FILE_PROP_NAME, tempFile);
+        context.executor.loadImage(loadCommandInput, (o, ex) -> {
+            if (isTempFile && !tempFile.delete()) {
+                this.logWarning("Failed to delete temp file: %s %s", tempFile,
+                        context.request.getRequestTrackingLog());
+            }
+            imagePulls.invalidate(context.computeState.documentSelfLink);
+            imageCompletionHandler.handle(o, ex);
+        });
     }
 
     private void processLoadedImageData(RequestContext context, byte[] imageData,
@@ -604,16 +613,55 @@ public class DockerAdapterService extends AbstractDockerAdapterService {
 
         CommandInput loadCommandInput = new CommandInput(context.commandInput)
                 .withProperty(DOCKER_IMAGE_DATA_PROP_NAME, imageData);
-        context.executor.loadImage(loadCommandInput, imageCompletionHandler);
+        context.executor.loadImage(loadCommandInput, (o, ex) -> {
+            imagePulls.invalidate(context.computeState.documentSelfLink);
+            imageCompletionHandler.handle(o, ex);
+        });
     }
 
-    private void processPullImageFromRegistry(RequestContext context,
-            CommandInput createImageCommandInput, CompletionHandler imageCompletionHandler) {
+    /**
+     * Pulls the image unless it is already present on the host and the pull policy allows using
+     * the present one.
+     */
+    private void processPullImage(RequestContext context, CommandInput createImageCommandInput,
+            String fullImageName, CompletionHandler imageCompletionHandler) {
+        if (DockerImagePullCoordinator.getPullPolicy() != PullPolicy.IF_NOT_PRESENT) {
+            logInfo("Pulling image: %s %s", fullImageName,
+                    context.request.getRequestTrackingLog());
+            processPullImageFromRegistry(context, createImageCommandInput, fullImageName,
+                    imageCompletionHandler);
+            return;
+        }
 
-        ensurePullRetriesPropertyExists((retryCountProperty) -> {
-            processPullImageFromRegistryWithRetry(context, createImageCommandInput,
-                    imageCompletionHandler, 0, retryCountProperty);
-        });
+        imagePulls.isPresent(context.computeState.documentSelfLink, fullImageName,
+                (listHandler) -> context.executor.listImages(
+                        new CommandInput(context.commandInput), listHandler),
+                (present) -> {
+                    if (present) {
+                        logInfo("Image %s already present on host %s, skipping pull %s",
+                                fullImageName, context.computeState.documentSelfLink,
+                                context.request.getRequestTrackingLog());
+                        imageCompletionHandler.handle(null, null);
+                        return;
+                    }
+                    logInfo("Pulling image: %s %s", fullImageName,
+                            context.request.getRequestTrackingLog());
+                    processPullImageFromRegistry(context, createImageCommandInput,
+                            fullImageName, imageCompletionHandler);
+                });
+    }
+
+    private void processPullImageFromRegistry(RequestContext context,
+            CommandInput createImageCommandInput, String fullImageName,
+            CompletionHandler imageCompletionHandler) {
+        // concurrent creates on the host wait for a single pull of the image
+        String registryAuth = (String) createImageCommandInput.getProperties()
+                .get(DOCKER_IMAGE_REGISTRY_AUTH);
+        imagePulls.pull(context.computeState.documentSelfLink, fullImageName, registryAuth,
+                (pullHandler) -> ensurePullRetriesPropertyExists((retryCountProperty) -> {
+                    processPullImageFromRegistryWithRetry(context, createImageCommandInput,
+                            pullHandler, 0, retryCountProperty);
+                }), imageCompletionHandler);
     }
 
     private void processPullImageFromRegistryWithRetry(RequestContext context,
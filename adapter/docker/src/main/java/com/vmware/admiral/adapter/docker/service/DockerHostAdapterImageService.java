@@ -46,6 +46,8 @@ public class DockerHostAdapterImageService extends AbstractDockerAdapterService
 
     private SystemImageRetrievalManager imageRetrievalManager;
 
+    private final DockerImagePullCoordinator imagePulls = DockerImagePullCoordinator.getInstance();
+
     @Override
     public void handleStart(Operation startPost) {
         imageRetrievalManager = new SystemImageRetrievalManager(getHost());
@@ -115,6 +117,7 @@ public class DockerHostAdapterImageService extends AbstractDockerAdapterService
         logInfo("Pulling image: %s %s", fullImageName, ctx.request.getRequestTrackingLog());
 
         Operation.CompletionHandler imageCompletionHandler = (o, ex) -> {
+            imagePulls.invalidate(computeState.documentSelfLink);
             if (ex != null) {
                 logWarning("Failure while pulling image [%s] on host [%s]",
                         fullImageName,
@@ -146,6 +149,7 @@ public class DockerHostAdapterImageService extends AbstractDockerAdapterService
                 ctx.request.getRequestTrackingLog(), imageRepo, imageTag);
 
         Operation.CompletionHandler imageCompletionHandler = (o, ex) -> {
+            imagePulls.invalidate(computeState.documentSelfLink);
             if (ex != null) {
                 logWarning("Failure while tagging image [%s] on host [%s]",
                         fullImageName,
@@ -171,6 +175,7 @@ public class DockerHostAdapterImageService extends AbstractDockerAdapterService
         String ref = ctx.request.customProperties.get(DOCKER_IMAGE_NAME_PROP_NAME);
 
         Operation.CompletionHandler imageCompletionHandler = (o, ex) -> {
+            imagePulls.invalidate(computeState.documentSelfLink);
             if (ex != null) {
                 logWarning("Failure while loading image [%s] on host [%s]",
                         ref,
@@ -275,6 +280,7 @@ public class DockerHostAdapterImageService extends AbstractDockerAdapterService
         getCommandExecutor().deleteImage(
                 commandInput,
                 (operation, ex) -> {
+                    imagePulls.invalidate(computeState.documentSelfLink);
                     String imageName = (String) commandInput.getProperties().get(
                             DOCKER_BUILD_IMAGE_TAG_PROP_NAME);
                     if (ex != null) {
@@ -314,6 +320,7 @@ public class DockerHostAdapterImageService extends AbstractDockerAdapterService
         getCommandExecutor().buildImage(
                 ctx.commandInput,
                 (operation, ex) -> {
+                    imagePulls.invalidate(computeState.documentSelfLink);
                     String imageName = (String) ctx.commandInput.getProperties().get(
                             DOCKER_BUILD_IMAGE_TAG_PROP_NAME);
                     if (ex != null) {
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import java.net.SocketException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.CompletionHandler;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Per Docker host admission control for the requests sent by the
+ * {@link RemoteApiDockerAdapterCommandExecutorImpl}. Every Docker host gets its own limit of
+ * in-flight requests and a bounded queue for the requests waiting for a free slot. Streaming
+ * requests, which stay open while a command runs or logs are read, have a separate limit and
+ * queue, so they can't starve the short requests to the same host. Queued requests fail once
+ * they expire, or after waiting for a free slot for too long. Requests timing out or failing to
+ * connect trip a circuit breaker for the host, after which requests to it fail fast until a
+ * single probe request, let through after a cool down period, succeeds.
+ */
+class DockerHostRequestGate {
+
+    private static final Logger logger = Logger.getLogger(DockerHostRequestGate.class.getName());
+
+    static final int MAX_IN_FLIGHT_PER_HOST = Integer.getInteger(
+            "adapter.docker.api.client.max_in_flight_per_host", 32);
+
+    static final int MAX_STREAMING_IN_FLIGHT_PER_HOST = Integer.getInteger(
+            "adapter.docker.api.client.max_streaming_in_flight_per_host", 16);
+
+    static final int MAX_QUEUED_PER_HOST = Integer.getInteger(
+            "adapter.docker.api.client.max_queued_per_host", 512);
+
+    static final long MAX_QUEUED_MILLIS = Long.getLong(
+            "adapter.docker.api.client.max_queued_millis", TimeUnit.MINUTES.toMillis(2));
+
+    static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = Integer.getInteger(
+            "adapter.docker.api.client.circuit_breaker.failure_threshold", 5);
+
+    static final long CIRCUIT_BREAKER_OPEN_MILLIS = Long.getLong(
+            "adapter.docker.api.client.circuit_breaker.open_millis",
+            TimeUnit.SECONDS.toMillis(30));
+
+    private static final long EXPIRATION_CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    enum CircuitState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int maxInFlight;
+    private final int maxStreamingInFlight;
+    private final int maxQueued;
+    private final long maxQueuedMillis;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final ConcurrentMap<String, HostRequests> requestsByHost = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService expirationChecker;
+
+    DockerHostRequestGate() {
+        this(MAX_IN_FLIGHT_PER_HOST, MAX_STREAMING_IN_FLIGHT_PER_HOST, MAX_QUEUED_PER_HOST,
+                MAX_QUEUED_MILLIS, CIRCUIT_BREAKER_FAILURE_THRESHOLD, CIRCUIT_BREAKER_OPEN_MILLIS);
+    }
+
+    DockerHostRequestGate(int maxInFlight, int maxStreamingInFlight, int maxQueued,
+            long maxQueuedMillis, int failureThreshold, long openMillis) {
+        this.maxInFlight = maxInFlight;
+        this.maxStreamingInFlight = maxStreamingInFlight;
+        this.maxQueued = maxQueued;
+        this.maxQueuedMillis = maxQueuedMillis;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+
+        this.expirationChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "docker-request-expiration");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.expirationChecker.scheduleWithFixedDelay(this::failExpiredRequests,
+                EXPIRATION_CHECK_INTERVAL_MILLIS, EXPIRATION_CHECK_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the given operation with the given sender as soon as the Docker host it targets
+     * admits it, or fails it right away if the host's queue is full or its circuit is open.
+     */
+    void send(Operation op, Consumer<Operation> sender) {
+        send(op, sender, false);
+    }
+
+    /**
+     * Same as {@link #send(Operation, Consumer)}, counting the operation against the limit of
+     * streaming requests if it is one.
+     */
+    void send(Operation op, Consumer<Operation> sender, boolean streaming) {
+        long deadlineMicros = op.getExpirationMicrosUtc() != 0 ? op.getExpirationMicrosUtc()
+                : Utils.getSystemNowMicrosUtc()
+                        + TimeUnit.MILLISECONDS.toMicros(maxQueuedMillis);
+        requestsByHost.computeIfAbsent(getHostKey(op.getUri()), HostRequests::new)
+                .submit(new PendingRequest(op, sender, streaming, deadlineMicros));
+    }
+
+    CircuitState getCircuitState(URI uri) {
+        HostRequests requests = requestsByHost.get(getHostKey(uri));
+        return requests != null ? requests.getCircuitState() : CircuitState.CLOSED;
+    }
+
+    /**
+     * Fails the queued requests whose deadline has passed.
+     */
+    void failExpiredRequests() {
+        long nowMicros = Utils.getSystemNowMicrosUtc();
+        for (HostRequests requests : requestsByHost.values()) {
+            requests.failExpired(nowMicros);
+        }
+    }
+
+    void clear() {
+        requestsByHost.clear();
+    }
+
+    void stop() {
+        expirationChecker.shutdownNow();
+        clear();
+    }
+
+    private static String getHostKey(URI uri) {
+        return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+    }
+
+    /**
+     * Whether the failure indicates an unresponsive or unreachable host, as opposed to an error
+     * response from a responsive Docker daemon.
+     */
+    private static boolean isHostFailure(Throwable e) {
+        return e instanceof TimeoutException || e instanceof SocketException
+                || (e != null && (e.getCause() instanceof TimeoutException
+                        || e.getCause() instanceof SocketException));
+    }
+
+    private static class PendingRequest {
+        final Operation op;
+        final Consumer<Operation> sender;
+        final boolean streaming;
+        final long deadlineMicros;
+
+        PendingRequest(Operation op, Consumer<Operation> sender, boolean streaming,
+                long deadlineMicros) {
+            this.op = op;
+            this.sender = sender;
+            this.streaming = streaming;
+            this.deadlineMicros = deadlineMicros;
+        }
+    }
+
+    /**
+     * The in-flight requests of one kind to a host and the ones waiting for a free slot.
+     */
+    private static class Lane {
+        final int maxInFlight;
+        final Deque<PendingRequest> queue = new ArrayDeque<>();
+        int inFlight;
+
+        Lane(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+    }
+
+    private class HostRequests {
+        private final String hostKey;
+        private final Lane requests = new Lane(maxInFlight);
+        private final Lane streamingRequests = new Lane(maxStreamingInFlight);
+        private CircuitState state = CircuitState.CLOSED;
+        private int consecutiveFailures;
+        private long openedAtMillis;
+        private boolean probeInFlight;
+
+        HostRequests(String hostKey) {
+            this.hostKey = hostKey;
+        }
+
+        synchronized CircuitState getCircuitState() {
+            return state;
+        }
+
+        void submit(PendingRequest request) {
+            String rejection = null;
+            boolean probe = false;
+            boolean dispatch = false;
+            synchronized (this) {
+                Lane lane = getLane(request);
+                if (state == CircuitState.OPEN
+                        && System.currentTimeMillis() - openedAtMillis >= openMillis) {
+                    state = CircuitState.HALF_OPEN;
+                }
+
+                if (state == CircuitState.OPEN
+                        || (state == CircuitState.HALF_OPEN && probeInFlight)) {
+                    rejection = String.format("Docker host %s is not responding, request"
+                            + " rejected", hostKey);
+                } else if (state == CircuitState.HALF_OPEN) {
+                    probeInFlight = true;
+                    probe = true;
+                    lane.inFlight++;
+                    dispatch = true;
+                } else if (lane.inFlight < lane.maxInFlight) {
+                    lane.inFlight++;
+                    dispatch = true;
+                } else if (lane.queue.size() < maxQueued) {
+                    lane.queue.add(request);
+                } else {
+                    rejection = String.format("Too many pending requests to Docker host %s,"
+                            + " request rejected", hostKey);
+                }
+            }
+
+            if (rejection != null) {
+                request.op.fail(new RejectedExecutionException(rejection));
+            } else if (dispatch) {
+                dispatch(request, probe);
+            }
+        }
+
+        void failExpired(long nowMicros) {
+            List<PendingRequest> expired = new ArrayList<>();
+            synchronized (this) {
+                removeExpired(requests, nowMicros, expired);
+                removeExpired(streamingRequests, nowMicros, expired);
+            }
+
+            for (PendingRequest request : expired) {
+                failExpired(request);
+            }
+        }
+
+        private Lane getLane(PendingRequest request) {
+            return request.streaming ? streamingRequests : requests;
+        }
+
+        private void removeExpired(Lane lane, long nowMicros, List<PendingRequest> expired) {
+            for (Iterator<PendingRequest> it = lane.queue.iterator(); it.hasNext(); ) {
+                PendingRequest request = it.next();
+                if (request.deadlineMicros <= nowMicros) {
+                    it.remove();
+                    expired.add(request);
+                }
+            }
+        }
+
+        private void failExpired(PendingRequest request) {
+            request.op.fail(new TimeoutException(String.format("Request to Docker host %s"
+                    + " expired while waiting for a free slot", hostKey)));
+        }
+
+        private void dispatch(PendingRequest request, boolean probe) {
+            CompletionHandler completion = request.op.getCompletion();
+            request.op.setCompletion((o, e) -> {
+                complete(request, e, probe);
+                completion.handle(o, e);
+            });
+            request.sender.accept(request.op);
+        }
+
+        private void complete(PendingRequest completed, Throwable e, boolean probe) {
+            List<PendingRequest> toDispatch = new ArrayList<>();
+            List<PendingRequest> toReject = new ArrayList<>();
+            List<PendingRequest> expired = new ArrayList<>();
+            synchronized (this) {
+                getLane(completed).inFlight--;
+                if (probe) {
+                    probeInFlight = false;
+                }
+
+                if (isHostFailure(e)) {
+                    consecutiveFailures++;
+                    if (state == CircuitState.HALF_OPEN
+                            || (state == CircuitState.CLOSED
+                                    && consecutiveFailures >= failureThreshold)) {
+                        logger.warning(String.format("Docker host %s is not responding, failing"
+                                + " requests to it for %d ms", hostKey, openMillis));
+                        state = CircuitState.OPEN;
+                        openedAtMillis = System.currentTimeMillis();
+                    }
+                } else {
+                    consecutiveFailures = 0;
+                    if (state != CircuitState.CLOSED) {
+                        logger.info(String.format("Docker host %s is responding again",
+                                hostKey));
+                        state = CircuitState.CLOSED;
+                    }
+                }
+
+                if (state == CircuitState.OPEN) {
+                    toReject.addAll(requests.queue);
+                    toReject.addAll(streamingRequests.queue);
+                    requests.queue.clear();
+                    streamingRequests.queue.clear();
+                } else if (state == CircuitState.CLOSED) {
+                    long nowMicros = Utils.getSystemNowMicrosUtc();
+                    poll(requests, nowMicros, toDispatch, expired);
+                    poll(streamingRequests, nowMicros, toDispatch, expired);
+                }
+            }
+
+            for (PendingRequest request : toReject) {
+                request.op.fail(new RejectedExecutionException(String.format(
+                        "Docker host %s is not responding, request rejected", hostKey)));
+            }
+            for (PendingRequest request : expired) {
+                failExpired(request);
+            }
+            for (PendingRequest request : toDispatch) {
+                dispatch(request, false);
+            }
+        }
+
+        private void poll(Lane lane, long nowMicros, List<PendingRequest> toDispatch,
+                List<PendingRequest> expired) {
+            while (lane.inFlight < lane.maxInFlight && !lane.queue.isEmpty()) {
+                PendingRequest request = lane.queue.poll();
+                if (request.deadlineMicros <= nowMicros) {
+                    expired.add(request);
+                    continue;
+                }
+                toDispatch.add(request);
+                lane.inFlight++;
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.CompletionHandler;
+
+/**
+ * Streams image archives from files to the image load API of the Docker hosts. The archive is
+ * sent in chunks as it is read, so its size doesn't affect the memory used, and since the file
+ * is read only as fast as the host accepts the data, a slow host slows down the reading instead
+ * of filling up buffers. The number of loads running at the same time on this node is bounded,
+ * further loads wait for a free slot.
+ */
+class DockerImageLoadStreamer {
+
+    private static final Logger logger = Logger.getLogger(DockerImageLoadStreamer.class.getName());
+
+    static final int MAX_CONCURRENT_LOADS = Integer.getInteger(
+            "adapter.docker.api.client.max_concurrent_image_loads", 2);
+
+    static final int CHUNK_SIZE = Integer.getInteger(
+            "adapter.docker.api.client.image_load_chunk_size", 1024 * 1024);
+
+    private static final String MEDIA_TYPE_APPLICATION_X_TAR = "application/x-tar";
+
+    private final ExecutorService executor;
+
+    DockerImageLoadStreamer() {
+        this(MAX_CONCURRENT_LOADS);
+    }
+
+    DockerImageLoadStreamer(int maxConcurrentLoads) {
+        // loads block on the network while streaming, so they don't run on the host's executor
+        this.executor = Executors.newFixedThreadPool(maxConcurrentLoads, r -> {
+            Thread thread = new Thread(r, "docker-image-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Posts the content of the given file to the given URI. The handler is completed with an
+     * operation holding the status code and body of the response once the whole file is sent
+     * and the response is received.
+     */
+    void load(URI uri, File file, SSLContext sslContext, long timeoutMillis,
+            CompletionHandler completionHandler) {
+        try {
+            executor.execute(() -> {
+                Operation response = new Operation().setUri(uri);
+                try {
+                    send(uri, file, sslContext, timeoutMillis, response);
+                } catch (Throwable e) {
+                    completionHandler.handle(response, e);
+                    return;
+                }
+                completionHandler.handle(response, null);
+            });
+        } catch (RejectedExecutionException e) {
+            completionHandler.handle(null, e);
+        }
+    }
+
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private void send(URI uri, File file, SSLContext sslContext, long timeoutMillis,
+            Operation response) throws IOException {
+        logger.info(String.format("Streaming %d bytes from %s to %s", file.length(), file, uri));
+
+        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+        try {
+            if (connection instanceof HttpsURLConnection && sslContext != null) {
+                HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+                httpsConnection.setSSLSocketFactory(sslContext.getSocketFactory());
+                // as with the other requests to the Docker hosts, the host is trusted based on
+                // its certificate only
+                httpsConnection.setHostnameVerifier((hostname, session) -> true);
+            }
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty(Operation.CONTENT_TYPE_HEADER,
+                    MEDIA_TYPE_APPLICATION_X_TAR);
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(CHUNK_SIZE);
+            connection.setConnectTimeout((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+            connection.setReadTimeout((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+
+            try (InputStream in = Files.newInputStream(file.toPath());
+                    OutputStream out = connection.getOutputStream()) {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    out.write(chunk, 0, read);
+                }
+            }
+
+            int statusCode = connection.getResponseCode();
+            InputStream body = statusCode < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getInputStream() : connection.getErrorStream();
+            response.setStatusCode(statusCode);
+            response.setBody(readBody(body));
+            if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new ProtocolException(String.format("Loading image to %s failed with"
+                        + " status %d: %s", uri, statusCode, response.getBodyRaw()));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String readBody(InputStream body) throws IOException {
+        if (body == null) {
+            return "";
+        }
+
+        try (InputStream in = body) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vmware.admiral.adapter.docker.util.DockerImage;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.CompletionHandler;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Coordinates the image pulls on the Docker hosts. Concurrent pulls of the same image on the same
+ * host with the same registry credentials share a single pull. The images present on a host are
+ * cached from the host's image list, so that with the {@link PullPolicy#IF_NOT_PRESENT} policy
+ * images already present are not pulled again. The cached list of a host is dropped whenever
+ * images on the host are pulled, loaded or removed.
+ */
+class DockerImagePullCoordinator {
+
+    private static final Logger logger = Logger
+            .getLogger(DockerImagePullCoordinator.class.getName());
+
+    static final String PULL_POLICY_PROP_NAME = "adapter.docker.image.pull.policy";
+
+    static final long IMAGE_LIST_MAX_AGE_MILLIS = Long.getLong(
+            "adapter.docker.image.list.max_age_millis", TimeUnit.MINUTES.toMillis(1));
+
+    private static final String DOCKER_IMAGE_REPO_TAGS_PROP_NAME = "RepoTags";
+    private static final String DOCKER_IMAGE_REPO_DIGESTS_PROP_NAME = "RepoDigests";
+
+    enum PullPolicy {
+        /** Images are pulled before every container create. */
+        ALWAYS,
+        /** Images are pulled only when not present on the host. */
+        IF_NOT_PRESENT
+    }
+
+    private static final DockerImagePullCoordinator INSTANCE = new DockerImagePullCoordinator(
+            IMAGE_LIST_MAX_AGE_MILLIS);
+
+    private final long imageListMaxAgeMillis;
+
+    private final ConcurrentMap<String, List<CompletionHandler>> requestsInFlight =
+            new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, HostImages> imagesByHost = new ConcurrentHashMap<>();
+
+    DockerImagePullCoordinator(long imageListMaxAgeMillis) {
+        this.imageListMaxAgeMillis = imageListMaxAgeMillis;
+    }
+
+    static DockerImagePullCoordinator getInstance() {
+        return INSTANCE;
+    }
+
+    static PullPolicy getPullPolicy() {
+        return PullPolicy.valueOf(System.getProperty(PULL_POLICY_PROP_NAME,
+                PullPolicy.ALWAYS.name()));
+    }
+
+    /**
+     * Pulls the given image on the given host with the given puller, unless the same image is
+     * already being pulled there with the same registry credentials. In that case the handler
+     * is completed with the outcome of the pull in flight.
+     */
+    void pull(String hostLink, String imageName, String registryAuth,
+            Consumer<CompletionHandler> puller, CompletionHandler handler) {
+        String key = String.join("|", "pull", hostLink, imageName,
+                registryAuth != null ? registryAuth : "");
+        singleFlight(key, puller, (o, e) -> {
+            invalidate(hostLink);
+            handler.handle(o, e);
+        });
+    }
+
+    /**
+     * Checks whether the given image is present on the given host, listing the images of the
+     * host with the given lister unless a recent list is cached. Failing to list the images is
+     * reported as the image not being present.
+     */
+    void isPresent(String hostLink, String imageName, Consumer<CompletionHandler> lister,
+            Consumer<Boolean> callback) {
+        HostImages cached = imagesByHost.get(hostLink);
+        if (cached != null && cached.isValid(imageListMaxAgeMillis)) {
+            callback.accept(cached.contains(imageName));
+            return;
+        }
+
+        long generation = cached != null ? cached.generation : 0;
+        singleFlight(String.join("|", "list", hostLink), lister, (o, e) -> {
+            if (e != null) {
+                logger.fine(String.format("Failed to list the images of host %s: %s", hostLink,
+                        Utils.toString(e)));
+                callback.accept(false);
+                return;
+            }
+
+            HostImages listed = new HostImages(getImageNames(o), System.currentTimeMillis(),
+                    generation);
+            // an image list started before an invalidation of the host is not cached
+            imagesByHost.compute(hostLink, (k, current) -> {
+                long currentGeneration = current != null ? current.generation : 0;
+                return currentGeneration == generation ? listed : current;
+            });
+            callback.accept(listed.contains(imageName));
+        });
+    }
+
+    /**
+     * Drops the cached image list of the given host, to be called whenever images on the host
+     * are pulled, loaded or removed.
+     */
+    void invalidate(String hostLink) {
+        imagesByHost.compute(hostLink, (k, current) -> new HostImages(null, 0,
+                current != null ? current.generation + 1 : 1));
+    }
+
+    private void singleFlight(String key, Consumer<CompletionHandler> request,
+            CompletionHandler handler) {
+        boolean[] first = new boolean[1];
+        requestsInFlight.compute(key, (k, handlers) -> {
+            if (handlers == null) {
+                handlers = new ArrayList<>();
+                first[0] = true;
+            }
+            handlers.add(handler);
+            return handlers;
+        });
+        if (!first[0]) {
+            return;
+        }
+
+        request.accept((o, e) -> {
+            List<CompletionHandler> handlers = requestsInFlight.remove(key);
+            for (CompletionHandler h : handlers) {
+                try {
+                    h.handle(o, e);
+                } catch (Throwable t) {
+                    logger.log(Level.WARNING, "Failure while completing " + key, t);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> getImageNames(Operation o) {
+        Set<String> imageNames = new HashSet<>();
+        List<Map<String, Object>> images = o.getBody(List.class);
+        if (images == null) {
+            return imageNames;
+        }
+
+        for (Map<String, Object> image : images) {
+            addImageNames(imageNames, image.get(DOCKER_IMAGE_REPO_TAGS_PROP_NAME));
+            addImageNames(imageNames, image.get(DOCKER_IMAGE_REPO_DIGESTS_PROP_NAME));
+        }
+        return imageNames;
+    }
+
+    private static void addImageNames(Set<String> imageNames, Object names) {
+        if (!(names instanceof Collection)) {
+            return;
+        }
+
+        for (Object name : (Collection<?>) names) {
+            if (name != null) {
+                imageNames.add(canonicalize(name.toString()));
+            }
+        }
+    }
+
+    private static String canonicalize(String imageName) {
+        try {
+            return DockerImage.fromImageName(imageName).toString();
+        } catch (IllegalArgumentException e) {
+            return imageName;
+        }
+    }
+
+    private static class HostImages {
+        final Set<String> imageNames;
+        final long listedMillis;
+        final long generation;
+
+        HostImages(Set<String> imageNames, long listedMillis, long generation) {
+            this.imageNames = imageNames != null ? imageNames : Collections.emptySet();
+            this.listedMillis = imageNames != null ? listedMillis : 0;
+            this.generation = generation;
+        }
+
+        boolean isValid(long maxAgeMillis) {
+            return listedMillis != 0
+                    && System.currentTimeMillis() - listedMillis < maxAgeMillis;
+        }
+
+        boolean contains(String imageName) {
+            return imageNames.contains(canonicalize(imageName));
+        }
+    }
+}
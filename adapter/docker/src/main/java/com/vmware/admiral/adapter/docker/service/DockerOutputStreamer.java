@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Sends the requests returning the output of containers, i.e. executing a command or fetching
+ * logs, and passes the response body to a sink in chunks as it is received. Unlike the service
+ * clients, which aggregate whole responses in memory, the memory used depends only on the sink,
+ * e.g. a {@link com.vmware.admiral.adapter.docker.util.DockerStreamDecoder} writing to bounded
+ * buffers.
+ */
+class DockerOutputStreamer {
+
+    static final int CHUNK_SIZE = Integer.getInteger(
+            "adapter.docker.api.client.output_chunk_size", 64 * 1024);
+
+    // error responses are short messages of the Docker daemon
+    private static final int MAX_ERROR_BODY_SIZE = 64 * 1024;
+
+    private final ExecutorService executor;
+
+    DockerOutputStreamer() {
+        // reads block on the network while streaming, so they don't run on the host's executor;
+        // the number of concurrent reads is bounded by the requests admitted per Docker host
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "docker-output");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sends the given operation and writes the body of a successful response to the given sink.
+     * The operation is completed with the status code and content type of the response once the
+     * whole body is read, or failed with the error body of the response.
+     */
+    void send(Operation op, SSLContext sslContext, long timeoutMillis, OutputStream sink) {
+        try {
+            executor.execute(() -> {
+                try {
+                    read(op, sslContext, timeoutMillis, sink);
+                } catch (Throwable e) {
+                    op.fail(e);
+                    return;
+                }
+                op.complete();
+            });
+        } catch (RejectedExecutionException e) {
+            op.fail(e);
+        }
+    }
+
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private void read(Operation op, SSLContext sslContext, long timeoutMillis,
+            OutputStream sink) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) op.getUri().toURL().openConnection();
+        try {
+            if (connection instanceof HttpsURLConnection && sslContext != null) {
+                HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+                httpsConnection.setSSLSocketFactory(sslContext.getSocketFactory());
+                // as with the other requests to the Docker hosts, the host is trusted based on
+                // its certificate only
+                httpsConnection.setHostnameVerifier((hostname, session) -> true);
+            }
+            connection.setRequestMethod(op.getAction().toString());
+            connection.setConnectTimeout((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+            connection.setReadTimeout((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+
+            Object body = op.getBodyRaw();
+            if (body != null) {
+                connection.setRequestProperty(Operation.CONTENT_TYPE_HEADER,
+                        Operation.MEDIA_TYPE_APPLICATION_JSON);
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(Utils.toJson(body).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            int statusCode = connection.getResponseCode();
+            op.setStatusCode(statusCode);
+            if (connection.getContentType() != null) {
+                op.setContentType(connection.getContentType());
+            }
+            if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                String error = readErrorBody(connection.getErrorStream());
+                op.setBody(error);
+                throw new ProtocolException(String.format("Request to %s failed with status"
+                        + " %d: %s", op.getUri(), statusCode, error));
+            }
+
+            op.setBody(null);
+            try (InputStream in = connection.getInputStream()) {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    sink.write(chunk, 0, read);
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String readErrorBody(InputStream body) throws IOException {
+        if (body == null) {
+            return "";
+        }
+
+        try (InputStream in = body) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while (out.size() < MAX_ERROR_BODY_SIZE && (read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -14,7 +14,12 @@ package com.vmware.admiral.adapter.docker.service;
 import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_ALIAS_PROP_NAME;
 import static com.vmware.admiral.compute.ContainerHostService.SSL_TRUST_CERT_PROP_NAME;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -23,13 +28,16 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.yaml.snakeyaml.util.UriEncoder;
 
-import com.vmware.admiral.adapter.docker.util.DockerStreamUtil;
+import com.vmware.admiral.adapter.docker.util.DockerStreamDecoder;
+import com.vmware.admiral.adapter.docker.util.DockerStreamTail;
 import com.vmware.admiral.common.util.AssertUtil;
 import com.vmware.admiral.common.util.DelegatingX509KeyManager;
 import com.vmware.admiral.common.util.ServerX509TrustManager;
@@ -67,11 +75,16 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     private static final Pattern ERROR_PATTERN = Pattern.compile("\"error\":\"(.*)\"");
     private final ServiceHost host;
     private final ServiceClient serviceClient;
-    // Used for commands like exec start
-    private final ServiceClient attachServiceClient;
     // Used for commands like load image from tar
     private final ServiceClient largeDataClient;
     private final DelegatingX509KeyManager keyManager = new DelegatingX509KeyManager();
+    // Limits the concurrent requests per docker host and fails fast on unresponsive hosts
+    private final DockerHostRequestGate requestGate = new DockerHostRequestGate();
+    // Streams image archives from files, bounding the concurrent loads
+    private final DockerImageLoadStreamer imageLoadStreamer = new DockerImageLoadStreamer();
+    // Streams the output of exec and logs requests to bounded sinks
+    private final DockerOutputStreamer outputStreamer = new DockerOutputStreamer();
+    private final TrustManager sslTrustManager;
     private ServerX509TrustManager trustManager;
 
     private final int DOCKER_REQUEST_PAYLOAD_SIZE_LIMIT = Integer.getInteger(
@@ -83,9 +96,12 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     private final int DOCKER_IMAGE_REQUEST_TIMEOUT_SECONDS = Integer.getInteger(
             "adapter.docker.api.client.image_request_timeout_seconds", 60 * 10);
 
+    // only the last bytes of longer exec outputs are returned
+    private final int DOCKER_EXEC_OUTPUT_SIZE_LIMIT = Integer.getInteger(
+            "adapter.docker.api.client.exec_output_size_limit", 1024 * 1024 * 4);
+
     private enum ClientMode {
         DEFAULT,
-        ATTACH,
         LARGE_DATA
     }
 
@@ -93,10 +109,9 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
             TrustManager trustManager) {
         this.host = host;
         this.serviceClient = ServiceClientFactory.createServiceClient(trustManager, keyManager);
-        this.attachServiceClient = ServiceClientFactory.createServiceClient(trustManager,
-                keyManager);
         this.largeDataClient = ServiceClientFactory.createServiceClient(
                 trustManager, keyManager, DOCKER_REQUEST_PAYLOAD_SIZE_LIMIT);
+        this.sslTrustManager = trustManager;
 
         if (trustManager instanceof ServerX509TrustManager) {
             this.trustManager = (ServerX509TrustManager) trustManager;
@@ -120,24 +135,21 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
     public void stop() {
         logger.info("Stopping service clients");
 
-        if (attachServiceClient != null) {
-            attachServiceClient.stop();
-        }
         if (this.serviceClient != null) {
             this.serviceClient.stop();
         }
         if (largeDataClient != null) {
             largeDataClient.stop();
         }
+        requestGate.stop();
+        imageLoadStreamer.stop();
+        outputStreamer.stop();
 
         INSTANCE = null;
     }
 
     @Override
     public void handlePeriodicMaintenance(Operation post) {
-        if (attachServiceClient != null) {
-            attachServiceClient.handleMaintenance(post);
-        }
         if (serviceClient != null) {
             serviceClient.handleMaintenance(post);
         }
@@ -224,6 +236,21 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         URI uri = UriUtils.extendUri(input.getDockerUri(), "/images/load");
         logger.info("Loading image: " + uri);
 
+        Object imageFile = input.getProperties().get(DOCKER_IMAGE_FILE_PROP_NAME);
+        if (imageFile instanceof File) {
+            SSLContext sslContext;
+            try {
+                sslContext = isSecure(uri) ? createSslContext(input) : null;
+            } catch (GeneralSecurityException e) {
+                completionHandler.handle(null, e);
+                return;
+            }
+            imageLoadStreamer.load(uri, (File) imageFile, sslContext,
+                    TimeUnit.SECONDS.toMillis(DOCKER_IMAGE_REQUEST_TIMEOUT_SECONDS),
+                    completionHandler);
+            return;
+        }
+
         sendPost(uri, imageData, ClientMode.LARGE_DATA, completionHandler);
     }
 
@@ -287,6 +314,15 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         sendPost(uri, null, ClientMode.DEFAULT, completionHandler);
     }
 
+    @Override
+    public void listImages(CommandInput input, CompletionHandler completionHandler) {
+        createOrUpdateTargetSsl(input);
+        URI uri = UriUtils.extendUri(input.getDockerUri(), "/images/json");
+        logger.fine("List images: " + uri);
+
+        sendGet(uri, null, completionHandler);
+    }
+
     // container operations ------------------------------------------------------------------------
 
     @Override
@@ -384,11 +420,25 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         String requestPath = String.format("/containers/%s/logs",
                 input.getProperties().remove(DOCKER_CONTAINER_ID_PROP_NAME));
         URI uri = UriUtils.extendUri(input.getDockerUri(), requestPath);
+        SSLContext sslContext;
+        try {
+            sslContext = isSecure(uri) ? createSslContext(input) : null;
+        } catch (GeneralSecurityException e) {
+            completionHandler.handle(null, e);
+            return;
+        }
         // append all the query parameters which are sent as input.
         uri = extendUriWithQuery(uri, input);
         logger.info("Fetching logs for container: " + uri);
 
-        sendGet(uri, null, completionHandler);
+        // only the tail of the logs is stored, in the format returned by docker
+        DockerStreamTail log = new DockerStreamTail(DockerAdapterService.MAX_LOG_DOCUMENT_SIZE);
+        sendStreaming(Service.Action.GET, uri, null, sslContext, log, (o, e) -> {
+            if (e == null) {
+                o.setBodyNoCloning(log.toByteArray());
+            }
+            completionHandler.handle(o, e);
+        });
     }
 
     @Override
@@ -656,45 +706,48 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
                 @SuppressWarnings("unchecked")
                 Map<String, String> result = o.getBody(Map.class);
                 String execId = result.get(DOCKER_EXEC_ID_PROP_NAME);
-                startExec(input.getDockerUri(), execId, completionHandler);
+                startExec(input, execId, completionHandler);
             }
         });
     }
 
-    private void startExec(URI dockerUri, String execId, CompletionHandler completionHandler) {
+    private void startExec(CommandInput input, String execId,
+            CompletionHandler completionHandler) {
         Map<String, Object> startBody = new HashMap<>();
         startBody.put(DOCKER_EXEC_TTY_PROP_NAME, false);
         startBody.put(DOCKER_EXEC_DETACH_PROP_NAME, false);
 
+        URI dockerUri = input.getDockerUri();
         URI startUri = UriUtils.extendUri(dockerUri, String.format("/exec/%s/start", execId));
+        SSLContext sslContext;
+        try {
+            sslContext = isSecure(startUri) ? createSslContext(input) : null;
+        } catch (GeneralSecurityException e) {
+            completionHandler.handle(null, e);
+            return;
+        }
 
-        sendPostAttach(startUri, startBody, (op, ex) -> {
+        // the output is decoded as it is received, keeping only its last bytes
+        DockerStreamTail output = new DockerStreamTail(DOCKER_EXEC_OUTPUT_SIZE_LIMIT, false);
+        DockerStreamDecoder decoder = new DockerStreamDecoder(output);
+        sendStreaming(Service.Action.POST, startUri, startBody, sslContext, decoder, (op, ex) -> {
             if (ex != null) {
                 completionHandler.handle(null, ex);
-            } else {
-                String output = null;
-                if (op.hasBody()) {
-                    Object rawBody = op.getBodyRaw();
-                    /* when the shell command does not return anything */
-                    if (startBody.equals(rawBody)) {
-                        output = "";
-                    } else if (rawBody instanceof byte[]) {
-                        try {
-                            output = DockerStreamUtil.decodeFullRawResponse((byte[]) rawBody);
-                        } catch (Exception decodeEx) {
-                            logger.severe(decodeEx.getMessage());
-                            completionHandler.handle(null, decodeEx);
-                            return;
-                        }
-                    } else {
-                        String err = "Unexpected response body of docker exec: " + rawBody;
-                        logger.severe(err);
-                        completionHandler.handle(null, new RuntimeException(err));
-                        return;
-                    }
-                }
-                inspectExec(dockerUri, execId, output, completionHandler);
+                return;
             }
+            try {
+                decoder.finish();
+            } catch (EOFException decodeEx) {
+                logger.severe(decodeEx.getMessage());
+                completionHandler.handle(null, decodeEx);
+                return;
+            }
+            if (output.size() > DOCKER_EXEC_OUTPUT_SIZE_LIMIT) {
+                logger.warning(String.format("Output of execution %s truncated to the last %d of"
+                        + " %d bytes", execId, DOCKER_EXEC_OUTPUT_SIZE_LIMIT, output.size()));
+            }
+            inspectExec(dockerUri, execId,
+                    new String(output.toByteArray(), StandardCharsets.UTF_8), completionHandler);
         });
     }
 
@@ -765,6 +818,28 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         }
     }
 
+    /**
+     * Creates an SSL context trusting the Docker hosts the way the service clients do and
+     * authenticating with the client certificate of the given input, if any.
+     */
+    private SSLContext createSslContext(CommandInput input) throws GeneralSecurityException {
+        KeyManager[] keyManagers = null;
+        AuthCredentialsServiceState credentials = input.getCredentials();
+        String trustAlias = (String) input.getProperties().get(SSL_TRUST_ALIAS_PROP_NAME);
+        if (credentials != null && trustAlias != null) {
+            String clientKey = EncryptionUtils.decrypt(credentials.privateKey);
+            if (clientKey != null && !clientKey.isEmpty()) {
+                keyManagers = CertificateUtil.getKeyManagers(trustAlias, clientKey,
+                        credentials.publicKey);
+            }
+        }
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers,
+                sslTrustManager != null ? new TrustManager[] { sslTrustManager } : null, null);
+        return sslContext;
+    }
+
     private boolean isSecure(URI dockerUri) {
         AssertUtil.assertNotNull(dockerUri, "dockerUri");
 
@@ -818,11 +893,20 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
         sendRequest(Service.Action.POST, uri, body, completionHandler, mode);
     }
 
-    private void sendPostAttach(URI uri, Object body, CompletionHandler completionHandler) {
-        String msg = String.format( "Sending POST for attach to %s with body (possibly truncated):"
-                + "%n---%n%1.1024s%n---%n", uri, Utils.toJsonHtml(body));
-        logger.finest(msg);
-        sendRequest(Service.Action.POST, uri, body, completionHandler, ClientMode.ATTACH);
+    /**
+     * Sends a request whose response body is written to the given sink as it is received rather
+     * than aggregated in memory.
+     */
+    private void sendStreaming(Service.Action action, URI uri, Object body,
+            SSLContext sslContext, OutputStream sink, CompletionHandler completionHandler) {
+        Operation op = Operation.createGet(uri)
+                .setAction(action)
+                .setCompletion(completionHandler);
+        if (body != null) {
+            op.setBody(body);
+        }
+        requestGate.send(op, o -> outputStreamer.send(o, sslContext,
+                TimeUnit.SECONDS.toMillis(DOCKER_REQUEST_TIMEOUT_SECONDS), sink), true);
     }
 
     private void sendDelete(URI uri, CompletionHandler completionHandler) {
@@ -836,18 +920,20 @@ public class RemoteApiDockerAdapterCommandExecutorImpl implements
                 .setAction(action)
                 .setCompletion(completionHandler);
 
+        // the expiration is set when the request is actually sent, so that the time spent waiting
+        // for a free slot doesn't count towards the timeout of the request
         if (ClientMode.LARGE_DATA == mode) {
             op.setBodyNoCloning(body);
-            prepareRequest(op, true);
-            largeDataClient.send(op);
-        } else if (ClientMode.ATTACH == mode) {
-            op.setBody(body);
-            prepareRequest(op,false);
-            attachServiceClient.send(op);
+            requestGate.send(op, o -> {
+                prepareRequest(o, true);
+                largeDataClient.send(o);
+            });
         } else {
             op.setBody(body);
-            prepareRequest(op, false);
-            serviceClient.send(op);
+            requestGate.send(op, o -> {
+                prepareRequest(o, false);
+                serviceClient.send(o);
+            });
         }
     }
 
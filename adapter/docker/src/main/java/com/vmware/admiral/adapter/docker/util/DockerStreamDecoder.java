@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder of the multiplexed stream Docker returns when attaching to a container,
+ * executing a command or reading logs of a container without a TTY. The stream is a sequence of
+ * frames, each prefixed by an 8 byte header holding the stream type (stdin, stdout or stderr) and
+ * the frame size. The decoder accepts the stream in chunks of any size and writes the payload of
+ * the frames to the given sinks without buffering whole frames.
+ */
+public class DockerStreamDecoder extends OutputStream {
+
+    static final int HEADER_SIZE = 8;
+    private static final int FRAME_SIZE_OFFSET = 4;
+    private static final int STREAM_TYPE_STDERR = 2;
+
+    private final OutputStream stdout;
+    private final OutputStream stderr;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private int headerBytesRead;
+    private int frameSize;
+    private int frameBytesRemaining;
+    private OutputStream frameSink;
+
+    /**
+     * Creates a decoder writing both stdout and stderr to the same sink.
+     */
+    public DockerStreamDecoder(OutputStream sink) {
+        this(sink, sink);
+    }
+
+    public DockerStreamDecoder(OutputStream stdout, OutputStream stderr) {
+        this.stdout = stdout;
+        this.stderr = stderr;
+    }
+
+    /**
+     * Checks whether the given bytes start with a valid frame header, i.e. whether the response
+     * is multiplexed at all. Responses for containers with a TTY are raw streams.
+     */
+    public static boolean isMultiplexed(byte[] body) {
+        return body != null && body.length >= HEADER_SIZE
+                && body[0] >= 0 && body[0] <= STREAM_TYPE_STDERR
+                && body[1] == 0 && body[2] == 0 && body[3] == 0;
+    }
+
+    /**
+     * Reads the frame size of the frame header starting at the given offset.
+     */
+    static int getFrameSize(byte[] stream, int headerOffset) {
+        return ByteBuffer.wrap(stream, headerOffset + FRAME_SIZE_OFFSET,
+                HEADER_SIZE - FRAME_SIZE_OFFSET).getInt();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] chunk) throws IOException {
+        write(chunk, 0, chunk.length);
+    }
+
+    @Override
+    public void write(byte[] chunk, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (frameBytesRemaining == 0) {
+                int n = Math.min(HEADER_SIZE - headerBytesRead, end - offset);
+                System.arraycopy(chunk, offset, header, headerBytesRead, n);
+                headerBytesRead += n;
+                offset += n;
+                if (headerBytesRead == HEADER_SIZE) {
+                    startFrame();
+                }
+            } else {
+                int n = Math.min(frameBytesRemaining, end - offset);
+                frameSink.write(chunk, offset, n);
+                frameBytesRemaining -= n;
+                offset += n;
+            }
+        }
+    }
+
+    /**
+     * Verifies the stream ended on a frame boundary.
+     *
+     * @throws EOFException when the stream ended within a header or a frame
+     */
+    public void finish() throws EOFException {
+        if (headerBytesRead > 0) {
+            throw new EOFException("Cannot read header of size " + HEADER_SIZE);
+        }
+        if (frameBytesRemaining > 0) {
+            throw new EOFException("Cannot read frame of size " + frameSize);
+        }
+    }
+
+    private void startFrame() throws EOFException {
+        headerBytesRead = 0;
+        frameSize = getFrameSize(header, 0);
+        if (frameSize < 0) {
+            throw new EOFException("Invalid frame size " + frameSize);
+        }
+        frameBytesRemaining = frameSize;
+        frameSink = header[0] == STREAM_TYPE_STDERR ? stderr : stdout;
+    }
+}
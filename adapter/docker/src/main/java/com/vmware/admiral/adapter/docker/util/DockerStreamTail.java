@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.util;
+
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Sink keeping only the last bytes of a Docker output as it is received, so the memory used
+ * doesn't depend on the size of the output. When tracking frames, the tail of a multiplexed
+ * output starts at a frame header, so it can still be decoded, unless the last frame alone is
+ * longer than the tail. Raw, non multiplexed outputs (of containers with a TTY) and decoded
+ * outputs are cut at the maximum size from the end.
+ */
+public class DockerStreamTail extends OutputStream {
+
+    private final byte[] buffer;
+    private long size;
+
+    private boolean trackFrames;
+    // the start offsets of the frames starting within the tail
+    private final Deque<Long> frameStarts = new ArrayDeque<>();
+    private final byte[] header = new byte[DockerStreamDecoder.HEADER_SIZE];
+    private int headerBytesRead;
+    private long nextFrameStart;
+
+    /**
+     * Creates a tail of a raw Docker output, tracking its frames if it is multiplexed.
+     */
+    public DockerStreamTail(int maxSize) {
+        this(maxSize, true);
+    }
+
+    public DockerStreamTail(int maxSize, boolean trackFrames) {
+        this.buffer = new byte[maxSize];
+        this.trackFrames = trackFrames;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] chunk, int offset, int length) {
+        if (trackFrames) {
+            trackFrames(chunk, offset, length);
+        }
+
+        int skipped = Math.max(0, length - buffer.length);
+        long position = size + skipped;
+        for (int i = offset + skipped; i < offset + length; ) {
+            int index = (int) (position % buffer.length);
+            int n = Math.min(buffer.length - index, offset + length - i);
+            System.arraycopy(chunk, i, buffer, index, n);
+            i += n;
+            position += n;
+        }
+        size += length;
+
+        long tailStart = getTailStart();
+        while (!frameStarts.isEmpty() && frameStarts.peek() < tailStart) {
+            frameStarts.poll();
+        }
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the kept tail of the output.
+     */
+    public byte[] toByteArray() {
+        long from = getTailStart();
+        if (from > 0 && trackFrames && !frameStarts.isEmpty()) {
+            from = frameStarts.peek();
+        }
+
+        byte[] tail = new byte[(int) (size - from)];
+        for (int i = 0; i < tail.length; ) {
+            int index = (int) ((from + i) % buffer.length);
+            int n = Math.min(buffer.length - index, tail.length - i);
+            System.arraycopy(buffer, index, tail, i, n);
+            i += n;
+        }
+        return tail;
+    }
+
+    private long getTailStart() {
+        return Math.max(0, size - buffer.length);
+    }
+
+    private void trackFrames(byte[] chunk, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (trackFrames && i < end) {
+            long position = size + (i - offset);
+            if (position < nextFrameStart) {
+                // within the payload of a frame
+                i += (int) Math.min(nextFrameStart - position, end - i);
+                continue;
+            }
+
+            int n = Math.min(header.length - headerBytesRead, end - i);
+            System.arraycopy(chunk, i, header, headerBytesRead, n);
+            headerBytesRead += n;
+            i += n;
+            if (headerBytesRead == header.length) {
+                int frameSize = DockerStreamDecoder.getFrameSize(header, 0);
+                if ((nextFrameStart == 0 && !DockerStreamDecoder.isMultiplexed(header))
+                        || frameSize < 0) {
+                    // not a multiplexed output
+                    trackFrames = false;
+                    frameStarts.clear();
+                    return;
+                }
+                frameStarts.add(nextFrameStart);
+                nextFrameStart += header.length + frameSize;
+                headerBytesRead = 0;
+            }
+        }
+    }
+}
@@ -11,54 +11,41 @@
 
 package com.vmware.admiral.adapter.docker.util;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.io.OutputStream;
 
 public class DockerStreamUtil {
 
-    private static final int HEADER_SIZE = 8;
-    private static final int FRAME_SIZE_OFFSET = 4;
-
     /**
      * Decodes a byte array as fetched by xenon client and from
      * {@link com.vmware.xenon.common.Operation#getBodyRaw()}.
      * Implemented by the algorithms Docker described in
      * https://docs.docker.com/engine/reference/api/docker_remote_api_v1.21/#attach-to-a-container.
      * Applicable for requests attaching to a container, executing a command and reading stream.
+     * Outputs of unknown size are better fed to a {@link DockerStreamDecoder} as they are received.
      *
      * @param body encoded docker output
      * @return decoded string
      * @throws EOFException when bytes cannot be decoded because of wrong header or frame size
      */
     public static String decodeFullRawResponse(byte[] body) throws EOFException {
-        StringBuilder sb = new StringBuilder();
-
-        ByteArrayInputStream is = new ByteArrayInputStream(body);
-
-        while (is.available() > 0) {
-            final byte[] headerBytes = new byte[HEADER_SIZE];
-            int n = is.read(headerBytes, 0, HEADER_SIZE);
-
-            if (n != HEADER_SIZE) {
-                throw new EOFException("Cannot read header of size " + HEADER_SIZE);
-            }
-
-            final ByteBuffer header = ByteBuffer.wrap(headerBytes);
-            header.position(FRAME_SIZE_OFFSET);
-            final int frameSize = header.getInt();
-
-            // Read frame
-            final byte[] frame = new byte[frameSize];
-            n = is.read(frame, 0, frameSize);
-
-            if (n != frameSize) {
-                throw new EOFException("Cannot read frame of size " + frameSize);
-            }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(body.length);
+        decode(body, output);
+        return output.toString();
+    }
 
-            sb.append(new String(frame));
+    private static void decode(byte[] body, OutputStream output) throws EOFException {
+        DockerStreamDecoder decoder = new DockerStreamDecoder(output);
+        try {
+            decoder.write(body);
+        } catch (EOFException e) {
+            throw e;
+        } catch (IOException e) {
+            // the in-memory sinks don't throw
+            throw new IllegalStateException(e);
         }
-
-        return sb.toString();
+        decoder.finish();
     }
 }
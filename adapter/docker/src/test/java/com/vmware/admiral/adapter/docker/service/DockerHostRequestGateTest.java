@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.docker.service.DockerHostRequestGate.CircuitState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Utils;
+
+public class DockerHostRequestGateTest {
+
+    private static final URI SLOW_HOST = URI.create("https://slow-host:2376/containers/json");
+    private static final URI OTHER_HOST = URI.create("https://other-host:2376/containers/json");
+
+    private DockerHostRequestGate gate;
+    private List<Operation> sent;
+    private List<Throwable> failures;
+
+    @Before
+    public void setUp() {
+        gate = new DockerHostRequestGate(2, 1, 1, 60000, 2, 0);
+        sent = new ArrayList<>();
+        failures = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        gate.stop();
+    }
+
+    @Test
+    public void testInFlightAndQueueLimitsPerHost() {
+        send(SLOW_HOST);
+        send(SLOW_HOST);
+        // waits for a free slot
+        send(SLOW_HOST);
+        // queue is full
+        send(SLOW_HOST);
+
+        assertEquals(2, sent.size());
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0) instanceof RejectedExecutionException);
+
+        // other hosts are not affected
+        send(OTHER_HOST);
+        assertEquals(3, sent.size());
+
+        sent.get(0).complete();
+        assertEquals(4, sent.size());
+        assertEquals(SLOW_HOST, sent.get(3).getUri());
+    }
+
+    @Test
+    public void testCircuitBreakerTripsOnTimeoutsAndRecoversAfterProbe() {
+        gate.stop();
+        gate = new DockerHostRequestGate(2, 1, 1, 60000, 2, 60000);
+
+        send(SLOW_HOST);
+        send(SLOW_HOST);
+        send(SLOW_HOST);
+        sent.get(0).fail(new TimeoutException());
+        assertEquals(CircuitState.CLOSED, gate.getCircuitState(SLOW_HOST));
+        // the queued request took the free slot
+        assertEquals(3, sent.size());
+        send(SLOW_HOST);
+        sent.get(1).fail(new TimeoutException());
+        assertEquals(CircuitState.OPEN, gate.getCircuitState(SLOW_HOST));
+        // the timed out requests and the queued one
+        assertEquals(3, failures.size());
+        assertEquals(1, failures.stream()
+                .filter(e -> e instanceof RejectedExecutionException).count());
+
+        // fail fast while the circuit is open
+        send(SLOW_HOST);
+        assertEquals(3, sent.size());
+        assertEquals(4, failures.size());
+        assertTrue(failures.get(3) instanceof RejectedExecutionException);
+
+        // after the cool down a single probe is let through
+        gate.stop();
+        gate = new DockerHostRequestGate(2, 1, 1, 60000, 1, 0);
+        sent.clear();
+        failures.clear();
+        send(SLOW_HOST);
+        sent.get(0).fail(new TimeoutException());
+        assertEquals(CircuitState.OPEN, gate.getCircuitState(SLOW_HOST));
+
+        send(SLOW_HOST);
+        assertEquals(CircuitState.HALF_OPEN, gate.getCircuitState(SLOW_HOST));
+        send(SLOW_HOST);
+        assertEquals(2, sent.size());
+        assertTrue(failures.get(failures.size() - 1) instanceof RejectedExecutionException);
+
+        sent.get(1).complete();
+        assertEquals(CircuitState.CLOSED, gate.getCircuitState(SLOW_HOST));
+        send(SLOW_HOST);
+        send(SLOW_HOST);
+        assertEquals(4, sent.size());
+    }
+
+    @Test
+    public void testErrorResponsesDoNotTripCircuitBreaker() {
+        send(SLOW_HOST);
+        send(SLOW_HOST);
+        sent.get(0).fail(new IllegalStateException("No such container"));
+        sent.get(1).fail(new IllegalStateException("No such container"));
+
+        assertEquals(CircuitState.CLOSED, gate.getCircuitState(SLOW_HOST));
+        send(SLOW_HOST);
+        assertEquals(3, sent.size());
+        assertEquals(CircuitState.CLOSED, gate.getCircuitState(OTHER_HOST));
+    }
+
+    @Test
+    public void testQueuedRequestsFailOnceExpired() {
+        send(SLOW_HOST);
+        send(SLOW_HOST);
+        send(Operation.createGet(SLOW_HOST)
+                .setExpiration(Utils.getSystemNowMicrosUtc() + TimeUnit.MINUTES.toMicros(1)),
+                false);
+        gate.failExpiredRequests();
+        assertTrue(failures.isEmpty());
+
+        // the host doesn't respond and the queued request expires meanwhile
+        send(Operation.createGet(OTHER_HOST), false);
+        send(Operation.createGet(OTHER_HOST), false);
+        send(Operation.createGet(OTHER_HOST)
+                .setExpiration(Utils.getSystemNowMicrosUtc() - 1), false);
+        gate.failExpiredRequests();
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0) instanceof TimeoutException);
+        assertEquals(CircuitState.CLOSED, gate.getCircuitState(OTHER_HOST));
+
+        // the freed slot is not taken by the expired request
+        sent.get(2).complete();
+        assertEquals(4, sent.size());
+        sent.get(0).complete();
+        assertEquals(5, sent.size());
+        assertEquals(SLOW_HOST, sent.get(4).getUri());
+
+        // requests without an expiration wait for a free slot for a bounded time
+        gate.stop();
+        gate = new DockerHostRequestGate(2, 1, 1, 0, 2, 0);
+        sent.clear();
+        failures.clear();
+        send(SLOW_HOST);
+        send(SLOW_HOST);
+        send(SLOW_HOST);
+        sent.get(0).complete();
+        assertEquals(2, sent.size());
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0) instanceof TimeoutException);
+    }
+
+    @Test
+    public void testStreamingRequestsDoNotTakeSlotsOfOtherRequests() {
+        send(Operation.createGet(SLOW_HOST), true);
+        // waits for the streaming request to complete
+        send(Operation.createGet(SLOW_HOST), true);
+        assertEquals(1, sent.size());
+
+        send(SLOW_HOST);
+        send(SLOW_HOST);
+        assertEquals(3, sent.size());
+        assertTrue(failures.isEmpty());
+
+        sent.get(0).complete();
+        assertEquals(4, sent.size());
+    }
+
+    private void send(URI uri) {
+        send(Operation.createGet(uri), false);
+    }
+
+    private void send(Operation op, boolean streaming) {
+        op.setCompletion((o, e) -> {
+            if (e != null) {
+                failures.add(e);
+            }
+        });
+        gate.send(op, sent::add, streaming);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+import com.vmware.xenon.common.Operation;
+
+public class DockerImageLoadStreamerTest {
+
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 17;
+
+    private HttpServer server;
+    private DockerImageLoadStreamer streamer;
+    private File file;
+    private AtomicLong receivedBytes;
+    private volatile int responseStatus;
+
+    @Before
+    public void setUp() throws IOException {
+        receivedBytes = new AtomicLong();
+        responseStatus = Operation.STATUS_CODE_OK;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/images/load", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    receivedBytes.addAndGet(read);
+                }
+            }
+            byte[] body = "{\"stream\":\"Loaded image\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(responseStatus, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        streamer = new DockerImageLoadStreamer(1);
+        file = File.createTempFile("image", ".tar");
+        Files.write(file.toPath(), new byte[FILE_SIZE]);
+    }
+
+    @After
+    public void tearDown() {
+        streamer.stop();
+        server.stop(0);
+        file.delete();
+    }
+
+    @Test
+    public void testLoadStreamsTheWholeFile() throws InterruptedException {
+        Operation[] response = new Operation[1];
+        Throwable[] failure = new Throwable[1];
+        load(response, failure);
+
+        assertNull(failure[0]);
+        assertEquals(Operation.STATUS_CODE_OK, response[0].getStatusCode());
+        assertTrue(response[0].getBody(String.class).contains("Loaded image"));
+        assertEquals(FILE_SIZE, receivedBytes.get());
+    }
+
+    @Test
+    public void testLoadFailsOnErrorStatus() throws InterruptedException {
+        responseStatus = Operation.STATUS_CODE_SERVER_FAILURE_THRESHOLD;
+        Operation[] response = new Operation[1];
+        Throwable[] failure = new Throwable[1];
+        load(response, failure);
+
+        assertNotNull(failure[0]);
+        assertEquals(Operation.STATUS_CODE_SERVER_FAILURE_THRESHOLD,
+                response[0].getStatusCode());
+    }
+
+    private void load(Operation[] response, Throwable[] failure) throws InterruptedException {
+        URI uri = URI.create("http://localhost:" + server.getAddress().getPort()
+                + "/images/load");
+        CountDownLatch latch = new CountDownLatch(1);
+        streamer.load(uri, file, null, TimeUnit.SECONDS.toMillis(30), (o, e) -> {
+            response[0] = o;
+            failure[0] = e;
+            latch.countDown();
+        });
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+    }
+}
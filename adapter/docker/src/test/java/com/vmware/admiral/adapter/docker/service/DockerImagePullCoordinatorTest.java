@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.CompletionHandler;
+
+public class DockerImagePullCoordinatorTest {
+
+    private static final String HOST_LINK = "/resources/compute/docker-host";
+    private static final String OTHER_HOST_LINK = "/resources/compute/other-docker-host";
+
+    private DockerImagePullCoordinator coordinator;
+    private List<CompletionHandler> requests;
+    private List<Throwable> completions;
+
+    @Before
+    public void setUp() {
+        coordinator = new DockerImagePullCoordinator(60000);
+        requests = new ArrayList<>();
+        completions = new ArrayList<>();
+    }
+
+    @Test
+    public void testConcurrentPullsOfTheSameImageShareOnePull() {
+        pull(HOST_LINK, "alpine:latest", null);
+        pull(HOST_LINK, "alpine:latest", null);
+        // different image, host or credentials are pulled separately
+        pull(HOST_LINK, "nginx:latest", null);
+        pull(OTHER_HOST_LINK, "alpine:latest", null);
+        pull(HOST_LINK, "alpine:latest", "auth");
+        assertEquals(4, requests.size());
+
+        requests.get(0).handle(new Operation(), null);
+        assertEquals(2, completions.size());
+
+        // a pull after the completion is a new pull
+        pull(HOST_LINK, "alpine:latest", null);
+        assertEquals(5, requests.size());
+    }
+
+    @Test
+    public void testImagePresenceIsCachedUntilInvalidated() {
+        List<Boolean> present = new ArrayList<>();
+        coordinator.isPresent(HOST_LINK, "alpine", this::request, present::add);
+        coordinator.isPresent(HOST_LINK, "nginx:1.13", this::request, present::add);
+        assertEquals(1, requests.size());
+
+        requests.get(0).handle(images("alpine:latest", "nginx:1.12"), null);
+        assertEquals(Arrays.asList(true, false), present);
+
+        coordinator.isPresent(HOST_LINK, "alpine:latest", this::request, present::add);
+        assertEquals(1, requests.size());
+        assertTrue(present.get(2));
+
+        coordinator.invalidate(HOST_LINK);
+        coordinator.isPresent(HOST_LINK, "alpine:latest", this::request, present::add);
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void testImageListStartedBeforeInvalidationIsNotCached() {
+        List<Boolean> present = new ArrayList<>();
+        coordinator.isPresent(HOST_LINK, "alpine", this::request, present::add);
+        coordinator.invalidate(HOST_LINK);
+        requests.get(0).handle(images("alpine:latest"), null);
+        assertTrue(present.get(0));
+
+        coordinator.isPresent(HOST_LINK, "alpine", this::request, present::add);
+        assertEquals(2, requests.size());
+
+        requests.get(1).handle(null, new IllegalStateException("unreachable"));
+        assertFalse(present.get(1));
+    }
+
+    private void pull(String hostLink, String imageName, String registryAuth) {
+        coordinator.pull(hostLink, imageName, registryAuth, this::request,
+                (o, e) -> completions.add(e));
+    }
+
+    private void request(CompletionHandler handler) {
+        requests.add(handler);
+    }
+
+    private static Operation images(String... repoTags) {
+        List<Map<String, Object>> images = new ArrayList<>();
+        for (String repoTag : repoTags) {
+            Map<String, Object> image = new HashMap<>();
+            image.put("RepoTags", Collections.singletonList(repoTag));
+            images.add(image);
+        }
+        return new Operation().setBody(images);
+    }
+}
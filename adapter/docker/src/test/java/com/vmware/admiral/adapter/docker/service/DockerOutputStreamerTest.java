@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.adapter.docker.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+import com.vmware.admiral.adapter.docker.util.DockerStreamDecoder;
+import com.vmware.admiral.adapter.docker.util.DockerStreamTail;
+import com.vmware.xenon.common.Operation;
+
+public class DockerOutputStreamerTest {
+
+    private static final int FRAME_COUNT = 1000;
+    private static final byte[] FRAME = new byte[] { 1, 0, 0, 0, 0, 0, 0, 4, 98, 105, 110, 10 };
+
+    private HttpServer server;
+    private DockerOutputStreamer streamer;
+    private volatile int responseStatus;
+
+    @Before
+    public void setUp() throws IOException {
+        responseStatus = Operation.STATUS_CODE_OK;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/exec/test/start", exchange -> {
+            exchange.getRequestBody().close();
+            if (responseStatus != Operation.STATUS_CODE_OK) {
+                byte[] body = "{\"message\":\"No such exec instance\"}"
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(responseStatus, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                return;
+            }
+            // chunked response of a multiplexed output
+            exchange.sendResponseHeaders(responseStatus, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < FRAME_COUNT; i++) {
+                    out.write(FRAME);
+                }
+            }
+        });
+        server.start();
+
+        streamer = new DockerOutputStreamer();
+    }
+
+    @After
+    public void tearDown() {
+        streamer.stop();
+        server.stop(0);
+    }
+
+    @Test
+    public void testOutputIsDecodedToBoundedSink() throws Exception {
+        DockerStreamTail output = new DockerStreamTail(8, false);
+        DockerStreamDecoder decoder = new DockerStreamDecoder(output);
+        Operation[] response = new Operation[1];
+        Throwable[] failure = new Throwable[1];
+        send(decoder, response, failure);
+
+        assertNull(failure[0]);
+        assertEquals(Operation.STATUS_CODE_OK, response[0].getStatusCode());
+        decoder.finish();
+        assertEquals(FRAME_COUNT * 4, output.size());
+        assertEquals("bin\nbin\n", new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSendFailsOnErrorStatus() throws Exception {
+        responseStatus = Operation.STATUS_CODE_NOT_FOUND;
+        DockerStreamTail output = new DockerStreamTail(8);
+        Operation[] response = new Operation[1];
+        Throwable[] failure = new Throwable[1];
+        send(output, response, failure);
+
+        assertNotNull(failure[0]);
+        assertEquals(Operation.STATUS_CODE_NOT_FOUND, response[0].getStatusCode());
+        assertTrue(failure[0].getMessage().contains("No such exec instance"));
+        assertEquals(0, output.size());
+    }
+
+    private void send(OutputStream sink, Operation[] response, Throwable[] failure)
+            throws InterruptedException {
+        URI uri = URI.create("http://localhost:" + server.getAddress().getPort()
+                + "/exec/test/start");
+        CountDownLatch latch = new CountDownLatch(1);
+        Operation op = Operation.createPost(uri)
+                .setBody(Collections.singletonMap("Detach", false))
+                .setCompletion((o, e) -> {
+                    response[0] = o;
+                    failure[0] = e;
+                    latch.countDown();
+                });
+        streamer.send(op, null, TimeUnit.SECONDS.toMillis(30), sink);
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+    }
+}
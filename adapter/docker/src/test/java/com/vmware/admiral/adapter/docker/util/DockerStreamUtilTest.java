@@ -11,10 +11,14 @@
 
 package com.vmware.admiral.adapter.docker.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -83,4 +87,65 @@ public class DockerStreamUtilTest {
         DockerStreamUtil.decodeFullRawResponse(raw);
     }
 
+    @Test
+    public void testDecodeChunkedResponseWithSeparateStreams() throws IOException {
+        byte[] raw = new byte[] { 1, 0, 0, 0, 0, 0, 0, 4, 98, 105, 110, 10, 2, 0, 0, 0, 0, 0, 0,
+                4, 101, 114, 114, 10, 1, 0, 0, 0, 0, 0, 0, 4, 100, 101, 118, 10 };
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        DockerStreamDecoder decoder = new DockerStreamDecoder(stdout, stderr);
+        // feed the response in chunks splitting both headers and frames
+        for (int i = 0; i < raw.length; i += 3) {
+            decoder.write(raw, i, Math.min(3, raw.length - i));
+        }
+        decoder.finish();
+
+        assertEquals("bin\ndev\n", stdout.toString());
+        assertEquals("err\n", stderr.toString());
+    }
+
+    @Test
+    public void testStreamTail() throws EOFException {
+        byte[] raw = new byte[] { 1, 0, 0, 0, 0, 0, 0, 4, 98, 105, 110, 10, 1, 0, 0, 0, 0, 0, 0,
+                4, 100, 101, 118, 10 };
+
+        // the kept tail starts at a frame header and decodes to the last frames
+        byte[] tail = tail(raw, 14);
+        assertArrayEquals(Arrays.copyOfRange(raw, 12, raw.length), tail);
+        assertEquals("dev\n", DockerStreamUtil.decodeFullRawResponse(tail));
+        assertArrayEquals(raw, tail(raw, 100));
+
+        // the last frame doesn't fit, so it is cut within
+        assertArrayEquals("v\n".getBytes(), tail(raw, 2));
+
+        // not multiplexed output of a container with a TTY
+        byte[] tty = "bin\ndev\n".getBytes();
+        assertArrayEquals("dev\n".getBytes(), tail(tty, 4));
+    }
+
+    @Test
+    public void testDecodeToStreamTail() throws IOException {
+        byte[] raw = new byte[] { 1, 0, 0, 0, 0, 0, 0, 4, 98, 105, 110, 10, 2, 0, 0, 0, 0, 0, 0,
+                4, 101, 114, 114, 10, 1, 0, 0, 0, 0, 0, 0, 4, 100, 101, 118, 10 };
+
+        DockerStreamTail output = new DockerStreamTail(6, false);
+        DockerStreamDecoder decoder = new DockerStreamDecoder(output);
+        for (int i = 0; i < raw.length; i += 5) {
+            decoder.write(raw, i, Math.min(5, raw.length - i));
+        }
+        decoder.finish();
+
+        assertEquals(12, output.size());
+        assertEquals("r\ndev\n", new String(output.toByteArray()));
+    }
+
+    private static byte[] tail(byte[] raw, int maxSize) {
+        DockerStreamTail tail = new DockerStreamTail(maxSize);
+        // feed the output in chunks splitting both headers and frames
+        for (int i = 0; i < raw.length; i += 3) {
+            tail.write(raw, i, Math.min(3, raw.length - i));
+        }
+        return tail.toByteArray();
+    }
 }
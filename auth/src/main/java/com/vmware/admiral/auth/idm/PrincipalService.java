@@ -22,6 +22,7 @@ import static com.vmware.admiral.common.util.AssertUtil.assertNotNullOrEmpty;
 
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,7 @@ import com.vmware.admiral.auth.idm.Principal.PrincipalType;
 import com.vmware.admiral.auth.idm.PrincipalRolesHandler.PrincipalRoleAssignment;
 import com.vmware.admiral.auth.idm.SecurityContext.SecurityContextPostDto;
 import com.vmware.admiral.auth.util.AuthUtil;
+import com.vmware.admiral.auth.util.PrincipalRolesUtil;
 import com.vmware.admiral.auth.util.PrincipalUtil;
 import com.vmware.admiral.auth.util.SecurityContextUtil;
 import com.vmware.admiral.common.ManagementUriParts;
@@ -350,6 +352,8 @@ public class PrincipalService extends StatelessService {
         }
 
         PrincipalRoleAssignment body = patch.getBody(PrincipalRoleAssignment.class);
+        PrincipalRolesUtil.invalidateCachedRolesOfPrincipalsOnCompletion(getHost(), patch,
+                Collections.singleton(principalId));
 
         DeferredResult<Void> result = PrincipalRolesHandler.create()
                 .setService(this)
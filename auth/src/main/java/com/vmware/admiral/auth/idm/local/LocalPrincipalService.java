@@ -32,6 +32,7 @@ import java.util.stream.Collectors;
 
 import com.vmware.admiral.auth.idm.AuthConfigProvider.CredentialsScope;
 import com.vmware.admiral.auth.util.AuthUtil;
+import com.vmware.admiral.auth.util.PrincipalRolesUtil;
 import com.vmware.admiral.auth.util.UserGroupsUpdater;
 import com.vmware.admiral.common.util.PropertyUtils;
 import com.vmware.photon.controller.model.security.util.EncryptionUtils;
@@ -117,6 +118,7 @@ public class LocalPrincipalService extends StatefulService {
         }
 
         LocalPrincipalState state = post.getBody(LocalPrincipalState.class);
+        PrincipalRolesUtil.invalidateCachedRolesOnCompletion(getHost(), post, state);
         try {
             validatePrincipal(state);
 
@@ -137,6 +139,10 @@ public class LocalPrincipalService extends StatefulService {
         LocalPrincipalState currentState = getState(patch);
 
         LocalPrincipalState patchState = patch.getBody(LocalPrincipalState.class);
+        // the members removed by the patch are only in the current state
+        PrincipalRolesUtil.invalidateCachedRolesOnCompletion(getHost(), patch,
+                Utils.clone(currentState));
+        PrincipalRolesUtil.invalidateCachedRolesOnCompletion(getHost(), patch, currentState);
         try {
             validatePrincipalPatch(patchState, currentState);
             PropertyUtils.mergeServiceDocuments(currentState, patchState);
@@ -150,6 +156,7 @@ public class LocalPrincipalService extends StatefulService {
     public void handleDelete(Operation delete) {
         LocalPrincipalState state = getState(delete);
         String stateId = Service.getId(state.documentSelfLink);
+        PrincipalRolesUtil.invalidateCachedRolesOnCompletion(getHost(), delete, state);
         if (state.type == null || LocalPrincipalType.USER == state.type) {
             deleteUserState(stateId, delete);
         } else {
@@ -30,8 +30,10 @@ import com.esotericsoftware.kryo.serializers.VersionFieldSerializer.Since;
 
 import com.vmware.admiral.auth.idm.AuthRole;
 import com.vmware.admiral.auth.idm.Principal;
+import com.vmware.admiral.auth.idm.PrincipalRolesHandler.PrincipalRoleAssignment;
 import com.vmware.admiral.auth.project.ProjectRolesHandler.ProjectRoles;
 import com.vmware.admiral.auth.util.AuthUtil;
+import com.vmware.admiral.auth.util.PrincipalRolesUtil;
 import com.vmware.admiral.auth.util.ProjectUtil;
 import com.vmware.admiral.auth.util.UserGroupsUpdater;
 import com.vmware.admiral.common.serialization.ReleaseConstants;
@@ -269,6 +271,7 @@ public class ProjectService extends StatefulService {
 
         ProjectState createBody = post.getBody(ProjectState.class);
         validateState(createBody);
+        PrincipalRolesUtil.invalidateCachedRolesOnCompletion(getHost(), post, createBody);
         createBody.creationTimeMicros = Instant.now().toEpochMilli();
         if (createBody.isPublic == null) {
             createBody.isPublic = false;
@@ -342,8 +345,11 @@ public class ProjectService extends StatefulService {
         }
 
         ProjectState currentState = getState(put);
+        PrincipalRolesUtil.invalidateCachedRolesOnCompletion(getHost(), put, currentState);
         if (ProjectRolesHandler.isProjectRolesUpdate(put)) {
             ProjectRoles rolesPut = put.getBody(ProjectRoles.class);
+            PrincipalRolesUtil.invalidateCachedRolesOfPrincipalsOnCompletion(getHost(), put,
+                    getAssignedPrincipalIds(rolesPut));
 
             // this is an update of the roles
             new ProjectRolesHandler(this, getSelfLink())
@@ -372,6 +378,7 @@ public class ProjectService extends StatefulService {
                 return;
             }
             validateState(projectPut);
+            PrincipalRolesUtil.invalidateCachedRolesOnCompletion(getHost(), put, projectPut);
 
             DeferredResult<Boolean> deferredResult;
 
@@ -404,6 +411,11 @@ public class ProjectService extends StatefulService {
 
         ProjectState projectPatch = patch.getBody(ProjectState.class);
         ProjectState currentState = getState(patch);
+        PrincipalRolesUtil.invalidateCachedRolesOnCompletion(getHost(), patch, currentState);
+        if (ProjectRolesHandler.isProjectRolesUpdate(patch)) {
+            PrincipalRolesUtil.invalidateCachedRolesOfPrincipalsOnCompletion(getHost(), patch,
+                    getAssignedPrincipalIds(patch.getBody(ProjectRoles.class)));
+        }
 
         DeferredResult<Boolean> deferredResult;
 
@@ -444,6 +456,22 @@ public class ProjectService extends StatefulService {
                 });
     }
 
+    private static Set<String> getAssignedPrincipalIds(ProjectRoles roles) {
+        Set<String> principalIds = new HashSet<>();
+        for (PrincipalRoleAssignment assignment : new PrincipalRoleAssignment[] {
+                roles.administrators, roles.members, roles.viewers }) {
+            if (assignment != null) {
+                if (assignment.add != null) {
+                    principalIds.addAll(assignment.add);
+                }
+                if (assignment.remove != null) {
+                    principalIds.addAll(assignment.remove);
+                }
+            }
+        }
+        return principalIds;
+    }
+
     /**
      * Returns whether the projects state signature was changed after the patch.
      */
@@ -501,6 +529,7 @@ public class ProjectService extends StatefulService {
             delete.complete();
             return;
         }
+        PrincipalRolesUtil.invalidateCachedRolesOnCompletion(getHost(), delete, state);
 
         QueryTask queryTask = ProjectUtil.createQueryTaskForProjectAssociatedWithPlacement(state,
                 null);
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.auth.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import com.vmware.admiral.auth.idm.Principal;
+import com.vmware.admiral.auth.idm.PrincipalRoles;
+import com.vmware.admiral.auth.idm.SecurityContext.ProjectEntry;
+import com.vmware.admiral.auth.idm.local.LocalPrincipalService.LocalPrincipalState;
+import com.vmware.admiral.auth.project.ProjectService.ProjectState;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceSubscriptionState.ServiceSubscriber;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.Query.Occurance;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.RoleService.RoleState;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+import com.vmware.xenon.services.common.UserGroupService;
+import com.vmware.xenon.services.common.UserGroupService.UserGroupState;
+import com.vmware.xenon.services.common.UserService.UserState;
+
+/**
+ * Node-local cache of the roles resolved for principals by {@link PrincipalRolesUtil}. Each entry
+ * records the documents its roles were resolved from: the principal, its user groups and the
+ * projects it is a member of. A change of a role, user group, project, user or local principal
+ * document, as reported by a continuous query or by the service changing it, drops only the
+ * entries depending on it. Concurrent lookups of the same principal share a single resolution.
+ * The continuous query runs as the system user, so it sees the changes whichever principal's
+ * lookup started it. The cache of a host is dropped once the host stops.
+ */
+final class PrincipalRolesCache {
+
+    static final int MAX_SIZE = Integer.getInteger(
+            "com.vmware.admiral.auth.principal.roles.cache.max.size", 1000);
+
+    static final long MAX_AGE_MILLIS = Long.getLong(
+            "com.vmware.admiral.auth.principal.roles.cache.max.age.millis",
+            TimeUnit.MINUTES.toMillis(5));
+
+    // nothing is cached without the subscription, so the query task must not expire before the
+    // host stops
+    private static final long QUERY_TASK_EXPIRATION_DAYS = 5 * 365;
+
+    private static final ConcurrentMap<String, PrincipalRolesCache> caches =
+            new ConcurrentHashMap<>();
+
+    private static class CacheEntry {
+        final PrincipalRoles roles;
+        final Set<String> dependencyLinks;
+        final long expirationTimeMillis;
+
+        CacheEntry(PrincipalRoles roles, Set<String> dependencyLinks) {
+            this.roles = roles;
+            this.dependencyLinks = dependencyLinks;
+            this.expirationTimeMillis = System.currentTimeMillis() + MAX_AGE_MILLIS;
+        }
+    }
+
+    private static class PendingLookup {
+        final DeferredResult<PrincipalRoles> result = new DeferredResult<>();
+        // the documents changed while resolving, the resolved roles might be stale if they
+        // depend on any of them
+        final Set<String> changedLinks = new HashSet<>();
+        boolean stale;
+
+        boolean isChanged() {
+            return stale || !changedLinks.isEmpty();
+        }
+    }
+
+    private enum SubscriptionState {
+        NONE, SUBSCRIBING, SUBSCRIBED
+    }
+
+    private final ServiceHost host;
+    private final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16,
+            0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    private final Map<String, PendingLookup> pending = new HashMap<>();
+    private long generation;
+    private SubscriptionState subscriptionState = SubscriptionState.NONE;
+
+    private PrincipalRolesCache(ServiceHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Returns the cached roles of the given principal, resolving them with the given resolver if
+     * they are not cached yet. The resolver adds the links of the documents it reads, other than
+     * the principal's user groups and projects, to the given set. The given service subscribes for
+     * the changes on the first lookup.
+     */
+    static DeferredResult<PrincipalRoles> get(Service requestorService, Principal principal,
+            Function<Set<String>, DeferredResult<PrincipalRoles>> resolver) {
+        ServiceHost host = requestorService.getHost();
+        if (MAX_SIZE <= 0) {
+            return resolver.apply(ConcurrentHashMap.newKeySet());
+        }
+        PrincipalRolesCache cache = caches.get(host.getId());
+        if (cache == null) {
+            // a new host might replace a stopped one
+            prune();
+            cache = caches.computeIfAbsent(host.getId(), id -> new PrincipalRolesCache(host));
+        }
+        return cache.lookup(requestorService, principal, resolver);
+    }
+
+    /**
+     * Drops the cached roles of the principals depending on the given document links or
+     * principal ids on the given host.
+     */
+    static void invalidate(ServiceHost host, Collection<String> links) {
+        PrincipalRolesCache cache = caches.get(host.getId());
+        if (cache != null && !links.isEmpty()) {
+            cache.invalidate(links);
+        }
+    }
+
+    /**
+     * Drops the cached roles of all principals on the given host.
+     */
+    static void invalidateAll(ServiceHost host) {
+        PrincipalRolesCache cache = caches.get(host.getId());
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the number of times cached roles of the given host were dropped, or {@code -1} if
+     * the host doesn't track changes (yet).
+     */
+    static long getGeneration(ServiceHost host) {
+        PrincipalRolesCache cache = MAX_SIZE > 0 ? caches.get(host.getId()) : null;
+        if (cache == null) {
+            return -1;
+        }
+        synchronized (cache) {
+            return cache.subscriptionState == SubscriptionState.SUBSCRIBED ? cache.generation
+                    : -1;
+        }
+    }
+
+    /**
+     * Returns the links the cached roles of the given principal depend on, which are dropped
+     * once the principal changes.
+     */
+    static Set<String> getPrincipalLinks(String principalId) {
+        Set<String> links = new HashSet<>();
+        links.add(principalId);
+        links.add(buildUserGroupLink(principalId));
+        return links;
+    }
+
+    /**
+     * Returns the links the cached roles depending on the given role, user group, project, user
+     * or local principal document are recorded with.
+     */
+    static Set<String> getDocumentLinks(ServiceDocument document) {
+        Set<String> links = new HashSet<>();
+        if (document instanceof RoleState) {
+            addLink(links, ((RoleState) document).userGroupLink);
+        } else if (document instanceof UserGroupState) {
+            addLink(links, document.documentSelfLink);
+        } else if (document instanceof UserState) {
+            addLink(links, ((UserState) document).email);
+        } else if (document instanceof ProjectState) {
+            ProjectState project = (ProjectState) document;
+            addLink(links, project.documentSelfLink);
+            addLinks(links, project.administratorsUserGroupLinks);
+            addLinks(links, project.membersUserGroupLinks);
+            addLinks(links, project.viewersUserGroupLinks);
+        } else if (document instanceof LocalPrincipalState) {
+            LocalPrincipalState principal = (LocalPrincipalState) document;
+            if (principal.id != null) {
+                links.addAll(getPrincipalLinks(principal.id));
+            }
+            if (principal.groupMembersLinks != null) {
+                for (String memberLink : principal.groupMembersLinks) {
+                    links.addAll(getPrincipalLinks(PrincipalUtil.decode(
+                            UriUtils.getLastPathSegment(memberLink))));
+                }
+            }
+        }
+        return links;
+    }
+
+    private DeferredResult<PrincipalRoles> lookup(Service requestorService, Principal principal,
+            Function<Set<String>, DeferredResult<PrincipalRoles>> resolver) {
+        String key = buildKey(principal);
+        PendingLookup lookup;
+        boolean subscribe = false;
+        synchronized (this) {
+            if (subscriptionState != SubscriptionState.SUBSCRIBED) {
+                if (subscriptionState == SubscriptionState.NONE) {
+                    subscriptionState = SubscriptionState.SUBSCRIBING;
+                    subscribe = true;
+                }
+                lookup = null;
+            } else {
+                CacheEntry entry = entries.get(key);
+                if (entry != null
+                        && entry.expirationTimeMillis > System.currentTimeMillis()) {
+                    return DeferredResult.completed(copy(entry.roles, principal));
+                }
+
+                lookup = pending.get(key);
+                if (lookup != null && !lookup.isChanged()) {
+                    return lookup.result.thenApply(roles -> copy(roles, principal));
+                }
+
+                lookup = new PendingLookup();
+                pending.put(key, lookup);
+            }
+        }
+
+        if (lookup == null) {
+            // changes can't be tracked until subscribed, so don't cache anything till then
+            if (subscribe) {
+                subscribe(requestorService);
+            }
+            return resolver.apply(ConcurrentHashMap.newKeySet());
+        }
+
+        PendingLookup resolving = lookup;
+        Set<String> dependencyLinks = ConcurrentHashMap.newKeySet();
+        resolver.apply(dependencyLinks).whenComplete((roles, e) -> {
+            synchronized (this) {
+                pending.remove(key, resolving);
+                if (e == null) {
+                    dependencyLinks.addAll(getDependencyLinks(principal, roles));
+                    // roles resolved before a change of their documents might be stale already
+                    if (!resolving.stale
+                            && Collections.disjoint(dependencyLinks, resolving.changedLinks)) {
+                        entries.put(key, new CacheEntry(copy(roles, null),
+                                new HashSet<>(dependencyLinks)));
+                    }
+                }
+            }
+            if (e != null) {
+                resolving.result.fail(e);
+            } else {
+                resolving.result.complete(roles);
+            }
+        });
+
+        return lookup.result.thenApply(roles -> copy(roles, principal));
+    }
+
+    private synchronized void invalidate(Collection<String> links) {
+        generation++;
+        entries.values().removeIf(entry -> !Collections.disjoint(entry.dependencyLinks, links));
+        // lookups in progress may have read some of the changed documents already
+        for (PendingLookup lookup : pending.values()) {
+            lookup.changedLinks.addAll(links);
+        }
+    }
+
+    private synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        for (PendingLookup lookup : pending.values()) {
+            lookup.stale = true;
+        }
+    }
+
+    private void subscribe(Service requestorService) {
+        Query query = Query.Builder.create()
+                .addKindFieldClause(RoleState.class, Occurance.SHOULD_OCCUR)
+                .addKindFieldClause(UserGroupState.class, Occurance.SHOULD_OCCUR)
+                .addKindFieldClause(UserState.class, Occurance.SHOULD_OCCUR)
+                .addKindFieldClause(ProjectState.class, Occurance.SHOULD_OCCUR)
+                .addKindFieldClause(LocalPrincipalState.class, Occurance.SHOULD_OCCUR)
+                .build();
+        QueryTask task = QueryTask.Builder.create()
+                .addOptions(EnumSet.of(QueryOption.CONTINUOUS, QueryOption.EXPAND_CONTENT))
+                .setQuery(query)
+                .build();
+        task.documentSelfLink = "principal-roles-" + UUID.randomUUID().toString();
+        task.documentExpirationTimeMicros = Utils.fromNowMicrosUtc(
+                TimeUnit.DAYS.toMicros(QUERY_TASK_EXPIRATION_DAYS));
+
+        Operation post = Operation.createPost(host, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS)
+                .setBody(task)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        subscriptionFailed(e);
+                        return;
+                    }
+
+                    String taskUriPath = UriUtils.buildUriPath(
+                            ServiceUriPaths.CORE_LOCAL_QUERY_TASKS, task.documentSelfLink);
+                    Operation subscribePost = Operation.createPost(host, taskUriPath)
+                            .setReferer(host.getUri())
+                            .setCompletion((op, ex) -> {
+                                if (ex != null) {
+                                    subscriptionFailed(ex);
+                                    return;
+                                }
+                                synchronized (this) {
+                                    subscriptionState = SubscriptionState.SUBSCRIBED;
+                                }
+                            });
+
+                    requestorService.setAuthorizationContext(subscribePost,
+                            requestorService.getSystemAuthorizationContext());
+                    host.startSubscriptionService(subscribePost, this::handleNotification,
+                            ServiceSubscriber.create(false));
+                });
+
+        // the principal whose lookup subscribes might not see most role, user group and user
+        // changes
+        requestorService.setAuthorizationContext(post,
+                requestorService.getSystemAuthorizationContext());
+        post.sendWith(host);
+    }
+
+    private void handleNotification(Operation notification) {
+        notification.complete();
+        QueryTask task = notification.getBody(QueryTask.class);
+        if (task.results == null || task.results.documents == null) {
+            // the changed documents are not known
+            invalidateAll();
+            return;
+        }
+        Set<String> links = new HashSet<>();
+        for (Object json : task.results.documents.values()) {
+            ServiceDocument document = Utils.fromJson(json, ServiceDocument.class);
+            if (Utils.buildKind(RoleState.class).equals(document.documentKind)) {
+                links.addAll(getDocumentLinks(Utils.fromJson(json, RoleState.class)));
+            } else if (Utils.buildKind(UserGroupState.class).equals(document.documentKind)) {
+                links.addAll(getDocumentLinks(Utils.fromJson(json, UserGroupState.class)));
+            } else if (Utils.buildKind(UserState.class).equals(document.documentKind)) {
+                links.addAll(getDocumentLinks(Utils.fromJson(json, UserState.class)));
+            } else if (Utils.buildKind(ProjectState.class).equals(document.documentKind)) {
+                links.addAll(getDocumentLinks(Utils.fromJson(json, ProjectState.class)));
+            } else if (Utils.buildKind(LocalPrincipalState.class)
+                    .equals(document.documentKind)) {
+                links.addAll(getDocumentLinks(Utils.fromJson(json, LocalPrincipalState.class)));
+            }
+        }
+        if (!links.isEmpty()) {
+            invalidate(links);
+        }
+    }
+
+    private void subscriptionFailed(Throwable e) {
+        host.log(Level.WARNING, "Failed to subscribe for principal roles changes: %s",
+                Utils.toString(e));
+        synchronized (this) {
+            // try again on the next lookup
+            subscriptionState = SubscriptionState.NONE;
+        }
+    }
+
+    private static void prune() {
+        caches.values().removeIf(cache -> !cache.host.isStarted() || cache.host.isStopping());
+    }
+
+    private static Set<String> getDependencyLinks(Principal principal, PrincipalRoles roles) {
+        Set<String> links = getPrincipalLinks(principal.id);
+        if (principal.groups != null) {
+            for (String group : principal.groups) {
+                links.add(buildUserGroupLink(group));
+            }
+        }
+        if (roles.projects != null) {
+            for (ProjectEntry project : roles.projects) {
+                addLink(links, project.documentSelfLink);
+            }
+        }
+        return links;
+    }
+
+    private static String buildUserGroupLink(String principalId) {
+        return UriUtils.buildUriPath(UserGroupService.FACTORY_LINK,
+                PrincipalUtil.encode(principalId));
+    }
+
+    private static void addLink(Set<String> links, String link) {
+        if (link != null) {
+            links.add(link);
+        }
+    }
+
+    private static void addLinks(Set<String> links, Collection<String> added) {
+        if (added != null) {
+            links.addAll(added);
+        }
+    }
+
+    private static String buildKey(Principal principal) {
+        List<String> groups = principal.groups != null ? new ArrayList<>(principal.groups)
+                : new ArrayList<>();
+        Collections.sort(groups);
+        return principal.type + ":" + principal.id + ":" + groups;
+    }
+
+    /**
+     * Copies the resolved roles and projects of a principal, so that callers don't share (and
+     * modify) the cached ones.
+     */
+    private static PrincipalRoles copy(PrincipalRoles roles, Principal principal) {
+        PrincipalRoles copy = new PrincipalRoles();
+        if (principal != null) {
+            PrincipalUtil.copyPrincipalData(principal, copy);
+        }
+        copy.roles = roles.roles != null ? new HashSet<>(roles.roles) : null;
+        if (roles.projects != null) {
+            copy.projects = new ArrayList<>(roles.projects.size());
+            for (ProjectEntry project : roles.projects) {
+                ProjectEntry projectCopy = new ProjectEntry();
+                projectCopy.documentSelfLink = project.documentSelfLink;
+                projectCopy.name = project.name;
+                projectCopy.roles = project.roles != null ? new HashSet<>(project.roles) : null;
+                projectCopy.customProperties = project.customProperties != null
+                        ? new HashMap<>(project.customProperties) : null;
+                copy.projects.add(projectCopy);
+            }
+        }
+        return copy;
+    }
+}
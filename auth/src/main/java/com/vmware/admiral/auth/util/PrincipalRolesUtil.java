@@ -16,6 +16,7 @@ import static com.vmware.admiral.auth.util.PrincipalUtil.encode;
 import static com.vmware.admiral.auth.util.SecurityContextUtil.buildProjectEntries;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -59,39 +60,55 @@ public class PrincipalRolesUtil {
 
     public static DeferredResult<Set<AuthRole>> getDirectlyAssignedSystemRolesForUser(
             Service requestorService, Principal principal) {
+        return getDirectlyAssignedSystemRolesForUser(requestorService, principal,
+                new HashSet<>());
+    }
 
-        return getUserState(requestorService, principal.id).thenApply(userState -> {
-            if ((userState == null) || (userState.userGroupLinks == null)
-                    || (userState.userGroupLinks.isEmpty())) {
-                return Collections.emptySet();
-            }
+    private static DeferredResult<Set<AuthRole>> getDirectlyAssignedSystemRolesForUser(
+            Service requestorService, Principal principal, Set<String> dependencyLinks) {
 
-            Set<AuthRole> roles = new HashSet<>();
-            AuthUtil.MAP_ROLE_TO_SYSTEM_USER_GROUP.entrySet()
-                    .forEach((entry) -> {
-                        if (userState.userGroupLinks.contains(entry.getValue())) {
-                            roles.add(entry.getKey());
-                        }
-                    });
-            return roles;
-        });
+        return getUserState(requestorService, principal.id, dependencyLinks)
+                .thenApply(userState -> {
+                    if ((userState == null) || (userState.userGroupLinks == null)
+                            || (userState.userGroupLinks.isEmpty())) {
+                        return Collections.emptySet();
+                    }
+
+                    Set<AuthRole> roles = new HashSet<>();
+                    AuthUtil.MAP_ROLE_TO_SYSTEM_USER_GROUP.entrySet()
+                            .forEach((entry) -> {
+                                if (userState.userGroupLinks.contains(entry.getValue())) {
+                                    roles.add(entry.getKey());
+                                }
+                            });
+                    return roles;
+                });
     }
 
     public static DeferredResult<List<ProjectEntry>> getDirectlyAssignedProjectRolesForUser(
             Service requestorService, Principal principal) {
-        return getUserState(requestorService, principal.id).thenCompose(userState -> {
-            if ((userState == null) || (userState.userGroupLinks == null)
-                    || (userState.userGroupLinks.isEmpty())) {
-                return DeferredResult.completed(Collections.emptyList());
-            }
+        return getDirectlyAssignedProjectRolesForUser(requestorService, principal,
+                new HashSet<>());
+    }
+
+    private static DeferredResult<List<ProjectEntry>> getDirectlyAssignedProjectRolesForUser(
+            Service requestorService, Principal principal, Set<String> dependencyLinks) {
+        return getUserState(requestorService, principal.id, dependencyLinks)
+                .thenCompose(userState -> {
+                    if ((userState == null) || (userState.userGroupLinks == null)
+                            || (userState.userGroupLinks.isEmpty())) {
+                        return DeferredResult.completed(Collections.emptyList());
+                    }
 
-            Query query = ProjectUtil.buildQueryProjectsFromGroups(userState.userGroupLinks);
+                    Query query = ProjectUtil.buildQueryProjectsFromGroups(
+                            userState.userGroupLinks);
 
-            return new QueryByPages<>(requestorService.getHost(), query, ProjectState.class, null)
-                    .collectDocuments(Collectors.toList())
-                    .thenApply(
-                            (projects) -> buildProjectEntries(projects, userState.userGroupLinks));
-        });
+                    return new QueryByPages<>(requestorService.getHost(), query,
+                            ProjectState.class, null)
+                            .collectDocuments(Collectors.toList())
+                            .thenApply((projects) -> buildProjectEntries(projects,
+                                    userState.userGroupLinks));
+                });
     }
 
     public static DeferredResult<Set<AuthRole>> getDirectlyAssignedSystemRolesForGroup(
@@ -190,8 +207,69 @@ public class PrincipalRolesUtil {
         return DeferredResult.allOf(deferredResults);
     }
 
+    /**
+     * Returns the system and project roles of the given principal. The resolved roles are cached
+     * until a role assignment, group membership or project of the principal changes.
+     */
     public static DeferredResult<PrincipalRoles> getAllRolesForPrincipal(Service requestorService,
             Operation requestorOperation, Principal principal) {
+        return PrincipalRolesCache.get(requestorService, principal,
+                (dependencyLinks) -> resolveAllRolesForPrincipal(requestorService, principal,
+                        dependencyLinks));
+    }
+
+    /**
+     * Drops the cached roles of the principals affected by the change of the given role, user
+     * group, project, user or local principal document once the given operation completes. To be
+     * used by the services changing them, so that their changes are visible to their callers right
+     * away rather than once the change notifications arrive. The document is read on completion.
+     */
+    public static void invalidateCachedRolesOnCompletion(ServiceHost host, Operation op,
+            ServiceDocument changedDocument) {
+        op.nestCompletion((o, e) -> {
+            PrincipalRolesCache.invalidate(host,
+                    PrincipalRolesCache.getDocumentLinks(changedDocument));
+            if (e != null) {
+                op.fail(e);
+                return;
+            }
+            op.complete();
+        });
+    }
+
+    /**
+     * Drops the cached roles of the given principals, and of the members of the given groups,
+     * once the given operation completes.
+     *
+     * @see #invalidateCachedRolesOnCompletion(ServiceHost, Operation, ServiceDocument)
+     */
+    public static void invalidateCachedRolesOfPrincipalsOnCompletion(ServiceHost host,
+            Operation op, Collection<String> principalIds) {
+        op.nestCompletion((o, e) -> {
+            Set<String> links = new HashSet<>();
+            for (String principalId : principalIds) {
+                links.addAll(PrincipalRolesCache.getPrincipalLinks(principalId));
+            }
+            PrincipalRolesCache.invalidate(host, links);
+            if (e != null) {
+                op.fail(e);
+                return;
+            }
+            op.complete();
+        });
+    }
+
+    /**
+     * Returns a number which changes whenever the cached principal roles of the given host are
+     * dropped, or {@code -1} if the changes are not tracked (yet). Allows callers to cache data
+     * derived from the roles of principals for as long as the number stays the same.
+     */
+    public static long getCachedRolesGeneration(ServiceHost host) {
+        return PrincipalRolesCache.getGeneration(host);
+    }
+
+    private static DeferredResult<PrincipalRoles> resolveAllRolesForPrincipal(
+            Service requestorService, Principal principal, Set<String> dependencyLinks) {
 
         PrincipalRoles returnRoles = new PrincipalRoles();
 
@@ -214,14 +292,16 @@ public class PrincipalRolesUtil {
                     if (principal.type == PrincipalType.GROUP) {
                         return getDirectlyAssignedSystemRolesForGroup(requestorService, principal);
                     }
-                    return getDirectlyAssignedSystemRolesForUser(requestorService, principal);
+                    return getDirectlyAssignedSystemRolesForUser(requestorService, principal,
+                            dependencyLinks);
                 })
                 .thenAccept(systemRoles -> returnRoles.roles.addAll(systemRoles))
                 .thenCompose(ignore -> {
                     if (principal.type == PrincipalType.GROUP) {
                         return getDirectlyAssignedProjectRolesForGroup(requestorService, principal);
                     }
-                    return getDirectlyAssignedProjectRolesForUser(requestorService, principal);
+                    return getDirectlyAssignedProjectRolesForUser(requestorService, principal,
+                            dependencyLinks);
                 })
                 .thenApply(projectEntries -> {
                     returnRoles.projects.addAll(projectEntries);
@@ -402,7 +482,7 @@ public class PrincipalRolesUtil {
     }
 
     private static DeferredResult<UserState> getUserState(Service requestorService,
-            String principalId) {
+            String principalId, Set<String> dependencyLinks) {
         Operation getUserStateOp = Operation.createGet(requestorService,
                 AuthUtil.buildUserServicePathFromPrincipalId(encode(principalId)));
 
@@ -415,6 +495,13 @@ public class PrincipalRolesUtil {
                         return new UserState();
                     }
                     return null;
+                })
+                .thenApply((userState) -> {
+                    // the roles of the user change with the user groups it is a member of
+                    if (userState != null && userState.userGroupLinks != null) {
+                        dependencyLinks.addAll(userState.userGroupLinks);
+                    }
+                    return userState;
                 });
     }
 
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.auth.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.auth.idm.AuthRole;
+import com.vmware.admiral.auth.idm.Principal;
+import com.vmware.admiral.auth.idm.Principal.PrincipalType;
+import com.vmware.admiral.auth.idm.PrincipalRoles;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.UserGroupService;
+import com.vmware.xenon.services.common.UserGroupService.UserGroupState;
+import com.vmware.xenon.services.common.UserService.UserState;
+
+public class PrincipalRolesCacheTest {
+
+    private VerificationHost host;
+    private Service service;
+    private Principal principal;
+    private AtomicInteger resolutions;
+
+    @Before
+    public void setUp() throws Throwable {
+        host = VerificationHost.create(0);
+        // the cache subscribes for changes with the system authorization context
+        host.addPrivilegedService(StatelessService.class);
+        host.start();
+        service = createService(host);
+
+        principal = new Principal();
+        principal.id = "fritz@admiral.com";
+        principal.name = "Fritz";
+        principal.type = PrincipalType.USER;
+        principal.groups = new HashSet<>(Collections.singletonList("developers"));
+
+        resolutions = new AtomicInteger();
+        // the first lookup subscribes for changes, the roles are cached once subscribed
+        host.waitFor("Principal roles were not cached", () -> {
+            getRoles((links) -> resolve(DeferredResult.completed(createRoles())));
+            int before = resolutions.get();
+            getRoles((links) -> resolve(DeferredResult.completed(createRoles())));
+            return resolutions.get() == before;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        host.tearDown();
+    }
+
+    @Test
+    public void testCachedRolesAreCopies() throws Throwable {
+        PrincipalRoles roles = getRoles((links) -> resolve(DeferredResult.completed(createRoles())));
+        assertEquals(principal.name, roles.name);
+        assertEquals(Collections.singleton(AuthRole.CLOUD_ADMIN), roles.roles);
+
+        roles.roles.add(AuthRole.BASIC_USER);
+        PrincipalRoles cached = getRoles((links) -> resolve(DeferredResult.completed(createRoles())));
+        assertNotSame(roles, cached);
+        assertEquals(Collections.singleton(AuthRole.CLOUD_ADMIN), cached.roles);
+    }
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() throws Throwable {
+        PrincipalRolesCache.invalidateAll(host);
+        int before = resolutions.get();
+
+        DeferredResult<PrincipalRoles> resolution = new DeferredResult<>();
+        DeferredResult<PrincipalRoles> first = PrincipalRolesCache.get(service, principal,
+                (links) -> resolve(resolution));
+        DeferredResult<PrincipalRoles> second = PrincipalRolesCache.get(service, principal,
+                (links) -> resolve(resolution));
+        resolution.complete(createRoles());
+
+        assertEquals(principal.id, first.toCompletionStage().toCompletableFuture().get().id);
+        assertEquals(principal.id, second.toCompletionStage().toCompletableFuture().get().id);
+        assertEquals(1, resolutions.get() - before);
+    }
+
+    @Test
+    public void testInvalidatedOnUserGroupChange() throws Throwable {
+        UserGroupState group = UserGroupState.Builder.create()
+                .withSelfLink(UserGroupService.FACTORY_LINK + "/developers")
+                .withQuery(Query.Builder.create()
+                        .addFieldClause(UserState.FIELD_NAME_EMAIL, principal.id)
+                        .build())
+                .build();
+        host.sendAndWaitExpectSuccess(Operation.createPost(host, UserGroupService.FACTORY_LINK)
+                .setBody(group));
+
+        host.waitFor("Principal roles were not invalidated", () -> {
+            int resolved = resolutions.get();
+            getRoles((links) -> resolve(DeferredResult.completed(createRoles())));
+            return resolutions.get() > resolved;
+        });
+    }
+
+    @Test
+    public void testInvalidatedOnCompletion() throws Throwable {
+        Operation op = Operation.createPatch(host, UserGroupService.FACTORY_LINK)
+                .setCompletion((o, e) -> {
+                });
+        PrincipalRolesUtil.invalidateCachedRolesOfPrincipalsOnCompletion(host, op,
+                Collections.singleton(principal.id));
+        long generation = PrincipalRolesUtil.getCachedRolesGeneration(host);
+        assertNotEquals(-1, generation);
+        op.complete();
+
+        assertNotEquals(generation, PrincipalRolesUtil.getCachedRolesGeneration(host));
+        int before = resolutions.get();
+        getRoles((links) -> resolve(DeferredResult.completed(createRoles())));
+        assertEquals(1, resolutions.get() - before);
+    }
+
+    @Test
+    public void testOnlyAffectedPrincipalsAreInvalidated() throws Throwable {
+        Principal other = new Principal();
+        other.id = "connie@admiral.com";
+        other.type = PrincipalType.USER;
+        String projectMembersLink = UserGroupService.FACTORY_LINK + "/project-members";
+        getRoles(other, (links) -> {
+            links.add(projectMembersLink);
+            return resolve(DeferredResult.completed(createRoles()));
+        });
+
+        // a change of a group of the principal leaves the other principal cached
+        PrincipalRolesCache.invalidate(host, Collections.singleton(
+                UserGroupService.FACTORY_LINK + "/developers"));
+        int before = resolutions.get();
+        getRoles(other, (links) -> resolve(DeferredResult.completed(createRoles())));
+        assertEquals(0, resolutions.get() - before);
+        getRoles((links) -> resolve(DeferredResult.completed(createRoles())));
+        assertEquals(1, resolutions.get() - before);
+
+        // the links added by the resolver are tracked as well
+        PrincipalRolesCache.invalidate(host, Collections.singleton(projectMembersLink));
+        getRoles((links) -> resolve(DeferredResult.completed(createRoles())));
+        assertEquals(1, resolutions.get() - before);
+        getRoles(other, (links) -> resolve(DeferredResult.completed(createRoles())));
+        assertEquals(2, resolutions.get() - before);
+    }
+
+    @Test
+    public void testCacheIsDroppedWhenHostStops() throws Throwable {
+        VerificationHost stoppedHost = VerificationHost.create(0);
+        stoppedHost.addPrivilegedService(StatelessService.class);
+        stoppedHost.start();
+        // the first lookup subscribes for changes
+        PrincipalRolesCache.get(createService(stoppedHost), principal,
+                (links) -> resolve(DeferredResult.completed(createRoles())));
+        stoppedHost.waitFor("Principal roles changes are not tracked",
+                () -> PrincipalRolesCache.getGeneration(stoppedHost) != -1);
+        stoppedHost.tearDown();
+
+        // the caches of the stopped hosts are dropped once a new host starts caching
+        VerificationHost newHost = VerificationHost.create(0);
+        newHost.addPrivilegedService(StatelessService.class);
+        newHost.start();
+        try {
+            PrincipalRolesCache.get(createService(newHost), principal,
+                    (links) -> resolve(DeferredResult.completed(createRoles())));
+            assertEquals(-1, PrincipalRolesCache.getGeneration(stoppedHost));
+        } finally {
+            newHost.tearDown();
+        }
+    }
+
+    private PrincipalRoles getRoles(
+            Function<Set<String>, DeferredResult<PrincipalRoles>> resolver) {
+        return getRoles(principal, resolver);
+    }
+
+    private PrincipalRoles getRoles(Principal principal,
+            Function<Set<String>, DeferredResult<PrincipalRoles>> resolver) {
+        TestContext ctx = host.testCreate(1);
+        PrincipalRoles[] result = new PrincipalRoles[1];
+        PrincipalRolesCache.get(service, principal, resolver).whenComplete((roles, e) -> {
+            if (e != null) {
+                ctx.failIteration(e);
+                return;
+            }
+            result[0] = roles;
+            ctx.completeIteration();
+        });
+        ctx.await();
+        return result[0];
+    }
+
+    private static Service createService(VerificationHost host) {
+        Service service = new StatelessService();
+        service.setHost(host);
+        return service;
+    }
+
+    private DeferredResult<PrincipalRoles> resolve(DeferredResult<PrincipalRoles> result) {
+        resolutions.incrementAndGet();
+        return result;
+    }
+
+    private PrincipalRoles createRoles() {
+        PrincipalRoles roles = new PrincipalRoles();
+        PrincipalUtil.copyPrincipalData(principal, roles);
+        roles.roles = new HashSet<>(Collections.singletonList(AuthRole.CLOUD_ADMIN));
+        roles.projects = new ArrayList<>();
+        return roles;
+    }
+}
@@ -44,6 +44,7 @@ import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.RoleService;
 
 public class PrincipalRolesUtilTest extends AuthBaseTest {
 
@@ -400,4 +401,47 @@ public class PrincipalRolesUtilTest extends AuthBaseTest {
         assertEquals(testProject.documentSelfLink, entry.documentSelfLink);
         assertTrue(securityContext[0].isProjectViewer(testProject.documentSelfLink));
     }
+
+    @Test
+    public void testCachedRolesInvalidatedOnRoleRevokedAfterBasicUserLookup() throws Throwable {
+        // the lookup of a basic user subscribes for the changes of the roles
+        host.assumeIdentity(buildUserServicePath(USER_EMAIL_BASIC_USER));
+        Principal connie = getPrincipal(USER_EMAIL_CONNIE);
+        waitFor("Principal roles changes are not tracked", () -> {
+            getRoles(connie);
+            return PrincipalRolesCache.getGeneration(host) != -1;
+        });
+
+        host.assumeIdentity(buildUserServicePath(USER_EMAIL_ADMIN));
+        PrincipalRoleAssignment roleAssignment = new PrincipalRoleAssignment();
+        roleAssignment.add = Collections.singletonList(AuthRole.CLOUD_ADMIN.name());
+        doPatch(roleAssignment, UriUtils.buildUriPath(PrincipalService.SELF_LINK,
+                USER_GROUP_DEVELOPERS, PrincipalService.ROLES_SUFFIX));
+        waitFor("Cloud admin role was not assigned", () -> {
+            PrincipalRoles roles = getRoles(connie);
+            return roles != null && roles.roles.contains(AuthRole.CLOUD_ADMIN);
+        });
+
+        // an admin revokes the role directly, so only the subscription reports the change
+        doDelete(UriUtils.buildUri(host, UriUtils.buildUriPath(RoleService.FACTORY_LINK,
+                AuthRole.CLOUD_ADMIN.buildRoleWithSuffix(encode(USER_GROUP_DEVELOPERS)))),
+                false);
+        waitFor("Cached principal roles were not invalidated", () -> {
+            PrincipalRoles roles = getRoles(connie);
+            return roles != null && !roles.roles.contains(AuthRole.CLOUD_ADMIN);
+        });
+    }
+
+    private PrincipalRoles getRoles(Principal principal) {
+        PrincipalRoles[] result = new PrincipalRoles[1];
+        TestContext ctx = testCreate(1);
+        PrincipalRolesUtil.getAllRolesForPrincipal(privilegedTestService, null, principal)
+                .whenComplete((roles, ex) -> {
+                    // lookups of users who may not read the roles fail
+                    result[0] = roles;
+                    ctx.completeIteration();
+                });
+        ctx.await();
+        return result[0];
+    }
 }
@@ -33,6 +33,7 @@ public interface ManagementUriParts {
     String IMAGE_PROFILES = CONFIG + "/image-profiles";
     String INSTANCE_TYPE_PROFILES = CONFIG + "/instance-types";
     String MIGRATION = CONFIG + "/migration";
+    String MIGRATION_CHECKPOINTS = CONFIG + "/migration-checkpoints";
     String UNIQUE_PROPERTIES = CONFIG + "/unique-properties";
 
     String COMPOSITE_DESCRIPTION_UPGRADE_TRANSFORM_PATH = UPGRADE_TRANSFORM_PREFIX
@@ -44,6 +45,7 @@ public interface ManagementUriParts {
             + "/composite-components";
     String RESOURCE_POOL_UPGRADE_TRANSFORM_PATH = UPGRADE_TRANSFORM_PREFIX + "/pools";
     String COMPUTE_UPGRADE_TRANSFORM_PATH = UPGRADE_TRANSFORM_PREFIX + "/computes";
+    String ALL_UPGRADE_TRANSFORM_PATH = UPGRADE_TRANSFORM_PREFIX + "/all";
 
     String UTIL = "/util";
     String LONG_URI_GET = UTIL + "/long-uri-get";
@@ -233,6 +235,7 @@ public interface ManagementUriParts {
     String DELETE_SERVICE_DOCUMENTS = "/delete-tasks";
 
     String COUNTER_SUB_TASKS = "/counter-subtasks";
+    String COUNTER_SUB_TASKS_LOCAL = COUNTER_SUB_TASKS + "-local";
     // Continuous delivery:
     String CONTINUOUS_DELIVERY = "/continous-delivery";
 
@@ -13,20 +13,26 @@ package com.vmware.admiral.common.util;
 
 import static com.vmware.admiral.common.util.AssertUtil.assertNotNull;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.PropertyFilter;
@@ -46,7 +52,84 @@ public class YamlMapper {
     private static final FilterProvider filters = new SimpleFilterProvider().addFilter(
             SERVICE_DOCUMENT_FILTER, createBuiltinFieldFilter());
     private static final ObjectWriter objectWriter = objectMapper.writer(filters);
-    private static final String YAML_REGEX_VERIFIER = "(?<!.)---(?!.)";
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final String YAML_DOCUMENT_SEPARATOR = "---";
+
+    /**
+     * Reads the documents of a multi-document YAML one at a time. Empty documents are skipped.
+     */
+    public static class DocumentReader<T> implements Closeable {
+        private final JsonParser parser;
+        private final ObjectReader reader;
+        private boolean started;
+        private boolean hasNext;
+
+        private DocumentReader(JsonParser parser, ObjectReader reader) {
+            this.parser = parser;
+            this.reader = reader;
+        }
+
+        public boolean hasNext() throws IOException {
+            if (hasNext) {
+                return true;
+            }
+            JsonToken token = parser.nextToken();
+            // the parser returns null at the end of every document and at the end of the input
+            if (token == null && started) {
+                token = parser.nextToken();
+            }
+            while (token == JsonToken.VALUE_NULL) {
+                parser.nextToken();
+                token = parser.nextToken();
+            }
+            started = true;
+            hasNext = token != null;
+            return hasNext;
+        }
+
+        public T next() throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = false;
+            return reader.readValue(parser);
+        }
+
+        /**
+         * Returns the next document as a YAML document of its own.
+         */
+        public String nextAsYaml() throws IOException {
+            return copyNext(objectMapper.getFactory());
+        }
+
+        /**
+         * Returns the next document as JSON.
+         */
+        public String nextAsJson() throws IOException {
+            return copyNext(jsonFactory);
+        }
+
+        /**
+         * Writes the next document with a generator of the given factory token by token as it
+         * is parsed, without building an object for it.
+         */
+        private String copyNext(JsonFactory factory) throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = false;
+            StringWriter writer = new StringWriter();
+            try (JsonGenerator generator = factory.createGenerator(writer)) {
+                generator.copyCurrentStructure(parser);
+            }
+            return writer.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+    }
 
     public static ObjectMapper objectMapper() {
         return objectMapper;
@@ -75,9 +158,13 @@ public class YamlMapper {
                 .collect(Collectors.toSet());
     }
 
+    /**
+     * Converts the first document of the given YAML to JSON as it is parsed.
+     */
     public static String fromYamlToJson(String yaml) throws IOException {
-        Object obj = objectMapper().readValue(yaml, Object.class);
-        return Utils.toJson(obj);
+        try (DocumentReader<Object> documents = readDocuments(yaml, Object.class)) {
+            return documents.hasNext() ? documents.nextAsJson() : Utils.toJson(null);
+        }
     }
 
     public static String fromJsonToYaml(String json) throws IOException {
@@ -85,22 +172,44 @@ public class YamlMapper {
         return objectMapper().writeValueAsString(jsonNode);
     }
 
+    /**
+     * Returns a reader of the documents of the given YAML as the given type. Unlike
+     * {@link #splitYaml(String)} the content is parsed as a stream, without copying the
+     * documents.
+     */
+    public static <T> DocumentReader<T> readDocuments(String yaml, Class<T> type)
+            throws IOException {
+        assertNotNull(yaml, "yaml");
+        return new DocumentReader<>(objectMapper.getFactory().createParser(yaml),
+                objectMapper.readerFor(type));
+    }
+
     public static List<String> splitYaml(String yaml) {
         assertNotNull(yaml, "yaml");
 
         List<String> result = new ArrayList<>();
-        if (!yaml.startsWith("---")) {
+        if (!yaml.startsWith(YAML_DOCUMENT_SEPARATOR)) {
             result.add(yaml);
             return result;
         }
-        String[] yamls = yaml.split(YAML_REGEX_VERIFIER);
-        result = Arrays.stream(yamls)
-                .filter(y -> !y.trim().equals(""))
-                .collect(Collectors.toList());
-
-        for (int i = 0; i < result.size(); i++) {
-            String tempYaml = "---\n" + result.get(i).trim();
-            result.set(i, tempYaml);
+
+        int start = 0;
+        while (start >= 0) {
+            int separator = indexOfDocumentSeparator(yaml, start);
+            int end = separator < 0 ? yaml.length() : separator;
+            while (start < end && yaml.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && yaml.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (start < end) {
+                result.add(new StringBuilder(end - start + 4)
+                        .append(YAML_DOCUMENT_SEPARATOR).append('\n')
+                        .append(yaml, start, end)
+                        .toString());
+            }
+            start = separator < 0 ? -1 : separator + YAML_DOCUMENT_SEPARATOR.length();
         }
 
         return result;
@@ -110,14 +219,30 @@ public class YamlMapper {
      * Check if the string contains multiple yaml definitions concatenated.
      */
     public static boolean isMultiYaml(String yaml) {
-        Pattern pattern = Pattern.compile(YAML_REGEX_VERIFIER);
-        Matcher matcher = pattern.matcher(yaml);
-        int counter = 0;
-        while (matcher.find()) {
-            counter++;
+        int separator = indexOfDocumentSeparator(yaml, 0);
+        return separator >= 0 && indexOfDocumentSeparator(yaml,
+                separator + YAML_DOCUMENT_SEPARATOR.length()) >= 0;
+    }
+
+    /**
+     * Returns the index of the first document separator, a line consisting of "---" only, at or
+     * after the given index, or -1 if there is none.
+     */
+    private static int indexOfDocumentSeparator(String yaml, int fromIndex) {
+        int index = yaml.indexOf(YAML_DOCUMENT_SEPARATOR, fromIndex);
+        while (index >= 0) {
+            int end = index + YAML_DOCUMENT_SEPARATOR.length();
+            if ((index == 0 || isLineBreak(yaml.charAt(index - 1)))
+                    && (end == yaml.length() || isLineBreak(yaml.charAt(end)))) {
+                return index;
+            }
+            index = yaml.indexOf(YAML_DOCUMENT_SEPARATOR, index + 1);
         }
+        return -1;
+    }
 
-        return counter > 1;
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r';
     }
 
     public static boolean isValidYaml(String yaml) {
@@ -24,8 +24,10 @@ import com.vmware.admiral.service.common.CounterSubTaskService;
 import com.vmware.admiral.service.common.EventTopicService;
 import com.vmware.admiral.service.common.ExtensibilitySubscriptionCallbackService;
 import com.vmware.admiral.service.common.ExtensibilitySubscriptionFactoryService;
+import com.vmware.admiral.service.common.LocalCounterSubTaskService;
 import com.vmware.admiral.service.common.LogService;
 import com.vmware.admiral.service.common.LongURIGetService;
+import com.vmware.admiral.service.common.MigrationCheckpointService;
 import com.vmware.admiral.service.common.NodeHealthCheckService;
 import com.vmware.admiral.service.common.NodeMigrationService;
 import com.vmware.admiral.service.common.RegistryService;
@@ -66,9 +68,11 @@ public class HostInitCommonServiceConfig extends HostInitServiceHelper {
             RegistryService.class,
             LogService.class,
             CounterSubTaskService.class,
+            LocalCounterSubTaskService.class,
             ExtensibilitySubscriptionCallbackService.class,
             EventTopicService.class,
-            UniquePropertiesService.class
+            UniquePropertiesService.class,
+            MigrationCheckpointService.class
     };
 
 
@@ -13,7 +13,10 @@ package com.vmware.admiral.host;
 
 import java.lang.reflect.Field;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import com.vmware.admiral.service.common.EventTopicDeclarator;
@@ -31,6 +34,11 @@ import com.vmware.xenon.common.Utils;
  */
 public abstract class HostInitServiceHelper {
 
+    private static final Map<Class<? extends Service>, Optional<String>> factoryLinks =
+            new ConcurrentHashMap<>();
+    private static final Map<Class<? extends Service>, Optional<String>> selfLinks =
+            new ConcurrentHashMap<>();
+
     @SafeVarargs
     public static void startServiceFactories(ServiceHost host,
             Class<? extends Service>... serviceClasses) {
@@ -96,23 +104,41 @@ public abstract class HostInitServiceHelper {
             Class<? extends Service> serviceClass, Set<String> servicesForHelathceck,
             boolean factory) {
 
-        String factoryOrSelfLink = factory ? "FACTORY_LINK" : "SELF_LINK";
-
         if (serviceInstance.hasOption(ServiceOption.REPLICATION)) {
-            try {
-                Field selfLink = serviceClass.getDeclaredField(factoryOrSelfLink);
-                if (selfLink != null) {
-                    Object value = selfLink.get(serviceInstance);
-                    servicesForHelathceck.add(value.toString());
-                }
-            } catch (NoSuchFieldException | IllegalAccessException
-                    | IllegalArgumentException e) {
-                host.log(Level.SEVERE, "Exception while getting %s field for Service: %s :%s",
-                        factoryOrSelfLink, serviceClass, e);
+            String link = getServiceLink(host, serviceClass, factory);
+            if (link != null) {
+                servicesForHelathceck.add(link);
             }
         }
     }
 
+    /**
+     * Resolves the FACTORY_LINK or SELF_LINK constant of the given service class. The result is
+     * cached since the same classes get resolved on each host started in the JVM.
+     */
+    private static String getServiceLink(ServiceHost host, Class<? extends Service> serviceClass,
+            boolean factory) {
+        Map<Class<? extends Service>, Optional<String>> cache = factory ? factoryLinks
+                : selfLinks;
+        Optional<String> link = cache.get(serviceClass);
+        if (link != null) {
+            return link.orElse(null);
+        }
+
+        String factoryOrSelfLink = factory ? "FACTORY_LINK" : "SELF_LINK";
+        try {
+            Field selfLink = serviceClass.getDeclaredField(factoryOrSelfLink);
+            link = Optional.of(selfLink.get(null).toString());
+        } catch (NoSuchFieldException | IllegalAccessException
+                | IllegalArgumentException | NullPointerException e) {
+            host.log(Level.SEVERE, "Exception while getting %s field for Service: %s :%s",
+                    factoryOrSelfLink, serviceClass, e);
+            link = Optional.empty();
+        }
+        cache.put(serviceClass, link);
+        return link.orElse(null);
+    }
+
     private static void registerServiceForHelathcheck(ServiceHost host, Set<String> services) {
 
         NodeHealthCheckService nodeHealthCheck = new NodeHealthCheckService();
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.host;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import com.vmware.xenon.common.OperationContext;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Starts groups of services of a host according to the dependencies between them. A group
+ * depends on the groups declared explicitly and on the groups providing the services its start
+ * calls, see {@link #requires(String, String...)}. Groups whose dependencies are already started
+ * are started concurrently by a bounded number of threads, all of them with the operation context
+ * (and so the authorization context) of the thread calling {@link #start()}.
+ */
+public class HostStartupGraph {
+
+    public static final int STARTUP_PARALLELISM = Integer.getInteger(
+            "com.vmware.admiral.host.startup.parallelism",
+            Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+    @FunctionalInterface
+    public interface StartupStep {
+        void start() throws Throwable;
+    }
+
+    private static class StepEntry {
+        final StartupStep step;
+        final Set<String> dependencies;
+        final Set<String> requiredLinks = new HashSet<>();
+        final Set<String> providedLinks = new HashSet<>();
+
+        StepEntry(StartupStep step, String... dependencies) {
+            this.step = step;
+            this.dependencies = new HashSet<>(Arrays.asList(dependencies));
+        }
+    }
+
+    private static class StepResult {
+        final String name;
+        final Throwable failure;
+
+        StepResult(String name, Throwable failure) {
+            this.name = name;
+            this.failure = failure;
+        }
+    }
+
+    private final ServiceHost host;
+    private final Map<String, StepEntry> steps = new LinkedHashMap<>();
+
+    public HostStartupGraph(ServiceHost host) {
+        this.host = host;
+    }
+
+    /**
+     * Adds a step with the given name, started once all steps with the given names are done.
+     */
+    public HostStartupGraph add(String name, StartupStep step, String... dependencies) {
+        if (steps.putIfAbsent(name, new StepEntry(step, dependencies)) != null) {
+            throw new IllegalArgumentException("Duplicate startup step: " + name);
+        }
+        return this;
+    }
+
+    /**
+     * Declares services started by the step with the given name, so that the steps requiring
+     * them are started after it.
+     */
+    public HostStartupGraph provides(String name, String... links) {
+        getStep(name).providedLinks.addAll(Arrays.asList(links));
+        return this;
+    }
+
+    /**
+     * Declares services called while the step with the given name starts. The step is started
+     * after the step providing each of them, the services not provided by a step must be started
+     * before the graph.
+     */
+    public HostStartupGraph requires(String name, String... links) {
+        getStep(name).requiredLinks.addAll(Arrays.asList(links));
+        return this;
+    }
+
+    /**
+     * Runs all steps and waits for them to finish. The first failure of a step is rethrown and
+     * the steps not started yet are skipped.
+     */
+    public void start() throws Throwable {
+        for (Map.Entry<String, StepEntry> e : steps.entrySet()) {
+            for (String dependency : e.getValue().dependencies) {
+                if (!steps.containsKey(dependency)) {
+                    throw new IllegalArgumentException(String.format(
+                            "Unknown dependency %s of startup step %s", dependency, e.getKey()));
+                }
+            }
+        }
+        addProviderDependencies();
+
+        OperationContext operationContext = OperationContext.getOperationContext();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(STARTUP_PARALLELISM, steps.size())), r -> {
+                    Thread thread = new Thread(r,
+                            "host-startup-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        BlockingQueue<StepResult> results = new LinkedBlockingQueue<>();
+
+        try {
+            Set<String> pending = new HashSet<>(steps.keySet());
+            Set<String> done = new HashSet<>();
+            int running = 0;
+            while (!pending.isEmpty() || running > 0) {
+                for (String name : steps.keySet()) {
+                    if (pending.contains(name) && done.containsAll(steps.get(name).dependencies)) {
+                        checkRequiredServicesStarted(name);
+                        pending.remove(name);
+                        running++;
+                        StartupStep step = steps.get(name).step;
+                        executor.execute(() -> results.add(
+                                runStep(name, step, operationContext)));
+                    }
+                }
+
+                if (running == 0) {
+                    throw new IllegalStateException(
+                            "Cyclic dependencies between startup steps: " + pending);
+                }
+
+                StepResult result = results.take();
+                running--;
+                if (result.failure != null) {
+                    throw result.failure;
+                }
+                done.add(result.name);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private StepEntry getStep(String name) {
+        StepEntry entry = steps.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown startup step: " + name);
+        }
+        return entry;
+    }
+
+    /**
+     * Makes each step depend on the steps providing the services it requires.
+     */
+    private void addProviderDependencies() {
+        Map<String, String> providers = new HashMap<>();
+        for (Map.Entry<String, StepEntry> e : steps.entrySet()) {
+            for (String link : e.getValue().providedLinks) {
+                String provider = providers.putIfAbsent(link, e.getKey());
+                if (provider != null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Service %s is provided by startup steps %s and %s", link, provider,
+                            e.getKey()));
+                }
+            }
+        }
+
+        for (Map.Entry<String, StepEntry> e : steps.entrySet()) {
+            for (String link : e.getValue().requiredLinks) {
+                String provider = providers.get(link);
+                if (provider != null) {
+                    if (!provider.equals(e.getKey())) {
+                        e.getValue().dependencies.add(provider);
+                    }
+                } else if (host.getServiceStage(link) == null) {
+                    throw new IllegalStateException(String.format(
+                            "Service %s required by startup step %s is neither started nor"
+                                    + " provided by a startup step", link, e.getKey()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails when a service required by the given step is not started by the step declared to
+     * provide it, as the step would call a service which may not exist yet.
+     */
+    private void checkRequiredServicesStarted(String name) {
+        StepEntry entry = steps.get(name);
+        for (String link : entry.requiredLinks) {
+            if (!entry.providedLinks.contains(link) && host.getServiceStage(link) == null) {
+                throw new IllegalStateException(String.format(
+                        "Service %s required by startup step %s is not started by its provider",
+                        link, name));
+            }
+        }
+    }
+
+    private StepResult runStep(String name, StartupStep step, OperationContext operationContext) {
+        OperationContext.restoreOperationContext(operationContext);
+        try {
+            long startTime = System.currentTimeMillis();
+            step.start();
+            host.log(Level.FINE, "Startup step %s done in %d ms", name,
+                    System.currentTimeMillis() - startTime);
+            return new StepResult(name, null);
+        } catch (Throwable e) {
+            host.log(Level.SEVERE, "Startup step %s failed: %s", name, Utils.toString(e));
+            return new StepResult(name, e);
+        } finally {
+            OperationContext.reset();
+        }
+    }
+}
@@ -11,6 +11,11 @@
 
 package com.vmware.admiral.host.interceptor;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.function.BiFunction;
 import java.util.function.Predicate;
@@ -23,12 +28,30 @@ import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.Service.Action;
 
 /**
- * A predicate with deferred result that can be added to an {@link OperationProcessingChain}.
+ * A predicate with deferred result that can be added to an {@link OperationProcessingChain}. The
+ * predicate runs a precompiled chain of interceptors, one flat array per action, one after
+ * another. Operations are suspended only while an interceptor has a pending result.
  */
 public class DeferredOperationPredicate implements Predicate<Operation> {
+
+    static final Interceptor[] NO_INTERCEPTORS = new Interceptor[0];
+
+    /**
+     * An interceptor of the operations with the given action, or of all operations if the action
+     * is {@code null}.
+     */
+    static class Interceptor {
+        final Action action;
+        final BiFunction<Service, Operation, DeferredResult<Void>> function;
+
+        Interceptor(Action action, BiFunction<Service, Operation, DeferredResult<Void>> function) {
+            this.action = action;
+            this.function = function;
+        }
+    }
+
     private final Service service;
-    private final Action action;
-    private final BiFunction<Service, Operation, DeferredResult<Void>> predicate;
+    private final Interceptor[][] interceptorsByAction;
 
     /**
      * Constructs a new instance.
@@ -40,44 +63,95 @@ public class DeferredOperationPredicate implements Predicate<Operation> {
      */
     public DeferredOperationPredicate(Service service, Action action,
             BiFunction<Service, Operation, DeferredResult<Void>> predicate) {
+        this(service, compile(Collections.singletonList(new Interceptor(action, predicate))));
+    }
+
+    /**
+     * Constructs a new instance running the interceptors compiled with
+     * {@link #compile(Collection)}.
+     */
+    DeferredOperationPredicate(Service service, Interceptor[][] interceptorsByAction) {
         this.service = service;
-        this.action = action;
-        this.predicate = predicate;
+        this.interceptorsByAction = interceptorsByAction;
+    }
+
+    /**
+     * Groups the given interceptors by the action they apply to, preserving their order, so that
+     * an operation only iterates over the interceptors of its own action.
+     */
+    static Interceptor[][] compile(Collection<Interceptor> interceptors) {
+        Action[] actions = Action.values();
+        Interceptor[][] interceptorsByAction = new Interceptor[actions.length][];
+        for (Action action : actions) {
+            List<Interceptor> matching = new ArrayList<>();
+            for (Interceptor interceptor : interceptors) {
+                if (interceptor.action == null || interceptor.action == action) {
+                    matching.add(interceptor);
+                }
+            }
+            interceptorsByAction[action.ordinal()] = matching.isEmpty() ? NO_INTERCEPTORS
+                    : matching.toArray(new Interceptor[matching.size()]);
+        }
+        return interceptorsByAction;
     }
 
     @Override
     public boolean test(Operation operation) {
-        if (action != null && !action.equals(operation.getAction())) {
+        Action action = operation.getAction();
+        if (action == null) {
             return true;
         }
+        return proceed(operation, this.interceptorsByAction[action.ordinal()], 0);
+    }
 
-        DeferredResult<Void> dr;
-        try {
-            dr = this.predicate.apply(this.service, operation);
-            if (dr == null) {
-                return true;
+    /**
+     * Runs the interceptors starting at the given index and returns whether the processing of the
+     * operation can continue right away. Otherwise it is resumed or failed once the pending
+     * interceptor completes.
+     */
+    private boolean proceed(Operation operation, Interceptor[] interceptors, int index) {
+        for (int i = index; i < interceptors.length; i++) {
+            Interceptor interceptor = interceptors[i];
+            DeferredResult<Void> dr;
+            try {
+                dr = interceptor.function.apply(this.service, operation);
+                if (dr == null) {
+                    continue;
+                }
+            } catch (Exception e) {
+                dr = DeferredResult.failed(e);
             }
-        } catch (Exception e) {
-            dr = DeferredResult.failed(e);
-        }
 
-        dr.whenComplete((ignore, e) -> {
-            if (e != null) {
-                this.service.getHost().log(Level.INFO,
-                        "Operation interceptor %s: Action: %s returned error: %s",
-                        this.service.getClass().getCanonicalName(), this.action,
-                        e.toString());
-
-                if (e instanceof CompletionException && e.getCause().getMessage().contains("forbidden")
-                        || e.getMessage().contains("forbidden")) {
-                    operation.fail(Operation.STATUS_CODE_FORBIDDEN, e, e);
-                    return;
-                }
-                operation.fail(e);
-            } else {
-                this.service.getOperationProcessingChain().resumeProcessingRequest(operation, this);
+            CompletableFuture<Void> future = dr.toCompletionStage().toCompletableFuture();
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                continue;
             }
-        });
-        return false;
+
+            int next = i + 1;
+            dr.whenComplete((ignore, e) -> {
+                if (e != null) {
+                    fail(operation, interceptor, e);
+                } else if (proceed(operation, interceptors, next)) {
+                    this.service.getOperationProcessingChain()
+                            .resumeProcessingRequest(operation, this);
+                }
+            });
+            return false;
+        }
+        return true;
+    }
+
+    private void fail(Operation operation, Interceptor interceptor, Throwable e) {
+        this.service.getHost().log(Level.INFO,
+                "Operation interceptor %s: Action: %s returned error: %s",
+                this.service.getClass().getCanonicalName(), interceptor.action,
+                e.toString());
+
+        if (e instanceof CompletionException && e.getCause().getMessage().contains("forbidden")
+                || e.getMessage().contains("forbidden")) {
+            operation.fail(Operation.STATUS_CODE_FORBIDDEN, e, e);
+            return;
+        }
+        operation.fail(e);
     }
 }
@@ -15,10 +15,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.BiFunction;
-import java.util.function.Predicate;
 import java.util.logging.Level;
 
+import com.vmware.admiral.host.interceptor.DeferredOperationPredicate.Interceptor;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.FactoryService;
 import com.vmware.xenon.common.Operation;
@@ -28,18 +30,16 @@ import com.vmware.xenon.common.Service.Action;
 import com.vmware.xenon.common.Utils;
 
 /**
- * A registry of service operation interceptors.
+ * A registry of service operation interceptors. The interceptors of a service type are compiled
+ * once, into a flat array per action, and shared by all instances of the type.
  */
 public class OperationInterceptorRegistry {
-    private static class InterceptorData {
-        public Action action;
-        public BiFunction<Service, Operation, DeferredResult<Void>> interceptor;
-    }
-
-    private final Map<Class<? extends Service>, Collection<InterceptorData>> serviceInterceptors =
+    private final Map<Class<? extends Service>, Collection<Interceptor>> serviceInterceptors =
             new HashMap<>();
-    private final Map<Class<? extends Service>, Collection<InterceptorData>> factoryServiceInterceptors =
+    private final Map<Class<? extends Service>, Collection<Interceptor>> factoryServiceInterceptors =
             new HashMap<>();
+    private final ConcurrentMap<Class<? extends Service>, Interceptor[][]> compiledInterceptors =
+            new ConcurrentHashMap<>();
 
     public OperationInterceptorRegistry() {
     }
@@ -49,10 +49,9 @@ public class OperationInterceptorRegistry {
      */
     public void addServiceInterceptor(Class<? extends Service> serviceType, Action action,
             BiFunction<Service, Operation, DeferredResult<Void>> interceptor) {
-        InterceptorData data = new InterceptorData();
-        data.action = action;
-        data.interceptor = interceptor;
-        this.serviceInterceptors.computeIfAbsent(serviceType, s -> new ArrayList<>()).add(data);
+        this.serviceInterceptors.computeIfAbsent(serviceType, s -> new ArrayList<>())
+                .add(new Interceptor(action, interceptor));
+        this.compiledInterceptors.clear();
     }
 
     /**
@@ -60,11 +59,9 @@ public class OperationInterceptorRegistry {
      */
     public void addFactoryServiceInterceptor(Class<? extends Service> serviceInstanceType,
             Action action, BiFunction<Service, Operation, DeferredResult<Void>> interceptor) {
-        InterceptorData data = new InterceptorData();
-        data.action = action;
-        data.interceptor = interceptor;
         this.factoryServiceInterceptors.computeIfAbsent(
-                serviceInstanceType, s -> new ArrayList<>()).add(data);
+                serviceInstanceType, s -> new ArrayList<>())
+                .add(new Interceptor(action, interceptor));
     }
 
     /**
@@ -72,19 +69,31 @@ public class OperationInterceptorRegistry {
      * adds them to the operation processing chain of the service.
      */
     public void subscribeToService(Service service) {
-        Collection<InterceptorData> interceptors = checkForInterceptor(service);
+        Interceptor[][] interceptors = getCompiledInterceptors(service);
         if (interceptors != null) {
-            OperationProcessingChain chain = getServiceOperationProcessingChain(service);
-            for (InterceptorData data : interceptors) {
-                Predicate<Operation> filter = new DeferredOperationPredicate(service, data.action,
-                        data.interceptor);
-                chain.add(filter);
-            }
+            getServiceOperationProcessingChain(service)
+                    .add(new DeferredOperationPredicate(service, interceptors));
+        }
+    }
+
+    private Interceptor[][] getCompiledInterceptors(Service service) {
+        Interceptor[][] compiled = this.compiledInterceptors.get(service.getClass());
+        if (compiled != null) {
+            return compiled.length > 0 ? compiled : null;
+        }
+
+        Collection<Interceptor> interceptors = checkForInterceptor(service);
+        compiled = interceptors != null ? DeferredOperationPredicate.compile(interceptors)
+                : new Interceptor[0][];
+        // instances of the same factory class may create different child services
+        if (!(service instanceof FactoryService)) {
+            this.compiledInterceptors.put(service.getClass(), compiled);
         }
+        return compiled.length > 0 ? compiled : null;
     }
 
-    private Collection<InterceptorData> checkForInterceptor(Service service) {
-        Collection<InterceptorData> data = this.serviceInterceptors.get(service.getClass());
+    private Collection<Interceptor> checkForInterceptor(Service service) {
+        Collection<Interceptor> data = this.serviceInterceptors.get(service.getClass());
         if (data != null) {
             return data;
         }
@@ -23,7 +23,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -31,7 +30,6 @@ import java.util.stream.Collectors;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
-import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceUtils;
 import com.vmware.admiral.host.IExtensibilityRegistryHost;
 import com.vmware.admiral.service.common.CounterSubTaskService.CounterSubTaskState;
@@ -43,6 +41,7 @@ import com.vmware.photon.controller.model.resources.TagService.TagState;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
 import com.vmware.xenon.common.ServiceErrorResponse;
 import com.vmware.xenon.common.StatefulService;
 import com.vmware.xenon.common.TaskState;
@@ -127,6 +126,88 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
          * Set of resource links provisioned or performed operation on them.
          */
         public Set<String> resourceLinks;
+
+        /**
+         * Coalesced updates of several tasks of the same request, applied in order by the request
+         * tracker. Only set on PATCH bodies, in which case the other fields are ignored.
+         */
+        @PropertyOptions(indexing = PropertyIndexingOption.STORE_ONLY)
+        public List<TaskStatusUpdate> taskUpdates;
+    }
+
+    /**
+     * Compact update of the status of a single task. Only the latest update of a task survives
+     * coalescing, and the tenant links, which are of no use to the request tracker, are dropped.
+     */
+    public static class TaskStatusUpdate {
+        /** Id of the task, the same as {@link TaskStatusState#documentSelfLink} */
+        public String taskId;
+
+        public String phase;
+
+        public TaskState taskInfo;
+
+        public String subStage;
+
+        public Integer progress;
+
+        public String name;
+
+        public String eventLogLink;
+
+        public Set<String> resourceLinks;
+
+        public static TaskStatusUpdate fromTaskStatus(TaskStatusState taskStatus) {
+            TaskStatusUpdate update = new TaskStatusUpdate();
+            update.taskId = taskStatus.documentSelfLink;
+            update.phase = taskStatus.phase;
+            update.taskInfo = taskStatus.taskInfo;
+            update.subStage = taskStatus.subStage;
+            update.progress = taskStatus.progress;
+            update.name = taskStatus.name;
+            update.eventLogLink = taskStatus.eventLogLink;
+            update.resourceLinks = taskStatus.resourceLinks;
+            return update;
+        }
+
+        public <S extends TaskStatusState> S toTaskStatus(S taskStatus) {
+            taskStatus.documentSelfLink = taskId;
+            taskStatus.phase = phase;
+            taskStatus.taskInfo = taskInfo;
+            taskStatus.subStage = subStage;
+            taskStatus.progress = progress;
+            taskStatus.name = name;
+            taskStatus.eventLogLink = eventLogLink;
+            taskStatus.resourceLinks = resourceLinks;
+            return taskStatus;
+        }
+
+        /**
+         * Whether the update completes the task, i.e. it must reach the request tracker as soon as
+         * possible.
+         */
+        public boolean isTerminal() {
+            return taskInfo != null && taskInfo.stage != null
+                    && taskInfo.stage.ordinal() > TaskStage.STARTED.ordinal();
+        }
+
+        /**
+         * Merges a newer update of the same task into this one. The newer progress replaces the
+         * older one, while the optional fields are kept unless overridden.
+         */
+        public TaskStatusUpdate merge(TaskStatusUpdate newer) {
+            TaskStatusUpdate merged = new TaskStatusUpdate();
+            merged.taskId = newer.taskId;
+            merged.phase = newer.phase;
+            merged.taskInfo = newer.taskInfo;
+            merged.subStage = newer.subStage;
+            merged.progress = newer.progress;
+            merged.name = newer.name != null ? newer.name : name;
+            merged.eventLogLink = newer.eventLogLink != null ? newer.eventLogLink : eventLogLink;
+            merged.resourceLinks = newer.resourceLinks != null ? newer.resourceLinks
+                    : resourceLinks;
+            return merged;
+        }
     }
 
     public AbstractTaskStatefulService(Class<? extends TaskServiceDocument<E>> stateType,
@@ -409,34 +490,15 @@ public abstract class AbstractTaskStatefulService<T extends TaskServiceDocument<
         updateRequestTracker(state, RETRIES_COUNT);
     }
 
+    /**
+     * Updates the request tracker with the current status of the task. The update is coalesced
+     * with the updates of the other tasks of the same request, see
+     * {@link RequestTrackerUpdateBuffer}.
+     */
     protected void updateRequestTracker(T state, int retryCount) {
         if (state != null && state.requestTrackerLink != null) {
-            sendRequest(Operation
-                    .createPatch(this, state.requestTrackerLink)
-                    .setBody(fromTask(state))
-                    .setCompletion((o, ex) -> {
-                        if (ex != null) {
-                            // log but don't fail the task
-                            if (ex instanceof CancellationException) {
-                                logFine("CancellationException: Failed to update request tracker:"
-                                        + " %s", state.requestTrackerLink);
-                                // retry only the finished and failed updates. The others are not so
-                                // important
-                            } else if (TaskStage.FINISHED.name()
-                                    .equals(state.taskInfo.stage.name())
-                                    || TaskStage.FAILED.name().equals(state.taskInfo.stage.name())
-                                    && retryCount > 0) {
-                                getHost().schedule(
-                                        () -> updateRequestTracker(state, retryCount - 1),
-                                        QueryUtil.QUERY_RETRY_INTERVAL_MILLIS,
-                                        TimeUnit.MILLISECONDS);
-                            } else {
-                                logWarning("Failed to update request tracker: %s. Error: %s",
-                                        state.requestTrackerLink, Utils.toString(ex));
-                            }
-                        }
-                    }));
-
+            RequestTrackerUpdateBuffer.enqueue(this, state.requestTrackerLink,
+                    TaskStatusUpdate.fromTaskStatus(fromTask(state)), retryCount);
         } else if (state != null && state.documentSelfLink != null) {
             logFine("Task doesn't have a requestTrackerLink set: %s ", state.documentSelfLink);
         }
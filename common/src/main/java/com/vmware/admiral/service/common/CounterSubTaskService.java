@@ -37,6 +37,15 @@ import com.vmware.xenon.common.Utils;
 public class CounterSubTaskService extends StatefulService {
     public static final String FACTORY_LINK = ManagementUriParts.COUNTER_SUB_TASKS;
 
+    /**
+     * Creates persisted and replicated counter sub tasks instead of the in-memory ones, see
+     * {@link LocalCounterSubTaskService}. To be enabled on nodes configured for node-failure
+     * recovery, since the in-memory counters are reachable only from the node that created them
+     * and don't survive its failure.
+     */
+    private static final boolean PERSISTENCE_REQUIRED = Boolean.getBoolean(
+            "com.vmware.admiral.service.common.counter.subtask.persistence");
+
     public static class CounterSubTaskState extends ServiceDocument {
         public TaskState taskInfo = new TaskState();
         public long completionsRemaining = 1;
@@ -76,14 +85,27 @@ public class CounterSubTaskService extends StatefulService {
     public static void createSubTask(
             AbstractTaskStatefulService<?, ?> service, CounterSubTaskState subTaskInitState,
             Consumer<String> callbackFunc) {
+        createSubTask(service, getFactoryLink(PERSISTENCE_REQUIRED), subTaskInitState,
+                callbackFunc);
+    }
+
+    /** Returns the factory creating the counter sub tasks. */
+    static String getFactoryLink(boolean persistenceRequired) {
+        return persistenceRequired ? CounterSubTaskService.FACTORY_LINK
+                : LocalCounterSubTaskService.FACTORY_LINK;
+    }
+
+    private static void createSubTask(
+            AbstractTaskStatefulService<?, ?> service, String factoryLink,
+            CounterSubTaskState subTaskInitState, Consumer<String> callbackFunc) {
         try {
-            final String link = UriUtils.buildUriPath(CounterSubTaskService.FACTORY_LINK,
+            final String link = UriUtils.buildUriPath(factoryLink,
                     UUID.randomUUID().toString(), service.getSelfLink());
             subTaskInitState.documentSelfLink = link;
             subTaskInitState.documentExpirationTimeMicros = ServiceUtils
                     .getDefaultTaskExpirationTimeInMicros();
 
-            Operation postOp = Operation.createPost(service, CounterSubTaskService.FACTORY_LINK)
+            Operation postOp = Operation.createPost(service, factoryLink)
                     .setBody(subTaskInitState)
                     .setCompletion((o, e) -> {
                         if (e != null) {
@@ -192,6 +214,14 @@ public class CounterSubTaskService extends StatefulService {
         } catch (Throwable e) {
             logSevere("Can't notify parent task. Error: %s", Utils.toString(e));
         }
+
+        handleCompletion(currentState);
+    }
+
+    /**
+     * Invoked once the parent task has been notified about the completion of all sub tasks.
+     */
+    protected void handleCompletion(CounterSubTaskState state) {
     }
 
     @Override
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * In-memory variant of the {@link CounterSubTaskService}, with the same completion semantics. The
+ * counter lives only on the node that created it, so joining N sub tasks costs no replicated or
+ * indexed writes. Used unless the com.vmware.admiral.service.common.counter.subtask.persistence
+ * property is set on nodes configured for node-failure recovery, whose counters must be reachable
+ * from and survive the failure of any node.
+ */
+public class LocalCounterSubTaskService extends CounterSubTaskService {
+    public static final String FACTORY_LINK = ManagementUriParts.COUNTER_SUB_TASKS_LOCAL;
+
+    /**
+     * How long a completed counter is kept, so that late sub task notifications are still
+     * acknowledged, before it is removed from memory.
+     */
+    private static final long COMPLETED_RETENTION_SECONDS = Long.getLong(
+            "com.vmware.admiral.service.common.counter.subtask.local.retention.seconds",
+            TimeUnit.MINUTES.toSeconds(5));
+
+    public LocalCounterSubTaskService() {
+        super();
+        super.toggleOption(ServiceOption.PERSISTENCE, false);
+        super.toggleOption(ServiceOption.REPLICATION, false);
+        super.toggleOption(ServiceOption.OWNER_SELECTION, false);
+    }
+
+    @Override
+    protected void handleCompletion(CounterSubTaskState state) {
+        getHost().schedule(() -> sendRequest(Operation.createDelete(getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logWarning("Failed to delete completed counter sub task: %s",
+                                Utils.toString(e));
+                    }
+                })), COMPLETED_RETENTION_SECONDS, TimeUnit.SECONDS);
+    }
+}
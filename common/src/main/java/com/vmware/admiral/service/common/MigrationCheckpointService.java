@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import static com.vmware.admiral.common.util.AssertUtil.assertNotEmpty;
+import static com.vmware.admiral.common.util.AssertUtil.assertNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.StatefulService;
+import com.vmware.xenon.common.UriUtils;
+
+/**
+ * Records how far the documents of a factory were migrated from a source node group by
+ * {@link NodeMigrationService}, so that a repeated or interrupted migration continues from there
+ * instead of migrating all documents again.
+ */
+public class MigrationCheckpointService extends StatefulService {
+    public static final String FACTORY_LINK = ManagementUriParts.MIGRATION_CHECKPOINTS;
+
+    public static class MigrationCheckpointState extends ServiceDocument {
+        /** The node group the documents are migrated from. */
+        public String sourceNodeGroup;
+
+        /** The node group the documents are migrated to. */
+        public String destinationNodeGroup;
+
+        /** The factory whose documents are migrated. */
+        public String factoryLink;
+
+        /**
+         * The latest update time of the migrated source documents. Documents updated until that
+         * time are already migrated.
+         */
+        public Long latestSourceUpdateTimeMicros;
+
+        /** The migration task which migrated the documents. */
+        public String migrationTaskLink;
+    }
+
+    public MigrationCheckpointService() {
+        super(MigrationCheckpointState.class);
+        super.toggleOption(ServiceOption.PERSISTENCE, true);
+        super.toggleOption(ServiceOption.REPLICATION, true);
+        super.toggleOption(ServiceOption.OWNER_SELECTION, true);
+        super.toggleOption(ServiceOption.IDEMPOTENT_POST, true);
+    }
+
+    /**
+     * Returns the link of the checkpoint of the migration of the given factory between the given
+     * node groups.
+     */
+    public static String buildCheckpointLink(String sourceNodeGroup, String destinationNodeGroup,
+            String factoryLink) {
+        String key = sourceNodeGroup + "|" + destinationNodeGroup + "|" + factoryLink;
+        return UriUtils.buildUriPath(FACTORY_LINK,
+                UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString());
+    }
+
+    @Override
+    public void handleCreate(Operation post) {
+        if (!checkForBody(post)) {
+            return;
+        }
+
+        validate(post.getBody(MigrationCheckpointState.class));
+        post.complete();
+    }
+
+    @Override
+    public void handlePut(Operation put) {
+        if (!checkForBody(put)) {
+            return;
+        }
+
+        MigrationCheckpointState body = put.getBody(MigrationCheckpointState.class);
+        validate(body);
+
+        this.setState(put, body);
+        put.setBody(body).complete();
+    }
+
+    private void validate(MigrationCheckpointState state) {
+        assertNotEmpty(state.sourceNodeGroup, "sourceNodeGroup");
+        assertNotEmpty(state.destinationNodeGroup, "destinationNodeGroup");
+        assertNotEmpty(state.factoryLink, "factoryLink");
+        assertNotNull(state.latestSourceUpdateTimeMicros, "latestSourceUpdateTimeMicros");
+    }
+}
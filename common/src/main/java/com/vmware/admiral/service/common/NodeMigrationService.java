@@ -14,32 +14,50 @@ package com.vmware.admiral.service.common;
 import static com.vmware.admiral.common.util.ServiceUtils.addServiceRequestRoute;
 
 import java.net.URI;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.service.common.MigrationCheckpointService.MigrationCheckpointState;
 import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceSubscriptionState.ServiceSubscriber;
 import com.vmware.xenon.common.StatelessService;
-import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.services.common.MigrationTaskService;
 import com.vmware.xenon.services.common.MigrationTaskService.State;
+import com.vmware.xenon.services.common.QueryTask.NumericRange;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
 import com.vmware.xenon.services.common.ServiceUriPaths;
 
 /**
- * Service is meant to do a migration of the documents/states from another xenon node.
+ * Service is meant to do a migration of the documents/states from another xenon node. The
+ * factories are migrated concurrently, and the progress of each factory is recorded by
+ * {@link MigrationCheckpointService}, so a repeated migration only migrates the documents changed
+ * on the source since.
  */
 public class NodeMigrationService extends StatelessService {
 
     public static final String SELF_LINK = ManagementUriParts.MIGRATION;
 
-    private static final int MIGRATION_CHECK_DELAY_SECONDS = 6;
-    private static final int MIGRATION_CHECK_RETRIES = 200;
+    private static final int MIGRATION_TIMEOUT_SECONDS = 1200;
+
+    /**
+     * The maximum number of factories migrated at the same time.
+     */
+    public static final int MAX_CONCURRENT_MIGRATIONS = Integer.getInteger(
+            "com.vmware.admiral.migration.max.concurrent.tasks", 8);
 
     public Set<String> services = ConcurrentHashMap.newKeySet();
 
@@ -89,6 +107,7 @@ public class NodeMigrationService extends StatelessService {
         services.remove(ManagementUriParts.HOST_VOLUME_LIST_DATA_COLLECTION);
         services.remove(ManagementUriParts.EVENT_TOPIC);
         services.remove(ManagementUriParts.EXTENSIBILITY_SUBSCRIPTION);
+        services.remove(ManagementUriParts.MIGRATION_CHECKPOINTS);
 
         patch.complete();
     }
@@ -133,101 +152,250 @@ public class NodeMigrationService extends StatelessService {
             }
         }
 
-        performMigration(post, services, migrationState, () -> {
-            performMigration(post, dependentServices, migrationState, () -> {
-                logInfo("Migration completed successfully");
-                post.complete();
-            });
+        // the dependent services are migrated once the services they depend on are migrated
+        migrateFactories(new ArrayList<>(services), migrationState)
+                .thenCompose(ignore -> migrateFactories(new ArrayList<>(dependentServices),
+                        migrationState))
+                .whenComplete((ignore, e) -> {
+                    if (e != null) {
+                        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                        logSevere("Migration failed: %s", cause.getMessage());
+                        post.fail(cause);
+                        return;
+                    }
+                    logInfo("Migration completed successfully");
+                    post.complete();
+                });
+    }
+
+    /**
+     * Migrates the documents of the given factories, running up to
+     * {@link #MAX_CONCURRENT_MIGRATIONS} migration tasks at a time. No more tasks are started
+     * once one of them fails.
+     */
+    private DeferredResult<Void> migrateFactories(List<String> factoryLinks,
+            State migrationState) {
+        if (factoryLinks.isEmpty()) {
+            return DeferredResult.completed(null);
+        }
+
+        DeferredResult<Void> result = new DeferredResult<>();
+        Queue<String> pendingFactoryLinks = new ConcurrentLinkedQueue<>(factoryLinks);
+        AtomicInteger remaining = new AtomicInteger(factoryLinks.size());
+        int concurrency = Math.max(1, Math.min(MAX_CONCURRENT_MIGRATIONS, factoryLinks.size()));
+        for (int i = 0; i < concurrency; i++) {
+            migrateNextFactory(pendingFactoryLinks, remaining, migrationState, result);
+        }
+        return result;
+    }
+
+    private void migrateNextFactory(Queue<String> pendingFactoryLinks, AtomicInteger remaining,
+            State migrationState, DeferredResult<Void> result) {
+        String factoryLink = pendingFactoryLinks.poll();
+        if (factoryLink == null) {
+            return;
+        }
+
+        migrateFactory(factoryLink, migrationState).whenComplete((ignore, e) -> {
+            if (e != null) {
+                pendingFactoryLinks.clear();
+                result.fail(e instanceof CompletionException ? e.getCause() : e);
+                return;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                result.complete(null);
+            } else {
+                migrateNextFactory(pendingFactoryLinks, remaining, migrationState, result);
+            }
         });
     }
 
-    private void performMigration(Operation post, Set<String> services, State migrationState,
-            Runnable callback) {
-
-        Set<String> migrationTasksInProgress = ConcurrentHashMap.newKeySet();
-        AtomicBoolean hasError = new AtomicBoolean(false);
-
-        Iterator<String> servicesIterator = services.iterator();
-        servicesIterator.forEachRemaining(currentService -> {
-            migrationState.destinationFactoryLink = currentService;
-            migrationState.sourceFactoryLink = currentService;
-
-            Operation operation = Operation.createPost(this, MigrationTaskService.FACTORY_LINK)
-                    .setBody(migrationState)
-                    .setCompletion((o, ex) -> {
-                        if (ex != null) {
-                            getHost().log(Level.SEVERE,
-                                    "Failure when calling migration task. Error: %s",
-                                    ex.getMessage());
-                            if (hasError.compareAndSet(false, true)) {
-                                post.fail(new Throwable("Failure when calling migration task", ex));
-                            }
-                        } else {
-                            State state = o.getBody(State.class);
-                            migrationTasksInProgress.add(state.documentSelfLink);
-                            getHost().log(Level.INFO, "Migration task created: %s",
-                                    state.documentSelfLink);
-                            if (migrationTasksInProgress.size() == services.size()) {
-                                waitForMigrationToComplete(MIGRATION_CHECK_RETRIES,
-                                        migrationTasksInProgress, hasError, post, callback);
-                            }
+    /**
+     * Migrates the documents of the given factory which were updated on the source since the
+     * last checkpoint of the factory, and records a new checkpoint once they are migrated.
+     */
+    private DeferredResult<Void> migrateFactory(String factoryLink, State migrationState) {
+        String checkpointLink = MigrationCheckpointService.buildCheckpointLink(
+                migrationState.sourceNodeGroupReference.toString(),
+                migrationState.destinationNodeGroupReference.toString(), factoryLink);
+
+        return getCheckpoint(checkpointLink)
+                .thenCompose(checkpoint -> startMigrationTask(factoryLink, migrationState,
+                        checkpoint)
+                        .thenCompose(this::waitForMigrationTask)
+                        .thenCompose(state -> saveCheckpoint(checkpointLink, factoryLink,
+                                migrationState, checkpoint, state)));
+    }
+
+    private DeferredResult<MigrationCheckpointState> getCheckpoint(String checkpointLink) {
+        DeferredResult<MigrationCheckpointState> result = new DeferredResult<>();
+        Operation get = Operation.createGet(this, checkpointLink)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        // without a checkpoint all documents of the factory are migrated
+                        if (o.getStatusCode() != Operation.STATUS_CODE_NOT_FOUND) {
+                            logWarning("Failure getting migration checkpoint %s: %s",
+                                    checkpointLink, e.getMessage());
                         }
-                    });
-            super.setAuthorizationContext(operation, this.getSystemAuthorizationContext());
-            sendRequest(operation);
-        });
+                        result.complete(null);
+                        return;
+                    }
+                    result.complete(o.getBody(MigrationCheckpointState.class));
+                });
+        super.setAuthorizationContext(get, this.getSystemAuthorizationContext());
+        sendRequest(get);
+        return result;
+    }
+
+    private DeferredResult<String> startMigrationTask(String factoryLink, State migrationState,
+            MigrationCheckpointState checkpoint) {
+        State taskState = new State();
+        taskState.continuousMigration = migrationState.continuousMigration;
+        taskState.sourceNodeGroupReference = migrationState.sourceNodeGroupReference;
+        taskState.destinationNodeGroupReference = migrationState.destinationNodeGroupReference;
+        taskState.sourceFactoryLink = factoryLink;
+        taskState.destinationFactoryLink = factoryLink;
+        if (checkpoint != null && checkpoint.latestSourceUpdateTimeMicros != null) {
+            logInfo("Resuming migration of %s from %d", factoryLink,
+                    checkpoint.latestSourceUpdateTimeMicros);
+            // documents updated at the checkpoint are migrated already, and can't be migrated
+            // again since they are started on the destination
+            taskState.querySpec = new QuerySpecification();
+            taskState.querySpec.query = Query.Builder.create()
+                    .addRangeClause(ServiceDocument.FIELD_NAME_UPDATE_TIME_MICROS,
+                            NumericRange.createLongRange(checkpoint.latestSourceUpdateTimeMicros,
+                                    Long.MAX_VALUE, false, false))
+                    .build();
+        }
+
+        DeferredResult<String> result = new DeferredResult<>();
+        Operation operation = Operation.createPost(this, MigrationTaskService.FACTORY_LINK)
+                .setBody(taskState)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        getHost().log(Level.SEVERE,
+                                "Failure when calling migration task. Error: %s",
+                                ex.getMessage());
+                        result.fail(new Throwable("Failure when calling migration task", ex));
+                        return;
+                    }
+                    State state = o.getBody(State.class);
+                    getHost().log(Level.INFO, "Migration task created: %s",
+                            state.documentSelfLink);
+                    result.complete(state.documentSelfLink);
+                });
+        super.setAuthorizationContext(operation, this.getSystemAuthorizationContext());
+        sendRequest(operation);
+        return result;
     }
 
-    private void waitForMigrationToComplete(int retryCount, Set<String> migrationTasksInProgress,
-            AtomicBoolean hasError, Operation post, Runnable callback) {
-
-        getHost().schedule(() -> {
-            Iterator<String> tasksIterator = migrationTasksInProgress.iterator();
-            tasksIterator.forEachRemaining(currentTask -> {
-                sendRequest(Operation.createGet(this, currentTask)
-                        .setCompletion((o, ex) -> {
-                            if (ex != null) {
-                                getHost().log(Level.SEVERE,
-                                        "Failure getting migration task: %s. Error: %s",
-                                        currentTask, ex.getMessage());
-                            } else {
-                                State state = o.getBody(State.class);
-                                if (state.taskInfo.stage == TaskStage.FINISHED) {
-                                    logInfo("Migration task completed: %s", currentTask);
-                                    migrationTasksInProgress.remove(currentTask);
-                                } else if (state.taskInfo.stage == TaskStage.FAILED) {
-                                    // If a factory is missing on the source this is not a problem
-                                    // for the migration. The factory should be skipped.
-                                    if (state.taskInfo.failure.message.contains(
-                                            "Failed to get factory config from all source nodes")) {
-                                        logInfo("Migration task skipped because it does not exist"
-                                                        + " on source: %s", currentTask);
-                                        migrationTasksInProgress.remove(currentTask);
-                                    } else {
-                                        logInfo("Migration task failed: %s", currentTask);
-                                        if (hasError.compareAndSet(false, true)) {
-                                            logSevere("Migration failed");
-                                            post.fail(new Throwable(
-                                                    "One or more migration tasks failed"));
-                                            migrationTasksInProgress.remove(currentTask);
-                                        }
-                                    }
-                                }
-                            }
-                        }));
-            });
-            if (migrationTasksInProgress.isEmpty() && !hasError.get()) {
-                callback.run();
+    /**
+     * Subscribes for the state of the given migration task and completes with its final state,
+     * or with {@code null} if the task was skipped because its factory does not exist on the
+     * source.
+     */
+    private DeferredResult<State> waitForMigrationTask(String taskLink) {
+        DeferredResult<State> result = new DeferredResult<>();
+        Operation subscribe = Operation.createPost(this, taskLink)
+                .setReferer(getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        logSevere("Failure subscribing for migration task: %s. Error: %s",
+                                taskLink, e.getMessage());
+                        result.fail(new Throwable("Failure subscribing for migration task", e));
+                    }
+                });
+        super.setAuthorizationContext(subscribe, this.getSystemAuthorizationContext());
+
+        // the current state is replayed, so a task completed meanwhile is not missed
+        URI notificationTarget = getHost().startSubscriptionService(subscribe, notification -> {
+            notification.complete();
+            if (notification.getAction() == Action.DELETE || !notification.hasBody()) {
                 return;
             }
-            if (retryCount > 0) {
-                waitForMigrationToComplete(retryCount - 1, migrationTasksInProgress, hasError,
-                        post, callback);
-            } else if (!hasError.get()) {
-                post.fail(new Throwable("Migration did not finish in the expected time frame"));
-                logSevere("Migration did not finish in the expected time frame");
+            handleMigrationTaskState(taskLink, notification.getBody(State.class), result);
+        }, ServiceSubscriber.create(true));
+
+        ScheduledFuture<?> timeout = getHost().schedule(() -> {
+            if (result.fail(new Throwable("Migration did not finish in the expected time frame"))) {
+                logSevere("Migration task %s did not finish in the expected time frame",
+                        taskLink);
             }
-        }, MIGRATION_CHECK_DELAY_SECONDS, TimeUnit.SECONDS);
+        }, MIGRATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        return result.whenComplete((state, e) -> {
+            timeout.cancel(false);
+            Operation unsubscribe = Operation.createDelete(this, taskLink)
+                    .setReferer(getUri());
+            super.setAuthorizationContext(unsubscribe, this.getSystemAuthorizationContext());
+            getHost().stopSubscriptionService(unsubscribe, notificationTarget);
+        });
+    }
+
+    private void handleMigrationTaskState(String taskLink, State state,
+            DeferredResult<State> result) {
+        if (state.taskInfo == null) {
+            return;
+        }
+
+        switch (state.taskInfo.stage) {
+        case FINISHED:
+            logInfo("Migration task completed: %s", taskLink);
+            result.complete(state);
+            break;
+        case FAILED:
+        case CANCELLED:
+            // If a factory is missing on the source this is not a problem
+            // for the migration. The factory should be skipped.
+            if (state.taskInfo.failure != null && state.taskInfo.failure.message != null
+                    && state.taskInfo.failure.message.contains(
+                            "Failed to get factory config from all source nodes")) {
+                logInfo("Migration task skipped because it does not exist on source: %s",
+                        taskLink);
+                result.complete(null);
+            } else {
+                logInfo("Migration task failed: %s", taskLink);
+                result.fail(new Throwable("One or more migration tasks failed"));
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    private DeferredResult<Void> saveCheckpoint(String checkpointLink, String factoryLink,
+            State migrationState, MigrationCheckpointState previousCheckpoint, State taskState) {
+        if (taskState == null || taskState.latestSourceUpdateTimeMicros == null
+                || taskState.latestSourceUpdateTimeMicros <= 0
+                || (previousCheckpoint != null
+                        && previousCheckpoint.latestSourceUpdateTimeMicros != null
+                        && previousCheckpoint.latestSourceUpdateTimeMicros
+                                >= taskState.latestSourceUpdateTimeMicros)) {
+            return DeferredResult.completed(null);
+        }
+
+        MigrationCheckpointState checkpoint = new MigrationCheckpointState();
+        checkpoint.documentSelfLink = checkpointLink;
+        checkpoint.sourceNodeGroup = migrationState.sourceNodeGroupReference.toString();
+        checkpoint.destinationNodeGroup = migrationState.destinationNodeGroupReference.toString();
+        checkpoint.factoryLink = factoryLink;
+        checkpoint.latestSourceUpdateTimeMicros = taskState.latestSourceUpdateTimeMicros;
+        checkpoint.migrationTaskLink = taskState.documentSelfLink;
+
+        DeferredResult<Void> result = new DeferredResult<>();
+        Operation post = Operation.createPost(this, MigrationCheckpointService.FACTORY_LINK)
+                .setBody(checkpoint)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        // the documents are migrated, the next migration just repeats more work
+                        logWarning("Failure saving migration checkpoint of %s: %s", factoryLink,
+                                e.getMessage());
+                    }
+                    result.complete(null);
+                });
+        super.setAuthorizationContext(post, this.getSystemAuthorizationContext());
+        sendRequest(post);
+        return result;
     }
 
     @Override
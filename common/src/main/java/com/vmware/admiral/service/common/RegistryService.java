@@ -258,8 +258,18 @@ public class RegistryService extends StatefulService {
 
     public static void fetchRegistryCertificate(RegistryState registry, Consumer<String> callback,
             ServiceHost host) {
+        fetchRegistryCertificate(registry, callback, () -> { }, host);
+    }
+
+    /**
+     * Fetches the certificate of the given registry, calling the noCertificateCallback instead of
+     * the callback when the registry has no certificate or it can't be fetched.
+     */
+    public static void fetchRegistryCertificate(RegistryState registry, Consumer<String> callback,
+            Runnable noCertificateCallback, ServiceHost host) {
         if (DeploymentProfileConfig.getInstance().isTest()) {
             Utils.logWarning("No ssl trust validation is performed in test mode...");
+            noCertificateCallback.run();
             return;
         }
 
@@ -267,6 +277,7 @@ public class RegistryService extends StatefulService {
         if (!UriUtils.HTTPS_SCHEME.equalsIgnoreCase(uri.getScheme())) {
             Utils.logWarning("Using non secure channel, no certificate distribution for [%s]",
                     registry.address);
+            noCertificateCallback.run();
             return;
         }
 
@@ -279,6 +290,7 @@ public class RegistryService extends StatefulService {
             if (ex != null) {
                 Utils.logWarning("Cannot connect to %s to get remote certificate",
                         registry.address);
+                noCertificateCallback.run();
                 return;
             }
             X509Certificate[] certificateChain = resolver.getCertificateChain();
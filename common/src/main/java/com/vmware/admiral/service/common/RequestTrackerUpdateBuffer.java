@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusState;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusUpdate;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Node-local buffer coalescing the request tracker updates of all tasks of a request. Instead of a
+ * PATCH per substage transition of every task, the request tracker receives at most one PATCH per
+ * flush interval, holding only the latest update of each task. Updates completing or failing a
+ * task flush the pending updates of the request right away.
+ *
+ * The updates are delta encoded against what the request tracker already received: the name and
+ * the resource links of a request are set once, so they are left out of the updates once a PATCH
+ * delivered them. Entries of stopped hosts are dropped with the next update on another host.
+ */
+final class RequestTrackerUpdateBuffer {
+
+    static final long FLUSH_INTERVAL_MILLIS = Long.getLong(
+            "com.vmware.admiral.service.tasks.request.tracker.flush.interval.millis", 300);
+
+    /** How long the fields delivered to a request tracker are remembered without updates. */
+    static final long DELIVERED_FIELDS_MAX_AGE_MILLIS = Long.getLong(
+            "com.vmware.admiral.service.tasks.request.tracker.delivered.fields.max.age.millis",
+            TimeUnit.MINUTES.toMillis(1));
+
+    private static final ConcurrentMap<String, PendingUpdates> pendingUpdates =
+            new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, DeliveredFields> deliveredFields =
+            new ConcurrentHashMap<>();
+
+    private static class PendingUpdates {
+        final Map<String, TaskStatusUpdate> updatesByTask = new LinkedHashMap<>();
+        final ServiceHost host;
+        URI referer;
+        int retryCount;
+
+        PendingUpdates(ServiceHost host) {
+            this.host = host;
+        }
+    }
+
+    /** The set once fields a request tracker already has. */
+    private static class DeliveredFields {
+        final ServiceHost host;
+        volatile boolean name;
+        volatile boolean resourceLinks;
+        volatile long updatedMillis = System.currentTimeMillis();
+
+        DeliveredFields(ServiceHost host) {
+            this.host = host;
+        }
+
+        boolean isExpired(long nowMillis) {
+            return nowMillis - updatedMillis >= DELIVERED_FIELDS_MAX_AGE_MILLIS;
+        }
+    }
+
+    private RequestTrackerUpdateBuffer() {
+    }
+
+    static void enqueue(Service sender, String requestTrackerLink, TaskStatusUpdate update,
+            int retryCount) {
+        ServiceHost host = sender.getHost();
+        if (FLUSH_INTERVAL_MILLIS <= 0 || !isRunning(host)) {
+            // a stopping host would not run the scheduled flush
+            send(host, sender.getUri(), requestTrackerLink, Collections.singletonList(update),
+                    retryCount);
+            return;
+        }
+
+        String key = buildKey(host, requestTrackerLink);
+        boolean[] firstUpdate = new boolean[] { false };
+        pendingUpdates.compute(key, (k, pending) -> {
+            if (pending == null) {
+                pending = new PendingUpdates(host);
+                pending.referer = sender.getUri();
+                firstUpdate[0] = true;
+            }
+            // keep the updates ordered by their last change, so that the request tracker ends up
+            // with the status of the task which was updated last
+            TaskStatusUpdate previous = pending.updatesByTask.remove(update.taskId);
+            pending.updatesByTask.put(update.taskId,
+                    previous != null ? previous.merge(update) : update);
+            pending.retryCount = Math.max(pending.retryCount, retryCount);
+            return pending;
+        });
+
+        if (update.isTerminal()) {
+            flush(host, requestTrackerLink);
+        } else if (firstUpdate[0]) {
+            host.schedule(() -> flush(host, requestTrackerLink), FLUSH_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            prune();
+        }
+    }
+
+    /**
+     * Drops the entries of stopped hosts, whose scheduled flushes never run, and the delivered
+     * fields not updated for {@link #DELIVERED_FIELDS_MAX_AGE_MILLIS}.
+     */
+    private static void prune() {
+        long nowMillis = System.currentTimeMillis();
+        pendingUpdates.values().removeIf((pending) -> !isRunning(pending.host));
+        deliveredFields.values().removeIf((delivered) -> !isRunning(delivered.host)
+                || delivered.isExpired(nowMillis));
+    }
+
+    private static boolean isRunning(ServiceHost host) {
+        return host.isStarted() && !host.isStopping();
+    }
+
+    private static void flush(ServiceHost host, String requestTrackerLink) {
+        PendingUpdates pending = pendingUpdates.remove(buildKey(host, requestTrackerLink));
+        if (pending == null) {
+            return;
+        }
+
+        send(host, pending.referer, requestTrackerLink,
+                new ArrayList<>(pending.updatesByTask.values()), pending.retryCount);
+    }
+
+    private static void send(ServiceHost host, URI referer, String requestTrackerLink,
+            List<TaskStatusUpdate> updates, int retryCount) {
+        String key = buildKey(host, requestTrackerLink);
+        TaskStatusState body = new TaskStatusState();
+        body.taskUpdates = toDeltas(deliveredFields.get(key), updates);
+
+        host.sendRequest(Operation
+                .createPatch(UriUtils.buildUri(host, requestTrackerLink))
+                .setReferer(referer)
+                .setBodyNoCloning(body)
+                .setCompletion((o, ex) -> {
+                    if (ex == null) {
+                        delivered(host, key, body.taskUpdates);
+                        return;
+                    }
+                    // log but don't fail the tasks
+                    if (ex instanceof CancellationException) {
+                        host.log(Level.FINE, "CancellationException: Failed to update request"
+                                + " tracker: %s", requestTrackerLink);
+                        // retry only the finished and failed updates. The others are not so
+                        // important
+                    } else if (retryCount > 0
+                            && updates.stream().anyMatch(TaskStatusUpdate::isTerminal)) {
+                        host.schedule(() -> send(host, referer, requestTrackerLink, updates,
+                                retryCount - 1),
+                                QueryUtil.QUERY_RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    } else {
+                        host.log(Level.WARNING, "Failed to update request tracker: %s. Error: %s",
+                                requestTrackerLink, Utils.toString(ex));
+                    }
+                }));
+    }
+
+    /**
+     * Leaves the fields the request tracker already has out of the given updates.
+     */
+    private static List<TaskStatusUpdate> toDeltas(DeliveredFields delivered,
+            List<TaskStatusUpdate> updates) {
+        if (delivered == null || (!delivered.name && !delivered.resourceLinks)) {
+            return updates;
+        }
+
+        List<TaskStatusUpdate> deltas = new ArrayList<>(updates.size());
+        for (TaskStatusUpdate update : updates) {
+            TaskStatusUpdate delta = new TaskStatusUpdate().merge(update);
+            if (delivered.name) {
+                delta.name = null;
+            }
+            if (delivered.resourceLinks) {
+                delta.resourceLinks = null;
+            }
+            deltas.add(delta);
+        }
+        return deltas;
+    }
+
+    private static void delivered(ServiceHost host, String key, List<TaskStatusUpdate> updates) {
+        boolean name = updates.stream().anyMatch((u) -> u.name != null);
+        boolean resourceLinks = updates.stream()
+                .anyMatch((u) -> u.resourceLinks != null && !u.resourceLinks.isEmpty());
+        DeliveredFields delivered = deliveredFields.computeIfAbsent(key,
+                (k) -> new DeliveredFields(host));
+        delivered.name |= name;
+        delivered.resourceLinks |= resourceLinks;
+        delivered.updatedMillis = System.currentTimeMillis();
+    }
+
+    private static String buildKey(ServiceHost host, String requestTrackerLink) {
+        return host.getId() + requestTrackerLink;
+    }
+}
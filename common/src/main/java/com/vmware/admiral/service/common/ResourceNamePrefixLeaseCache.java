@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixRequest;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixResponse;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.ResourceNamePrefixState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+
+/**
+ * Node local cache of resource name prefixes. Instead of requesting every prefix from the
+ * {@link ResourceNamePrefixService} owning the sequence, blocks of numbers are leased from it
+ * with a single request and handed out from memory until used up. The links of the prefixes
+ * available to a tenant are cached as well. Changes to the prefixes made on this node drop the
+ * cached data right away. Changes made on other nodes are picked up when the prefix links are
+ * queried again, which drops the numbers leased with a different prefix name, or at the latest
+ * once the leased numbers expire.
+ */
+public class ResourceNamePrefixLeaseCache {
+
+    private static final Logger logger = Logger
+            .getLogger(ResourceNamePrefixLeaseCache.class.getName());
+
+    public static final long LEASE_BLOCK_SIZE = Long.getLong(
+            "dcp.management.name.prefix.lease.block.size", 100);
+
+    public static final long PREFIX_LINKS_MAX_AGE_MILLIS = Long.getLong(
+            "dcp.management.name.prefix.links.max.age.millis", TimeUnit.MINUTES.toMillis(1));
+
+    public static final long LEASE_MAX_AGE_MILLIS = Long.getLong(
+            "dcp.management.name.prefix.lease.max.age.millis", TimeUnit.MINUTES.toMillis(5));
+
+    private static final String GLOBAL_PREFIX_LINKS_KEY = "";
+
+    private static final ResourceNamePrefixLeaseCache INSTANCE = new ResourceNamePrefixLeaseCache(
+            LEASE_BLOCK_SIZE, PREFIX_LINKS_MAX_AGE_MILLIS, LEASE_MAX_AGE_MILLIS);
+
+    private final long leaseBlockSize;
+    private final long prefixLinksMaxAgeMillis;
+    private final long leaseMaxAgeMillis;
+
+    private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, PrefixLinks> prefixLinksByTenant =
+            new ConcurrentHashMap<>();
+    private final AtomicLong prefixLinksGeneration = new AtomicLong();
+
+    ResourceNamePrefixLeaseCache(long leaseBlockSize, long prefixLinksMaxAgeMillis,
+            long leaseMaxAgeMillis) {
+        this.leaseBlockSize = leaseBlockSize;
+        this.prefixLinksMaxAgeMillis = prefixLinksMaxAgeMillis;
+        this.leaseMaxAgeMillis = leaseMaxAgeMillis;
+    }
+
+    public static ResourceNamePrefixLeaseCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Retrieves the links of the resource name prefixes for the given tenant links, or the global
+     * ones when no tenant links are given. The callback is called with the links, or with the
+     * failure to retrieve them. Numbers leased from a prefix whose name changed since are dropped.
+     */
+    public void getPrefixLinks(ServiceHost host, List<String> tenantLinks,
+            BiConsumer<List<String>, Throwable> callback) {
+        String key = tenantLinks == null || tenantLinks.isEmpty() ? GLOBAL_PREFIX_LINKS_KEY
+                : String.join(",", tenantLinks);
+        long generation = prefixLinksGeneration.get();
+        PrefixLinks cached = prefixLinksByTenant.get(key);
+        if (cached != null && cached.isValid(generation, prefixLinksMaxAgeMillis)) {
+            callback.accept(cached.links, null);
+            return;
+        }
+
+        QueryTask q = QueryUtil.buildQuery(ResourceNamePrefixState.class, true);
+        QueryUtil.addExpandOption(q);
+        q.tenantLinks = tenantLinks;
+
+        List<String> links = new ArrayList<>();
+        new ServiceDocumentQuery<>(host, ResourceNamePrefixState.class)
+                .query(q, (r) -> {
+                    if (r.hasException()) {
+                        callback.accept(null, r.getException());
+                    } else if (r.hasResult()) {
+                        links.add(r.getDocumentSelfLink());
+                        dropChangedLease(r.getResult());
+                    } else {
+                        List<String> result = Collections.unmodifiableList(links);
+                        // links queried before a change of the prefixes are not cached
+                        if (prefixLinksGeneration.get() == generation) {
+                            prefixLinksByTenant.put(key, new PrefixLinks(result, generation));
+                        }
+                        callback.accept(result, null);
+                    }
+                });
+    }
+
+    /**
+     * Allocates the given count of resource name prefixes from the given prefix. The prefixes are
+     * taken from the numbers leased by this node when enough are left, otherwise a new block of
+     * numbers is leased. The callback is called with the prefixes, or with the failure to lease
+     * the numbers.
+     */
+    public void allocate(ServiceHost host, String prefixLink, long count,
+            BiConsumer<List<String>, Throwable> callback) {
+        List<String> prefixes = take(prefixLink, count);
+        if (prefixes != null) {
+            callback.accept(prefixes, null);
+            return;
+        }
+
+        Lease current = leases.get(prefixLink);
+        long generation = current != null ? current.generation : 0;
+        lease(host, prefixLink, count, Math.max(count, leaseBlockSize), generation, callback);
+    }
+
+    /**
+     * Drops the numbers leased from the given prefix and the cached prefix links, to be called
+     * whenever a prefix is created, changed or deleted.
+     */
+    public void invalidate(String prefixLink) {
+        leases.compute(prefixLink, (k, current) -> new Lease(null, null,
+                current != null ? current.generation + 1 : 1));
+        prefixLinksGeneration.incrementAndGet();
+        prefixLinksByTenant.clear();
+    }
+
+    private void dropChangedLease(ResourceNamePrefixState state) {
+        leases.computeIfPresent(state.documentSelfLink, (k, lease) -> {
+            if (lease.prefix == null || (lease.prefix.equals(state.prefix)
+                    && Objects.equals(lease.addRandomToken, state.addRandomToken))) {
+                return lease;
+            }
+            logger.fine(String.format("Prefix %s changed from %s to %s, dropping leased numbers",
+                    k, lease.prefix, state.prefix));
+            return new Lease(null, null, lease.generation + 1);
+        });
+    }
+
+    private void lease(ServiceHost host, String prefixLink, long count, long leaseCount,
+            long generation, BiConsumer<List<String>, Throwable> callback) {
+        NamePrefixRequest request = new NamePrefixRequest();
+        request.resourceCount = leaseCount;
+        request.leaseNumbers = true;
+
+        host.sendRequest(Operation
+                .createPatch(UriUtils.buildUri(host, prefixLink))
+                .setBody(request)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        if (leaseCount > count) {
+                            // the range of the prefix may be smaller than a whole block
+                            logger.fine(String.format("Failed to lease %d numbers from %s: %s."
+                                    + " Leasing only the requested %d...", leaseCount,
+                                    prefixLink, Utils.toString(e), count));
+                            lease(host, prefixLink, count, count, generation, callback);
+                            return;
+                        }
+                        callback.accept(null, e);
+                        return;
+                    }
+
+                    NamePrefixResponse response = o.getBody(NamePrefixResponse.class);
+                    Deque<Long> numbers = new ArrayDeque<>(response.leasedNumbers);
+                    List<String> prefixes = new ArrayList<>((int) count);
+                    while (prefixes.size() < count && !numbers.isEmpty()) {
+                        prefixes.add(ResourceNamePrefixService.buildResourceNamePrefix(
+                                response.prefix, numbers.poll(), response.addRandomToken));
+                    }
+
+                    // numbers leased before a change of the prefix are dropped
+                    leases.compute(prefixLink, (k, current) -> {
+                        long currentGeneration = current != null ? current.generation : 0;
+                        if (currentGeneration != generation) {
+                            return current;
+                        }
+                        Deque<Long> leased = new ArrayDeque<>();
+                        if (current != null && response.prefix.equals(current.prefix)) {
+                            // the numbers left are kept, expiring with the new ones
+                            leased.addAll(current.numbers);
+                        }
+                        leased.addAll(numbers);
+                        return new Lease(response.prefix, response.addRandomToken,
+                                generation, leased);
+                    });
+                    callback.accept(prefixes, null);
+                }));
+    }
+
+    private List<String> take(String prefixLink, long count) {
+        List<String> prefixes = new ArrayList<>((int) count);
+        leases.computeIfPresent(prefixLink, (k, lease) -> {
+            if (lease.isExpired(leaseMaxAgeMillis)) {
+                // the prefix may have been changed on another node meanwhile
+                return new Lease(null, null, lease.generation + 1);
+            }
+            if (lease.numbers.size() >= count) {
+                for (int i = 0; i < count; i++) {
+                    prefixes.add(ResourceNamePrefixService.buildResourceNamePrefix(lease.prefix,
+                            lease.numbers.poll(), lease.addRandomToken));
+                }
+            }
+            return lease;
+        });
+        return prefixes.isEmpty() ? null : prefixes;
+    }
+
+    private static class Lease {
+        final String prefix;
+        final Boolean addRandomToken;
+        final long generation;
+        final Deque<Long> numbers;
+        final long leasedMillis;
+
+        Lease(String prefix, Boolean addRandomToken, long generation) {
+            this(prefix, addRandomToken, generation, new ArrayDeque<>());
+        }
+
+        Lease(String prefix, Boolean addRandomToken, long generation, Deque<Long> numbers) {
+            this.prefix = prefix;
+            this.addRandomToken = addRandomToken;
+            this.generation = generation;
+            this.numbers = numbers;
+            this.leasedMillis = System.currentTimeMillis();
+        }
+
+        boolean isExpired(long maxAgeMillis) {
+            return prefix != null && System.currentTimeMillis() - leasedMillis >= maxAgeMillis;
+        }
+    }
+
+    private static class PrefixLinks {
+        final List<String> links;
+        final long generation;
+        final long queriedMillis;
+
+        PrefixLinks(List<String> links, long generation) {
+            this.links = links;
+            this.generation = generation;
+            this.queriedMillis = System.currentTimeMillis();
+        }
+
+        boolean isValid(long currentGeneration, long maxAgeMillis) {
+            return generation == currentGeneration
+                    && System.currentTimeMillis() - queriedMillis < maxAgeMillis;
+        }
+    }
+}
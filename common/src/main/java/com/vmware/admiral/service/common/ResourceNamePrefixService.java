@@ -117,11 +117,26 @@ public class ResourceNamePrefixService extends StatefulService {
     /** An DTO used during PATCH request in order to get the next prefix in the sequence. */
     public static class NamePrefixRequest {
         public long resourceCount;
+
+        /**
+         * When set, the requested amount of numbers is reserved and returned as a block, leaving
+         * building the prefixes from them to the caller.
+         */
+        public boolean leaseNumbers;
     }
 
     /** An DTO used during PATCH response in order to return the requested prefixes. */
     public static class NamePrefixResponse {
         public List<String> resourceNamePrefixes;
+
+        /** The prefix name of the leased numbers. Set only for lease requests. */
+        public String prefix;
+
+        /** Whether to add a random token to the leased prefixes. Set only for lease requests. */
+        public Boolean addRandomToken;
+
+        /** The reserved numbers in the sequence. Set only for lease requests. */
+        public List<Long> leasedNumbers;
     }
 
     public ResourceNamePrefixService() {
@@ -142,6 +157,7 @@ public class ResourceNamePrefixService extends StatefulService {
         logFine("Initial name is %s", state.prefix);
         try {
             validateStateOnStart(state);
+            ResourceNamePrefixLeaseCache.getInstance().invalidate(getSelfLink());
             start.complete();
         } catch (Throwable e) {
             start.fail(e);
@@ -203,19 +219,22 @@ public class ResourceNamePrefixService extends StatefulService {
         }
 
         NamePrefixResponse response = new NamePrefixResponse();
-        response.resourceNamePrefixes = new ArrayList<String>((int) request.resourceCount);
+        if (request.leaseNumbers) {
+            response.prefix = state.prefix;
+            response.addRandomToken = state.addRandomToken;
+            response.leasedNumbers = new ArrayList<>((int) request.resourceCount);
+        } else {
+            response.resourceNamePrefixes = new ArrayList<>((int) request.resourceCount);
+        }
 
         for (int i = 0; i < request.resourceCount; i++) {
-            final StringBuilder namePrefix = new StringBuilder();
-            namePrefix.append(state.prefix);
-            namePrefix.append(state.currentCount++);
-            if (state.addRandomToken) {
-                namePrefix.append(RANDOM_GENERATED_TOKEN_DELIMITER);
-                //adding time since 2016 as shortest and smallest possible guaranteed random token
-                long timestamp = System.currentTimeMillis() - SINCE_TIME;
-                namePrefix.append(timestamp);
+            long number = state.currentCount++;
+            if (request.leaseNumbers) {
+                response.leasedNumbers.add(number);
+            } else {
+                response.resourceNamePrefixes.add(buildResourceNamePrefix(state.prefix, number,
+                        state.addRandomToken));
             }
-            response.resourceNamePrefixes.add(namePrefix.toString());
             if (state.currentCount > state.getMaxNumber()) {
                 // reset back to the beginning.
                 logWarning("Reseting name prefix counter [%s] to initial value [%s]...",
@@ -228,6 +247,35 @@ public class ResourceNamePrefixService extends StatefulService {
         patch.complete();
     }
 
+    @Override
+    public void handlePut(Operation put) {
+        ResourceNamePrefixLeaseCache.getInstance().invalidate(getSelfLink());
+        super.handlePut(put);
+    }
+
+    @Override
+    public void handleDelete(Operation delete) {
+        ResourceNamePrefixLeaseCache.getInstance().invalidate(getSelfLink());
+        super.handleDelete(delete);
+    }
+
+    /**
+     * Builds the resource name prefix for the given number in the sequence of the given prefix.
+     */
+    public static String buildResourceNamePrefix(String prefix, long number,
+            Boolean addRandomToken) {
+        final StringBuilder namePrefix = new StringBuilder();
+        namePrefix.append(prefix);
+        namePrefix.append(number);
+        if (Boolean.TRUE.equals(addRandomToken)) {
+            namePrefix.append(RANDOM_GENERATED_TOKEN_DELIMITER);
+            //adding time since 2016 as shortest and smallest possible guaranteed random token
+            long timestamp = System.currentTimeMillis() - SINCE_TIME;
+            namePrefix.append(timestamp);
+        }
+        return namePrefix.toString();
+    }
+
     @Override
     public ServiceDocument getDocumentTemplate() {
         ServiceDocument template = super.getDocumentTemplate();
@@ -27,6 +27,7 @@ public abstract class TaskServiceDocument<E extends Enum<E>> extends MultiTenant
     public static final String FIELD_NAME_TASK_INFO = "taskInfo";
     public static final String FIELD_NAME_TASK_STAGE = "taskInfo.stage";
     public static final String FIELD_NAME_SERVICE_CALLBACK = "serviceTaskCallback";
+    public static final String FIELD_NAME_REQUEST_TRACKER_LINK = "requestTrackerLink";
 
     /** Describes a service task sub stage.*/
     @Documentation(description = " Describes a service task sub stage.")
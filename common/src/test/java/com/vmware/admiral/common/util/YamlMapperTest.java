@@ -12,14 +12,18 @@
 package com.vmware.admiral.common.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 
 import com.vmware.admiral.common.util.YamlMapper;
+import com.vmware.admiral.common.util.YamlMapper.DocumentReader;
 
 public class YamlMapperTest {
 
@@ -106,6 +110,62 @@ public class YamlMapperTest {
         assertEquals(expectedOutput.get(1), actualOutput.get(1));
     }
 
+    @Test
+    public void testSplitYamlWithSeparatorLikeLines() {
+        String yamlInput = "---\r\nname: first\r\ndescription: |\r\n  ----\r\n  --- x\r\n"
+                + "---\r\n\r\n---\r\nname: second\r\n";
+
+        List<String> actualOutput = YamlMapper.splitYaml(yamlInput);
+
+        assertEquals(2, actualOutput.size());
+        assertEquals("---\nname: first\r\ndescription: |\r\n  ----\r\n  --- x",
+                actualOutput.get(0));
+        assertEquals("---\nname: second", actualOutput.get(1));
+        assertTrue(YamlMapper.isMultiYaml(yamlInput));
+        assertFalse(YamlMapper.isMultiYaml("name: first\n---\n"));
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void testReadDocuments() throws IOException {
+        String yamlInput = sampleYamlDefinition + "\n---\n---\n" + sampleYamlDefinition
+                + "\n---\n";
+
+        List<Map> documents = new ArrayList<>();
+        try (DocumentReader<Map> reader = YamlMapper.readDocuments(yamlInput, Map.class)) {
+            while (reader.hasNext()) {
+                documents.add(reader.next());
+            }
+            assertFalse(reader.hasNext());
+        }
+
+        assertEquals(2, documents.size());
+        assertEquals("Service", documents.get(0).get("kind"));
+        assertEquals(documents.get(0), documents.get(1));
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void testReadDocumentsAsYamlAndJson() throws IOException {
+        String yamlInput = "---\n"
+                + "person:\n"
+                + "  name: test-name\n"
+                + "  age: 14\n"
+                + "---\n"
+                + sampleYamlDefinition;
+
+        try (DocumentReader<Map> reader = YamlMapper.readDocuments(yamlInput, Map.class)) {
+            assertEquals("{\"person\":{\"name\":\"test-name\",\"age\":14}}",
+                    reader.nextAsJson());
+            String yaml = reader.nextAsYaml();
+            assertFalse(reader.hasNext());
+
+            assertFalse(YamlMapper.isMultiYaml(yaml));
+            assertEquals(YamlMapper.objectMapper().readValue(sampleYamlDefinition, Map.class),
+                    YamlMapper.objectMapper().readValue(yaml, Map.class));
+        }
+    }
+
     @Test
     public void testIsValidYaml() {
         String[] inputs = new String[] { sampleYamlDefinition,
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.host;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+public class HostStartupGraphTest {
+
+    private static final String PROVIDED_LINK = "/test/provided";
+
+    private VerificationHost host;
+
+    @Before
+    public void before() throws Throwable {
+        ServiceHost.Arguments args = new ServiceHost.Arguments();
+        args.sandbox = null;
+        args.port = 0;
+        host = VerificationHost.initialize(new VerificationHost(), args);
+        host.start();
+    }
+
+    @After
+    public void after() {
+        host.tearDown();
+    }
+
+    @Test
+    public void testStepsStartAfterDependencies() throws Throwable {
+        List<String> started = new CopyOnWriteArrayList<>();
+        // the independent steps wait for each other, so they must run concurrently
+        CountDownLatch independentSteps = new CountDownLatch(2);
+
+        new HostStartupGraph(host)
+                .add("a", () -> started.add("a"))
+                .add("b", () -> {
+                    independentSteps.countDown();
+                    assertTrue(independentSteps.await(10, TimeUnit.SECONDS));
+                    started.add("b");
+                }, "a")
+                .add("c", () -> {
+                    independentSteps.countDown();
+                    assertTrue(independentSteps.await(10, TimeUnit.SECONDS));
+                    started.add("c");
+                }, "a")
+                .add("d", () -> started.add("d"), "b", "c")
+                .start();
+
+        assertEquals(4, started.size());
+        assertEquals("a", started.get(0));
+        assertEquals("d", started.get(3));
+    }
+
+    @Test
+    public void testFailedStepSkipsDependentSteps() throws Throwable {
+        List<String> started = new CopyOnWriteArrayList<>();
+        try {
+            new HostStartupGraph(host)
+                    .add("a", () -> {
+                        throw new IllegalStateException("expected");
+                    })
+                    .add("b", () -> started.add("b"), "a")
+                    .start();
+            fail("expected to fail");
+        } catch (IllegalStateException e) {
+            assertEquals("expected", e.getMessage());
+        }
+        assertFalse(started.contains("b"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCyclicDependencies() throws Throwable {
+        new HostStartupGraph(host)
+                .add("a", () -> { }, "b")
+                .add("b", () -> { }, "a")
+                .start();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDependency() throws Throwable {
+        new HostStartupGraph(host)
+                .add("a", () -> { }, "b")
+                .start();
+    }
+
+    @Test
+    public void testStepsStartAfterProvidersOfRequiredServices() throws Throwable {
+        CountDownLatch consumerStarted = new CountDownLatch(1);
+
+        // no explicit edge, the consumer must not start before the provider is done
+        new HostStartupGraph(host)
+                .add("provider", () -> {
+                    assertFalse(consumerStarted.await(500, TimeUnit.MILLISECONDS));
+                    host.startService(Operation.createPost(UriUtils.buildUri(host,
+                            PROVIDED_LINK)), new StatelessService());
+                })
+                .add("consumer", () -> {
+                    consumerStarted.countDown();
+                    assertNotNull(host.getServiceStage(PROVIDED_LINK));
+                })
+                .provides("provider", PROVIDED_LINK)
+                .requires("consumer", PROVIDED_LINK, ServiceUriPaths.CORE_QUERY_TASKS)
+                .start();
+
+        assertEquals(0, consumerStarted.getCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRequiredServiceNotProvided() throws Throwable {
+        new HostStartupGraph(host)
+                .add("consumer", () -> { })
+                .requires("consumer", PROVIDED_LINK)
+                .start();
+    }
+
+    @Test
+    public void testRequiredServiceNotStartedByProvider() throws Throwable {
+        List<String> started = new CopyOnWriteArrayList<>();
+        try {
+            new HostStartupGraph(host)
+                    .add("provider", () -> started.add("provider"))
+                    .add("consumer", () -> started.add("consumer"))
+                    .provides("provider", PROVIDED_LINK)
+                    .requires("consumer", PROVIDED_LINK)
+                    .start();
+            fail("expected to fail");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(PROVIDED_LINK));
+        }
+        assertFalse(started.contains("consumer"));
+    }
+}
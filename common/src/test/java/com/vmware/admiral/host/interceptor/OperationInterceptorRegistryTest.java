@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.host.interceptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.common.test.VerificationHost;
+
+public class OperationInterceptorRegistryTest {
+
+    private VerificationHost host;
+    private OperationInterceptorRegistry registry;
+    private List<String> calls;
+
+    public static class InterceptedService extends StatelessService {
+        @Override
+        public void handlePost(Operation post) {
+            post.setBody(post.getBody(String.class) + "-handled").complete();
+        }
+    }
+
+    @Before
+    public void setUp() throws Throwable {
+        host = VerificationHost.create(0);
+        host.start();
+        registry = new OperationInterceptorRegistry();
+        calls = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @After
+    public void tearDown() {
+        host.tearDown();
+    }
+
+    @Test
+    public void testInterceptorsRunInOrder() throws Throwable {
+        registry.addServiceInterceptor(InterceptedService.class, Action.POST, (s, o) -> {
+            calls.add("sync");
+            return null;
+        });
+        registry.addServiceInterceptor(InterceptedService.class, null, (s, o) -> {
+            calls.add("async");
+            DeferredResult<Void> result = new DeferredResult<>();
+            host.schedule(() -> {
+                calls.add("resumed");
+                result.complete(null);
+            }, 10, TimeUnit.MILLISECONDS);
+            return result;
+        });
+        registry.addServiceInterceptor(InterceptedService.class, Action.POST, (s, o) -> {
+            calls.add("completed");
+            o.setBody(o.getBody(String.class) + "-intercepted");
+            return DeferredResult.completed(null);
+        });
+        registry.addServiceInterceptor(InterceptedService.class, Action.DELETE, (s, o) -> {
+            calls.add("delete");
+            return null;
+        });
+
+        InterceptedService service = startService("/intercepted");
+
+        assertEquals("body-intercepted-handled", post(service, "body", null));
+        assertEquals(Arrays.asList("sync", "async", "resumed", "completed"), calls);
+    }
+
+    @Test
+    public void testFailingInterceptor() throws Throwable {
+        registry.addServiceInterceptor(InterceptedService.class, Action.POST,
+                (s, o) -> DeferredResult.failed(new IllegalAccessError("forbidden")));
+        registry.addServiceInterceptor(InterceptedService.class, Action.POST, (s, o) -> {
+            calls.add("not-called");
+            return null;
+        });
+
+        InterceptedService service = startService("/intercepted");
+
+        Throwable[] failure = new Throwable[1];
+        assertNull(post(service, "body", failure));
+        assertSame(IllegalAccessError.class, failure[0].getClass());
+        assertEquals(Collections.emptyList(), calls);
+    }
+
+    @Test
+    public void testInterceptorsAreSharedByServiceType() throws Throwable {
+        registry.addServiceInterceptor(InterceptedService.class, Action.POST, (s, o) -> {
+            calls.add(s.getSelfLink());
+            return null;
+        });
+
+        InterceptedService first = startService("/intercepted-1");
+        InterceptedService second = startService("/intercepted-2");
+
+        post(first, "body", null);
+        post(second, "body", null);
+        assertEquals(Arrays.asList("/intercepted-1", "/intercepted-2"), calls);
+    }
+
+    private InterceptedService startService(String link) throws Throwable {
+        InterceptedService service = new InterceptedService();
+        registry.subscribeToService(service);
+        host.startServiceAndWait(service, link, null);
+        return service;
+    }
+
+    private String post(InterceptedService service, String body, Throwable[] failure) {
+        TestContext ctx = host.testCreate(1);
+        String[] result = new String[1];
+        Operation post = Operation.createPost(service.getUri())
+                .setBody(body)
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        if (failure == null) {
+                            ctx.failIteration(e);
+                            return;
+                        }
+                        failure[0] = e;
+                        ctx.completeIteration();
+                        return;
+                    }
+                    result[0] = o.getBody(String.class);
+                    ctx.completeIteration();
+                });
+        host.send(post);
+        ctx.await();
+        return result[0];
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.service.common.CounterSubTaskService.CounterSubTaskState;
+import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.TaskState.TaskStage;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.VerificationHost;
+
+public class CounterSubTaskServiceTest {
+
+    private static final String PARENT_LINK = "/test/counter-parent";
+
+    private VerificationHost host;
+    private MockParentService parent;
+
+    @Before
+    public void setUp() throws Throwable {
+        host = VerificationHost.create(0);
+        host.start();
+        host.startFactory(new CounterSubTaskService());
+        host.startFactory(new LocalCounterSubTaskService());
+        host.waitForServiceAvailable(CounterSubTaskService.FACTORY_LINK,
+                LocalCounterSubTaskService.FACTORY_LINK);
+
+        parent = new MockParentService();
+        host.startServiceAndWait(parent, PARENT_LINK, null);
+    }
+
+    @After
+    public void tearDown() {
+        host.tearDown();
+    }
+
+    @Test
+    public void testParentIsNotifiedWhenAllLocalSubTasksFinish() throws Throwable {
+        verifyParentIsNotifiedWhenAllSubTasksFinish(LocalCounterSubTaskService.FACTORY_LINK);
+    }
+
+    @Test
+    public void testParentIsNotifiedWhenAllPersistedSubTasksFinish() throws Throwable {
+        verifyParentIsNotifiedWhenAllSubTasksFinish(CounterSubTaskService.FACTORY_LINK);
+    }
+
+    @Test
+    public void testParentIsNotifiedOnFirstLocalFailure() throws Throwable {
+        verifyParentIsNotifiedOnFirstFailure(LocalCounterSubTaskService.FACTORY_LINK);
+    }
+
+    @Test
+    public void testParentIsNotifiedOnFirstPersistedFailure() throws Throwable {
+        verifyParentIsNotifiedOnFirstFailure(CounterSubTaskService.FACTORY_LINK);
+    }
+
+    @Test
+    public void testLocalCountersAreUsedUnlessPersistenceIsRequired() {
+        assertEquals(LocalCounterSubTaskService.FACTORY_LINK,
+                CounterSubTaskService.getFactoryLink(false));
+        assertEquals(CounterSubTaskService.FACTORY_LINK,
+                CounterSubTaskService.getFactoryLink(true));
+    }
+
+    private void verifyParentIsNotifiedWhenAllSubTasksFinish(String factoryLink) {
+        String counterLink = createCounter(factoryLink, 2);
+
+        completeSubTask(counterLink, TaskState.createAsFinished());
+        assertTrue(parent.responses.isEmpty());
+
+        completeSubTask(counterLink, TaskState.createAsFinished());
+        host.waitFor("Parent not notified", () -> parent.responses.size() == 1);
+        assertEquals(TaskStage.FINISHED, parent.responses.get(0).taskInfo.stage);
+    }
+
+    private void verifyParentIsNotifiedOnFirstFailure(String factoryLink) {
+        String counterLink = createCounter(factoryLink, 3);
+
+        completeSubTask(counterLink, TaskState.createAsFailed());
+        host.waitFor("Parent not notified", () -> parent.responses.size() == 1);
+        assertEquals(TaskStage.FAILED, parent.responses.get(0).taskInfo.stage);
+
+        // late notifications are still acknowledged, but don't notify the parent again
+        completeSubTask(counterLink, TaskState.createAsFinished());
+        assertEquals(1, parent.responses.size());
+    }
+
+    private String createCounter(String factoryLink, long completions) {
+        CounterSubTaskState state = new CounterSubTaskState();
+        state.completionsRemaining = completions;
+        state.serviceTaskCallback = ServiceTaskCallback.create(PARENT_LINK);
+        Operation post = host.waitForResponse(Operation
+                .createPost(UriUtils.buildUri(host, factoryLink))
+                .setBody(state));
+        return post.getBody(CounterSubTaskState.class).documentSelfLink;
+    }
+
+    private void completeSubTask(String counterLink, TaskState taskInfo) {
+        CounterSubTaskState body = new CounterSubTaskState();
+        body.taskInfo = taskInfo;
+        host.sendAndWaitExpectSuccess(Operation
+                .createPatch(UriUtils.buildUri(host, counterLink))
+                .setBody(body));
+    }
+
+    /**
+     * Parent task recording the callbacks of the counter.
+     */
+    private static class MockParentService extends StatelessService {
+        final List<ServiceTaskCallbackResponse> responses =
+                Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void handlePatch(Operation patch) {
+            responses.add(patch.getBody(ServiceTaskCallbackResponse.class));
+            patch.complete();
+        }
+    }
+}
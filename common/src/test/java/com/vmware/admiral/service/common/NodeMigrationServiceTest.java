@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.service.common.MigrationCheckpointService.MigrationCheckpointState;
+import com.vmware.admiral.service.common.NodeMigrationService.MigrationRequest;
+import com.vmware.xenon.common.FactoryService;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.ExampleService;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+import com.vmware.xenon.services.common.MigrationTaskService;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+public class NodeMigrationServiceTest {
+
+    private static final String OTHER_EXAMPLES_LINK = "/other-examples";
+
+    private VerificationHost sourceHost;
+    private VerificationHost targetHost;
+
+    @Before
+    public void setUp() throws Throwable {
+        sourceHost = VerificationHost.create(0);
+        sourceHost.start();
+        sourceHost.startFactory(new ExampleService());
+        sourceHost.startServiceAndWait(FactoryService.create(ExampleService.class),
+                OTHER_EXAMPLES_LINK, null);
+        sourceHost.waitForServiceAvailable(ExampleService.FACTORY_LINK);
+
+        targetHost = VerificationHost.create(0);
+        targetHost.setTimeoutSeconds(120);
+        targetHost.start();
+        targetHost.startFactory(new ExampleService());
+        targetHost.startServiceAndWait(FactoryService.create(ExampleService.class),
+                OTHER_EXAMPLES_LINK, null);
+        targetHost.startServiceAndWait(MigrationTaskService.createFactory(),
+                MigrationTaskService.FACTORY_LINK, null);
+        targetHost.startFactory(new MigrationCheckpointService());
+        targetHost.addPrivilegedService(NodeMigrationService.class);
+        targetHost.startServiceAndWait(NodeMigrationService.class, NodeMigrationService.SELF_LINK);
+        targetHost.waitForServiceAvailable(ExampleService.FACTORY_LINK,
+                MigrationCheckpointService.FACTORY_LINK);
+
+        NodeMigrationService services = new NodeMigrationService();
+        services.services = new HashSet<>(Arrays.asList(ExampleService.FACTORY_LINK,
+                OTHER_EXAMPLES_LINK));
+        targetHost.sendAndWaitExpectSuccess(Operation
+                .createPatch(targetHost, NodeMigrationService.SELF_LINK)
+                .setBody(services));
+    }
+
+    @After
+    public void tearDown() {
+        targetHost.tearDown();
+        sourceHost.tearDown();
+    }
+
+    @Test
+    public void testMigrationResumesFromCheckpoint() throws Throwable {
+        createExample(ExampleService.FACTORY_LINK, "first");
+        createExample(OTHER_EXAMPLES_LINK, "other");
+
+        migrate();
+        assertEquals(1, countDocuments(ExampleService.FACTORY_LINK));
+        assertEquals(1, countDocuments(OTHER_EXAMPLES_LINK));
+
+        MigrationCheckpointState checkpoint = getCheckpoint(ExampleService.FACTORY_LINK);
+        assertNotNull(checkpoint.latestSourceUpdateTimeMicros);
+        assertNotNull(checkpoint.migrationTaskLink);
+
+        createExample(ExampleService.FACTORY_LINK, "second");
+        migrate();
+        assertEquals(2, countDocuments(ExampleService.FACTORY_LINK));
+
+        MigrationCheckpointState nextCheckpoint = getCheckpoint(ExampleService.FACTORY_LINK);
+        assertTrue(nextCheckpoint.latestSourceUpdateTimeMicros
+                > checkpoint.latestSourceUpdateTimeMicros);
+    }
+
+    private void createExample(String factoryLink, String name) {
+        ExampleServiceState state = new ExampleServiceState();
+        state.name = name;
+        sourceHost.sendAndWaitExpectSuccess(Operation.createPost(sourceHost, factoryLink)
+                .setBody(state));
+    }
+
+    private void migrate() {
+        MigrationRequest request = new MigrationRequest();
+        request.sourceNodeGroup = UriUtils.buildUri(sourceHost, ServiceUriPaths.DEFAULT_NODE_GROUP)
+                .toString();
+        request.destinationNodeGroup = UriUtils.buildUri(targetHost,
+                ServiceUriPaths.DEFAULT_NODE_GROUP).toString();
+        targetHost.sendAndWaitExpectSuccess(Operation
+                .createPost(targetHost, NodeMigrationService.SELF_LINK)
+                .setBody(request));
+    }
+
+    private long countDocuments(String factoryLink) {
+        return targetHost.getFactoryState(UriUtils.buildUri(targetHost, factoryLink))
+                .documentLinks.size();
+    }
+
+    private MigrationCheckpointState getCheckpoint(String factoryLink) {
+        String checkpointLink = MigrationCheckpointService.buildCheckpointLink(
+                UriUtils.buildUri(sourceHost, ServiceUriPaths.DEFAULT_NODE_GROUP).toString(),
+                UriUtils.buildUri(targetHost, ServiceUriPaths.DEFAULT_NODE_GROUP).toString(),
+                factoryLink);
+        return targetHost.getServiceState(null, MigrationCheckpointState.class,
+                UriUtils.buildUri(targetHost, checkpointLink));
+    }
+}
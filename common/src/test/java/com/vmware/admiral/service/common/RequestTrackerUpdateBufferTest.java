@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusState;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusUpdate;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.test.VerificationHost;
+
+public class RequestTrackerUpdateBufferTest {
+
+    private VerificationHost host;
+    private MockRequestTrackerService tracker;
+    private String trackerLink;
+
+    @Before
+    public void setUp() throws Throwable {
+        host = VerificationHost.create(0);
+        host.start();
+
+        trackerLink = "/test/request-tracker/" + UUID.randomUUID().toString();
+        tracker = new MockRequestTrackerService();
+        host.startServiceAndWait(tracker, trackerLink, null);
+    }
+
+    @After
+    public void tearDown() {
+        host.tearDown();
+    }
+
+    @Test
+    public void testUpdatesOfARequestAreCoalesced() throws Throwable {
+        enqueue(createUpdate("first", 10, TaskState.createAsStarted()));
+        enqueue(createUpdate("second", 10, TaskState.createAsStarted()));
+        enqueue(createUpdate("first", 20, TaskState.createAsStarted()));
+
+        host.waitFor("Updates not flushed", () -> tracker.patches.size() == 1);
+        List<TaskStatusUpdate> updates = tracker.patches.get(0).taskUpdates;
+        assertEquals(2, updates.size());
+        // the updates are ordered by their last change
+        assertEquals("second", updates.get(0).taskId);
+        assertEquals("first", updates.get(1).taskId);
+        assertEquals(Integer.valueOf(20), updates.get(1).progress);
+    }
+
+    @Test
+    public void testDeliveredFieldsAreLeftOut() throws Throwable {
+        TaskStatusUpdate update = createUpdate("task", 100, TaskState.createAsFinished());
+        update.name = "request-name";
+        update.resourceLinks = Collections.singleton("/resources/containers/test");
+        enqueue(update);
+        host.waitFor("Update not flushed", () -> tracker.patches.size() == 1);
+        assertEquals("request-name", tracker.patches.get(0).taskUpdates.get(0).name);
+
+        // the request tracker has the name and the resource links already
+        update = createUpdate("other-task", 100, TaskState.createAsFinished());
+        update.name = "request-name";
+        update.resourceLinks = Collections.singleton("/resources/containers/test");
+        enqueue(update);
+        host.waitFor("Update not flushed", () -> tracker.patches.size() == 2);
+        TaskStatusUpdate delta = tracker.patches.get(1).taskUpdates.get(0);
+        assertEquals("other-task", delta.taskId);
+        assertEquals(Integer.valueOf(100), delta.progress);
+        assertNull(delta.name);
+        assertNull(delta.resourceLinks);
+    }
+
+    private void enqueue(TaskStatusUpdate update) {
+        RequestTrackerUpdateBuffer.enqueue(tracker, trackerLink, update, 0);
+    }
+
+    private static TaskStatusUpdate createUpdate(String taskId, int progress,
+            TaskState taskInfo) {
+        TaskStatusUpdate update = new TaskStatusUpdate();
+        update.taskId = taskId;
+        update.phase = "Test";
+        update.taskInfo = taskInfo;
+        update.subStage = DefaultSubStage.PROCESSING.name();
+        update.progress = progress;
+        return update;
+    }
+
+    /**
+     * Request tracker recording the received PATCH bodies.
+     */
+    private static class MockRequestTrackerService extends StatelessService {
+        final List<TaskStatusState> patches = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void handlePatch(Operation patch) {
+            TaskStatusState body = patch.getBody(TaskStatusState.class);
+            // recorded once the sender has handled the completion of the local PATCH
+            patch.complete();
+            patches.add(body);
+        }
+    }
+}
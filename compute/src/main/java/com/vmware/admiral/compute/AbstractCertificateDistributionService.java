@@ -11,13 +11,25 @@
 
 package com.vmware.admiral.compute;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import com.vmware.admiral.common.util.OperationUtil;
 import com.vmware.admiral.common.util.UriUtilsExtended;
 import com.vmware.admiral.compute.container.ShellContainerExecutorService;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorBatchResult;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorBatchState;
 import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorResult;
 import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorState;
 import com.vmware.admiral.log.EventLogService;
@@ -32,6 +44,11 @@ import com.vmware.xenon.common.Utils;
 /**
  * Service for distribution of self-signed trusted registry certificates to docker hosts.
  * See: https://docs.docker.com/docker-trusted-registry/userguide/
+ *
+ * The certificate is uploaded to a bounded number of hosts at a time, and failed uploads are
+ * retried with an exponential backoff. Hosts this node uploaded the same certificate to recently
+ * are skipped, unless the distribution is requested explicitly, e.g. when a registry is saved. The
+ * outcome of a distribution is logged once for all hosts.
  */
 public class AbstractCertificateDistributionService extends StatelessService {
 
@@ -39,70 +56,378 @@ public class AbstractCertificateDistributionService extends StatelessService {
             "cmp.management.query.certificatedistribution.maxRetry", 3);
     public static final long QUERY_RETRIEVAL_RETRY_INTERVAL_SECONDS = Integer.getInteger(
             "cmp.management.query.certificatedistribution.maxRetryIntervalSec", 5);
+    public static final long MAX_BACKOFF_SECONDS = Integer.getInteger(
+            "cmp.management.query.certificatedistribution.maxBackoffSec", 60);
+    public static final int MAX_PARALLEL_UPLOADS = Integer.getInteger(
+            "cmp.management.query.certificatedistribution.maxParallelUploads", 10);
+    public static final long INSTALLED_CERTIFICATE_MAX_AGE_SECONDS = Integer.getInteger(
+            "cmp.management.query.certificatedistribution.installedCertificateMaxAgeSec", 300);
+
+    private static final int MAX_LOGGED_HOST_LINKS = 10;
+
+    private static final String UPLOAD_FAILED_MESSAGE = "Failed to upload registry certificate"
+            + " for [%s] to %s of %s hosts %s after %s attempts. These hosts may experience"
+            + " issues connecting to this registry. For more info see:"
+            + " https://docs.docker.com/registry/insecure/#/using-self-signed-certificates";
+
+    /**
+     * Certificates uploaded by this node, by host and certificate directory. The entries expire
+     * after {@link #INSTALLED_CERTIFICATE_MAX_AGE_SECONDS}, since the certificate files may be
+     * removed from the host meanwhile.
+     */
+    private static final ConcurrentMap<String, InstalledCertificate> installedCertificates =
+            new ConcurrentHashMap<>();
+
+    private static class InstalledCertificate {
+        final String certificateHash;
+        final long uploadedMillis;
+
+        InstalledCertificate(String certificateHash) {
+            this.certificateHash = certificateHash;
+            this.uploadedMillis = System.currentTimeMillis();
+        }
+
+        boolean matches(String hash) {
+            return certificateHash.equals(hash) && System.currentTimeMillis() - uploadedMillis
+                    < TimeUnit.SECONDS.toMillis(INSTALLED_CERTIFICATE_MAX_AGE_SECONDS);
+        }
+    }
+
+    /**
+     * Progress of the distribution of a certificate to a set of hosts.
+     */
+    protected static class Distribution {
+        final String registryAddress;
+        final String certificate;
+        final String certificateHash;
+        final List<String> tenantLinks;
+        final boolean skipInstalled;
+        final int hostCount;
+        final Queue<String> pendingHostLinks;
+        final AtomicInteger remainingCount;
+        final AtomicInteger uploadedCount = new AtomicInteger();
+        final AtomicInteger skippedCount = new AtomicInteger();
+        final Queue<String> failedHostLinks = new ConcurrentLinkedQueue<>();
+
+        Distribution(Collection<String> hostLinks, String registryAddress, String certificate,
+                List<String> tenantLinks, boolean skipInstalled) {
+            this.registryAddress = registryAddress;
+            this.certificate = certificate;
+            this.certificateHash = Utils.computeHash(certificate);
+            this.tenantLinks = tenantLinks;
+            this.skipInstalled = skipInstalled;
+            this.hostCount = hostLinks.size();
+            this.pendingHostLinks = new ConcurrentLinkedQueue<>(hostLinks);
+            this.remainingCount = new AtomicInteger(hostLinks.size());
+        }
+    }
 
     protected void uploadCertificate(String hostLink, String registryAddress, String certificate,
             List<String> tenantLinks) {
+        uploadCertificate(Collections.singletonList(hostLink), registryAddress, certificate,
+                tenantLinks);
+    }
 
-        OperationUtil.getDocumentState(this, hostLink, ComputeState.class,
+    protected void uploadCertificate(Collection<String> hostLinks, String registryAddress,
+            String certificate, List<String> tenantLinks) {
+        uploadCertificate(hostLinks, registryAddress, certificate, tenantLinks, true);
+    }
+
+    /**
+     * Uploads the certificate to the given hosts. When skipInstalled is false, the certificate is
+     * uploaded also to the hosts this node uploaded it to recently.
+     */
+    protected void uploadCertificate(Collection<String> hostLinks, String registryAddress,
+            String certificate, List<String> tenantLinks, boolean skipInstalled) {
+        if (hostLinks.isEmpty()) {
+            return;
+        }
+
+        Distribution distribution = new Distribution(hostLinks, registryAddress, certificate,
+                tenantLinks, skipInstalled);
+        logInfo("Uploading certificate for registry %s to %s hosts",
+                getCertificateDirName(registryAddress), distribution.hostCount);
+
+        int parallelUploads = Math.max(1, Math.min(MAX_PARALLEL_UPLOADS, distribution.hostCount));
+        for (int i = 0; i < parallelUploads; i++) {
+            uploadToNextHost(distribution);
+        }
+    }
+
+    private void uploadToNextHost(Distribution distribution) {
+        String hostLink;
+        String installedKey = null;
+        while ((hostLink = distribution.pendingHostLinks.poll()) != null) {
+            installedKey = getInstalledCertificateKey(hostLink, distribution.registryAddress);
+            InstalledCertificate installed = installedCertificates.get(installedKey);
+            if (!distribution.skipInstalled || installed == null
+                    || !installed.matches(distribution.certificateHash)) {
+                break;
+            }
+            logFine("Registry certificate for %s already uploaded to host %s",
+                    getCertificateDirName(distribution.registryAddress), hostLink);
+            distribution.skippedCount.incrementAndGet();
+            if (distribution.remainingCount.decrementAndGet() == 0) {
+                completeDistribution(distribution);
+                return;
+            }
+        }
+        if (hostLink == null) {
+            return;
+        }
+
+        String uploadHostLink = hostLink;
+        String uploadInstalledKey = installedKey;
+
+        OperationUtil.getDocumentState(this, uploadHostLink, ComputeState.class,
                 (ComputeState host) -> {
                     if (ContainerHostUtil.isVicHost(host)) {
-                        logInfo("Skip installing certificate for VIC host [%s]", hostLink);
+                        logFine("Skip installing certificate for VIC host [%s]", uploadHostLink);
+                        distribution.skippedCount.incrementAndGet();
+                        completeHost(distribution);
                         return;
                     }
-                    ShellContainerExecutorState execState = new ShellContainerExecutorState();
-                    execState.command = new String[] { "sh", "/copy-certificate.sh",
-                            getCertificateDirName(registryAddress), certificate };
-
-                    try {
-                        processUploadCertificateQuery(execState, hostLink, MAX_RETRIES,
-                                registryAddress, tenantLinks);
-                    } catch (Throwable t) {
-                        logSevere("Fail to upload registry certificate to host %s: "
-                                + "failed to connect to shell container executor service.",
-                                hostLink);
-                    }
+                    ShellContainerExecutorState execState = createUploadCommand(
+                            distribution.registryAddress, distribution.certificate);
+
+                    processUploadCertificateQuery(execState, uploadHostLink, 0, distribution,
+                            uploadInstalledKey);
+                }, (e) -> {
+                    distribution.failedHostLinks.add(uploadHostLink);
+                    completeHost(distribution);
                 });
     }
 
     protected void processUploadCertificateQuery(ShellContainerExecutorState execState,
-            String hostLink, int retries, String registryAddress, List<String> tenantLinks) {
+            String hostLink, int attempt, Distribution distribution, String installedKey) {
 
-        logInfo("Uploading certificate on %s for registry %s. Retries %s", hostLink,
-                getCertificateDirName(registryAddress), retries);
+        logFine("Uploading certificate on %s for registry %s. Attempt %s", hostLink,
+                getCertificateDirName(distribution.registryAddress), attempt + 1);
 
         Operation post = Operation.createPost(this, ShellContainerExecutorService.SELF_LINK);
         post.setUri(UriUtils.appendQueryParam(post.getUri(),
                 ShellContainerExecutorService.HOST_LINK_URI_PARAM, hostLink));
 
-        sendRequest(post.setBody(execState).setCompletion((o, ex) -> {
+        sendRequest(post.setBody(execState).setCompletion((o, e) -> {
+            if (e == null && o.getStatusCode() == Operation.STATUS_CODE_NOT_MODIFIED) {
+                logFine("Skip installing certificate for host [%s]: agent not supported",
+                        hostLink);
+                distribution.skippedCount.incrementAndGet();
+                completeHost(distribution);
+                return;
+            }
+
+            ShellContainerExecutorResult result = e == null
+                    ? o.getBody(ShellContainerExecutorResult.class) : null;
+            Throwable ex = e;
+            if (ex == null && result.exitCode != null && result.exitCode != 0) {
+                log(Level.FINEST, "Command result (possibly truncated):\n---\n%1.1024s\n---\n",
+                        result.output);
+                ex = new IllegalStateException("Certificate upload exited with code "
+                        + result.exitCode);
+            }
+
             if (ex != null) {
-                logSevere("Failed to upload registry certificate to host %s: %s",
+                logWarning("Failed to upload registry certificate to host %s: %s",
                         hostLink, Utils.toString(ex));
-                if (retries > 0) {
+                if (attempt < MAX_RETRIES) {
                     getHost().schedule(() -> {
-                        processUploadCertificateQuery(execState, hostLink, retries - 1,
-                                registryAddress, tenantLinks);
-                    }, QUERY_RETRIEVAL_RETRY_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                        processUploadCertificateQuery(execState, hostLink, attempt + 1,
+                                distribution, installedKey);
+                    }, getRetryDelayMillis(attempt), TimeUnit.MILLISECONDS);
                 } else {
-                    String errMsg = "Failed to upload registry certificate for [%s] to host [%s]"
-                            + " after %s attempts. Your host may experience issues connecting to"
-                            + " this registry. For more info see:"
-                            + " https://docs.docker.com/registry/insecure/#/using-self-signed-certificates";
-                    logSevere(errMsg, registryAddress, hostLink, MAX_RETRIES);
-                    publishEventLog(String.format(errMsg, registryAddress, hostLink, MAX_RETRIES),
-                            tenantLinks);
+                    distribution.failedHostLinks.add(hostLink);
+                    completeHost(distribution);
+                }
+                return;
+            }
+
+            logFine("Registry certificate successfully uploaded to host %s for registry %s."
+                            + " Exit code: %s",
+                    hostLink, getCertificateDirName(distribution.registryAddress),
+                    result.exitCode);
+            log(Level.FINEST, "Command result (possibly truncated):\n---\n%1.1024s\n---\n",
+                    result.output);
+            if (result.exitCode != null) {
+                installedCertificates.put(installedKey,
+                        new InstalledCertificate(distribution.certificateHash));
+            }
+            distribution.uploadedCount.incrementAndGet();
+            completeHost(distribution);
+        }));
+    }
+
+    /**
+     * Uploads the certificates of the given registries, by registry address, to a single host,
+     * e.g. one being added. The uploads are executed as one batch of commands in the system agent
+     * container of the host, and the failed ones are retried together.
+     */
+    protected void uploadCertificates(String hostLink, Map<String, String> certificates,
+            List<String> tenantLinks) {
+        List<String> registryAddresses = new ArrayList<>();
+        certificates.forEach((registryAddress, certificate) -> {
+            InstalledCertificate installed = installedCertificates.get(
+                    getInstalledCertificateKey(hostLink, registryAddress));
+            if (installed == null || !installed.matches(Utils.computeHash(certificate))) {
+                registryAddresses.add(registryAddress);
+            }
+        });
+        if (registryAddresses.isEmpty()) {
+            logFine("Registry certificates already uploaded to host %s", hostLink);
+            return;
+        }
+
+        OperationUtil.getDocumentState(this, hostLink, ComputeState.class,
+                (ComputeState host) -> {
+                    if (ContainerHostUtil.isVicHost(host)) {
+                        logFine("Skip installing certificates for VIC host [%s]", hostLink);
+                        return;
+                    }
+                    processUploadCertificatesQuery(hostLink, registryAddresses, certificates,
+                            tenantLinks, 0);
+                }, (e) -> reportFailedUploads(hostLink, registryAddresses, tenantLinks));
+    }
+
+    private void processUploadCertificatesQuery(String hostLink, List<String> registryAddresses,
+            Map<String, String> certificates, List<String> tenantLinks, int attempt) {
+        logFine("Uploading %s certificates on %s. Attempt %s", registryAddresses.size(),
+                hostLink, attempt + 1);
+
+        ShellContainerExecutorBatchState batch = new ShellContainerExecutorBatchState();
+        batch.commands = new ArrayList<>();
+        for (String registryAddress : registryAddresses) {
+            batch.commands.add(createUploadCommand(registryAddress,
+                    certificates.get(registryAddress)));
+        }
+
+        Operation post = Operation.createPost(this, ShellContainerExecutorService.SELF_LINK);
+        post.setUri(UriUtils.appendQueryParam(UriUtils.appendQueryParam(post.getUri(),
+                ShellContainerExecutorService.HOST_LINK_URI_PARAM, hostLink),
+                ShellContainerExecutorService.BATCH_URI_PARAM, Boolean.TRUE.toString()));
+
+        sendRequest(post.setBody(batch).setCompletion((o, e) -> {
+            if (e == null && o.getStatusCode() == Operation.STATUS_CODE_NOT_MODIFIED) {
+                logFine("Skip installing certificates for host [%s]: agent not supported",
+                        hostLink);
+                return;
+            }
+
+            List<String> failedAddresses = new ArrayList<>();
+            if (e != null) {
+                logWarning("Failed to upload registry certificates to host %s: %s",
+                        hostLink, Utils.toString(e));
+                failedAddresses.addAll(registryAddresses);
+            } else {
+                ShellContainerExecutorBatchResult batchResult =
+                        o.getBody(ShellContainerExecutorBatchResult.class);
+                for (int i = 0; i < registryAddresses.size(); i++) {
+                    String registryAddress = registryAddresses.get(i);
+                    ShellContainerExecutorResult result = batchResult.results.get(i);
+                    if (result.exitCode != null && result.exitCode != 0) {
+                        logWarning("Failed to upload registry certificate for %s to host %s:"
+                                + " exited with code %s", getCertificateDirName(registryAddress),
+                                hostLink, result.exitCode);
+                        failedAddresses.add(registryAddress);
+                        continue;
+                    }
+                    if (result.exitCode != null) {
+                        installedCertificates.put(
+                                getInstalledCertificateKey(hostLink, registryAddress),
+                                new InstalledCertificate(Utils.computeHash(
+                                        certificates.get(registryAddress))));
+                    }
                 }
+                logFine("%s registry certificates uploaded to host %s",
+                        registryAddresses.size() - failedAddresses.size(), hostLink);
+            }
+
+            if (failedAddresses.isEmpty()) {
+                return;
+            }
+            if (attempt < MAX_RETRIES) {
+                getHost().schedule(() -> {
+                    processUploadCertificatesQuery(hostLink, failedAddresses, certificates,
+                            tenantLinks, attempt + 1);
+                }, getRetryDelayMillis(attempt), TimeUnit.MILLISECONDS);
             } else {
-                ShellContainerExecutorResult result = o.getBody(ShellContainerExecutorResult.class);
-                logInfo("Registry certificate successfully uploaded to host %s for registry %s."
-                                + " Exit code: %s",
-                        hostLink, getCertificateDirName(registryAddress), result.exitCode);
-                log(Level.FINEST, "Command result (possibly truncated):\n---\n%1.1024s\n---\n",
-                        result.output);
+                reportFailedUploads(hostLink, failedAddresses, tenantLinks);
             }
         }));
     }
 
+    private void reportFailedUploads(String hostLink, List<String> registryAddresses,
+            List<String> tenantLinks) {
+        for (String registryAddress : registryAddresses) {
+            String errMsg = String.format(UPLOAD_FAILED_MESSAGE, registryAddress, 1, 1,
+                    formatHostLinks(Collections.singletonList(hostLink)), MAX_RETRIES + 1);
+            logSevere(errMsg);
+            publishEventLog(errMsg, tenantLinks);
+        }
+    }
+
+    private ShellContainerExecutorState createUploadCommand(String registryAddress,
+            String certificate) {
+        ShellContainerExecutorState execState = new ShellContainerExecutorState();
+        execState.command = new String[] { "sh", "/copy-certificate.sh",
+                getCertificateDirName(registryAddress), certificate };
+        return execState;
+    }
+
+    private void completeHost(Distribution distribution) {
+        if (distribution.remainingCount.decrementAndGet() > 0) {
+            uploadToNextHost(distribution);
+        } else {
+            completeDistribution(distribution);
+        }
+    }
+
+    private void completeDistribution(Distribution distribution) {
+        String certificateDirName = getCertificateDirName(distribution.registryAddress);
+        logInfo("Registry certificate for %s distributed to %s hosts: %s uploaded, %s skipped,"
+                + " %s failed", certificateDirName, distribution.hostCount,
+                distribution.uploadedCount.get(), distribution.skippedCount.get(),
+                distribution.failedHostLinks.size());
+
+        if (!distribution.failedHostLinks.isEmpty()) {
+            String errMsg = String.format(UPLOAD_FAILED_MESSAGE, distribution.registryAddress,
+                    distribution.failedHostLinks.size(), distribution.hostCount,
+                    formatHostLinks(distribution.failedHostLinks), MAX_RETRIES + 1);
+            logSevere(errMsg);
+            publishEventLog(errMsg, distribution.tenantLinks);
+        }
+    }
+
+    /**
+     * Returns the delay before retrying a failed upload, doubling with every attempt up to
+     * {@link #MAX_BACKOFF_SECONDS}. The delay is randomized so that the retries of uploads that
+     * failed at the same time are spread out.
+     */
+    protected long getRetryDelayMillis(int attempt) {
+        long maxDelayMillis = TimeUnit.SECONDS.toMillis(Math.min(MAX_BACKOFF_SECONDS,
+                QUERY_RETRIEVAL_RETRY_INTERVAL_SECONDS << Math.min(attempt, 16)));
+        return maxDelayMillis / 2 + ThreadLocalRandom.current().nextLong(maxDelayMillis / 2 + 1);
+    }
+
+    private static String formatHostLinks(Collection<String> hostLinks) {
+        StringBuilder sb = new StringBuilder("[");
+        int count = 0;
+        for (String hostLink : hostLinks) {
+            if (count == MAX_LOGGED_HOST_LINKS) {
+                sb.append(", ...");
+                break;
+            }
+            if (count++ > 0) {
+                sb.append(", ");
+            }
+            sb.append(hostLink);
+        }
+        return sb.append("]").toString();
+    }
+
+    private String getInstalledCertificateKey(String hostLink, String registryAddress) {
+        return getHost().getId() + hostLink + "|" + getCertificateDirName(registryAddress);
+    }
+
     protected void publishEventLog(String errMsg, List<String> tenantLinks) {
         EventLogState eventLog = new EventLogState();
         eventLog.description = errMsg;
@@ -18,6 +18,9 @@ import java.io.File;
 import java.net.URI;
 import java.security.cert.X509Certificate;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import com.vmware.admiral.common.ManagementUriParts;
@@ -80,6 +83,18 @@ public class HostConfigCertificateDistributionService extends
                     ServiceDocumentQueryResult body = o.getBody(ServiceDocumentQueryResult.class);
 
                     logFine("Distributing certificates for [%s]", body.documentLinks);
+                    if (body.documentLinks.isEmpty()) {
+                        return;
+                    }
+
+                    // the certificates of all registries are uploaded to the host at once
+                    Map<String, String> certificates = new ConcurrentHashMap<>();
+                    AtomicInteger remaining = new AtomicInteger(body.documentLinks.size());
+                    Runnable registryDone = () -> {
+                        if (remaining.decrementAndGet() == 0 && !certificates.isEmpty()) {
+                            uploadCertificates(hostLink, certificates, tenantLinks);
+                        }
+                    };
                     for (String registryLink : body.documentLinks) {
                         fetchRegistryState(registryLink, (registry) -> {
                             RegistryService.fetchRegistryCertificate(registry, (cert) -> {
@@ -87,21 +102,24 @@ public class HostConfigCertificateDistributionService extends
                                     logInfo("Skip certificate distribution for registry [%s]: "
                                                     + "certificate not self-signed.",
                                             registryLink);
-                                    return;
+                                } else {
+                                    certificates.put(registry.address, cert);
                                 }
-                                uploadCertificate(hostLink, registry.address, cert, tenantLinks);
-                            }, getHost());
-                        });
+                                registryDone.run();
+                            }, registryDone, getHost());
+                        }, registryDone);
                     }
                 }));
     }
 
-    private void fetchRegistryState(String registryLink, Consumer<RegistryState> callback) {
+    private void fetchRegistryState(String registryLink, Consumer<RegistryState> callback,
+            Runnable failureCallback) {
         sendRequest(Operation.createGet(this, registryLink)
                 .setCompletion((o, e) -> {
                     if (e != null) {
                         logSevere("Failed to retrieve registry state for %s. %s",
                                 registryLink, Utils.toString(e));
+                        failureCallback.run();
                         return;
                     }
                     RegistryState registry = o.getBody(RegistryState.class);
@@ -13,6 +13,9 @@ package com.vmware.admiral.compute;
 
 import static java.util.concurrent.TimeUnit.MINUTES;
 
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
@@ -41,6 +44,8 @@ public class PlacementCapacityUpdatePeriodicService extends StatelessService {
             "dcp.management.placement.compute.periodic.pause.seconds", 10);
     private final AtomicBoolean paused = new AtomicBoolean();
     private final AtomicBoolean invalidated = new AtomicBoolean();
+    // computes changed since the last refresh
+    private final Set<String> changedComputeLinks = ConcurrentHashMap.newKeySet();
 
     public PlacementCapacityUpdatePeriodicService() {
         super.toggleOption(ServiceOption.INSTRUMENTATION, true);
@@ -51,7 +56,7 @@ public class PlacementCapacityUpdatePeriodicService extends StatelessService {
     @Override
     public void handlePeriodicMaintenance(Operation post) {
         post.complete();
-        doTrigger(() -> "Periodic refresh", false);
+        doTrigger(() -> "Periodic refresh", false, true);
     }
 
     @Override
@@ -67,12 +72,19 @@ public class PlacementCapacityUpdatePeriodicService extends StatelessService {
         QueryTask queryTask = op.getBody(QueryTask.class);
         if (queryTask.results != null && queryTask.results.documentLinks != null
                 && !queryTask.results.documentLinks.isEmpty()) {
+            changedComputeLinks.addAll(queryTask.results.documentLinks);
             doTrigger(() -> String.format("Compute change: %s",
-                    String.join(", ", queryTask.results.documentLinks)), true);
+                    String.join(", ", queryTask.results.documentLinks)), true, false);
         }
     }
 
-    private void doTrigger(Supplier<String> logSupplier, boolean postponeIfPaused) {
+    /**
+     * Triggers the refresh of all placements and placement zones. The periodic refresh recomputes
+     * the figures of all computes, correcting any drift, while the refresh on compute change
+     * updates the figures of the changed computes only.
+     */
+    private void doTrigger(Supplier<String> logSupplier, boolean postponeIfPaused,
+            boolean fullRefresh) {
         // do nothing if refresh is currently paused
         if (!this.paused.compareAndSet(false, true)) {
             String s = logSupplier.get() + " %s";
@@ -86,8 +98,15 @@ public class PlacementCapacityUpdatePeriodicService extends StatelessService {
         }
 
         // refresh
-        logInfo(logSupplier);
-        PlacementCapacityUpdateTaskService.triggerForAllResourcePools(this);
+        Set<String> computeLinks = new HashSet<>(changedComputeLinks);
+        changedComputeLinks.removeAll(computeLinks);
+        if (fullRefresh) {
+            logInfo(logSupplier);
+            PlacementCapacityUpdateTaskService.triggerForAllResourcePools(this);
+        } else if (!computeLinks.isEmpty()) {
+            logInfo(logSupplier);
+            PlacementCapacityUpdateTaskService.triggerForAllResourcePools(this, computeLinks);
+        }
 
         // re-enable after the pause
         this.getHost().schedule(() -> {
@@ -95,7 +114,7 @@ public class PlacementCapacityUpdatePeriodicService extends StatelessService {
             this.paused.set(false);
 
             if (isRefreshRequired) {
-                doTrigger(() -> "Postponed refresh", false);
+                doTrigger(() -> "Postponed refresh", false, false);
             }
         }, PAUSE_SECONDS, TimeUnit.SECONDS);
     }
@@ -25,6 +25,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -74,6 +78,25 @@ public class PlacementCapacityUpdateTaskService extends
 
     private static final int COMPUTE_PAGE_SIZE = 100;
 
+    /**
+     * Interval of the full recomputation of the capacity of a resource pool. In between, only the
+     * figures of the changed computes are updated.
+     */
+    private static final long FULL_UPDATE_INTERVAL_MICROS = Long.getLong(
+            "dcp.management.placement.capacity.full.update.interval.micros",
+            TimeUnit.MINUTES.toMicros(30));
+
+    // delay before retrying an update of changed computes while a task for the pool is running
+    private static final long TRIGGER_RETRY_DELAY_SECONDS = Long.getLong(
+            "dcp.management.placement.capacity.trigger.retry.delay.seconds", 5);
+
+    // node-local figures of the computes in each resource pool, as of the last update
+    private static final ConcurrentMap<String, PoolComputeStats> computeStatsByPool =
+            new ConcurrentHashMap<>();
+
+    // figures of the computes collected by a full update run by this instance
+    private Map<String, ComputeStats> collectedComputeStats;
+
     /**
      * Task parameters and internal state.
      */
@@ -103,6 +126,11 @@ public class PlacementCapacityUpdateTaskService extends
         @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL },
                 indexing = STORE_ONLY)
         public AggregatedComputeStats aggregatedStats;
+
+        @Documentation(description = "Links to the computes changed since the last update. When"
+                + " set, only the figures of these computes are updated if possible.")
+        @PropertyOptions(usage = SINGLE_ASSIGNMENT, indexing = STORE_ONLY)
+        public Set<String> computeLinks;
     }
 
     /**
@@ -130,6 +158,29 @@ public class PlacementCapacityUpdateTaskService extends
 
         public double cpuUsageSumAllCores;
         public long availableMemoryBytes;
+
+        void add(ComputeStats stats) {
+            computeCount++;
+            totalMemoryBytes += stats.totalMemoryBytes;
+            cpuCoreCount += stats.cpuCoreCount;
+            totalCpuMhz += stats.cpuCoreCount * stats.cpuMhzPerCore;
+
+            availableMemoryBytes += stats.availableMemoryBytes;
+            cpuUsageSumAllCores += stats.cpuCoreCount * stats.cpuUsage;
+        }
+    }
+
+    /**
+     * Represents the statistics of the computes in a resource pool, by compute link.
+     */
+    private static class PoolComputeStats {
+        final Map<String, ComputeStats> statsByCompute;
+        final long fullUpdateTimeMicros;
+
+        PoolComputeStats(Map<String, ComputeStats> statsByCompute, long fullUpdateTimeMicros) {
+            this.statsByCompute = statsByCompute;
+            this.fullUpdateTimeMicros = fullUpdateTimeMicros;
+        }
     }
 
     /**
@@ -137,8 +188,20 @@ public class PlacementCapacityUpdateTaskService extends
      * are run in parallel for the same resource pool.
      */
     public static void triggerForResourcePool(Service sender, String resourcePoolLink) {
+        triggerForResourcePool(sender, resourcePoolLink, null);
+    }
+
+    /**
+     * Triggers the capacity update task for the given resource pool, updating only the figures
+     * of the given changed computes when the figures of the other computes are known. All
+     * computes are recomputed when no compute links are given. Makes sure no multiple tasks are
+     * run in parallel for the same resource pool.
+     */
+    public static void triggerForResourcePool(Service sender, String resourcePoolLink,
+            Set<String> computeLinks) {
         PlacementCapacityUpdateTaskState task = new PlacementCapacityUpdateTaskState();
         task.resourcePoolLink = resourcePoolLink;
+        task.computeLinks = computeLinks;
         task.documentSelfLink = extractRpId(task);
 
         Operation.createPost(sender.getHost(), PlacementCapacityUpdateTaskService.FACTORY_LINK)
@@ -148,6 +211,12 @@ public class PlacementCapacityUpdateTaskService extends
                     if (o.getStatusCode() == Operation.STATUS_CODE_NOT_MODIFIED) {
                         sender.getHost().log(Level.FINE,
                                 "Capacity update task already running for " + resourcePoolLink);
+                        if (computeLinks != null) {
+                            // the running task may have missed the changes of the computes
+                            sender.getHost().schedule(() -> triggerForResourcePool(sender,
+                                    resourcePoolLink, computeLinks), TRIGGER_RETRY_DELAY_SECONDS,
+                                    TimeUnit.SECONDS);
+                        }
                         return;
                     }
 
@@ -168,11 +237,20 @@ public class PlacementCapacityUpdateTaskService extends
      * run in parallel for the same resource pool.
      */
     public static void triggerForAllResourcePools(Service sender) {
+        triggerForAllResourcePools(sender, null);
+    }
+
+    /**
+     * Triggers a capacity update task for each resource pool, updating only the figures of the
+     * given changed computes where possible. Makes sure no multiple tasks are run in parallel for
+     * the same resource pool.
+     */
+    public static void triggerForAllResourcePools(Service sender, Set<String> computeLinks) {
         // TODO pmitrov: add support for tenant links
         Query rpQuery = Query.Builder.create().addKindFieldClause(ResourcePoolState.class).build();
         new QueryByPages<ResourcePoolState>(sender.getHost(), rpQuery, ResourcePoolState.class, null)
-                .queryLinks(rpLink ->
-                        PlacementCapacityUpdateTaskService.triggerForResourcePool(sender, rpLink))
+                .queryLinks(rpLink -> PlacementCapacityUpdateTaskService
+                        .triggerForResourcePool(sender, rpLink, computeLinks))
                 .exceptionally(e -> {
                     sender.getHost().log(Level.WARNING,
                             "Failed to start capacity update task for all resource pools: %s",
@@ -245,6 +323,9 @@ public class PlacementCapacityUpdateTaskService extends
             sendRequest(Operation.createGet(getHost(), state.resourcePoolLink)
                     .setCompletion((o, e) -> {
                         if (e != null) {
+                            if (e instanceof ServiceNotFoundException) {
+                                computeStatsByPool.remove(getComputeStatsKey(state));
+                            }
                             failTask(String.format("Error retrieving resource pool %s",
                                     state.resourcePoolLink), e,
                                     !(e instanceof ServiceNotFoundException));
@@ -256,6 +337,14 @@ public class PlacementCapacityUpdateTaskService extends
             return;
         }
 
+        PoolComputeStats cachedStats = state.computeLinks != null
+                ? getCachedComputeStats(state) : null;
+        if (cachedStats != null) {
+            updateChangedComputeStats(state, resourcePoolState, cachedStats);
+            return;
+        }
+
+        collectedComputeStats = new HashMap<>();
         QueryTask queryTask = QueryTask.Builder.createDirectTask()
                 .setQuery(resourcePoolState.query)
                 .setResultLimit(COMPUTE_PAGE_SIZE)
@@ -302,15 +391,84 @@ public class PlacementCapacityUpdateTaskService extends
 
                     if (computes.isEmpty()) {
                         proceedTo(PlacementCapacityUpdateTaskState.SubStage.UPDATE_RESOURCE_POOL);
-                    } else {
-                        queryComputeDescriptions(state, computes, result.nextPageLink);
+                        return;
                     }
+
+                    queryComputeDescriptions(computes, computeDescriptions -> {
+                        AggregatedComputeStats aggregatedStats = accummulateComputeFigures(
+                                state, computes, computeDescriptions);
+
+                        if (result.nextPageLink == null) {
+                            proceedTo(PlacementCapacityUpdateTaskState.SubStage.UPDATE_RESOURCE_POOL, s -> {
+                                s.aggregatedStats = aggregatedStats;
+                            });
+                        } else {
+                            proceedTo(state.taskSubStage, s -> {
+                                s.aggregatedStats = aggregatedStats;
+                                s.nextPageLink = result.nextPageLink;
+                            });
+                        }
+                    });
                 }));
     }
 
-    private void queryComputeDescriptions(PlacementCapacityUpdateTaskState state,
-            List<ComputeState> computes,
-            String nextPageLink) {
+    /**
+     * Updates the cached figures of the pool with those of the changed computes, and aggregates
+     * the figures of all computes in the pool without retrieving the unchanged ones.
+     */
+    private void updateChangedComputeStats(PlacementCapacityUpdateTaskState state,
+            ResourcePoolState resourcePoolState, PoolComputeStats cachedStats) {
+        Consumer<List<ComputeState>> computesHandler = computes -> queryComputeDescriptions(
+                computes, computeDescriptions -> {
+                    Map<String, ComputeStats> statsByCompute = new HashMap<>(
+                            cachedStats.statsByCompute);
+                    // changed computes no longer in the pool are not found by the query
+                    statsByCompute.keySet().removeAll(state.computeLinks);
+                    statsByCompute.putAll(collectComputeStats(state, computes,
+                            computeDescriptions));
+                    computeStatsByPool.put(getComputeStatsKey(state), new PoolComputeStats(
+                            statsByCompute, cachedStats.fullUpdateTimeMicros));
+
+                    AggregatedComputeStats aggregatedStats = new AggregatedComputeStats();
+                    statsByCompute.values().forEach(aggregatedStats::add);
+                    proceedTo(PlacementCapacityUpdateTaskState.SubStage.UPDATE_RESOURCE_POOL, s -> {
+                        s.aggregatedStats = aggregatedStats;
+                    });
+                });
+
+        if (state.computeLinks.isEmpty()) {
+            computesHandler.accept(new ArrayList<>());
+            return;
+        }
+
+        Query query = Query.Builder.create()
+                .addClause(resourcePoolState.query)
+                .addInClause(ServiceDocument.FIELD_NAME_SELF_LINK, state.computeLinks)
+                .build();
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .setQuery(query)
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .build();
+
+        List<ComputeState> computes = new ArrayList<>();
+        new ServiceDocumentQuery<>(getHost(), ComputeState.class).query(queryTask, (r) -> {
+            if (r.hasException()) {
+                failTask("Error quering for computes", r.getException());
+            } else if (r.hasResult()) {
+                computes.add(r.getResult());
+            } else {
+                computesHandler.accept(computes);
+            }
+        });
+    }
+
+    private void queryComputeDescriptions(List<ComputeState> computes,
+            Consumer<Map<String, ComputeDescription>> callback) {
+        if (computes.isEmpty()) {
+            callback.accept(new HashMap<>());
+            return;
+        }
+
         Collection<String> computeDescriptionLinks = computes.stream()
                 .map(c -> c.descriptionLink).collect(Collectors.toSet());
 
@@ -329,19 +487,7 @@ public class PlacementCapacityUpdateTaskService extends
                     } else if (r.hasResult()) {
                         computeDescriptions.put(r.getDocumentSelfLink(), r.getResult());
                     } else {
-                        AggregatedComputeStats aggregatedStats = accummulateComputeFigures(
-                                state, computes, computeDescriptions);
-
-                        if (nextPageLink == null) {
-                            proceedTo(PlacementCapacityUpdateTaskState.SubStage.UPDATE_RESOURCE_POOL, s -> {
-                                s.aggregatedStats = aggregatedStats;
-                            });
-                        } else {
-                            proceedTo(state.taskSubStage, s -> {
-                                s.aggregatedStats = aggregatedStats;
-                                s.nextPageLink = nextPageLink;
-                            });
-                        }
+                        callback.accept(computeDescriptions);
                     }
                 });
     }
@@ -352,6 +498,19 @@ public class PlacementCapacityUpdateTaskService extends
         AggregatedComputeStats aggregatedStats = state.aggregatedStats != null
                 ? state.aggregatedStats : new AggregatedComputeStats();
 
+        Map<String, ComputeStats> statsByCompute = collectComputeStats(state, computes,
+                computeDescriptions);
+        statsByCompute.values().forEach(aggregatedStats::add);
+        if (collectedComputeStats != null) {
+            collectedComputeStats.putAll(statsByCompute);
+        }
+
+        return aggregatedStats;
+    }
+
+    private Map<String, ComputeStats> collectComputeStats(PlacementCapacityUpdateTaskState state,
+            List<ComputeState> computes, Map<String, ComputeDescription> computeDescriptions) {
+        Map<String, ComputeStats> statsByCompute = new HashMap<>();
         for (ComputeState compute : computes) {
             ComputeDescription computeDescription = computeDescriptions.get(compute.descriptionLink);
             if (computeDescription == null) {
@@ -361,23 +520,35 @@ public class PlacementCapacityUpdateTaskService extends
             }
 
             ComputeStats stats = getComputeStats(state, compute, computeDescription);
-            if (stats == null) {
-                continue;
+            if (stats != null) {
+                statsByCompute.put(compute.documentSelfLink, stats);
             }
+        }
+        return statsByCompute;
+    }
 
-            aggregatedStats.computeCount++;
-            aggregatedStats.totalMemoryBytes += stats.totalMemoryBytes;
-            aggregatedStats.cpuCoreCount += stats.cpuCoreCount;
-            aggregatedStats.totalCpuMhz += stats.cpuCoreCount * stats.cpuMhzPerCore;
-
-            aggregatedStats.availableMemoryBytes += stats.availableMemoryBytes;
-            aggregatedStats.cpuUsageSumAllCores += stats.cpuCoreCount * stats.cpuUsage;
+    private PoolComputeStats getCachedComputeStats(PlacementCapacityUpdateTaskState state) {
+        PoolComputeStats cachedStats = computeStatsByPool.get(getComputeStatsKey(state));
+        if (cachedStats == null || cachedStats.fullUpdateTimeMicros
+                + FULL_UPDATE_INTERVAL_MICROS < Utils.getSystemNowMicrosUtc()) {
+            // a full update is due to correct any drift of the figures
+            return null;
         }
+        return cachedStats;
+    }
 
-        return aggregatedStats;
+    private String getComputeStatsKey(PlacementCapacityUpdateTaskState state) {
+        return getHost().getId() + state.resourcePoolLink;
     }
 
     private void updateResourcePool(PlacementCapacityUpdateTaskState state) {
+        if (collectedComputeStats != null) {
+            // the figures of all computes in the pool are known after a full update
+            computeStatsByPool.put(getComputeStatsKey(state), new PoolComputeStats(
+                    collectedComputeStats, Utils.getSystemNowMicrosUtc()));
+            collectedComputeStats = null;
+        }
+
         // calculate average cpu usage per core
         double totalCpuUsage = 0.0;
         if (state.aggregatedStats.cpuCoreCount > 0) {
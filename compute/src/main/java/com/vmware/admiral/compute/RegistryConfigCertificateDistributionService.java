@@ -92,10 +92,9 @@ public class RegistryConfigCertificateDistributionService
             } else if (r.hasResult()) {
                 hostLinks.add(r.getDocumentSelfLink());
             } else {
-                logInfo("Retrieved hosts %s", hostLinks);
-                for (String hostLink : hostLinks) {
-                    uploadCertificate(hostLink, registryAddress, certificate, tenantLinks);
-                }
+                logFine("Retrieved hosts %s", hostLinks);
+                // the registry was saved explicitly, so the certificate is uploaded to all hosts
+                uploadCertificate(hostLinks, registryAddress, certificate, tenantLinks, false);
             }
         });
     }
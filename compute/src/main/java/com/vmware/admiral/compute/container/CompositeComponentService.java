@@ -16,8 +16,10 @@ import static com.vmware.admiral.common.util.AssertUtil.assertNotEmpty;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
@@ -86,6 +88,22 @@ public class CompositeComponentService extends StatefulService {
         public Map<String, String> customProperties;
     }
 
+    /**
+     * PATCH body adding components to and removing components from a composite component, without
+     * sending the whole list of its components.
+     */
+    public static class ComponentLinksUpdate {
+        public static final String KIND = Utils.buildKind(ComponentLinksUpdate.class);
+
+        public String documentKind = KIND;
+
+        /** Links of the components to add to the composite component. */
+        public Set<String> componentLinksToAdd;
+
+        /** Links of the components to remove from the composite component. */
+        public Set<String> componentLinksToRemove;
+    }
+
     public CompositeComponentService() {
         super(CompositeComponent.class);
         super.toggleOption(ServiceOption.PERSISTENCE, true);
@@ -139,6 +157,11 @@ public class CompositeComponentService extends StatefulService {
         CompositeComponent currentState = getState(patch);
         CompositeComponent patchBody = patch.getBody(CompositeComponent.class);
 
+        if (ComponentLinksUpdate.KIND.equals(patchBody.documentKind)) {
+            patchComponentLinks(patch, currentState);
+            return;
+        }
+
         ServiceDocumentDescription docDesc = getDocumentTemplate().documentDescription;
         String currentSignature = Utils.computeSignature(currentState, docDesc);
 
@@ -183,6 +206,45 @@ public class CompositeComponentService extends StatefulService {
         }
     }
 
+    private void patchComponentLinks(Operation patch, CompositeComponent currentState) {
+        ComponentLinksUpdate update = patch.getBody(ComponentLinksUpdate.class);
+        boolean modified = false;
+
+        if (update.componentLinksToAdd != null && !update.componentLinksToAdd.isEmpty()) {
+            if (currentState.componentLinks == null) {
+                currentState.componentLinks = new ArrayList<>(update.componentLinksToAdd.size());
+            }
+            Set<String> componentLinks = new HashSet<>(currentState.componentLinks);
+            for (String componentLink : update.componentLinksToAdd) {
+                if (componentLinks.add(componentLink)) {
+                    currentState.componentLinks.add(componentLink);
+                    modified = true;
+                }
+            }
+        }
+
+        List<String> componentLinksToCheck = null;
+
+        if (update.componentLinksToRemove != null && !update.componentLinksToRemove.isEmpty()
+                && currentState.componentLinks != null) {
+            modified |= currentState.componentLinks.removeAll(update.componentLinksToRemove);
+            componentLinksToCheck = new ArrayList<>(currentState.componentLinks);
+        }
+
+        if (!modified) {
+            patch.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED);
+        }
+
+        patch.complete();
+
+        if (componentLinksToCheck != null) {
+            deleteDocumentIfNeeded(componentLinksToCheck, () -> {
+                deleteCompositeDescription(currentState.compositeDescriptionLink);
+                ServiceUtils.sendSelfDelete(this);
+            });
+        }
+    }
+
     @Override
     public void handleDelete(Operation delete) {
         // Start updating external network and volume composite components,
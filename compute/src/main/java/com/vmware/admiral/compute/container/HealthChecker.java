@@ -14,7 +14,11 @@ package com.vmware.admiral.compute.container;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -123,6 +127,9 @@ public class HealthChecker {
 
     private Bootstrap bootstrap;
 
+    /** One-shot callbacks waiting for the first successful health check, by container link. */
+    private final Map<String, List<Runnable>> healthyCallbacks = new ConcurrentHashMap<>();
+
     public static HealthChecker getInstance() {
         if (instance == null) {
             synchronized (HealthChecker.class) {
@@ -202,6 +209,48 @@ public class HealthChecker {
         }
     }
 
+    /**
+     * Registers a one-shot callback, invoked on the first successful health check of the given
+     * container. The health check may be triggered either by the caller or by the periodic
+     * maintenance of the container description.
+     */
+    public void onHealthy(String containerLink, Runnable callback) {
+        healthyCallbacks.compute(containerLink, (link, callbacks) -> {
+            if (callbacks == null) {
+                callbacks = new ArrayList<>();
+            }
+            callbacks.add(callback);
+            return callbacks;
+        });
+    }
+
+    /**
+     * Unregisters a callback previously registered with {@link #onHealthy(String, Runnable)}
+     * which has not been invoked yet.
+     */
+    public void removeHealthyCallback(String containerLink, Runnable callback) {
+        healthyCallbacks.computeIfPresent(containerLink, (link, callbacks) -> {
+            callbacks.remove(callback);
+            return callbacks.isEmpty() ? null : callbacks;
+        });
+    }
+
+    private void notifyHealthy(ServiceHost host, String containerLink) {
+        List<Runnable> callbacks = healthyCallbacks.remove(containerLink);
+        if (callbacks == null) {
+            return;
+        }
+
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (Throwable t) {
+                host.log(Level.WARNING, "Failed to notify health check success for %s : %s",
+                        containerLink, Utils.toString(t));
+            }
+        }
+    }
+
     private void processContainerHealth(ServiceHost host,
             ContainerDescription containerDescription) {
 
@@ -446,6 +495,9 @@ public class HealthChecker {
 
                         return;
                     }
+                    if (containerStats.healthCheckSuccess) {
+                        notifyHealthy(host, containerState.documentSelfLink);
+                    }
                     if (callback != null) {
                         callback.accept(ob.getBody(ContainerStats.class));
                     }
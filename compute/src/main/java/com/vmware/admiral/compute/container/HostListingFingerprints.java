@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Fingerprints of the resources last listed on each host by a list data collection. A listing
+ * with the same fingerprint as the last processed one has nothing new to synchronize, so the
+ * data collection can skip it. Processed fingerprints expire after a while, so that changes
+ * which don't show in the listings are still synchronized periodically.
+ */
+final class HostListingFingerprints {
+
+    static final long FULL_SYNC_INTERVAL_MILLIS = Long.getLong(
+            "com.vmware.admiral.compute.container.list.data.collection.full.sync.interval.millis",
+            TimeUnit.MINUTES.toMillis(5));
+
+    private final long maxAgeMillis;
+    private final ConcurrentMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+
+    HostListingFingerprints() {
+        this(FULL_SYNC_INTERVAL_MILLIS);
+    }
+
+    HostListingFingerprints(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Computes the fingerprint of a listing from the entries describing its resources. The order
+     * of the entries doesn't matter.
+     */
+    static String fingerprint(Collection<String> entries) {
+        List<String> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted);
+        return Utils.computeHash(String.join("\n", sorted));
+    }
+
+    /**
+     * Returns whether the given fingerprint is the one last processed for the given host and the
+     * full synchronization of the host is not yet due.
+     */
+    boolean isUnchanged(String hostLink, String fingerprint) {
+        Fingerprint last = fingerprints.get(hostLink);
+        return last != null && last.value.equals(fingerprint)
+                && System.currentTimeMillis() - last.processedMillis < maxAgeMillis;
+    }
+
+    /**
+     * Records the given fingerprint as fully synchronized for the given host.
+     */
+    void processed(String hostLink, String fingerprint) {
+        fingerprints.put(hostLink, new Fingerprint(fingerprint));
+    }
+
+    private static class Fingerprint {
+        final String value;
+        final long processedMillis;
+
+        Fingerprint(String value) {
+            this.value = value;
+            this.processedMillis = System.currentTimeMillis();
+        }
+    }
+}
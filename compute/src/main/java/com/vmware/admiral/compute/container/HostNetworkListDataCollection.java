@@ -81,6 +81,8 @@ public class HostNetworkListDataCollection extends StatefulService {
     private static final int NETWORKS_INSPECT_BATCH_SIZE = Integer.parseInt(System.getProperty(
             "com.vmware.admiral.compute.container.network.inspect.batch.size", "50"));
 
+    private final HostListingFingerprints listingFingerprints = new HostListingFingerprints();
+
     public static class HostNetworkListDataCollectionState extends
             TaskServiceDocument<DefaultSubStage> {
         @Documentation(description = "The list of container host links.")
@@ -201,10 +203,37 @@ public class HostNetworkListDataCollection extends StatefulService {
             // complete patch operation and continue with the data collection
         }
 
-        queryExistingNetworkStates(body);
+        listHostNetworks(body, (o, ex) -> {
+            if (ex != null) {
+                unlockCurrentDataCollectionForHost(body.containerHostLink);
+                return;
+            }
+            NetworkListCallback callback = o.getBody(NetworkListCallback.class);
+            if (callback.hostAdapterReference == null) {
+                callback.hostAdapterReference = ContainerHostDataCollectionService
+                        .getDefaultHostAdapter(getHost());
+            }
+
+            String fingerprint = fingerprint(callback);
+            if (listingFingerprints.isUnchanged(body.containerHostLink, fingerprint)) {
+                logFine("Networks of host [%s] not changed since the last data collection",
+                        body.containerHostLink);
+                unlockCurrentDataCollectionForHost(body.containerHostLink);
+                return;
+            }
+
+            queryExistingNetworkStates(body, callback, fingerprint);
+        });
     }
 
-    private void queryExistingNetworkStates(NetworkListCallback body) {
+    private static String fingerprint(NetworkListCallback callback) {
+        List<String> entries = new ArrayList<>(callback.networkIdsAndNames.size());
+        callback.networkIdsAndNames.forEach((id, name) -> entries.add(id + "=" + name));
+        return HostListingFingerprints.fingerprint(entries);
+    }
+
+    private void queryExistingNetworkStates(NetworkListCallback body,
+            NetworkListCallback callback, String fingerprint) {
         QueryTask queryTask = QueryUtil.buildQuery(ContainerNetworkState.class, true);
 
         // Clause to find all networks for the given host.
@@ -234,11 +263,11 @@ public class HostNetworkListDataCollection extends StatefulService {
         QueryUtil.addBroadcastOption(queryTask);
 
         new ServiceDocumentQuery<>(getHost(), ContainerNetworkState.class)
-                .query(queryTask, processNetworkStatesQueryResults(body));
+                .query(queryTask, processNetworkStatesQueryResults(body, callback, fingerprint));
     }
 
     private Consumer<ServiceDocumentQuery.ServiceDocumentQueryElementResult<ContainerNetworkState>> processNetworkStatesQueryResults(
-            NetworkListCallback body) {
+            NetworkListCallback body, NetworkListCallback callback, String fingerprint) {
         List<ContainerNetworkState> existingNetworkStates = new ArrayList<>();
 
         return (r) -> {
@@ -251,19 +280,8 @@ public class HostNetworkListDataCollection extends StatefulService {
             } else if (r.hasResult()) {
                 existingNetworkStates.add(r.getResult());
             } else {
-                listHostNetworks(body, (o, ex) -> {
-                    if (ex == null) {
-                        NetworkListCallback callback = o.getBody(NetworkListCallback.class);
-                        if (callback.hostAdapterReference == null) {
-                            callback.hostAdapterReference = ContainerHostDataCollectionService
-                                    .getDefaultHostAdapter(getHost());
-                        }
-                        updateContainerNetworkStates(callback, existingNetworkStates,
-                                body.containerHostLink);
-                    } else {
-                        unlockCurrentDataCollectionForHost(body.containerHostLink);
-                    }
-                });
+                updateContainerNetworkStates(callback, existingNetworkStates,
+                        body.containerHostLink, fingerprint);
             }
         };
     }
@@ -281,32 +299,50 @@ public class HostNetworkListDataCollection extends StatefulService {
     }
 
     private void updateContainerNetworkStates(NetworkListCallback callback,
-            List<ContainerNetworkState> networkStates, String callbackHostLink) {
+            List<ContainerNetworkState> networkStates, String callbackHostLink,
+            String fingerprint) {
 
         // inspect existing network states
-        inspectExistingNetworks(networkStates);
+        inspectExistingNetworks(callback, networkStates);
 
         // process existing network states - update parent links and missing networks
-        processExistingNetworks(callback, networkStates, callbackHostLink);
+        boolean inSync = processExistingNetworks(callback, networkStates, callbackHostLink);
+
+        // listings are skipped while they don't change only once the states match them
+        inSync = inSync && callback.networkIdsAndNames.isEmpty();
 
         // create newly discovered networks
-        processDiscoveredNetworks(callback);
+        processDiscoveredNetworks(callback, callbackHostLink, inSync ? fingerprint : null);
     }
 
-    private void inspectExistingNetworks(
+    private void inspectExistingNetworks(NetworkListCallback callback,
             List<ContainerNetworkState> networkStates) {
+        // only the networks on this host are inspected, the overlay networks on other hosts are
+        // inspected by the data collection of those hosts
+        List<ContainerNetworkState> hostNetworkStates = new ArrayList<>();
+        for (ContainerNetworkState networkState : networkStates) {
+            if (networkState.id != null
+                    && callback.networkIdsAndNames.containsKey(networkState.id)) {
+                hostNetworkStates.add(networkState);
+            }
+        }
+
         // inspect networks in batches
         ContainerNetworkMaintenance networkMaintenance = new ContainerNetworkMaintenance(getHost());
         AtomicInteger counter = new AtomicInteger();
-        Iterables.partition(networkStates, NETWORKS_INSPECT_BATCH_SIZE)
+        Iterables.partition(hostNetworkStates, NETWORKS_INSPECT_BATCH_SIZE)
                 .forEach(list -> getHost().schedule(() -> {
                     networkMaintenance.requestNetworksInspectIfNeeded(list);
                 }, counter.getAndIncrement() * NETWORKS_INSPECT_DELAY_SECONDS, TimeUnit.SECONDS));
     }
 
-    private void processExistingNetworks(NetworkListCallback callback,
+    /**
+     * Returns whether the network states already matched the listed networks.
+     */
+    private boolean processExistingNetworks(NetworkListCallback callback,
             List<ContainerNetworkState> networkStates,
             String callbackHostLink) {
+        boolean inSync = true;
         for (ContainerNetworkState networkState : networkStates) {
             boolean isOverlay = "overlay".equals(networkState.driver);
 
@@ -320,6 +356,7 @@ public class HostNetworkListDataCollection extends StatefulService {
                 String name = networkState.name;
                 existsInCallbackHost = callback.networkIdsAndNames.containsValue(name);
                 callback.networkIdsAndNames.values().remove(name);
+                inSync = false;
             }
 
             if (networkState.parentLinks == null) {
@@ -331,13 +368,16 @@ public class HostNetworkListDataCollection extends StatefulService {
                 if (!isOverlay) {
                     if (active) {
                         handleMissingContainerNetwork(networkState);
+                        inSync = false;
                     }
                 } else {
                     if (networkState.parentLinks.contains(callbackHostLink)) {
                         networkState.parentLinks.remove(callbackHostLink);
                         handleUpdateParentLinks(networkState);
+                        inSync = false;
                     } else if (active && networkState.parentLinks.isEmpty()) {
                         handleMissingContainerNetwork(networkState);
+                        inSync = false;
                     }
                 }
             } else {
@@ -345,13 +385,15 @@ public class HostNetworkListDataCollection extends StatefulService {
                         && !networkState.parentLinks.contains(callbackHostLink)) {
                     networkState.parentLinks.add(callbackHostLink);
                     handleUpdateParentLinks(networkState);
+                    inSync = false;
                 }
             }
         }
+        return inSync;
     }
 
-    private void processDiscoveredNetworks(
-            NetworkListCallback callback) {
+    private void processDiscoveredNetworks(NetworkListCallback callback,
+            String callbackHostLink, String fingerprint) {
         // finished removing existing ContainerNetworkState, now deal with remaining IDs
         List<ContainerNetworkState> networksLeft = new ArrayList<>();
 
@@ -379,6 +421,10 @@ public class HostNetworkListDataCollection extends StatefulService {
                             createDiscoveredContainerNetworks(
                                     networksLeft,
                                     (e) -> {
+                                        if (e == null && fingerprint != null) {
+                                            listingFingerprints.processed(callbackHostLink,
+                                                    fingerprint);
+                                        }
                                         unlockCurrentDataCollectionForHost(
                                                 callback.containerHostLink);
                                     });
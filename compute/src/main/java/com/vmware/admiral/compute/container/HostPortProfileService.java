@@ -92,6 +92,12 @@ public class HostPortProfileService extends StatefulService {
         /** Specific host ports to allocate. */
         public Set<Long> specificHostPorts;
 
+        /**
+         * {@link com.vmware.admiral.compute.container.ContainerService.ContainerState} links to
+         * release the ports of at once. Used instead of containerLink on release only.
+         */
+        public Set<String> containerLinks;
+
     }
 
     public HostPortProfileService() {
@@ -119,8 +125,10 @@ public class HostPortProfileService extends StatefulService {
 
         HostPortProfileReservationRequest request = patch.getBody(HostPortProfileReservationRequest.class);
 
-        assertNotEmpty(request.containerLink, "containerLink");
         assertNotNull(request.mode, "mode");
+        if (!isBulkRelease(request)) {
+            assertNotEmpty(request.containerLink, "containerLink");
+        }
         HostPortProfileState hostPortProfileState = getState(patch);
         switch (request.mode) {
         case ALLOCATE:
@@ -171,6 +179,13 @@ public class HostPortProfileService extends StatefulService {
 
     /** Release all ports for HostPortProfileReservationRequest. */
     private void releasePorts(HostPortProfileState state, HostPortProfileReservationRequest request) {
+        if (isBulkRelease(request)) {
+            logInfo("Releasing ports for %d containers and profile [%s].",
+                    request.containerLinks.size(), state.documentSelfLink);
+            state.reservedPorts.entrySet()
+                    .removeIf(p -> request.containerLinks.contains(p.getValue()));
+            return;
+        }
         logInfo("Releasing ports [%s] for container [%s] and profile [%s].",
                 getAllocatedPorts(state, request.containerLink),
                 request.containerLink,
@@ -180,6 +195,12 @@ public class HostPortProfileService extends StatefulService {
                 .removeIf(p -> request.containerLink.equals(p.getValue()));
     }
 
+    /** Whether the request releases the ports of containerLinks rather than containerLink. */
+    private static boolean isBulkRelease(HostPortProfileReservationRequest request) {
+        return request.mode == HostPortProfileReservationRequestMode.RELEASE
+                && request.containerLinks != null;
+    }
+
     /** Allocate all ports for HostPortProfileReservationRequest. */
     private void allocatePorts(HostPortProfileState state,
                                HostPortProfileReservationRequest request) {
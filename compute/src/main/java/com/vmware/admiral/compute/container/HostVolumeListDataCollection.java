@@ -81,6 +81,8 @@ public class HostVolumeListDataCollection extends StatefulService {
     private static final int VOLUME_INSPECT_RETRY_INTERVAL_SECONDS = Integer.parseInt(System.getProperty(
             "com.vmware.admiral.compute.container.volume.inspect.retry.interval.seconds", "10"));
 
+    private final HostListingFingerprints listingFingerprints = new HostListingFingerprints();
+
     public static class HostVolumeListDataCollectionState extends
             TaskServiceDocument<DefaultSubStage> {
         @Documentation(description = "The list of container host links.")
@@ -182,6 +184,42 @@ public class HostVolumeListDataCollection extends StatefulService {
             // continue with the data collection.
         }
 
+        AdapterRequest request = new AdapterRequest();
+        request.operationTypeId = ContainerHostOperationType.LIST_VOLUMES.id;
+        request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        request.resourceReference = UriUtils.buildUri(getHost(), body.containerHostLink);
+        sendRequest(Operation
+                .createPatch(this, ManagementUriParts.ADAPTER_DOCKER_HOST)
+                .setBodyNoCloning(request)
+                .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_QUEUE_FOR_SERVICE_AVAILABILITY)
+                .setCompletion((o, ex) -> {
+                    if (ex != null) {
+                        unlockCurrentDataCollectionForHost(body.containerHostLink);
+                        return;
+                    }
+                    VolumeListCallback callback = o.getBody(VolumeListCallback.class);
+
+                    String fingerprint = fingerprint(callback);
+                    if (listingFingerprints.isUnchanged(body.containerHostLink, fingerprint)) {
+                        logFine("Volumes of host [%s] not changed since the last data"
+                                + " collection", body.containerHostLink);
+                        unlockCurrentDataCollectionForHost(body.containerHostLink);
+                        return;
+                    }
+
+                    queryExistingVolumeStates(body, callback, fingerprint);
+                }));
+    }
+
+    private static String fingerprint(VolumeListCallback callback) {
+        List<String> entries = new ArrayList<>(callback.volumesByName.size());
+        callback.volumesByName.forEach((name, volume) -> entries.add(name + "="
+                + (volume != null ? volume.driver : null)));
+        return HostListingFingerprints.fingerprint(entries);
+    }
+
+    private void queryExistingVolumeStates(VolumeListCallback body, VolumeListCallback callback,
+            String fingerprint) {
         List<ContainerVolumeState> volumeStates = new ArrayList<>();
 
         QueryTask queryTask = QueryUtil.buildQuery(ContainerVolumeState.class, true);
@@ -228,30 +266,8 @@ public class HostVolumeListDataCollection extends StatefulService {
                             } else if (r.hasResult()) {
                                 volumeStates.add(r.getResult());
                             } else {
-                                AdapterRequest request = new AdapterRequest();
-                                request.operationTypeId =
-                                        ContainerHostOperationType.LIST_VOLUMES.id;
-                                request.serviceTaskCallback = ServiceTaskCallback.createEmpty();
-                                request.resourceReference = UriUtils.buildUri(getHost(),
-                                        body.containerHostLink);
-                                sendRequest(Operation
-                                        .createPatch(this, ManagementUriParts.ADAPTER_DOCKER_HOST)
-                                        .setBodyNoCloning(request)
-                                        .addPragmaDirective(
-                                                Operation.PRAGMA_DIRECTIVE_QUEUE_FOR_SERVICE_AVAILABILITY)
-                                        .setCompletion(
-                                                (o, ex) -> {
-                                                    if (ex == null) {
-                                                        VolumeListCallback callback = o
-                                                                .getBody(VolumeListCallback.class);
-                                                        updateContainerVolumeStates(callback,
-                                                                volumeStates,
-                                                                body.containerHostLink);
-                                                    } else {
-                                                        unlockCurrentDataCollectionForHost(
-                                                                body.containerHostLink);
-                                                    }
-                                                }));
+                                updateContainerVolumeStates(callback, volumeStates,
+                                        body.containerHostLink, fingerprint);
                             }
                         });
     }
@@ -283,8 +299,11 @@ public class HostVolumeListDataCollection extends StatefulService {
     }
 
     private void updateContainerVolumeStates(VolumeListCallback callback,
-            List<ContainerVolumeState> volumeStates, String callbackHostLink) {
+            List<ContainerVolumeState> volumeStates, String callbackHostLink,
+            String fingerprint) {
 
+        // whether the volume states already matched the listed volumes
+        boolean inSync = true;
         for (ContainerVolumeState volumeState : volumeStates) {
 
             boolean isGlobal = "global".equals(volumeState.scope);
@@ -303,6 +322,7 @@ public class HostVolumeListDataCollection extends StatefulService {
             if (existsInCallbackHost) {
                 if (volumeState.powerState != PowerState.CONNECTED) {
                     updateVolumePowerState(volumeState);
+                    inSync = false;
                 }
                 callback.volumesByName.remove(volumeState.name);
             }
@@ -314,12 +334,15 @@ public class HostVolumeListDataCollection extends StatefulService {
             if (!existsInCallbackHost) {
                 if (!isGlobal) {
                     handleMissingContainerVolume(volumeState);
+                    inSync = false;
                 } else {
                     if (volumeState.parentLinks.contains(callbackHostLink)) {
                         volumeState.parentLinks.remove(callbackHostLink);
                         handleUpdateParentLinks(volumeState);
+                        inSync = false;
                     } else if (volumeState.parentLinks.isEmpty()) {
                         handleMissingContainerVolume(volumeState);
+                        inSync = false;
                     }
                 }
             } else {
@@ -327,6 +350,7 @@ public class HostVolumeListDataCollection extends StatefulService {
                         && !volumeState.parentLinks.contains(callbackHostLink)) {
                     volumeState.parentLinks.add(callbackHostLink);
                     handleUpdateParentLinks(volumeState);
+                    inSync = false;
                 }
             }
         }
@@ -334,6 +358,10 @@ public class HostVolumeListDataCollection extends StatefulService {
         // finished removing existing ContainerVolumeState, now deal with remaining names
         List<ContainerVolumeState> volumesLeft = new ArrayList<>();
 
+        // listings are skipped while they don't change only once the states match them, the
+        // missing volumes for example are removed after several data collections
+        boolean skipUnchangedListing = inSync && callback.volumesByName.isEmpty();
+
         Operation operation = Operation
                 .createGet(this, callback.containerHostLink)
                 .setCompletion(
@@ -354,8 +382,14 @@ public class HostVolumeListDataCollection extends StatefulService {
 
                             createDiscoveredContainerVolumes(
                                     volumesLeft,
-                                    (e) -> unlockCurrentDataCollectionForHost(host.documentSelfLink)
-                            );
+                                    (e) -> {
+                                        if (e == null && skipUnchangedListing) {
+                                            listingFingerprints.processed(callbackHostLink,
+                                                    fingerprint);
+                                        }
+                                        unlockCurrentDataCollectionForHost(
+                                                host.documentSelfLink);
+                                    });
                         });
 
         sendRequest(operation);
@@ -11,9 +11,19 @@
 
 package com.vmware.admiral.compute.container;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 
 import org.apache.commons.lang3.StringUtils;
@@ -31,20 +41,36 @@ import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
 import com.vmware.xenon.common.LocalizableValidationException;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceHost.ServiceNotFoundException;
+import com.vmware.xenon.common.ServiceSubscriptionState.ServiceSubscriber;
 import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.ServiceUriPaths;
 
 public class ShellContainerExecutorService extends StatelessService {
     public static final String SELF_LINK = ManagementUriParts.EXEC;
 
     private static final String DOCKER_EXEC_OUTPUT = "__output";
     private static final String DOCKER_EXEC_EXIT_CODE_PROP_NAME = "ExitCode";
+    // parts of the docker messages of an exec in a missing or stopped container
+    private static final String NO_SUCH_CONTAINER_MESSAGE = "no such container";
+    private static final String CONTAINER_NOT_RUNNING_MESSAGE = "is not running";
+    // the state of a container waited for is also polled, in case a notification is missed
     private static final int RETRY_COUNT = Integer.parseInt(System.getProperty(
             "dcp.management.container.shell.availability.retry", "20"));
+    static final long FALLBACK_POLL_INTERVAL_SECONDS = Long.getLong(
+            "dcp.management.container.shell.availability.poll.interval.seconds", 10);
+    private static final long CACHE_MAX_AGE_MILLIS = Long.getLong(
+            "dcp.management.container.shell.cache.max.age.millis", TimeUnit.MINUTES.toMillis(5));
     public static final String COMMAND_KEY = "command";
     public static final String HOST_LINK_URI_PARAM = "hostLink";
     public static final String CONTAINER_LINK_URI_PARAM = "containerLink";
+    public static final String BATCH_URI_PARAM = "batch";
 
     public static final String COMMAND_ARGUMENTS_SEPARATOR = " , ";
 
@@ -59,6 +85,47 @@ public class ShellContainerExecutorService extends StatelessService {
         public Integer exitCode;
     }
 
+    /**
+     * Commands to execute one after another in the same container, posted with the
+     * {@link #BATCH_URI_PARAM} URI parameter set to true.
+     */
+    public static class ShellContainerExecutorBatchState {
+        public List<ShellContainerExecutorState> commands;
+    }
+
+    public static class ShellContainerExecutorBatchResult {
+        public List<ShellContainerExecutorResult> results;
+    }
+
+    /**
+     * A value resolved for shell execution, valid for {@link #CACHE_MAX_AGE_MILLIS}.
+     */
+    private static class CachedValue<T> {
+        final T value;
+        final long cachedMillis;
+
+        CachedValue(T value) {
+            this.value = value;
+            this.cachedMillis = System.currentTimeMillis();
+        }
+
+        boolean isValid() {
+            return System.currentTimeMillis() - cachedMillis < CACHE_MAX_AGE_MILLIS;
+        }
+    }
+
+    // node-local running containers resolved for shell execution, by container link
+    private static final ConcurrentMap<String, CachedValue<ContainerState>> runningContainers =
+            new ConcurrentHashMap<>();
+
+    // node-local VIC flags of the hosts, by host link
+    private static final ConcurrentMap<String, CachedValue<Boolean>> vicHosts =
+            new ConcurrentHashMap<>();
+
+    // node-local callbacks waiting for a container to be running, by container link
+    private static final ConcurrentMap<String, List<BiConsumer<ContainerState, Exception>>>
+            containerWaiters = new ConcurrentHashMap<>();
+
     @Override
     public void handlePost(Operation post) {
         Map<String, String> params = UriUtils.parseUriQueryParams(post.getUri());
@@ -82,77 +149,328 @@ public class ShellContainerExecutorService extends StatelessService {
                             SystemContainerDescriptions.AGENT_CONTAINER_NAME, hostId);
         }
 
-        execute(post, hostLink, containerLink);
+        boolean batch = Boolean.parseBoolean(params.get(BATCH_URI_PARAM));
+        List<ShellContainerExecutorState> commands;
+        if (batch) {
+            commands = post.getBody(ShellContainerExecutorBatchState.class).commands;
+            if (commands == null || commands.isEmpty()) {
+                post.fail(new LocalizableValidationException("commands are required",
+                        "compute.shell.container.commands.required"));
+                return;
+            }
+        } else {
+            commands = Collections.singletonList(
+                    post.getBody(ShellContainerExecutorState.class));
+        }
+
+        String resolvedContainerLink = containerLink;
+        resolveContainer(post, hostLink, containerLink, true, (container, cached) -> {
+            executeCommands(post, hostLink, resolvedContainerLink, container, cached, commands,
+                    new ArrayList<>(), batch);
+        });
     }
 
-    private void execute(Operation post, String hostLink, String containerLink) {
-        ShellContainerExecutorState body = post.getBody(ShellContainerExecutorState.class);
+    /**
+     * Executes the remaining commands one after another in the given container. When the
+     * container was taken from the cache and an execution failed because the container no longer
+     * exists or is not running, the command is executed again once in a freshly resolved
+     * container. Other failures are not retried, since the command may have been executed
+     * already.
+     */
+    private void executeCommands(Operation post, String hostLink, String containerLink,
+            ContainerState container, boolean cached, List<ShellContainerExecutorState> commands,
+            List<ShellContainerExecutorResult> results, boolean batch) {
+        if (results.size() == commands.size()) {
+            if (batch) {
+                ShellContainerExecutorBatchResult batchResult =
+                        new ShellContainerExecutorBatchResult();
+                batchResult.results = results;
+                post.setBodyNoCloning(batchResult);
+            } else {
+                post.setBodyNoCloning(results.get(0));
+            }
+            post.complete();
+            return;
+        }
 
-        BiConsumer<ContainerState, Exception> callback = (container, e) -> {
-            if (e != null) {
+        executeCommand(container, commands.get(results.size()), (result, e) -> {
+            if (e == null) {
+                results.add(result);
+                executeCommands(post, hostLink, containerLink, container, cached, commands,
+                        results, batch);
+                return;
+            }
+
+            if (!isContainerUnavailable(e)) {
                 post.fail(e);
-            } else {
-                executeCommand(container, body, post);
+                return;
+            }
+
+            runningContainers.remove(getCacheKey(containerLink));
+            if (!cached) {
+                post.fail(e);
+                return;
             }
-        };
 
+            logInfo("Resolving container %s for shell execution again: %s", containerLink,
+                    e.getMessage());
+            resolveContainer(post, hostLink, containerLink, false, (c, fromCache) -> {
+                executeCommands(post, hostLink, containerLink, c, false, commands, results,
+                        batch);
+            });
+        });
+    }
+
+    /**
+     * Returns whether the given exec failure shows that the container was not found or is not
+     * running, in which case the command was not executed.
+     */
+    static boolean isContainerUnavailable(Throwable e) {
+        if (e instanceof ServiceNotFoundException) {
+            return true;
+        }
+        String message = e.getMessage();
+        if (message == null) {
+            return false;
+        }
+        message = message.toLowerCase();
+        return message.contains(NO_SUCH_CONTAINER_MESSAGE)
+                || message.contains(CONTAINER_NOT_RUNNING_MESSAGE);
+    }
+
+    /**
+     * Resolves the running container to execute commands in and calls the callback with the
+     * container and whether it was taken from the cache. Completes the operation instead when the
+     * host doesn't support the system agent, or fails it when the container is not available.
+     */
+    private void resolveContainer(Operation post, String hostLink, String containerLink,
+            boolean useCache, BiConsumer<ContainerState, Boolean> callback) {
         if (hostLink != null) {
             // execute command in system agent, check if supported
-            OperationUtil.getDocumentState(this, hostLink, ComputeState.class,
-                    (ComputeState host) -> {
-                        if (isAgentSupported(host)) {
-                            getContainerWhenAvailable(containerLink, RETRY_COUNT, callback);
-                        } else {
-                            logInfo("Agent not supported for host %s", hostLink);
-                            post.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED);
-                            post.complete();
-                        }
-                    },
-                    post::fail);
-        } else {
-            // execute command for specific container
-            getContainerWhenAvailable(containerLink, RETRY_COUNT, callback);
+            CachedValue<Boolean> vicHost = vicHosts.get(getCacheKey(hostLink));
+            if (vicHost == null || !vicHost.isValid()) {
+                OperationUtil.getDocumentState(this, hostLink, ComputeState.class,
+                        (ComputeState host) -> {
+                            vicHosts.put(getCacheKey(hostLink),
+                                    new CachedValue<>(ContainerHostUtil.isVicHost(host)));
+                            resolveContainer(post, null, containerLink, useCache, callback);
+                        },
+                        post::fail);
+                return;
+            }
+
+            if (!isAgentSupported(vicHost.value)) {
+                logInfo("Agent not supported for host %s", hostLink);
+                post.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED);
+                post.complete();
+                return;
+            }
+        }
+
+        CachedValue<ContainerState> container = useCache
+                ? runningContainers.get(getCacheKey(containerLink)) : null;
+        if (container != null && container.isValid()) {
+            callback.accept(container.value, true);
+            return;
         }
+
+        waitForContainer(containerLink, (containerState, e) -> {
+            if (e != null) {
+                post.fail(e);
+            } else {
+                callback.accept(containerState, false);
+            }
+        });
     }
 
-    private static boolean isAgentSupported(ComputeState host) {
-        return !DeploymentProfileConfig.getInstance().isTest() &&
-                !ContainerHostUtil.isVicHost(host);
+    private static boolean isAgentSupported(boolean vicHost) {
+        return !DeploymentProfileConfig.getInstance().isTest() && !vicHost;
     }
 
-    private void getContainerWhenAvailable(String containerLink, int retryCount,
+    /**
+     * Waits for the given container to be running. Concurrent executions waiting for the same
+     * container are notified together, once it is running or the wait times out.
+     */
+    private void waitForContainer(String containerLink,
             BiConsumer<ContainerState, Exception> callback) {
-        sendRequest(Operation
-                .createGet(this, containerLink)
-                .setCompletion(
-                        (o, e) -> {
-                            if (e == null && o.hasBody()) {
-                                ContainerState containerState = o.getBody(ContainerState.class);
-                                if (isRunning(containerState)) {
-                                    logInfo("Container %s for shell execution is running",
-                                            containerState.documentSelfLink);
-                                    callback.accept(containerState, null);
-                                    return;
-                                }
-                            }
+        String key = getCacheKey(containerLink);
+        boolean[] first = new boolean[] { false };
+        containerWaiters.compute(key, (k, waiters) -> {
+            if (waiters == null) {
+                waiters = new ArrayList<>();
+                first[0] = true;
+            }
+            waiters.add(callback);
+            return waiters;
+        });
+        if (!first[0]) {
+            return;
+        }
+
+        new ContainerWait(containerLink, (containerState, e) -> {
+            if (containerState != null) {
+                runningContainers.put(key, new CachedValue<>(containerState));
+            }
+            List<BiConsumer<ContainerState, Exception>> waiters = containerWaiters.remove(key);
+            if (waiters != null) {
+                waiters.forEach(w -> w.accept(containerState, e));
+            }
+        }).start();
+    }
+
+    private String getCacheKey(String link) {
+        return getHost().getId() + link;
+    }
+
+    /**
+     * Wait for a container to be running, e.g. for the system agent container of a host being
+     * added. When the container is not running yet, it is followed with a continuous query, which
+     * also matches it when its document doesn't exist yet, so the wait ends as soon as the
+     * container is running. Its state is polled as well, once the query is subscribed to and then
+     * every {@link #FALLBACK_POLL_INTERVAL_SECONDS} up to {@link #RETRY_COUNT} times, in case the
+     * subscription fails or a notification is missed.
+     */
+    private class ContainerWait {
+        private final String containerLink;
+        private final BiConsumer<ContainerState, Exception> callback;
+        private final String queryTaskLink;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicReference<URI> notificationTarget = new AtomicReference<>();
+
+        ContainerWait(String containerLink, BiConsumer<ContainerState, Exception> callback) {
+            this.containerLink = containerLink;
+            this.callback = callback;
+            this.queryTaskLink = UriUtils.buildUriPath(ServiceUriPaths.CORE_LOCAL_QUERY_TASKS,
+                    "shell-container-" + UUID.randomUUID().toString());
+        }
+
+        void start() {
+            checkRunning(this::subscribe);
+        }
+
+        private void subscribe() {
+            Query query = Query.Builder.create()
+                    .addKindFieldClause(ContainerState.class)
+                    .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK, containerLink)
+                    .build();
+            QueryTask task = QueryTask.Builder.create()
+                    .addOptions(EnumSet.of(QueryOption.CONTINUOUS, QueryOption.EXPAND_CONTENT))
+                    .setQuery(query)
+                    .build();
+            task.documentSelfLink = Service.getId(queryTaskLink);
+            task.documentExpirationTimeMicros = Utils.fromNowMicrosUtc(TimeUnit.SECONDS
+                    .toMicros((RETRY_COUNT + 1) * FALLBACK_POLL_INTERVAL_SECONDS));
+
+            sendRequest(Operation.createPost(getHost(), ServiceUriPaths.CORE_LOCAL_QUERY_TASKS)
+                    .setBody(task)
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            logWarning("Failed to follow container %s for shell execution,"
+                                    + " polling it: %s", containerLink, Utils.toString(e));
+                            poll(RETRY_COUNT);
+                            return;
+                        }
+
+                        Operation subscribePost = Operation.createPost(getHost(), queryTaskLink)
+                                .setReferer(getUri())
+                                .setCompletion((op, ex) -> {
+                                    if (ex != null) {
+                                        logWarning("Failed to follow container %s for shell"
+                                                + " execution, polling it: %s", containerLink,
+                                                Utils.toString(ex));
+                                    }
+                                    // the container may have been running before subscribing
+                                    poll(RETRY_COUNT);
+                                });
+                        notificationTarget.set(getHost().startSubscriptionService(
+                                subscribePost, this::handleNotification,
+                                ServiceSubscriber.create(false)));
+                        if (done.get()) {
+                            stopSubscription();
+                        }
+                    }));
+        }
+
+        private void handleNotification(Operation notification) {
+            notification.complete();
+            QueryTask task = notification.getBody(QueryTask.class);
+            if (task.results == null || task.results.documents == null) {
+                return;
+            }
+            for (Object json : task.results.documents.values()) {
+                ContainerState containerState = Utils.fromJson(json, ContainerState.class);
+                if (containerLink.equals(containerState.documentSelfLink)
+                        && !Service.Action.DELETE.name().equals(containerState.documentUpdateAction)
+                        && isRunning(containerState)) {
+                    complete(containerState, null);
+                    return;
+                }
+            }
+        }
 
-                            if (retryCount > 0) {
-                                int retriesRemaining = retryCount - 1;
-                                int delaySeconds = RETRY_COUNT - retriesRemaining;
-
-                                logInfo("Retrying to retrieve running container %s for shell"
-                                                + " execution. Retries left %d",
-                                        containerLink, retriesRemaining);
-                                getHost().schedule(
-                                        () -> {
-                                            getContainerWhenAvailable(containerLink,
-                                                    retriesRemaining, callback);
-                                        }, delaySeconds, TimeUnit.SECONDS);
-                            } else {
-                                callback.accept(null, new RuntimeException(
-                                        "Shell container not available"));
+        private void poll(int retryCount) {
+            checkRunning(() -> {
+                if (retryCount > 0) {
+                    logFine("Container %s for shell execution is not running yet. Polls left %d",
+                            containerLink, retryCount - 1);
+                    getHost().schedule(() -> poll(retryCount - 1),
+                            FALLBACK_POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                } else {
+                    complete(null, new RuntimeException("Shell container not available"));
+                }
+            });
+        }
+
+        /**
+         * Completes the wait when the container is running, or calls the given callback
+         * otherwise, unless the wait is already completed.
+         */
+        private void checkRunning(Runnable notRunningCallback) {
+            if (done.get()) {
+                return;
+            }
+
+            sendRequest(Operation.createGet(ShellContainerExecutorService.this, containerLink)
+                    .setCompletion((o, e) -> {
+                        if (e == null && o.hasBody()) {
+                            ContainerState containerState = o.getBody(ContainerState.class);
+                            if (isRunning(containerState)) {
+                                complete(containerState, null);
+                                return;
                             }
-                        }));
+                        }
+                        if (!done.get()) {
+                            notRunningCallback.run();
+                        }
+                    }));
+        }
+
+        private void complete(ContainerState containerState, Exception e) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            if (containerState != null) {
+                logInfo("Container %s for shell execution is running",
+                        containerState.documentSelfLink);
+            }
+            stopSubscription();
+            sendRequest(Operation.createDelete(getHost(), queryTaskLink)
+                    .setCompletion((o, ex) -> {
+                        if (ex != null) {
+                            logFine("Failed to delete query for container %s: %s",
+                                    containerLink, Utils.toString(ex));
+                        }
+                    }));
+            callback.accept(containerState, e);
+        }
+
+        private void stopSubscription() {
+            URI subscriber = notificationTarget.getAndSet(null);
+            if (subscriber != null) {
+                getHost().stopSubscriptionService(Operation.createDelete(getHost(),
+                        queryTaskLink).setReferer(getUri()), subscriber);
+            }
+        }
     }
 
     private boolean isRunning(ContainerState containerState) {
@@ -162,7 +480,7 @@ public class ShellContainerExecutorService extends StatelessService {
     }
 
     private void executeCommand(ContainerState container, ShellContainerExecutorState execState,
-            Operation op) {
+            BiConsumer<ShellContainerExecutorResult, Throwable> callback) {
         AdapterRequest adapterRequest = new AdapterRequest();
         // task callback not needed in case of exec, as it is direct, but needed for validation.
         adapterRequest.serviceTaskCallback = ServiceTaskCallback.create(UriUtils.buildUri(
@@ -196,7 +514,7 @@ public class ShellContainerExecutorService extends StatelessService {
                 .setCompletion((o, e) -> {
                     if (e != null) {
                         logSevere("Exec command failed: %s", e.getMessage());
-                        op.fail(e);
+                        callback.accept(null, e);
                         return;
                     }
 
@@ -206,12 +524,10 @@ public class ShellContainerExecutorService extends StatelessService {
                     if (map == null) {
                         logSevere("Exec command return wrong response: %s",
                                 Utils.toJson(rawBody));
-                        op.fail(new RuntimeException("Exec command failed"));
+                        callback.accept(null, new RuntimeException("Exec command failed"));
                         return;
                     }
-                    ShellContainerExecutorResult result = parseExecResponse(map);
-                    op.setBodyNoCloning(result);
-                    op.complete();
+                    callback.accept(parseExecResponse(map), null);
                 }));
     }
 
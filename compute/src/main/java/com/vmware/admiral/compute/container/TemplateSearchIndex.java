@@ -0,0 +1,559 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.vmware.admiral.common.util.QueryUtil;
+import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.compute.container.CompositeDescriptionService.CompositeDescription;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.TemplateSpec.TemplateType;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.AuthorizationContext;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.ServiceSubscriptionState.ServiceSubscriber;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryFilter;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.Query.Occurance;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.ServiceUriPaths;
+
+/**
+ * Node-local, in-memory index of the {@link CompositeDescription}s and
+ * {@link ContainerDescription}s used by the {@link TemplateSearchService}. Names and images are
+ * indexed by their trigrams, so that the wildcard searches of the catalog only verify the few
+ * candidate documents sharing the trigrams of the searched text. The index is loaded on first use
+ * and kept current by a continuous query, both as the system user, so it is shared by all callers
+ * and each search filters the results by the authorization of the caller.
+ */
+class TemplateSearchIndex {
+
+    private static final int GRAM_SIZE = 3;
+
+    // continuous query tasks are not persisted, so they need to outlive the host only
+    private static final long QUERY_TASK_EXPIRATION_DAYS = 5 * 365;
+
+    private static final int RANK_EXACT_NAME = 0;
+    private static final int RANK_NAME_PREFIX = 1;
+    private static final int RANK_NAME = 2;
+    private static final int RANK_CONTAINER = 3;
+
+    private static final ServiceDocumentDescription TEMPLATE_DESCRIPTION =
+            ServiceDocumentDescription.Builder.create()
+                    .buildDescription(CompositeDescription.class);
+
+    private static class CompositeEntry {
+        final TemplateSpec template;
+        final String name;
+
+        CompositeEntry(TemplateSpec template) {
+            this.template = template;
+            this.name = lowerCase(template.name);
+        }
+    }
+
+    private static class ContainerEntry {
+        final ContainerDescription description;
+        final String name;
+        final String image;
+
+        ContainerEntry(ContainerDescription description) {
+            this.description = description;
+            this.name = lowerCase(description.name);
+            this.image = lowerCase(description.image);
+        }
+    }
+
+    private static class RankedTemplate {
+        final TemplateSpec template;
+        final int rank;
+
+        RankedTemplate(TemplateSpec template, int rank) {
+            this.template = template;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * A page of the ranked search results and the count of all results.
+     */
+    static class SearchResult {
+        final List<TemplateSpec> templates;
+        final int totalCount;
+
+        SearchResult(List<TemplateSpec> templates, int totalCount) {
+            this.templates = templates;
+            this.totalCount = totalCount;
+        }
+    }
+
+    private final StatelessService service;
+    private final ServiceHost host;
+    private final String queryTaskLink;
+
+    private final Map<String, CompositeEntry> composites = new HashMap<>();
+    private final Map<String, ContainerEntry> containers = new HashMap<>();
+    private final Map<String, Long> versions = new HashMap<>();
+    // container description link -> links of the composite descriptions containing it
+    private final Map<String, Set<String>> compositesByContainer = new HashMap<>();
+    private final Map<String, Set<String>> compositesByGram = new HashMap<>();
+    private final Map<String, Set<String>> containersByGram = new HashMap<>();
+
+    private DeferredResult<TemplateSearchIndex> loaded;
+    private URI notificationTarget;
+
+    TemplateSearchIndex(StatelessService service) {
+        this.service = service;
+        this.host = service.getHost();
+        this.queryTaskLink = UriUtils.buildUriPath(ServiceUriPaths.CORE_LOCAL_QUERY_TASKS,
+                "template-search-" + UUID.randomUUID().toString());
+    }
+
+    /**
+     * Returns the index once it is loaded, subscribing for updates and loading it on first call.
+     */
+    synchronized DeferredResult<TemplateSearchIndex> load() {
+        if (loaded == null) {
+            loaded = new DeferredResult<>();
+            DeferredResult<TemplateSearchIndex> result = loaded;
+            // subscribe before the initial load, so that no update in between is lost
+            subscribe()
+                    .thenCompose(ignore -> loadAll(CompositeDescription.class))
+                    .thenCompose(ignore -> loadAll(ContainerDescription.class))
+                    .whenComplete((ignore, e) -> {
+                        if (e != null) {
+                            host.log(Level.WARNING, "Failed to load template search index: %s",
+                                    Utils.toString(e));
+                            stop();
+                            synchronized (this) {
+                                loaded = null;
+                            }
+                            result.fail(e);
+                        } else {
+                            host.log(Level.INFO, "Loaded template search index: %d templates,"
+                                    + " %d container descriptions", composites.size(),
+                                    containers.size());
+                            result.complete(this);
+                        }
+                    });
+        }
+        return loaded;
+    }
+
+    void stop() {
+        URI subscriber;
+        synchronized (this) {
+            if (loaded == null) {
+                return;
+            }
+            subscriber = notificationTarget;
+            notificationTarget = null;
+        }
+        if (subscriber != null) {
+            host.stopSubscriptionService(Operation.createDelete(host, queryTaskLink)
+                    .setReferer(host.getUri()), subscriber);
+        }
+        host.sendRequest(Operation.createDelete(UriUtils.buildUri(host, queryTaskLink))
+                .setReferer(host.getUri())
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        host.log(Level.FINE, "Failed to delete template search query: %s",
+                                Utils.toString(e));
+                    }
+                }));
+    }
+
+    /**
+     * Searches the templates whose name, or the name or the image of one of their container
+     * descriptions, matches the given wildcard query. The results are ranked: exact name matches
+     * first, then name prefix matches, other name matches and templates matched by their
+     * container descriptions. Only the templates the caller with the given authorization context is
+     * allowed to read are returned, and only the requested page of them is copied.
+     */
+    synchronized SearchResult search(String query, List<String> tenantLinks,
+            boolean templatesParentOnly, AuthorizationContext authContext, int skip, int top) {
+        WildcardPattern pattern = new WildcardPattern(lowerCase(query));
+        boolean filterTenants = tenantLinks != null && !tenantLinks.isEmpty();
+        QueryFilter authFilter = getAuthorizationFilter(authContext);
+
+        List<RankedTemplate> results = new ArrayList<>();
+        Set<String> matchedLinks = new HashSet<>();
+        for (String link : candidates(compositesByGram, composites.keySet(), pattern)) {
+            CompositeEntry entry = composites.get(link);
+            if ((templatesParentOnly && entry.template.parentDescriptionLink != null)
+                    || (filterTenants && !containsAny(entry.template.tenantLinks, tenantLinks))
+                    || !pattern.matches(entry.name)
+                    || !authFilter.evaluate(entry.template, TEMPLATE_DESCRIPTION)) {
+                continue;
+            }
+            matchedLinks.add(link);
+            results.add(new RankedTemplate(entry.template, rankByName(entry.name, query)));
+        }
+
+        Set<String> containedInLinks = new HashSet<>();
+        for (String link : candidates(containersByGram, containers.keySet(), pattern)) {
+            ContainerEntry entry = containers.get(link);
+            if ((templatesParentOnly && entry.description.parentDescriptionLink != null)
+                    || (filterTenants
+                            && !containsAny(entry.description.tenantLinks, tenantLinks))
+                    || !(pattern.matches(entry.name) || pattern.matches(entry.image))) {
+                continue;
+            }
+            containedInLinks.addAll(compositesByContainer.getOrDefault(link,
+                    Collections.emptySet()));
+        }
+
+        // templates containing matched container descriptions, except for the already matched
+        // templates and their clones
+        for (String link : containedInLinks) {
+            CompositeEntry entry = composites.get(link);
+            if (entry == null || matchedLinks.contains(link)
+                    || matchedLinks.contains(entry.template.parentDescriptionLink)
+                    || (filterTenants && !containsAny(entry.template.tenantLinks, tenantLinks))
+                    || !authFilter.evaluate(entry.template, TEMPLATE_DESCRIPTION)) {
+                continue;
+            }
+            results.add(new RankedTemplate(entry.template, RANK_CONTAINER));
+        }
+
+        results.sort(Comparator.<RankedTemplate> comparingInt(r -> r.rank)
+                .thenComparing(r -> lowerCase(r.template.name)));
+
+        List<RankedTemplate> page = results.subList(Math.min(skip, results.size()),
+                (int) Math.min((long) skip + top, results.size()));
+        List<TemplateSpec> templates = new ArrayList<>(page.size());
+        for (RankedTemplate result : page) {
+            templates.add(Utils.clone(result.template));
+        }
+        return new SearchResult(templates, results.size());
+    }
+
+    private static QueryFilter getAuthorizationFilter(AuthorizationContext authContext) {
+        if (authContext == null || authContext.isSystemUser()) {
+            return QueryFilter.TRUE;
+        }
+        QueryFilter filter = authContext.getResourceQueryFilter(Action.GET);
+        return filter != null ? filter : QueryFilter.FALSE;
+    }
+
+    synchronized void update(ServiceDocument document) {
+        String link = document.documentSelfLink;
+        boolean deleted = Action.DELETE.toString().equals(document.documentUpdateAction);
+        Long version = versions.get(link);
+        if (version != null && version > document.documentVersion && !deleted) {
+            // an older version of the document than already indexed
+            return;
+        }
+
+        removeEntry(link);
+        if (deleted) {
+            versions.remove(link);
+            return;
+        }
+        versions.put(link, document.documentVersion);
+
+        if (document instanceof CompositeDescription) {
+            TemplateSpec template = Utils.fromJson(Utils.toJson(document), TemplateSpec.class);
+            template.templateType = TemplateType.COMPOSITE_DESCRIPTION;
+            CompositeEntry entry = new CompositeEntry(template);
+            composites.put(link, entry);
+            addGrams(compositesByGram, link, entry.name);
+            if (template.descriptionLinks != null) {
+                for (String containerLink : template.descriptionLinks) {
+                    compositesByContainer.computeIfAbsent(containerLink, k -> new HashSet<>())
+                            .add(link);
+                }
+            }
+        } else if (document instanceof ContainerDescription) {
+            ContainerEntry entry = new ContainerEntry((ContainerDescription) document);
+            containers.put(link, entry);
+            addGrams(containersByGram, link, entry.name);
+            addGrams(containersByGram, link, entry.image);
+        }
+    }
+
+    private void removeEntry(String link) {
+        CompositeEntry composite = composites.remove(link);
+        if (composite != null) {
+            removeGrams(compositesByGram, link, composite.name);
+            if (composite.template.descriptionLinks != null) {
+                for (String containerLink : composite.template.descriptionLinks) {
+                    removeFromSet(compositesByContainer, containerLink, link);
+                }
+            }
+        }
+        ContainerEntry container = containers.remove(link);
+        if (container != null) {
+            removeGrams(containersByGram, link, container.name);
+            removeGrams(containersByGram, link, container.image);
+        }
+    }
+
+    private DeferredResult<Void> subscribe() {
+        Query query = Query.Builder.create()
+                .addKindFieldClause(CompositeDescription.class, Occurance.SHOULD_OCCUR)
+                .addKindFieldClause(ContainerDescription.class, Occurance.SHOULD_OCCUR)
+                .build();
+        QueryTask task = QueryTask.Builder.create()
+                .addOptions(EnumSet.of(QueryOption.CONTINUOUS, QueryOption.EXPAND_CONTENT))
+                .setQuery(query)
+                .build();
+        task.documentSelfLink = UriUtils.getLastPathSegment(queryTaskLink);
+        task.documentExpirationTimeMicros = Utils.fromNowMicrosUtc(
+                TimeUnit.DAYS.toMicros(QUERY_TASK_EXPIRATION_DAYS));
+
+        DeferredResult<Void> result = new DeferredResult<>();
+        sendAsSystem(Operation.createPost(host, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS)
+                .setBody(task)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        result.fail(e);
+                        return;
+                    }
+                    Operation subscribe = Operation.createPost(host, queryTaskLink)
+                            .setReferer(host.getUri())
+                            .setCompletion((op, ex) -> {
+                                if (ex != null) {
+                                    result.fail(ex);
+                                } else {
+                                    result.complete(null);
+                                }
+                            });
+                    setSystemAuthorizationContext(subscribe);
+                    URI subscriber = host.startSubscriptionService(subscribe,
+                            this::handleNotification, ServiceSubscriber.create(false));
+                    synchronized (this) {
+                        notificationTarget = subscriber;
+                    }
+                }));
+        return result;
+    }
+
+    private void handleNotification(Operation notification) {
+        notification.complete();
+        QueryTask task = notification.getBody(QueryTask.class);
+        if (task.results == null || task.results.documents == null) {
+            return;
+        }
+        for (Object json : task.results.documents.values()) {
+            ServiceDocument document = Utils.fromJson(json, ServiceDocument.class);
+            if (Utils.buildKind(CompositeDescription.class).equals(document.documentKind)) {
+                update(Utils.fromJson(json, CompositeDescription.class));
+            } else if (Utils.buildKind(ContainerDescription.class)
+                    .equals(document.documentKind)) {
+                update(Utils.fromJson(json, ContainerDescription.class));
+            }
+        }
+    }
+
+    private <T extends ServiceDocument> DeferredResult<Void> loadAll(Class<T> type) {
+        DeferredResult<Void> result = new DeferredResult<>();
+        QueryTask queryTask = QueryUtil.buildQuery(type, true);
+        QueryUtil.addExpandOption(queryTask);
+        queryTask.querySpec.resultLimit = ServiceDocumentQuery.DEFAULT_QUERY_RESULT_LIMIT;
+        queryTask.documentExpirationTimeMicros = ServiceDocumentQuery.getDefaultQueryExpiration();
+        sendAsSystem(Operation.createPost(host, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS)
+                .setBody(queryTask)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        result.fail(e);
+                        return;
+                    }
+                    loadPage(type, o.getBody(QueryTask.class).results.nextPageLink, result);
+                }));
+        return result;
+    }
+
+    private <T extends ServiceDocument> void loadPage(Class<T> type, String pageLink,
+            DeferredResult<Void> result) {
+        if (pageLink == null) {
+            result.complete(null);
+            return;
+        }
+        sendAsSystem(Operation.createGet(host, pageLink)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        result.fail(e);
+                        return;
+                    }
+                    QueryTask page = o.getBody(QueryTask.class);
+                    for (Object json : page.results.documents.values()) {
+                        update(Utils.fromJson(json, type));
+                    }
+                    loadPage(type, page.results.nextPageLink, result);
+                }));
+    }
+
+    /**
+     * The index is shared by all callers, so it is loaded with the system authorization context
+     * rather than the context of the caller who happens to load it first.
+     */
+    private void sendAsSystem(Operation op) {
+        op.setReferer(host.getUri());
+        setSystemAuthorizationContext(op);
+        host.sendRequest(op);
+    }
+
+    private void setSystemAuthorizationContext(Operation op) {
+        if (host.isAuthorizationEnabled()) {
+            service.setAuthorizationContext(op, service.getSystemAuthorizationContext());
+        }
+    }
+
+    private static int rankByName(String name, String query) {
+        String text = lowerCase(query.replace("*", ""));
+        if (name.equals(text)) {
+            return RANK_EXACT_NAME;
+        }
+        return name.startsWith(text) ? RANK_NAME_PREFIX : RANK_NAME;
+    }
+
+    /**
+     * Returns the links of the documents sharing all trigrams of the longest literal part of the
+     * pattern, or all documents if the pattern has no part long enough.
+     */
+    private static Collection<String> candidates(Map<String, Set<String>> gramIndex,
+            Collection<String> all, WildcardPattern pattern) {
+        String longestPart = pattern.longestPart();
+        if (longestPart.length() < GRAM_SIZE) {
+            return new ArrayList<>(all);
+        }
+
+        Set<String> result = null;
+        for (String gram : grams(longestPart)) {
+            Set<String> links = gramIndex.get(gram);
+            if (links == null) {
+                return Collections.emptyList();
+            }
+            if (result == null) {
+                result = new HashSet<>(links);
+            } else {
+                result.retainAll(links);
+            }
+        }
+        return result;
+    }
+
+    private static void addGrams(Map<String, Set<String>> gramIndex, String link, String text) {
+        for (String gram : grams(text)) {
+            gramIndex.computeIfAbsent(gram, k -> new HashSet<>()).add(link);
+        }
+    }
+
+    private static void removeGrams(Map<String, Set<String>> gramIndex, String link,
+            String text) {
+        for (String gram : grams(text)) {
+            removeFromSet(gramIndex, gram, link);
+        }
+    }
+
+    private static void removeFromSet(Map<String, Set<String>> index, String key, String link) {
+        Set<String> links = index.get(key);
+        if (links != null) {
+            links.remove(link);
+            if (links.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        if (text != null) {
+            for (int i = 0; i + GRAM_SIZE <= text.length(); i++) {
+                grams.add(text.substring(i, i + GRAM_SIZE));
+            }
+        }
+        return grams;
+    }
+
+    private static boolean containsAny(List<String> values, List<String> expected) {
+        return values != null && !Collections.disjoint(values, expected);
+    }
+
+    private static String lowerCase(String value) {
+        return value != null ? value.toLowerCase(Locale.ENGLISH) : "";
+    }
+
+    /**
+     * Case insensitive matcher of patterns where <code>*</code> stands for any text.
+     */
+    static class WildcardPattern {
+        private final String[] parts;
+        private final boolean anchoredStart;
+        private final boolean anchoredEnd;
+
+        WildcardPattern(String pattern) {
+            this.parts = pattern.split("\\*", -1);
+            this.anchoredStart = !pattern.startsWith(UriUtils.URI_WILDCARD_CHAR);
+            this.anchoredEnd = !pattern.endsWith(UriUtils.URI_WILDCARD_CHAR);
+        }
+
+        String longestPart() {
+            String longest = "";
+            for (String part : parts) {
+                if (part.length() > longest.length()) {
+                    longest = part;
+                }
+            }
+            return longest;
+        }
+
+        boolean matches(String text) {
+            if (parts.length == 1) {
+                return text.equals(parts[0]);
+            }
+            int position = 0;
+            for (int i = 0; i < parts.length; i++) {
+                String part = parts[i];
+                if (i == 0 && anchoredStart) {
+                    if (!text.startsWith(part)) {
+                        return false;
+                    }
+                    position = part.length();
+                } else if (i == parts.length - 1 && anchoredEnd) {
+                    return text.length() - part.length() >= position && text.endsWith(part);
+                } else {
+                    int index = text.indexOf(part, position);
+                    if (index < 0) {
+                        return false;
+                    }
+                    position = index + part.length();
+                }
+            }
+            return true;
+        }
+    }
+}
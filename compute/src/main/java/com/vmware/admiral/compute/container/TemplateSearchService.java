@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -48,11 +49,12 @@ import com.vmware.admiral.common.util.QueryUtil;
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.common.util.ServiceDocumentQuery.ServiceDocumentQueryElementResult;
 import com.vmware.admiral.compute.container.CompositeDescriptionService.CompositeDescription;
-import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.TemplateSearchIndex.SearchResult;
 import com.vmware.admiral.compute.container.TemplateSpec.TemplateType;
 import com.vmware.admiral.image.service.ContainerImageService;
 import com.vmware.xenon.common.LocalizableValidationException;
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.AuthorizationContext;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceDocumentQueryResult;
 import com.vmware.xenon.common.StatelessService;
@@ -85,6 +87,20 @@ public class TemplateSearchService extends StatelessService {
         public Collection<ClosureDescription> results;
     }
 
+    private TemplateSearchIndex templateIndex;
+
+    @Override
+    public void handleStart(Operation start) {
+        templateIndex = new TemplateSearchIndex(this);
+        super.handleStart(start);
+    }
+
+    @Override
+    public void handleStop(Operation delete) {
+        templateIndex.stop();
+        super.handleStop(delete);
+    }
+
     @Override
     public void handleGet(Operation get) {
         Map<String, String> queryParams = UriUtils.parseUriQueryParams(get.getUri());
@@ -108,7 +124,8 @@ public class TemplateSearchService extends StatelessService {
                         "compute.template.search.options");
             }
 
-            Set<TemplateSpec> results = Collections.newSetFromMap(new ConcurrentHashMap<>());
+            // keep the order in which the ranked templates are returned
+            Set<TemplateSpec> results = Collections.synchronizedSet(new LinkedHashSet<>());
 
             // shared callback called by individual queries as they finish (successfully or not)
             AtomicInteger queriesCountdown = new AtomicInteger(2);
@@ -126,7 +143,11 @@ public class TemplateSearchService extends StatelessService {
 
                             if (queriesCountdown.decrementAndGet() == 0) {
                                 Response response = new Response();
-                                response.results = prependOfficialResults(new ArrayList<>(results));
+                                List<TemplateSpec> resultsList;
+                                synchronized (results) {
+                                    resultsList = new ArrayList<>(results);
+                                }
+                                response.results = prependOfficialResults(resultsList);
                                 if (isPartialResult != null) {
                                     response.isPartialResult = isPartialResult;
                                 }
@@ -279,101 +300,41 @@ public class TemplateSearchService extends StatelessService {
             tenantLinks = Arrays.asList(tenantLink.split("\\s*,\\s*"));
         }
 
-        QueryTask queryTask = new QueryTask();
-        queryTask.querySpec = new QueryTask.QuerySpecification();
-        queryTask.taskInfo.isDirect = true;
-
-        QueryUtil.addExpandOption(queryTask);
-
         boolean templatesParentOnly = parseBooleanParam(queryParams
                 .remove(TEMPLATES_PARENT_ONLY_PARAM));
+        int skip = parseIntParam(queryParams.remove(UriUtils.URI_PARAM_ODATA_SKIP), 0);
+        int top = parseIntParam(queryParams.remove(UriUtils.URI_PARAM_ODATA_TOP),
+                Integer.MAX_VALUE);
 
-        QueryTask.Query compositeDescClause = createCompositeDescClause(query, tenantLinks,
-                templatesParentOnly);
-        compositeDescClause.occurance = Occurance.SHOULD_OCCUR;
-
-        QueryTask.Query containerDescClause = createContainerDescClause(query, tenantLinks,
-                templatesParentOnly);
-        containerDescClause.occurance = Occurance.SHOULD_OCCUR;
-
-        queryTask.querySpec.query.addBooleanClause(compositeDescClause);
-        queryTask.querySpec.query.addBooleanClause(containerDescClause);
-
-        sendRequest(Operation
-                .createPost(this, ServiceUriPaths.CORE_QUERY_TASKS)
-                .setBody(queryTask)
-                .setCompletion((o, ex) -> {
-                    if (ex != null) {
-                        resultConsumer.accept(error(ex), null);
-
-                    } else {
-                        QueryTask resultTask = o.getBody(QueryTask.class);
-                        ServiceDocumentQueryResult result = resultTask.results;
-
-                        if (result == null || result.documents == null) {
-                            resultConsumer.accept(noResult(), null);
-                            return;
-                        }
-
-                        List<String> compositeDescriptionLinks = new ArrayList<>();
-                        List<String> containerDescriptionLinks = new ArrayList<>();
-                        result.documents.forEach((link, document) -> {
-                            if (link.startsWith(CompositeDescriptionFactoryService.SELF_LINK)) {
-                                compositeDescriptionLinks.add(link);
-                                resultConsumer.accept(result(createTemplateFromCompositeDesc(
-                                        document), result.documents.size()), null);
-
-                            } else if (link.startsWith(
-                                    ContainerDescriptionService.FACTORY_LINK)) {
-
-                                containerDescriptionLinks.add(link);
-
-                            } else {
-                                logWarning("Unexpected result type: %s", link);
-                            }
-                        });
-
-                        if (containerDescriptionLinks.isEmpty()) {
-                            resultConsumer.accept(noResult(), null);
-                            return;
-                        }
-
-                        logFine("Querying for CompositeDescriptions containing: %s",
-                                containerDescriptionLinks);
-
-                        // query for CompositeDescriptions that contain the found
-                        // ContainerDescriptions and add to the results
-                        QueryTask compositeQueryTask = QueryUtil
-                                .buildQuery(CompositeDescription.class, true);
-
-                        String descriptionLinksItemField = QueryTask.QuerySpecification
-                                .buildCollectionItemName(
-                                        CompositeDescription.FIELD_NAME_DESCRIPTION_LINKS);
-
-                        QueryUtil.addExpandOption(compositeQueryTask);
-                        QueryUtil.addListValueClause(compositeQueryTask,
-                                descriptionLinksItemField, containerDescriptionLinks);
-
-                        // exclude results already found by the previous query
-                        QueryUtil.addListValueExcludeClause(compositeQueryTask,
-                                CompositeDescription.FIELD_NAME_SELF_LINK,
-                                compositeDescriptionLinks);
+        final String templateQuery = query;
+        final List<String> finalTenantLinks = tenantLinks;
+        AuthorizationContext authContext = getHost().isAuthorizationEnabled()
+                ? get.getAuthorizationContext() : null;
+        templateIndex.load().whenComplete((index, ex) -> {
+            if (ex != null) {
+                resultConsumer.accept(error(ex), null);
+                return;
+            }
 
-                        QueryUtil.addListValueExcludeClause(compositeQueryTask,
-                                CompositeDescription.FIELD_NAME_PARENT_DESCRIPTION_LINK,
-                                compositeDescriptionLinks);
+            SearchResult page = index.search(templateQuery, finalTenantLinks,
+                    templatesParentOnly, authContext, skip, top);
+            for (TemplateSpec template : page.templates) {
+                resultConsumer.accept(result(template, page.totalCount), null);
+            }
+            resultConsumer.accept(noResult(), null);
+        });
+    }
 
-                        new ServiceDocumentQuery<TemplateSpec>(getHost(), TemplateSpec.class)
-                                .query(compositeQueryTask,
-                                        (r) -> {
-                                            if (r.hasResult()) {
-                                                // mark the template type before passing to the results
-                                                r.getResult().templateType = TemplateType.COMPOSITE_DESCRIPTION;
-                                            }
-                                            resultConsumer.accept(r, null);
-                                        });
-                    }
-                }));
+    private static int parseIntParam(String value, int defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new LocalizableValidationException(e, "Invalid paging parameter: " + value,
+                    "compute.template.search.paging", value);
+        }
     }
 
     private void executeImageQuery(Map<String, String> queryParams,
@@ -431,13 +392,6 @@ public class TemplateSearchService extends StatelessService {
         return template;
     }
 
-    private TemplateSpec createTemplateFromCompositeDesc(Object document) {
-        TemplateSpec template = Utils.fromJson(document, TemplateSpec.class);
-        template.templateType = TemplateType.COMPOSITE_DESCRIPTION;
-
-        return template;
-    }
-
     private QueryTask.Query createCompositeDescClause(String query, List<String> tenantLinks,
             boolean templatesParentOnly) {
         QueryTask.Query compositeDescClause = new QueryTask.Query();
@@ -465,32 +419,6 @@ public class TemplateSearchService extends StatelessService {
         return compositeDescClause;
     }
 
-    private QueryTask.Query createContainerDescClause(String query, List<String> tenantLinks,
-            boolean templatesParentOnly) {
-        QueryTask.Query containerDescClause = new QueryTask.Query();
-        containerDescClause.addBooleanClause(createKindClause(ContainerDescription.class));
-        containerDescClause.addBooleanClause(createAnyPropertyClause(query,
-                ContainerDescription.FIELD_NAME_NAME, ContainerDescription.FIELD_NAME_IMAGE));
-
-        if (templatesParentOnly) {
-            QueryTask.Query propClause = new QueryTask.Query()
-                    .setTermPropertyName(ContainerDescription.FIELD_NAME_PARENT_DESCRIPTION_LINK)
-                    .setTermMatchType(MatchType.WILDCARD)
-                    .setTermMatchValue("*");
-
-            propClause.occurance = Occurance.MUST_NOT_OCCUR;
-            containerDescClause.addBooleanClause(propClause);
-        }
-
-        // if tenant is null, do a global search, if not search in tenant
-        if (tenantLinks != null && !tenantLinks.isEmpty()) {
-            containerDescClause
-                    .addBooleanClause(QueryUtil.addTenantGroupAndUserClause(tenantLinks));
-        }
-
-        return containerDescClause;
-    }
-
     private QueryTask.Query createClosureDescClause(String query, List<String> tenantLinks) {
         QueryTask.Query closureDescClause = new QueryTask.Query();
         closureDescClause.addBooleanClause(createKindClause(ClosureDescription.class));
@@ -511,7 +439,13 @@ public class TemplateSearchService extends StatelessService {
         results.sort((t1, t2) -> {
             boolean t1Official = Boolean.TRUE.equals(t1.official);
             boolean t2Official = Boolean.TRUE.equals(t2.official);
-            return t1Official == t2Official ? 0 : (t2Official ? 1 : -1);
+            if (t1Official != t2Official) {
+                return t2Official ? 1 : -1;
+            }
+            // then the templates, in the order they were ranked, followed by the images
+            boolean t1Template = t1.templateType == TemplateType.COMPOSITE_DESCRIPTION;
+            boolean t2Template = t2.templateType == TemplateType.COMPOSITE_DESCRIPTION;
+            return t1Template == t2Template ? 0 : (t2Template ? 1 : -1);
         });
         return results;
     }
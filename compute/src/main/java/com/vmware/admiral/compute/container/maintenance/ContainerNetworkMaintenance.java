@@ -12,6 +12,8 @@
 package com.vmware.admiral.compute.container.maintenance;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
@@ -31,6 +33,14 @@ public class ContainerNetworkMaintenance {
             "dcp.management.container.network.periodic.maintenance.period.micros",
             TimeUnit.SECONDS.toMicros(300));
 
+    /**
+     * Time of the last inspection requested by this node for each network. Inspections which
+     * don't change a network don't update it, so without these an overlay network would be
+     * inspected by the data collection of every host it is on.
+     */
+    private static final ConcurrentMap<String, Long> lastInspectionRequests =
+            new ConcurrentHashMap<>();
+
     private final ServiceHost host;
 
     public ContainerNetworkMaintenance(ServiceHost host) {
@@ -41,6 +51,9 @@ public class ContainerNetworkMaintenance {
         if (networkStates == null || networkStates.isEmpty()) {
             return;
         }
+        long nowMicros = Utils.getSystemNowMicrosUtc();
+        lastInspectionRequests.values().removeIf(
+                requested -> requested + MAINTENANCE_INTERVAL_INSPECT_MICROS <= nowMicros);
         for (ContainerNetworkState network : networkStates) {
             try {
                 this.requestNetworkInspectIfNeeded(network);
@@ -62,6 +75,18 @@ public class ContainerNetworkMaintenance {
             return;
         }
 
+        String inspectionKey = host.getId() + networkState.documentSelfLink;
+        Long lastInspection = lastInspectionRequests.get(inspectionKey);
+        if (lastInspection != null
+                && lastInspection + MAINTENANCE_INTERVAL_INSPECT_MICROS > Utils
+                        .getSystemNowMicrosUtc()) {
+            // network was recently inspected, possibly for another host, skip inspection
+            Utils.log(getClass(), SERVICE_REFERRER_PATH, Level.FINE,
+                    "Skipping maintenance for network %s, it is recently inspected",
+                    networkState.documentSelfLink);
+            return;
+        }
+
         if (networkState.adapterManagementReference == null) {
             // probably the network hasn't finished provisioning
             Utils.log(getClass(), SERVICE_REFERRER_PATH, Level.FINE,
@@ -81,6 +106,8 @@ public class ContainerNetworkMaintenance {
     }
 
     public void requestNetworkInspection(ContainerNetworkState networkState) {
+        lastInspectionRequests.put(host.getId() + networkState.documentSelfLink,
+                Utils.getSystemNowMicrosUtc());
         AdapterRequest request = new AdapterRequest();
         request.resourceReference = UriUtils.buildPublicUri(host, networkState.documentSelfLink);
         request.operationTypeId = NetworkOperationType.INSPECT.id;
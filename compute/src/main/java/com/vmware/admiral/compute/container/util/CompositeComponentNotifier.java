@@ -11,26 +11,27 @@
 
 package com.vmware.admiral.compute.container.util;
 
-import java.net.URI;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CancellationException;
-import java.util.logging.Level;
 
-import com.vmware.admiral.compute.container.CompositeComponentService.CompositeComponent;
 import com.vmware.photon.controller.model.resources.ResourceState;
-import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Service;
 import com.vmware.xenon.common.Service.Action;
 import com.vmware.xenon.common.StatefulService;
-import com.vmware.xenon.common.UriUtils;
-import com.vmware.xenon.common.Utils;
 
 public class CompositeComponentNotifier {
 
+    /**
+     * Request header of operations removing components, whose composite components are notified
+     * in bulk by the sender with
+     * {@link #notifyCompositionComponent(Service, String, Collection, Action)} instead of one by
+     * one when the operations are handled.
+     */
+    public static final String BULK_NOTIFICATION_HEADER = "x-composite-component-bulk-notification";
+
     public static void notifyCompositionComponents(Service service,
             List<String> compositeComponentLinks, Action action) {
         if (compositeComponentLinks == null || compositeComponentLinks.isEmpty()) {
@@ -44,50 +45,25 @@ public class CompositeComponentNotifier {
 
     public static void notifyCompositionComponent(Service service,
             String compositeComponentLink, Action action) {
-        if (compositeComponentLink == null || compositeComponentLink.isEmpty()) {
-            return;
-        }
-
-        service.sendRequest(Operation.createGet(service, compositeComponentLink)
-                .setCompletion((o, e) -> {
-                    if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
-                        Utils.log(service.getClass(), service.getUri().toString(), Level.FINE,
-                                "CompositeComponent not found %s", compositeComponentLink);
-                        return;
-                    }
-                    if (e != null) {
-                        Utils.log(service.getClass(), service.getUri().toString(), Level.WARNING,
-                                "Can't find composite component. Error: %s", Utils.toString(e));
-                        return;
-                    }
-
-                    notify(service, compositeComponentLink, action);
-                }));
-
+        notifyCompositionComponent(service, compositeComponentLink,
+                Collections.singletonList(service.getSelfLink()), action);
     }
 
-    private static void notify(Service service, String compositeComponentLink, Action action) {
-        CompositeComponent body = new CompositeComponent();
-        body.documentSelfLink = compositeComponentLink;
-        body.componentLinks = new ArrayList<>(1);
-        body.componentLinks.add(service.getSelfLink());
-
-        URI uri = UriUtils.buildUri(service.getHost(), compositeComponentLink);
-        if (Action.DELETE == action) {
-            uri = UriUtils.extendUriWithQuery(uri, UriUtils.URI_PARAM_INCLUDE_DELETED,
-                    Boolean.TRUE.toString());
+    /**
+     * Notifies the given composite component that the given components were added to it, or
+     * removed from it in case of a {@link Action#DELETE}. The notifications of all components of
+     * a composite component are coalesced in a single update, so bulk provisioning and removal
+     * should pass all components at once.
+     */
+    public static void notifyCompositionComponent(Service service,
+            String compositeComponentLink, Collection<String> componentLinks, Action action) {
+        if (compositeComponentLink == null || compositeComponentLink.isEmpty()
+                || componentLinks == null || componentLinks.isEmpty()) {
+            return;
         }
 
-        service.sendRequest(Operation.createPatch(uri)
-                .setBody(body)
-                .setCompletion((op, ex) -> {
-                    if (ex != null) {
-                        Utils.log(service.getClass(), service.getUri().toString(), Level.WARNING,
-                                "Error notifying CompositeContainer: %s. Exception: %s",
-                                compositeComponentLink, ex instanceof CancellationException
-                                        ? "CancellationException" : Utils.toString(ex));
-                    }
-                }));
+        CompositeComponentUpdateBuffer.enqueue(service.getHost(), service.getUri(),
+                compositeComponentLink, componentLinks, Action.DELETE == action);
     }
 
     public static void notifyCompositionComponentsOnChange(StatefulService service, Action action,
@@ -131,47 +107,8 @@ public class CompositeComponentNotifier {
             return;
         }
 
-        service.sendRequest(Operation.createGet(service, compositeComponentLink)
-                .setCompletion((o, e) -> {
-                    if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
-                        Utils.log(service.getClass(), service.getUri().toString(), Level.FINE,
-                                "CompositeComponent not found %s", compositeComponentLink);
-                        return;
-                    }
-                    if (e != null) {
-                        Utils.log(service.getClass(), service.getUri().toString(), Level.WARNING,
-                                "Can't find composite component. Error: %s", Utils.toString(e));
-                        return;
-                    }
-
-                    notify(service, state, compositeComponentLink, action);
-                }));
-
-    }
-
-    private static void notify(Service service, ResourceState state, String compositeComponentLink,
-            Action action) {
-        CompositeComponent body = new CompositeComponent();
-        body.documentSelfLink = compositeComponentLink;
-        body.componentLinks = new ArrayList<>(1);
-        body.componentLinks.add(state.documentSelfLink);
-
-        URI uri = UriUtils.buildUri(service.getHost(), compositeComponentLink);
-        if (Action.DELETE == action) {
-            uri = UriUtils.extendUriWithQuery(uri, UriUtils.URI_PARAM_INCLUDE_DELETED,
-                    Boolean.TRUE.toString());
-        }
-
-        service.sendRequest(Operation.createPatch(uri)
-                .setBody(body)
-                .setCompletion((op, ex) -> {
-                    if (ex != null) {
-                        Utils.log(service.getClass(), service.getUri().toString(), Level.WARNING,
-                                "Error notifying CompositeContainer: %s. Exception: %s",
-                                compositeComponentLink, ex instanceof CancellationException
-                                        ? "CancellationException" : Utils.toString(ex));
-                    }
-                }));
+        notifyCompositionComponent(service, compositeComponentLink,
+                Collections.singletonList(state.documentSelfLink), action);
     }
 
     public static void notifyCompositionComponentOnChange(StatefulService service,
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container.util;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.vmware.admiral.compute.container.CompositeComponentService.ComponentLinksUpdate;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Node-local buffer coalescing the membership changes of a composite component. Instead of a PATCH
+ * per added or removed component, the composite component receives at most one PATCH per flush
+ * interval, holding only the net additions and removals of its components. A single PATCH per
+ * composite component is in flight at a time, so the changes are applied in the order they were
+ * made.
+ */
+final class CompositeComponentUpdateBuffer {
+
+    static final long FLUSH_INTERVAL_MILLIS = Long.getLong(
+            "com.vmware.admiral.compute.composite.component.update.flush.interval.millis", 100);
+
+    private static final ConcurrentMap<String, PendingUpdate> pendingUpdates =
+            new ConcurrentHashMap<>();
+
+    private static class PendingUpdate {
+        final Set<String> componentLinksToAdd = new LinkedHashSet<>();
+        final Set<String> componentLinksToRemove = new LinkedHashSet<>();
+        URI referer;
+        boolean scheduled;
+        boolean sending;
+
+        boolean isEmpty() {
+            return componentLinksToAdd.isEmpty() && componentLinksToRemove.isEmpty();
+        }
+    }
+
+    private CompositeComponentUpdateBuffer() {
+    }
+
+    static void enqueue(ServiceHost host, URI referer, String compositeComponentLink,
+            Collection<String> componentLinks, boolean remove) {
+        String key = buildKey(host, compositeComponentLink);
+        boolean[] schedule = new boolean[] { false };
+        pendingUpdates.compute(key, (k, pending) -> {
+            if (pending == null) {
+                pending = new PendingUpdate();
+            }
+            pending.referer = referer;
+            // the last change of a component wins
+            for (String componentLink : componentLinks) {
+                if (remove) {
+                    pending.componentLinksToAdd.remove(componentLink);
+                    pending.componentLinksToRemove.add(componentLink);
+                } else {
+                    pending.componentLinksToRemove.remove(componentLink);
+                    pending.componentLinksToAdd.add(componentLink);
+                }
+            }
+            if (!pending.scheduled && !pending.sending) {
+                pending.scheduled = true;
+                schedule[0] = true;
+            }
+            return pending;
+        });
+
+        if (schedule[0]) {
+            schedule(host, compositeComponentLink);
+        }
+    }
+
+    private static void schedule(ServiceHost host, String compositeComponentLink) {
+        if (FLUSH_INTERVAL_MILLIS <= 0) {
+            flush(host, compositeComponentLink);
+            return;
+        }
+        host.schedule(() -> flush(host, compositeComponentLink), FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static void flush(ServiceHost host, String compositeComponentLink) {
+        ComponentLinksUpdate body = new ComponentLinksUpdate();
+        URI[] referer = new URI[1];
+        pendingUpdates.computeIfPresent(buildKey(host, compositeComponentLink),
+                (k, pending) -> {
+                    body.componentLinksToAdd = new LinkedHashSet<>(pending.componentLinksToAdd);
+                    body.componentLinksToRemove = new LinkedHashSet<>(
+                            pending.componentLinksToRemove);
+                    referer[0] = pending.referer;
+                    pending.componentLinksToAdd.clear();
+                    pending.componentLinksToRemove.clear();
+                    pending.scheduled = false;
+                    pending.sending = true;
+                    return pending;
+                });
+        if (referer[0] == null) {
+            return;
+        }
+
+        host.sendRequest(Operation
+                .createPatch(UriUtils.buildUri(host, compositeComponentLink))
+                .setReferer(referer[0])
+                .setBodyNoCloning(body)
+                .setCompletion((o, ex) -> {
+                    if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+                        host.log(Level.FINE, "CompositeComponent not found %s",
+                                compositeComponentLink);
+                    } else if (ex != null) {
+                        host.log(Level.WARNING, "Error notifying CompositeContainer: %s."
+                                + " Exception: %s", compositeComponentLink,
+                                ex instanceof CancellationException
+                                        ? "CancellationException" : Utils.toString(ex));
+                    }
+                    sent(host, compositeComponentLink);
+                }));
+    }
+
+    private static void sent(ServiceHost host, String compositeComponentLink) {
+        boolean[] schedule = new boolean[] { false };
+        pendingUpdates.computeIfPresent(buildKey(host, compositeComponentLink),
+                (k, pending) -> {
+                    pending.sending = false;
+                    if (pending.isEmpty()) {
+                        return null;
+                    }
+                    // the changes made while sending go with the next update
+                    pending.scheduled = true;
+                    schedule[0] = true;
+                    return pending;
+                });
+
+        if (schedule[0]) {
+            schedule(host, compositeComponentLink);
+        }
+    }
+
+    private static String buildKey(ServiceHost host, String compositeComponentLink) {
+        return host.getId() + compositeComponentLink;
+    }
+}
@@ -34,7 +34,9 @@ import java.util.stream.Stream;
 
 import com.fasterxml.jackson.annotation.JsonFilter;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -43,6 +45,7 @@ import com.vmware.admiral.adapter.docker.util.DockerPortMapping;
 import com.vmware.admiral.closures.services.closuredescription.ClosureDescription;
 import com.vmware.admiral.common.util.PropertyUtils;
 import com.vmware.admiral.common.util.YamlMapper;
+import com.vmware.admiral.common.util.YamlMapper.DocumentReader;
 import com.vmware.admiral.compute.BindingUtils;
 import com.vmware.admiral.compute.ResourceType;
 import com.vmware.admiral.compute.TemplateSerializationUtils;
@@ -100,16 +103,17 @@ public class CompositeTemplateUtil {
      */
     public static YamlType getYamlType(String yaml) throws IOException {
         assertNotEmpty(yaml, "yaml");
+
         boolean isMultiYaml = YamlMapper.isMultiYaml(yaml);
-        if (isMultiYaml) {
-            List<String> yamls = YamlMapper.splitYaml(yaml);
-            // Make the verification only with a single yaml in case of multi.
-            yaml = yamls.get(0);
-        }
 
         CommonDescriptionEntity template;
-        try {
-            template = YamlMapper.objectMapper().readValue(yaml, CommonDescriptionEntity.class);
+        // Make the verification only with the first yaml in case of multi.
+        try (DocumentReader<CommonDescriptionEntity> documents = YamlMapper.readDocuments(yaml,
+                CommonDescriptionEntity.class)) {
+            if (!documents.hasNext()) {
+                return YamlType.UNKNOWN;
+            }
+            template = documents.next();
         } catch (JsonProcessingException e) {
             throw new LocalizableValidationException(
                     "Error processing YAML content: " + e.getOriginalMessage(),
@@ -140,8 +144,7 @@ public class CompositeTemplateUtil {
         assertNotEmpty(yaml, "yaml");
         DockerCompose entity;
         try {
-            entity = YamlMapper.objectMapper().readValue(yaml.trim(),
-                    DockerCompose.class);
+            entity = readFirstDocument(yaml, DockerCompose.class);
         } catch (JsonProcessingException e) {
             throw new LocalizableValidationException(
                     "Error processing Docker Compose v2 YAML content: " + e.getOriginalMessage(),
@@ -151,6 +154,19 @@ public class CompositeTemplateUtil {
         return entity;
     }
 
+    /**
+     * Reads the first document of the given YAML as the given type straight from the parser.
+     */
+    private static <T> T readFirstDocument(String yaml, Class<T> type) throws IOException {
+        try (DocumentReader<T> documents = YamlMapper.readDocuments(yaml, type)) {
+            if (!documents.hasNext()) {
+                throw JsonMappingException.from((JsonParser) null,
+                        "No content to map due to end-of-input");
+            }
+            return documents.next();
+        }
+    }
+
     public static String serializeDockerCompose(DockerCompose entity) throws IOException {
         sanitizeDockerCompose(entity);
         return YamlMapper.objectWriter().writeValueAsString(entity).trim();
@@ -175,8 +191,7 @@ public class CompositeTemplateUtil {
         assertNotEmpty(yaml, "yaml");
         CompositeTemplate entity;
         try {
-            Map<String, Object> deserialized = YamlMapper.objectMapper().readValue(yaml.trim(),
-                    Map.class);
+            Map<String, Object> deserialized = readFirstDocument(yaml, Map.class);
             List<Binding.ComponentBinding> componentBindings = BindingUtils
                     .extractBindings(deserialized);
 
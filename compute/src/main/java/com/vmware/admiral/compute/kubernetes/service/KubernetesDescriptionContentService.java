@@ -12,15 +12,19 @@
 package com.vmware.admiral.compute.kubernetes.service;
 
 import static com.vmware.admiral.common.util.ServiceUtils.addServiceRequestRoute;
-import static com.vmware.admiral.common.util.YamlMapper.splitYaml;
 import static com.vmware.admiral.compute.content.CompositeTemplateUtil.isNullOrEmpty;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+
 import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.common.util.YamlMapper;
+import com.vmware.admiral.common.util.YamlMapper.DocumentReader;
 import com.vmware.admiral.compute.kubernetes.service.KubernetesDescriptionService.KubernetesDescription;
 import com.vmware.xenon.common.LocalizableValidationException;
 import com.vmware.xenon.common.Operation;
@@ -46,8 +50,25 @@ public class KubernetesDescriptionContentService extends StatelessService {
             return;
         }
 
-        List<String> kubernetesDefinitions = splitYaml(post.getBody(String.class));
-        OperationJoin.create(createOperations(kubernetesDefinitions))
+        List<Operation> createOperations;
+        try {
+            createOperations = createOperations(post.getBody(String.class));
+        } catch (JsonProcessingException e) {
+            post.fail(new LocalizableValidationException(
+                    "Error processing YAML content: " + e.getOriginalMessage(),
+                    "compute.template.yaml.content.error", e.getOriginalMessage()));
+            return;
+        } catch (IOException e) {
+            post.fail(e);
+            return;
+        }
+        if (createOperations.isEmpty()) {
+            post.fail(new LocalizableValidationException("Invalid YAML input.",
+                    "compute.template.yaml.invalid"));
+            return;
+        }
+
+        OperationJoin.create(createOperations)
                 .setCompletion((ops, errors) -> {
                     List<String> resourceLinks = new ArrayList<>();
                     ops.values().forEach(o -> {
@@ -70,14 +91,22 @@ public class KubernetesDescriptionContentService extends StatelessService {
                 }).sendWith(this);
     }
 
-    private List<Operation> createOperations(List<String> kubernetesDefinitions) {
-        List<Operation> ops = kubernetesDefinitions.stream()
-                .map(yaml -> {
-                    KubernetesDescription description = new KubernetesDescription();
-                    description.kubernetesEntity = yaml;
-                    return Operation.createPost(this, KubernetesDescriptionService.FACTORY_LINK)
-                            .setBody(description);
-                }).collect(Collectors.toList());
+    /**
+     * Creates the operations creating a description for each of the YAML definitions. The
+     * definitions are read from the content one at a time and written as YAML documents of their
+     * own, without splitting the content first.
+     */
+    private List<Operation> createOperations(String kubernetesDefinitions) throws IOException {
+        List<Operation> ops = new ArrayList<>();
+        try (DocumentReader<Object> documents = YamlMapper.readDocuments(kubernetesDefinitions,
+                Object.class)) {
+            while (documents.hasNext()) {
+                KubernetesDescription description = new KubernetesDescription();
+                description.kubernetesEntity = documents.nextAsYaml();
+                ops.add(Operation.createPost(this, KubernetesDescriptionService.FACTORY_LINK)
+                        .setBody(description));
+            }
+        }
         return ops;
     }
 
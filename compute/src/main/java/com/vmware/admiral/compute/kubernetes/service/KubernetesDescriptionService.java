@@ -13,7 +13,6 @@ package com.vmware.admiral.compute.kubernetes.service;
 
 import static com.vmware.admiral.common.util.AssertUtil.assertNotNull;
 import static com.vmware.admiral.common.util.AssertUtil.assertNotNullOrEmpty;
-import static com.vmware.admiral.common.util.YamlMapper.isValidYaml;
 
 import java.io.IOException;
 import java.util.Map;
@@ -111,15 +110,21 @@ public class KubernetesDescriptionService extends StatefulService {
         }
     }
 
-    private void validateDescription(KubernetesDescription description) throws IOException {
-        if (!isValidYaml(description.kubernetesEntity)) {
+    private void validateDescription(KubernetesDescription description) {
+        BaseKubernetesObject kubernetesEntity = null;
+        if (description.kubernetesEntity != null
+                && !description.kubernetesEntity.startsWith("{")) {
+            try {
+                kubernetesEntity = description.getKubernetesEntity(BaseKubernetesObject.class);
+            } catch (IOException e) {
+                kubernetesEntity = null;
+            }
+        }
+        if (kubernetesEntity == null) {
             throw new LocalizableValidationException("Invalid YAML input.",
                     "compute.template.yaml.invalid");
         }
 
-        BaseKubernetesObject kubernetesEntity = description
-                .getKubernetesEntity(BaseKubernetesObject.class);
-
         assertNotNullOrEmpty(kubernetesEntity.apiVersion, "apiVersion");
         assertNotNullOrEmpty(kubernetesEntity.kind, "kind");
         assertNotNull(kubernetesEntity.metadata, "metadata");
@@ -106,6 +106,10 @@ public class CompositeComponentInterceptor {
                         compositeComponentLink, op.getAction());
             });
         } else if (op.getAction() == Action.DELETE) {
+            if (op.getRequestHeader(CompositeComponentNotifier.BULK_NOTIFICATION_HEADER) != null) {
+                // the sender notifies the composite component of all removed components at once
+                return null;
+            }
             ResourceState state = service.getState(op);
             String compositeComponentLink = retrieveLink(state);
             CompositeComponentNotifier.notifyCompositionComponent(service, state,
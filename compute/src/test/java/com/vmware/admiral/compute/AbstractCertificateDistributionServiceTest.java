@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ComputeBaseTest;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorBatchResult;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorBatchState;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorResult;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
+import com.vmware.photon.controller.model.resources.ComputeService;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+public class AbstractCertificateDistributionServiceTest extends ComputeBaseTest {
+
+    private static final String REGISTRY_ADDRESS = "https://registry.test:5000";
+
+    private MockShellContainerExecutorService executor;
+    private TestCertificateDistributionService distributionService;
+    private String computeDescriptionLink;
+
+    @Before
+    public void setUp() throws Throwable {
+        waitForServiceAvailability(ShellContainerExecutorService.SELF_LINK);
+        stopService(ShellContainerExecutorService.SELF_LINK);
+        executor = new MockShellContainerExecutorService();
+        host.startService(Operation.createPost(
+                UriUtils.buildUri(host, ShellContainerExecutorService.SELF_LINK)), executor);
+
+        distributionService = new TestCertificateDistributionService();
+        host.startService(Operation.createPost(
+                UriUtils.buildUri(host, TestCertificateDistributionService.SELF_LINK)),
+                distributionService);
+        waitForServiceAvailability(ShellContainerExecutorService.SELF_LINK,
+                TestCertificateDistributionService.SELF_LINK);
+
+        ComputeDescription computeDescription = doPost(new ComputeDescription(),
+                ComputeDescriptionService.FACTORY_LINK);
+        computeDescriptionLink = computeDescription.documentSelfLink;
+    }
+
+    @Test
+    public void testUploadsAreBoundedInParallel() throws Throwable {
+        List<String> hostLinks = createHosts(3 * AbstractCertificateDistributionService
+                .MAX_PARALLEL_UPLOADS);
+        distribute(hostLinks, "parallel-cert", true);
+
+        waitFor(() -> executor.uploads.get() == hostLinks.size());
+        assertTrue(executor.maxInFlight.get() > 1);
+        assertTrue(executor.maxInFlight.get()
+                <= AbstractCertificateDistributionService.MAX_PARALLEL_UPLOADS);
+        assertTrue(distributionService.events.isEmpty());
+    }
+
+    @Test
+    public void testFailedUploadIsRetried() throws Throwable {
+        List<String> hostLinks = createHosts(2);
+        executor.failures.put(hostLinks.get(0), 1);
+        executor.exitCodeFailures.put(hostLinks.get(1), 1);
+        distribute(hostLinks, "retried-cert", true);
+
+        // each host fails once, either with an error or with a non-zero exit code
+        waitFor(() -> executor.uploads.get() == 4);
+        assertEquals(2, distributionService.retryAttempts.size());
+        assertEquals(Integer.valueOf(0), distributionService.retryAttempts.peek());
+
+        // the hosts are uploaded to once they succeeded
+        distribute(hostLinks, "retried-cert", true);
+        distribute(createHosts(1), "retried-cert", true);
+        waitFor(() -> executor.uploads.get() == 5);
+        assertTrue(distributionService.events.isEmpty());
+    }
+
+    @Test
+    public void testHostsWithTheCertificateAreSkipped() throws Throwable {
+        List<String> hostLinks = createHosts(2);
+        distribute(hostLinks, "skipped-cert", true);
+        waitFor(() -> executor.uploads.get() == 2);
+
+        // the same certificate is skipped, a different one is uploaded
+        distribute(hostLinks, "skipped-cert", true);
+        distribute(hostLinks.subList(0, 1), "other-cert", true);
+        waitFor(() -> executor.uploads.get() == 3);
+
+        // explicit distributions upload to all hosts
+        distribute(hostLinks, "skipped-cert", false);
+        waitFor(() -> executor.uploads.get() == 5);
+    }
+
+    @Test
+    public void testFailedHostsAreReportedOnce() throws Throwable {
+        List<String> hostLinks = createHosts(3);
+        hostLinks.forEach(hostLink -> executor.exitCodeFailures.put(hostLink, Integer.MAX_VALUE));
+        List<String> uploadedHostLinks = createHosts(2);
+        List<String> allHostLinks = new ArrayList<>(hostLinks);
+        allHostLinks.addAll(uploadedHostLinks);
+        distribute(allHostLinks, "failed-cert", true);
+
+        waitFor(() -> !distributionService.events.isEmpty());
+        assertEquals(3 * (AbstractCertificateDistributionService.MAX_RETRIES + 1) + 2,
+                executor.uploads.get());
+        assertEquals(1, distributionService.events.size());
+        String event = distributionService.events.peek();
+        assertTrue(event, event.contains("to 3 of 5 hosts"));
+        hostLinks.forEach(hostLink -> assertTrue(event, event.contains(hostLink)));
+    }
+
+    @Test
+    public void testCertificatesAreUploadedToHostInOneBatch() throws Throwable {
+        String hostLink = createHosts(1).get(0);
+        executor.exitCodeFailures.put(hostLink, 1);
+        Map<String, String> certificates = new HashMap<>();
+        certificates.put("https://registry1.test:5000", "batch-cert-1");
+        certificates.put("https://registry2.test:5000", "batch-cert-2");
+        certificates.put("https://registry3.test:5000", "batch-cert-3");
+        distribute(hostLink, certificates);
+
+        // the command that exited with an error is retried alone
+        waitFor(() -> executor.uploads.get() == 4);
+        assertEquals(2, executor.batches.get());
+
+        // the uploaded certificates are skipped
+        certificates.put("https://registry4.test:5000", "batch-cert-4");
+        distribute(hostLink, certificates);
+        waitFor(() -> executor.uploads.get() == 5);
+        assertEquals(3, executor.batches.get());
+        assertTrue(distributionService.events.isEmpty());
+    }
+
+    @Test
+    public void testRetryDelayBacksOff() {
+        AbstractCertificateDistributionService service =
+                new AbstractCertificateDistributionService();
+        long intervalMillis = TimeUnit.SECONDS.toMillis(
+                AbstractCertificateDistributionService.QUERY_RETRIEVAL_RETRY_INTERVAL_SECONDS);
+        long maxMillis = TimeUnit.SECONDS.toMillis(
+                AbstractCertificateDistributionService.MAX_BACKOFF_SECONDS);
+        for (int attempt = 0; attempt < 20; attempt++) {
+            long backoffMillis = Math.min(maxMillis, intervalMillis << attempt);
+            long delayMillis = service.getRetryDelayMillis(attempt);
+            assertTrue(delayMillis >= backoffMillis / 2);
+            assertTrue(delayMillis <= backoffMillis);
+        }
+    }
+
+    private void stopService(String link) {
+        TestContext ctx = testCreate(1);
+        Operation deleteOp = Operation.createDelete(UriUtils.buildUri(host, link))
+                .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_NO_INDEX_UPDATE)
+                .setReplicationDisabled(true).setCompletion(ctx.getCompletion())
+                .setReferer(host.getUri());
+        host.send(deleteOp);
+        ctx.await();
+    }
+
+    private List<String> createHosts(int count) throws Throwable {
+        List<String> hostLinks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ComputeState computeState = new ComputeState();
+            computeState.id = UUID.randomUUID().toString();
+            computeState.descriptionLink = computeDescriptionLink;
+            computeState.customProperties = new HashMap<>();
+            hostLinks.add(doPost(computeState, ComputeService.FACTORY_LINK).documentSelfLink);
+        }
+        return hostLinks;
+    }
+
+    private void distribute(List<String> hostLinks, String certificate, boolean skipInstalled)
+            throws Throwable {
+        DistributionRequest request = new DistributionRequest();
+        request.hostLinks = hostLinks;
+        request.certificate = certificate;
+        request.skipInstalled = skipInstalled;
+        host.sendAndWaitExpectSuccess(Operation.createPost(
+                UriUtils.buildUri(host, TestCertificateDistributionService.SELF_LINK))
+                .setBody(request));
+    }
+
+    private void distribute(String hostLink, Map<String, String> certificates)
+            throws Throwable {
+        DistributionRequest request = new DistributionRequest();
+        request.hostLinks = Collections.singletonList(hostLink);
+        request.certificates = certificates;
+        host.sendAndWaitExpectSuccess(Operation.createPost(
+                UriUtils.buildUri(host, TestCertificateDistributionService.SELF_LINK))
+                .setBody(request));
+    }
+
+    public static class DistributionRequest {
+        public List<String> hostLinks;
+        public String certificate;
+        public boolean skipInstalled;
+        public Map<String, String> certificates;
+    }
+
+    /**
+     * Distributes certificates without waiting between the retries, recording the event logs.
+     */
+    private static class TestCertificateDistributionService
+            extends AbstractCertificateDistributionService {
+        static final String SELF_LINK = "/test/certificate-distribution";
+
+        final Queue<Integer> retryAttempts = new ConcurrentLinkedQueue<>();
+        final Queue<String> events = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void handlePost(Operation op) {
+            DistributionRequest request = op.getBody(DistributionRequest.class);
+            if (request.certificates != null) {
+                uploadCertificates(request.hostLinks.get(0), request.certificates, null);
+            } else {
+                uploadCertificate(request.hostLinks, REGISTRY_ADDRESS, request.certificate, null,
+                        request.skipInstalled);
+            }
+            op.complete();
+        }
+
+        @Override
+        protected long getRetryDelayMillis(int attempt) {
+            retryAttempts.add(attempt);
+            return 1;
+        }
+
+        @Override
+        protected void publishEventLog(String errMsg, List<String> tenantLinks) {
+            events.add(errMsg);
+        }
+    }
+
+    /**
+     * Executor completing the uploads after a short delay, failing them as configured per host.
+     */
+    private static class MockShellContainerExecutorService extends StatelessService {
+        final AtomicInteger uploads = new AtomicInteger();
+        final AtomicInteger batches = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final Map<String, Integer> failures = new ConcurrentHashMap<>();
+        final Map<String, Integer> exitCodeFailures = new ConcurrentHashMap<>();
+
+        @Override
+        public void handlePost(Operation op) {
+            Map<String, String> params = UriUtils.parseUriQueryParams(op.getUri());
+            String hostLink = params.get(ShellContainerExecutorService.HOST_LINK_URI_PARAM);
+            if (Boolean.parseBoolean(params.get(ShellContainerExecutorService.BATCH_URI_PARAM))) {
+                handleBatch(op, hostLink);
+                return;
+            }
+
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+
+            getHost().schedule(() -> {
+                inFlight.decrementAndGet();
+                uploads.incrementAndGet();
+                if (consume(failures, hostLink)) {
+                    op.fail(new IllegalStateException("Shell container not available"));
+                    return;
+                }
+                ShellContainerExecutorResult result = new ShellContainerExecutorResult();
+                result.exitCode = consume(exitCodeFailures, hostLink) ? 1 : 0;
+                op.setBodyNoCloning(result).complete();
+            }, 20, TimeUnit.MILLISECONDS);
+        }
+
+        private void handleBatch(Operation op, String hostLink) {
+            ShellContainerExecutorBatchState batch =
+                    op.getBody(ShellContainerExecutorBatchState.class);
+            batches.incrementAndGet();
+            ShellContainerExecutorBatchResult batchResult =
+                    new ShellContainerExecutorBatchResult();
+            batchResult.results = new ArrayList<>();
+            for (int i = 0; i < batch.commands.size(); i++) {
+                uploads.incrementAndGet();
+                ShellContainerExecutorResult result = new ShellContainerExecutorResult();
+                result.exitCode = consume(exitCodeFailures, hostLink) ? 1 : 0;
+                batchResult.results.add(result);
+            }
+            op.setBodyNoCloning(batchResult).complete();
+        }
+
+        private static boolean consume(Map<String, Integer> counts, String hostLink) {
+            Integer remaining = counts.computeIfPresent(hostLink, (k, v) -> v - 1);
+            return remaining != null && remaining >= 0;
+        }
+    }
+}
@@ -15,7 +15,9 @@ import static org.junit.Assert.assertEquals;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Set;
 import java.util.UUID;
 
 import org.junit.Test;
@@ -83,6 +85,43 @@ public class PlacementCapacityUpdateTaskServiceTest extends ComputeBaseTest {
         validateFigures(rp.documentSelfLink, 3_000_000L, null, 3_000_000L, 0.0);
     }
 
+    @Test
+    public void testChangedComputeCalculations() throws Throwable {
+        ResourcePoolState rp = createResourcePool();
+        ComputeDescription cd = createComputeDescription(ComputeType.DOCKER_CONTAINER.toString(),
+                0L, 0L, 0L);
+        ComputeState c1 = createContainerHost(cd.documentSelfLink, rp.documentSelfLink,
+                4_000_000L, 2_000_000L, 2L, 0.10);
+        ComputeState c2 = createContainerHost(cd.documentSelfLink, rp.documentSelfLink,
+                4_000_000L, null, 4L, 0.50);
+
+        startAndWaitForTask(rp.documentSelfLink);
+        validateFigures(rp.documentSelfLink, 8_000_000L, null, 6_000_000L,
+                (2 * 0.10 + 4 * 0.50) / 6);
+
+        // only the figures of the changed compute are updated
+        c1.customProperties.put(ContainerHostService.DOCKER_HOST_TOTAL_MEMORY_PROP_NAME,
+                "6000000");
+        c1.customProperties.put(ContainerHostService.DOCKER_HOST_AVAILABLE_MEMORY_PROP_NAME,
+                "3000000");
+        doPatch(c1, c1.documentSelfLink);
+        startAndWaitForTask(rp.documentSelfLink, Collections.singleton(c1.documentSelfLink));
+        validateFigures(rp.documentSelfLink, 10_000_000L, null, 7_000_000L,
+                (2 * 0.10 + 4 * 0.50) / 6);
+
+        // removed computes are dropped from the figures
+        delete(c2.documentSelfLink);
+        startAndWaitForTask(rp.documentSelfLink, Collections.singleton(c2.documentSelfLink));
+        validateFigures(rp.documentSelfLink, 6_000_000L, null, 3_000_000L, 0.10);
+
+        // a new compute is added to the figures
+        ComputeState c3 = createContainerHost(cd.documentSelfLink, rp.documentSelfLink,
+                1_000_000L, null, 2L, 0.30);
+        startAndWaitForTask(rp.documentSelfLink, Collections.singleton(c3.documentSelfLink));
+        validateFigures(rp.documentSelfLink, 7_000_000L, null, 4_000_000L,
+                (2 * 0.10 + 2 * 0.30) / 4);
+    }
+
     private ComputeState createContainerHost(String descriptionLink, String rpLink,
             Long totalMemoryBytes,
             Long availableMemoryBytes, Long cpuCores, Double cpuUsage) throws Throwable {
@@ -138,8 +177,14 @@ public class PlacementCapacityUpdateTaskServiceTest extends ComputeBaseTest {
     }
 
     private void startAndWaitForTask(String resourcePoolLink) throws Throwable {
+        startAndWaitForTask(resourcePoolLink, null);
+    }
+
+    private void startAndWaitForTask(String resourcePoolLink, Set<String> computeLinks)
+            throws Throwable {
         PlacementCapacityUpdateTaskState initialState = new PlacementCapacityUpdateTaskState();
         initialState.resourcePoolLink = resourcePoolLink;
+        initialState.computeLinks = computeLinks;
         PlacementCapacityUpdateTaskState returnState = doOperation(initialState,
                 UriUtils.buildUri(this.host, PlacementCapacityUpdateTaskService.FACTORY_LINK),
                 PlacementCapacityUpdateTaskState.class, false, Action.POST);
@@ -11,10 +11,13 @@
 
 package com.vmware.admiral.compute.container;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -22,6 +25,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.vmware.admiral.common.util.ServiceDocumentQuery;
+import com.vmware.admiral.compute.container.CompositeComponentService.ComponentLinksUpdate;
 import com.vmware.admiral.compute.container.CompositeComponentService.CompositeComponent;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.network.ContainerNetworkService;
@@ -277,6 +281,33 @@ public class CompositeComponentServiceTest extends ComputeBaseTest {
 
     }
 
+    @Test
+    public void testPatchComponentLinksUpdate() throws Throwable {
+        compositeComponent = createCompositeComponent();
+        String containerLink1 = UriUtils.buildUriPath(ContainerFactoryService.SELF_LINK, "c1");
+        String containerLink2 = UriUtils.buildUriPath(ContainerFactoryService.SELF_LINK, "c2");
+        String containerLink3 = UriUtils.buildUriPath(ContainerFactoryService.SELF_LINK, "c3");
+
+        ComponentLinksUpdate update = new ComponentLinksUpdate();
+        update.componentLinksToAdd = new HashSet<>(Arrays.asList(containerLink1, containerLink2));
+        doPatch(update, compositeComponent.documentSelfLink);
+
+        compositeComponent = getDocument(CompositeComponent.class,
+                compositeComponent.documentSelfLink);
+        assertEquals(new HashSet<>(Arrays.asList(containerLink1, containerLink2)),
+                new HashSet<>(compositeComponent.componentLinks));
+
+        update = new ComponentLinksUpdate();
+        update.componentLinksToAdd = new HashSet<>(Arrays.asList(containerLink2, containerLink3));
+        update.componentLinksToRemove = Collections.singleton(containerLink1);
+        doPatch(update, compositeComponent.documentSelfLink);
+
+        compositeComponent = getDocument(CompositeComponent.class,
+                compositeComponent.documentSelfLink);
+        assertEquals(Arrays.asList(containerLink2, containerLink3),
+                compositeComponent.componentLinks);
+    }
+
     private CompositeComponent createCompositeComponent() throws Throwable {
         compositeComponent = new CompositeComponent();
         compositeComponent.name = "test-name";
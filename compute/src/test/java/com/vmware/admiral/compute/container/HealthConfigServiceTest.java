@@ -18,6 +18,7 @@ import java.net.ServerSocket;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -331,6 +332,45 @@ public class HealthConfigServiceTest extends ComputeBaseTest {
                 containerDesc, container);
     }
 
+    @Test
+    public void testHealthyCallbackInvokedOnceOnHealthCheckSuccess() throws Throwable {
+        String mockContainerDescriptionLink = UriUtils.buildUriPath(
+                ContainerDescriptionService.FACTORY_LINK, "mockDescId");
+
+        ContainerDescription containerDesc = createContainerDescription();
+        containerDesc.documentSelfLink = mockContainerDescriptionLink;
+        containerDesc = doPost(containerDesc, ContainerDescriptionService.FACTORY_LINK);
+
+        ContainerState container = createContainerStateNoAddress(mockContainerDescriptionLink);
+        container.address = host.getPreferredAddress();
+        container = doPost(container, ContainerFactoryService.SELF_LINK);
+
+        TestHealthService pingService = new TestHealthService();
+        URI pingServiceUri = UriUtils.buildUri(host, TestHealthService.SELF_LINK);
+        host.startService(Operation.createPost(pingServiceUri), pingService);
+        waitForServiceAvailability(TestHealthService.SELF_LINK);
+
+        AtomicInteger invocations = new AtomicInteger();
+        AtomicInteger removedInvocations = new AtomicInteger();
+        Runnable removedCallback = removedInvocations::incrementAndGet;
+        HealthChecker.getInstance().onHealthy(container.documentSelfLink,
+                invocations::incrementAndGet);
+        HealthChecker.getInstance().onHealthy(container.documentSelfLink, removedCallback);
+        HealthChecker.getInstance().removeHealthyCallback(container.documentSelfLink,
+                removedCallback);
+
+        HealthChecker.getInstance().doHealthCheck(host, containerDesc.documentSelfLink);
+        waitFor(() -> invocations.get() > 0);
+
+        // the callback is one-shot, further successful health checks don't invoke it again
+        final String containerLink = container.documentSelfLink;
+        HealthChecker.getInstance().doHealthCheck(host, containerDesc.documentSelfLink);
+        waitFor(() -> getContainerStats(containerLink).healthSuccessCount == 2);
+
+        assertEquals(1, invocations.get());
+        assertEquals(0, removedInvocations.get());
+    }
+
     @Test
     public void testHealthCheckSuccessWithHttpAndPortBindings() throws Throwable {
 
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class HostListingFingerprintsTest {
+
+    private static final String HOST_LINK = "/resources/compute/test-host";
+
+    @Test
+    public void testFingerprintIgnoresOrder() {
+        assertEquals(HostListingFingerprints.fingerprint(Arrays.asList("a=net1", "b=net2")),
+                HostListingFingerprints.fingerprint(Arrays.asList("b=net2", "a=net1")));
+        assertNotEquals(HostListingFingerprints.fingerprint(Arrays.asList("a=net1", "b=net2")),
+                HostListingFingerprints.fingerprint(Arrays.asList("a=net1", "b=net3")));
+    }
+
+    @Test
+    public void testUnchangedListingIsDetected() {
+        HostListingFingerprints fingerprints = new HostListingFingerprints(60000);
+        String fingerprint = HostListingFingerprints.fingerprint(Arrays.asList("a=net1"));
+        assertFalse(fingerprints.isUnchanged(HOST_LINK, fingerprint));
+
+        fingerprints.processed(HOST_LINK, fingerprint);
+        assertTrue(fingerprints.isUnchanged(HOST_LINK, fingerprint));
+        assertFalse(fingerprints.isUnchanged(HOST_LINK,
+                HostListingFingerprints.fingerprint(Arrays.asList("a=net1", "b=net2"))));
+        assertFalse(fingerprints.isUnchanged(HOST_LINK + "-other", fingerprint));
+    }
+
+    @Test
+    public void testExpiredListingIsSynchronizedAgain() {
+        HostListingFingerprints fingerprints = new HostListingFingerprints(0);
+        String fingerprint = HostListingFingerprints.fingerprint(Arrays.asList("a=net1"));
+        fingerprints.processed(HOST_LINK, fingerprint);
+        assertFalse(fingerprints.isUnchanged(HOST_LINK, fingerprint));
+    }
+}
@@ -16,6 +16,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 
@@ -168,6 +169,35 @@ public class HostPortProfileServiceTest extends ComputeBaseTest {
                 .noneMatch(p -> releaseRequest.containerLink.equals(p.getValue())));
     }
 
+    @Test
+    public void testPatchReleaseMultipleContainers() throws Throwable {
+        HostPortProfileService.HostPortProfileState profile = createHostPortProfile();
+        profile = doPost(profile, HostPortProfileService.FACTORY_LINK);
+
+        Set<String> containerLinks = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            HostPortProfileService.HostPortProfileReservationRequest allocateRequest =
+                    new HostPortProfileService.HostPortProfileReservationRequest();
+            allocateRequest.containerLink = UUID.randomUUID().toString();
+            allocateRequest.mode =
+                    HostPortProfileService.HostPortProfileReservationRequestMode.ALLOCATE;
+            allocateRequest.additionalHostPortCount = 2;
+            patch(profile, allocateRequest, false);
+            containerLinks.add(allocateRequest.containerLink);
+        }
+        String remainingLink = containerLinks.iterator().next();
+        containerLinks.remove(remainingLink);
+
+        HostPortProfileService.HostPortProfileReservationRequest releaseRequest =
+                new HostPortProfileService.HostPortProfileReservationRequest();
+        releaseRequest.containerLinks = containerLinks;
+        releaseRequest.mode = HostPortProfileService.HostPortProfileReservationRequestMode.RELEASE;
+
+        HostPortProfileService.HostPortProfileState result = patch(profile, releaseRequest, false);
+        assertEquals(2, result.reservedPorts.size());
+        assertTrue(result.reservedPorts.values().stream().allMatch(remainingLink::equals));
+    }
+
     @Test
     public void testPatchUpdateAllocation() throws Throwable {
         HostPortProfileService.HostPortProfileState profile = createHostPortProfile();
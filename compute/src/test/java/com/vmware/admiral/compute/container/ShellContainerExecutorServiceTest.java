@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.adapter.common.AdapterRequest;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState.PowerState;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorBatchResult;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorBatchState;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorResult;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService.ShellContainerExecutorState;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost.ServiceNotFoundException;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+public class ShellContainerExecutorServiceTest extends ComputeBaseTest {
+
+    private static final String MOCK_ADAPTER_LINK = "/test/shell-executor-adapter";
+
+    private MockExecAdapterService adapter;
+
+    @Before
+    public void setUp() throws Throwable {
+        adapter = new MockExecAdapterService();
+        host.startService(Operation.createPost(UriUtils.buildUri(host, MOCK_ADAPTER_LINK)),
+                adapter);
+        waitForServiceAvailability(MOCK_ADAPTER_LINK, ShellContainerExecutorService.SELF_LINK);
+    }
+
+    @Test
+    public void testRunningContainerIsCached() throws Throwable {
+        ContainerState container = createContainer(PowerState.RUNNING);
+        assertEquals("ls", execute(container, "ls").output);
+
+        // the container resolved for the first command is used without waiting for it
+        container.powerState = PowerState.STOPPED;
+        doPatch(container, container.documentSelfLink);
+        assertEquals("pwd", execute(container, "pwd").output);
+
+        assertEquals(2, adapter.commands.size());
+    }
+
+    @Test
+    public void testConcurrentExecutionsWaitForTheContainerTogether() throws Throwable {
+        ContainerState container = createContainer(PowerState.STOPPED);
+
+        TestContext ctx = testCreate(2);
+        List<ShellContainerExecutorResult> results = new ArrayList<>();
+        for (String command : new String[] { "ls", "pwd" }) {
+            host.sendRequest(createExecPost(container, command).setCompletion((o, e) -> {
+                if (e != null) {
+                    ctx.failIteration(e);
+                    return;
+                }
+                synchronized (results) {
+                    results.add(o.getBody(ShellContainerExecutorResult.class));
+                }
+                ctx.completeIteration();
+            }));
+        }
+
+        container.powerState = PowerState.RUNNING;
+        doPatch(container, container.documentSelfLink);
+        ctx.await();
+
+        assertEquals(2, results.size());
+        assertEquals(2, adapter.commands.size());
+    }
+
+    @Test
+    public void testWaitForContainerCreatedLater() throws Throwable {
+        ContainerState container = new ContainerState();
+        container.id = "shell-" + System.nanoTime();
+        container.documentSelfLink = UriUtils.buildUriPath(ContainerFactoryService.SELF_LINK,
+                container.id);
+
+        long startMillis = System.currentTimeMillis();
+        TestContext ctx = testCreate(1);
+        host.sendRequest(createExecPost(container, "ls").setCompletion(ctx.getCompletion()));
+
+        // the execution is notified when the container is created, without polling for it
+        container.names = new ArrayList<>();
+        container.names.add(container.id);
+        container.adapterManagementReference = UriUtils.buildUri(MOCK_ADAPTER_LINK);
+        container.powerState = PowerState.RUNNING;
+        doPost(container, ContainerFactoryService.SELF_LINK);
+        ctx.await();
+
+        assertTrue(System.currentTimeMillis() - startMillis < TimeUnit.SECONDS.toMillis(
+                ShellContainerExecutorService.FALLBACK_POLL_INTERVAL_SECONDS));
+        assertEquals(1, adapter.commands.size());
+    }
+
+    @Test
+    public void testBatchIsExecutedInTheSameContainer() throws Throwable {
+        ContainerState container = createContainer(PowerState.RUNNING);
+        ShellContainerExecutorBatchState batch = new ShellContainerExecutorBatchState();
+        batch.commands = new ArrayList<>();
+        for (String command : new String[] { "ls", "pwd", "id" }) {
+            ShellContainerExecutorState execState = new ShellContainerExecutorState();
+            execState.command = new String[] { command };
+            batch.commands.add(execState);
+        }
+
+        URI uri = UriUtils.extendUriWithQuery(
+                UriUtils.buildUri(host, ShellContainerExecutorService.SELF_LINK),
+                ShellContainerExecutorService.CONTAINER_LINK_URI_PARAM,
+                container.documentSelfLink,
+                ShellContainerExecutorService.BATCH_URI_PARAM, Boolean.TRUE.toString());
+        ShellContainerExecutorBatchResult batchResult = host.getTestRequestSender()
+                .sendAndWait(Operation.createPost(uri).setBody(batch),
+                        ShellContainerExecutorBatchResult.class);
+
+        assertEquals(3, batchResult.results.size());
+        assertEquals("ls", batchResult.results.get(0).output);
+        assertEquals("pwd", batchResult.results.get(1).output);
+        assertEquals("id", batchResult.results.get(2).output);
+        assertEquals(Integer.valueOf(0), batchResult.results.get(2).exitCode);
+        assertEquals(3, adapter.commands.size());
+    }
+
+    @Test
+    public void testCommandIsRetriedWhenCachedContainerIsNotRunning() throws Throwable {
+        ContainerState container = createContainer(PowerState.RUNNING);
+        execute(container, "ls");
+
+        adapter.failures.add("Container " + container.id + " is not running");
+        assertEquals("pwd", execute(container, "pwd").output);
+
+        // the failed command didn't run, so it is executed again
+        assertEquals(3, adapter.commands.size());
+        assertEquals("pwd", adapter.commands.get(1));
+        assertEquals("pwd", adapter.commands.get(2));
+    }
+
+    @Test
+    public void testCommandIsNotRetriedOnOtherFailures() throws Throwable {
+        ContainerState container = createContainer(PowerState.RUNNING);
+        execute(container, "ls");
+
+        adapter.failures.add("Exec timed out");
+        TestContext ctx = testCreate(1);
+        host.sendRequest(createExecPost(container, "proxy-config").setCompletion((o, e) -> {
+            if (e == null) {
+                ctx.failIteration(new IllegalStateException("Expected failure"));
+                return;
+            }
+            ctx.completeIteration();
+        }));
+        ctx.await();
+
+        // the failed command may have run, so it is not executed again
+        assertEquals(2, adapter.commands.size());
+    }
+
+    @Test
+    public void testIsContainerUnavailable() {
+        assertTrue(ShellContainerExecutorService.isContainerUnavailable(
+                new IllegalStateException("Error: No such container: 1234")));
+        assertTrue(ShellContainerExecutorService.isContainerUnavailable(
+                new IllegalStateException("Container 1234 is not running")));
+        assertTrue(ShellContainerExecutorService.isContainerUnavailable(
+                new ServiceNotFoundException()));
+        assertFalse(ShellContainerExecutorService.isContainerUnavailable(
+                new IllegalStateException("Exec timed out")));
+        assertFalse(ShellContainerExecutorService.isContainerUnavailable(
+                new IllegalStateException()));
+    }
+
+    private ContainerState createContainer(PowerState powerState) throws Throwable {
+        ContainerState container = new ContainerState();
+        container.id = "shell-" + System.nanoTime();
+        container.names = new ArrayList<>();
+        container.names.add(container.id);
+        container.adapterManagementReference = UriUtils.buildUri(MOCK_ADAPTER_LINK);
+        container.powerState = powerState;
+        return doPost(container, ContainerFactoryService.SELF_LINK);
+    }
+
+    private Operation createExecPost(ContainerState container, String command) {
+        URI uri = UriUtils.extendUriWithQuery(
+                UriUtils.buildUri(host, ShellContainerExecutorService.SELF_LINK),
+                ShellContainerExecutorService.CONTAINER_LINK_URI_PARAM,
+                container.documentSelfLink);
+        ShellContainerExecutorState execState = new ShellContainerExecutorState();
+        execState.command = new String[] { command };
+        return Operation.createPost(uri)
+                .setReferer(host.getUri())
+                .setBody(execState);
+    }
+
+    private ShellContainerExecutorResult execute(ContainerState container, String command) {
+        ShellContainerExecutorResult[] result = new ShellContainerExecutorResult[1];
+        TestContext ctx = testCreate(1);
+        host.sendRequest(createExecPost(container, command).setCompletion((o, e) -> {
+            if (e != null) {
+                ctx.failIteration(e);
+                return;
+            }
+            result[0] = o.getBody(ShellContainerExecutorResult.class);
+            ctx.completeIteration();
+        }));
+        ctx.await();
+        return result[0];
+    }
+
+    /**
+     * Adapter echoing the executed commands, failing with the queued failure messages first.
+     */
+    private static class MockExecAdapterService extends StatelessService {
+        final List<String> commands = new ArrayList<>();
+        final Queue<String> failures = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void handlePatch(Operation op) {
+            AdapterRequest request = op.getBody(AdapterRequest.class);
+            String command = request.customProperties
+                    .get(ShellContainerExecutorService.COMMAND_KEY);
+            synchronized (commands) {
+                commands.add(command);
+            }
+
+            String failure = failures.poll();
+            if (failure != null) {
+                op.fail(new IllegalStateException(failure));
+                return;
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("__output", command);
+            response.put("ExitCode", 0.0);
+            op.setBodyNoCloning(response).complete();
+        }
+    }
+}
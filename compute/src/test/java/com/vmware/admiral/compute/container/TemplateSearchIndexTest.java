@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.compute.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.CompositeDescriptionService.CompositeDescription;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.TemplateSearchIndex.SearchResult;
+import com.vmware.admiral.compute.container.TemplateSearchIndex.WildcardPattern;
+import com.vmware.admiral.compute.container.TemplateSpec.TemplateType;
+import com.vmware.xenon.common.Claims;
+import com.vmware.xenon.common.Operation.AuthorizationContext;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.services.common.QueryFilter;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QueryTerm.MatchType;
+
+public class TemplateSearchIndexTest {
+
+    private TemplateSearchIndex index;
+
+    @Before
+    public void setUp() {
+        index = new TemplateSearchIndex(new TemplateSearchService());
+        index.update(createContainerDescription("mysql", "library/mysql:5.7"));
+        index.update(createContainerDescription("web", "library/nginx"));
+        index.update(createCompositeDescription("wordpress", "WordPress with MySQL", null,
+                "mysql", "web"));
+        index.update(createCompositeDescription("mysql-cluster", "mysql-cluster", null,
+                "mysql"));
+        index.update(createCompositeDescription("mysql", "MySQL", null));
+        index.update(createCompositeDescription("nginx", "static-site", null, "web"));
+    }
+
+    @Test
+    public void testRanking() {
+        List<TemplateSpec> results = search("*mysql*", null, false);
+        assertEquals(Arrays.asList("MySQL", "mysql-cluster", "WordPress with MySQL"),
+                getNames(results));
+        assertEquals(TemplateType.COMPOSITE_DESCRIPTION, results.get(0).templateType);
+
+        // matched by the image of the contained container description only
+        assertEquals(Arrays.asList("static-site", "WordPress with MySQL"),
+                getNames(search("*nginx*", null, false)));
+        assertEquals(Collections.emptyList(), getNames(search("*redis*", null, false)));
+    }
+
+    @Test
+    public void testFilters() {
+        index.update(createCompositeDescription("tenant-mysql", "tenant mysql",
+                Collections.singletonList("/tenants/a"), "mysql"));
+        CompositeDescription clone = createCompositeDescription("mysql-clone", "MySQL clone",
+                null);
+        clone.parentDescriptionLink = "mysql";
+        index.update(clone);
+
+        assertTrue(getNames(search("*mysql*", Collections.singletonList("/tenants/b"),
+                false)).isEmpty());
+        assertEquals(Collections.singletonList("tenant mysql"), getNames(search(
+                "*mysql*", Collections.singletonList("/tenants/a"), false)));
+        assertTrue(getNames(search("*mysql*", null, false)).contains("MySQL clone"));
+        assertFalse(getNames(search("*mysql*", null, true)).contains("MySQL clone"));
+    }
+
+    @Test
+    public void testUpdates() {
+        CompositeDescription renamed = createCompositeDescription("mysql", "MariaDB", null);
+        renamed.documentVersion = 1;
+        index.update(renamed);
+        assertEquals(Collections.singletonList("MariaDB"),
+                getNames(search("*maria*", null, false)));
+
+        // stale versions are ignored
+        index.update(createCompositeDescription("mysql", "MySQL", null));
+        assertEquals(Collections.singletonList("MariaDB"),
+                getNames(search("*maria*", null, false)));
+
+        renamed.documentUpdateAction = Action.DELETE.toString();
+        index.update(renamed);
+        assertTrue(search("*maria*", null, false).isEmpty());
+
+        // results are copies of the indexed templates
+        search("*nginx*", null, false).get(0).name = "changed";
+        assertEquals(Arrays.asList("static-site", "WordPress with MySQL"),
+                getNames(search("*nginx*", null, false)));
+    }
+
+    @Test
+    public void testPaging() {
+        SearchResult page = index.search("*mysql*", null, false, null, 1, 1);
+        assertEquals(3, page.totalCount);
+        assertEquals(Collections.singletonList("mysql-cluster"), getNames(page.templates));
+
+        page = index.search("*mysql*", null, false, null, 5, 10);
+        assertEquals(3, page.totalCount);
+        assertTrue(page.templates.isEmpty());
+    }
+
+    @Test
+    public void testAuthorizationFilter() throws Exception {
+        Query query = Query.Builder.create()
+                .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK,
+                        CompositeDescriptionFactoryService.SELF_LINK + "/mysql*",
+                        MatchType.WILDCARD)
+                .build();
+        AuthorizationContext authContext = AuthorizationContext.Builder.create()
+                .setClaims(new Claims.Builder().setSubject("/core/authz/users/test").getResult())
+                .setResourceQueryFilterMap(Collections.singletonMap(Action.GET,
+                        QueryFilter.create(query)))
+                .getResult();
+
+        SearchResult page = index.search("*mysql*", null, false, authContext, 0,
+                Integer.MAX_VALUE);
+        assertEquals(2, page.totalCount);
+        assertEquals(Arrays.asList("MySQL", "mysql-cluster"), getNames(page.templates));
+
+        // a caller without resource queries reads no templates
+        authContext = AuthorizationContext.Builder.create()
+                .setClaims(new Claims.Builder().setSubject("/core/authz/users/test").getResult())
+                .getResult();
+        assertTrue(index.search("*mysql*", null, false, authContext, 0, Integer.MAX_VALUE)
+                .templates.isEmpty());
+    }
+
+    @Test
+    public void testWildcardPattern() {
+        assertTrue(new WildcardPattern("*sql*").matches("mysql-cluster"));
+        assertTrue(new WildcardPattern("my*er").matches("mysql-cluster"));
+        assertTrue(new WildcardPattern("my*").matches("my"));
+        assertFalse(new WildcardPattern("my*er").matches("mysql"));
+        assertFalse(new WildcardPattern("ab*ba").matches("aba"));
+        assertTrue(new WildcardPattern("mysql").matches("mysql"));
+        assertFalse(new WildcardPattern("mysql").matches("mysql-cluster"));
+    }
+
+    private List<TemplateSpec> search(String query, List<String> tenantLinks,
+            boolean templatesParentOnly) {
+        return index.search(query, tenantLinks, templatesParentOnly, null, 0,
+                Integer.MAX_VALUE).templates;
+    }
+
+    private static List<String> getNames(List<TemplateSpec> templates) {
+        List<String> names = new ArrayList<>();
+        for (TemplateSpec template : templates) {
+            names.add(template.name);
+        }
+        return names;
+    }
+
+    private static ContainerDescription createContainerDescription(String id, String image) {
+        ContainerDescription description = new ContainerDescription();
+        description.documentSelfLink = ContainerDescriptionService.FACTORY_LINK + "/" + id;
+        description.name = id;
+        description.image = image;
+        return description;
+    }
+
+    private static CompositeDescription createCompositeDescription(String id, String name,
+            List<String> tenantLinks, String... containerIds) {
+        CompositeDescription description = new CompositeDescription();
+        description.documentSelfLink = CompositeDescriptionFactoryService.SELF_LINK + "/" + id;
+        description.name = name;
+        description.tenantLinks = tenantLinks;
+        description.descriptionLinks = new ArrayList<>();
+        for (String containerId : containerIds) {
+            description.descriptionLinks.add(ContainerDescriptionService.FACTORY_LINK + "/"
+                    + containerId);
+        }
+        return description;
+    }
+}
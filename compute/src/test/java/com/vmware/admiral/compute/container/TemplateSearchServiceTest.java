@@ -202,6 +202,36 @@ public class TemplateSearchServiceTest extends ComputeBaseTest {
         verifyTemplateSearchResult(TEST_COMMON);
     }
 
+    @Test
+    public void testRankedAndPagedResults() throws Throwable {
+        createNamedCompositeDescription("mysql-cluster");
+        createNamedCompositeDescription("MySQL");
+
+        verifyTemplateSearchResult(TEST_CONTAINER_DESC_NAME, Collections.emptyList(), (o) -> {
+            Response response = o.getBody(Response.class);
+            assertEquals(Arrays.asList("MySQL", "mysql-cluster", TEST_COMPOSITE_DESC_NAME),
+                    getNames(response));
+        });
+
+        verifyTemplateSearchResult(TEST_CONTAINER_DESC_NAME, Arrays.asList(
+                UriUtils.URI_PARAM_ODATA_SKIP, "1", UriUtils.URI_PARAM_ODATA_TOP, "1"), (o) -> {
+                    Response response = o.getBody(Response.class);
+                    assertEquals(Collections.singletonList("mysql-cluster"),
+                            getNames(response));
+                });
+    }
+
+    @Test
+    public void testSearchReflectsUpdatedTemplates() throws Throwable {
+        verifyTemplateSearchResult(TEST_COMPOSITE_DESC_NAME);
+
+        String link = createNamedCompositeDescription("wordpress-single");
+        waitFor(() -> searchNames("wordpress").contains("wordpress-single"));
+
+        doDelete(UriUtils.buildUri(host, link), false);
+        waitFor(() -> !searchNames("wordpress").contains("wordpress-single"));
+    }
+
     @Test
     public void testImagesOnlyDoesntReturnCompositeDesc() throws Throwable {
         verifyTemplateSearchResult(TEST_COMPOSITE_DESC_NAME, false, false, true, false,
@@ -257,6 +287,43 @@ public class TemplateSearchServiceTest extends ComputeBaseTest {
 
     }
 
+    private void verifyTemplateSearchResult(String query, List<String> extraParams,
+            Consumer<Operation> verification) throws Throwable {
+        List<String> keyValues = new ArrayList<>(Arrays.asList(
+                TemplateSearchService.TEMPLATES_ONLY_PARAM, Boolean.TRUE.toString(),
+                TemplateSearchService.QUERY_PARAM, query));
+        keyValues.addAll(extraParams);
+
+        URI templateSearchUri = UriUtils.extendUriWithQuery(
+                UriUtils.buildUri(host, TemplateSearchService.SELF_LINK),
+                keyValues.toArray(new String[keyValues.size()]));
+
+        verifyOperation(Operation.createGet(templateSearchUri), verification);
+    }
+
+    private List<String> searchNames(String query) throws Throwable {
+        List<String> names = new ArrayList<>();
+        verifyTemplateSearchResult(query, Collections.emptyList(),
+                (o) -> names.addAll(getNames(o.getBody(Response.class))));
+        return names;
+    }
+
+    private static List<String> getNames(Response response) {
+        List<String> names = new ArrayList<>();
+        for (TemplateSpec template : response.results) {
+            names.add(template.name);
+        }
+        return names;
+    }
+
+    private String createNamedCompositeDescription(String name) throws Throwable {
+        CompositeDescription compositeDesc = new CompositeDescription();
+        compositeDesc.name = name;
+        compositeDesc.descriptionLinks = Collections.singletonList(containerDescSelfLink);
+        return doPost(compositeDesc, CompositeDescriptionFactoryService.SELF_LINK)
+                .documentSelfLink;
+    }
+
     private void createContainerDescription(boolean cloned) throws Throwable {
         ContainerDescription containerDesc = new ContainerDescription();
         containerDesc.documentSelfLink = TEST_CONTAINER_DESC_NAME;
@@ -449,6 +449,28 @@ public class CompositeTemplateUtilTest {
         }
     }
 
+    @Test
+    public void testGetYamlTypeWithDocumentSeparators() throws IOException {
+        String compose = "version: '2'\nservices:\n  web:\n    image: nginx\n";
+        String otherCompose = "version: '2'\nservices:\n  db:\n    image: redis\n";
+
+        // a single separator doesn't make a multi YAML, only the first document is checked
+        assertEquals(YamlType.DOCKER_COMPOSE, getYamlType(compose + "---\n" + otherCompose));
+        assertEquals(YamlType.DOCKER_COMPOSE, getYamlType("---\n" + compose));
+
+        String[] multiYamls = new String[] {
+                "---\n" + compose + "---\n" + otherCompose,
+                "---\n" + compose + "---\n" };
+        for (String multiYaml : multiYamls) {
+            try {
+                getYamlType(multiYaml);
+                fail("Multiple YAML definitions should fail!");
+            } catch (LocalizableValidationException e) {
+                assertTrue(e.getMessage().startsWith("Multiple YAML definitions"));
+            }
+        }
+    }
+
     @Test
     public void testDeserializeSerializeComplexCompositeTemplate() throws IOException {
 
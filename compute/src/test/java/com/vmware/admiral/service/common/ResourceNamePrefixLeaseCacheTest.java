@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.service.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.ComputeBaseTest;
+import com.vmware.admiral.service.common.ResourceNamePrefixService.ResourceNamePrefixState;
+import com.vmware.xenon.common.test.TestContext;
+
+public class ResourceNamePrefixLeaseCacheTest extends ComputeBaseTest {
+
+    private ResourceNamePrefixLeaseCache cache;
+
+    @Before
+    public void setUp() throws Throwable {
+        waitForServiceAvailability(ResourceNamePrefixService.FACTORY_LINK);
+        cache = new ResourceNamePrefixLeaseCache(10, 60000, 60000);
+    }
+
+    @Test
+    public void testPrefixesAreHandedOutFromLeasedBlock() throws Throwable {
+        ResourceNamePrefixState state = doPost(createResourceNamePrefixState(2),
+                ResourceNamePrefixService.FACTORY_LINK);
+
+        assertEquals(Arrays.asList("ABC2", "ABC3", "ABC4"), allocate(state, 3));
+        assertEquals(Arrays.asList("ABC5", "ABC6"), allocate(state, 2));
+
+        // a single block of numbers is leased for both allocations
+        state = getDocument(ResourceNamePrefixState.class, state.documentSelfLink);
+        assertEquals(12, state.currentCount);
+
+        // the numbers left in the block don't suffice so a new block is leased
+        assertEquals(8, allocate(state, 8).size());
+        state = getDocument(ResourceNamePrefixState.class, state.documentSelfLink);
+        assertEquals(22, state.currentCount);
+    }
+
+    @Test
+    public void testLeaseIsLimitedToTheRangeOfThePrefix() throws Throwable {
+        ResourceNamePrefixState state = doPost(createResourceNamePrefixState(994),
+                ResourceNamePrefixService.FACTORY_LINK);
+
+        assertEquals(Arrays.asList("ABC994", "ABC995"), allocate(state, 2));
+        state = getDocument(ResourceNamePrefixState.class, state.documentSelfLink);
+        assertEquals(996, state.currentCount);
+    }
+
+    @Test
+    public void testPrefixLinksAreCachedUntilInvalidated() throws Throwable {
+        // the prefix services invalidate the shared instance
+        cache = ResourceNamePrefixLeaseCache.getInstance();
+        List<String> tenantLinks = Collections.singletonList("/tenants/lease-cache");
+        List<String> links = getPrefixLinks(tenantLinks);
+
+        ResourceNamePrefixState state = createResourceNamePrefixState(2);
+        state.tenantLinks = tenantLinks;
+        state = doPost(state, ResourceNamePrefixService.FACTORY_LINK);
+        assertFalse(links.contains(state.documentSelfLink));
+
+        // the prefix created on this node invalidated the cached links
+        assertTrue(getPrefixLinks(tenantLinks).contains(state.documentSelfLink));
+
+        cache.invalidate(state.documentSelfLink);
+        assertTrue(getPrefixLinks(tenantLinks).contains(state.documentSelfLink));
+    }
+
+    @Test
+    public void testLeaseIsDroppedWhenPrefixChangesOnAnotherNode() throws Throwable {
+        // the cache of this test is not invalidated by the prefix services, like on other nodes
+        List<String> tenantLinks = Collections.singletonList("/tenants/changed-prefix");
+        ResourceNamePrefixState state = createResourceNamePrefixState(2);
+        state.tenantLinks = tenantLinks;
+        state = doPost(state, ResourceNamePrefixService.FACTORY_LINK);
+        assertEquals(Arrays.asList("ABC2", "ABC3"), allocate(state, 2));
+
+        state = getDocument(ResourceNamePrefixState.class, state.documentSelfLink);
+        state.prefix = "XYZ";
+        doPut(state);
+        assertEquals(Collections.singletonList("ABC4"), allocate(state, 1));
+
+        // querying the prefix links reveals the changed prefix
+        assertTrue(getPrefixLinks(tenantLinks).contains(state.documentSelfLink));
+        List<String> prefixes = allocate(state, 1);
+        assertTrue(prefixes.toString(), prefixes.get(0).startsWith("XYZ"));
+    }
+
+    @Test
+    public void testExpiredLeaseIsDropped() throws Throwable {
+        cache = new ResourceNamePrefixLeaseCache(10, 60000, 0);
+        ResourceNamePrefixState state = doPost(createResourceNamePrefixState(2),
+                ResourceNamePrefixService.FACTORY_LINK);
+
+        assertEquals(Collections.singletonList("ABC2"), allocate(state, 1));
+        // the numbers left are not used once the lease expired
+        assertEquals(Collections.singletonList("ABC12"), allocate(state, 1));
+        state = getDocument(ResourceNamePrefixState.class, state.documentSelfLink);
+        assertEquals(22, state.currentCount);
+    }
+
+    private List<String> allocate(ResourceNamePrefixState state, long count) {
+        List<String> result = new ArrayList<>();
+        TestContext ctx = testCreate(1);
+        cache.allocate(host, state.documentSelfLink, count, (prefixes, e) -> {
+            if (e != null) {
+                ctx.failIteration(e);
+                return;
+            }
+            result.addAll(prefixes);
+            ctx.completeIteration();
+        });
+        ctx.await();
+        return result;
+    }
+
+    private List<String> getPrefixLinks(List<String> tenantLinks) {
+        List<String> result = new ArrayList<>();
+        TestContext ctx = testCreate(1);
+        cache.getPrefixLinks(host, tenantLinks, (links, e) -> {
+            if (e != null) {
+                ctx.failIteration(e);
+                return;
+            }
+            result.addAll(links);
+            ctx.completeIteration();
+        });
+        ctx.await();
+        return result;
+    }
+
+    private static ResourceNamePrefixState createResourceNamePrefixState(long nextNumber) {
+        ResourceNamePrefixState state = new ResourceNamePrefixState();
+        state.prefix = "ABC";
+        state.numberOfDigits = 3;
+        state.nextNumber = nextNumber;
+        state.addRandomToken = false;
+        return state;
+    }
+}
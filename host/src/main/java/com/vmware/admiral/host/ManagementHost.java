@@ -31,6 +31,10 @@ import com.vmware.admiral.auth.project.ProjectService;
 import com.vmware.admiral.auth.util.AuthUtil;
 import com.vmware.admiral.common.util.ConfigurationUtil;
 import com.vmware.admiral.common.util.ServerX509TrustManager;
+import com.vmware.admiral.compute.EpzComputeEnumerationTaskService;
+import com.vmware.admiral.compute.PlacementCapacityUpdateTaskService;
+import com.vmware.admiral.compute.container.TemplateSearchService;
+import com.vmware.admiral.compute.endpoint.EndpointHealthCheckTaskService;
 import com.vmware.admiral.host.interceptor.AuthCredentialsInterceptor;
 import com.vmware.admiral.host.interceptor.ComputePlacementZoneInterceptor;
 import com.vmware.admiral.host.interceptor.EndpointInterceptor;
@@ -44,10 +48,13 @@ import com.vmware.admiral.host.interceptor.SchedulerPlacementZoneInterceptor;
 import com.vmware.admiral.request.ContainerLoadBalancerBootstrapService;
 import com.vmware.admiral.service.common.AuthBootstrapService;
 import com.vmware.admiral.service.common.ConfigurationService;
+import com.vmware.admiral.service.common.ConfigurationService.ConfigurationFactoryService;
 import com.vmware.admiral.service.common.ConfigurationService.ConfigurationState;
 import com.vmware.admiral.service.common.ExtensibilitySubscriptionManager;
 import com.vmware.admiral.service.common.NodeMigrationService;
+import com.vmware.admiral.service.common.RegistryService;
 import com.vmware.admiral.service.common.harbor.HostInitHarborServices;
+import com.vmware.photon.controller.model.resources.ComputeDescriptionService;
 import com.vmware.photon.controller.model.security.util.CertificateUtil;
 import com.vmware.xenon.common.CommandLineArgumentParser;
 import com.vmware.xenon.common.FactoryService;
@@ -167,11 +174,18 @@ public class ManagementHost extends ServiceHost implements IExtensibilityRegistr
 
         log(Level.INFO, "**** Management host starting ... ****");
 
-        startFabricServices();
-        startManagementServices();
-        startClosureServices(this, startMockHostAdapterInstance);
-        startLoadBalancerServices(this);
-        startSwaggerService();
+        new HostStartupGraph(this)
+                .add("fabric", this::startFabricServices)
+                .add("management", this::startManagementServices)
+                .add("closure", () -> startClosureServices(this, startMockHostAdapterInstance))
+                .add("loadBalancer", () -> startLoadBalancerServices(this))
+                // describes the services started by the other steps
+                .add("swagger", this::startSwaggerService, "fabric", "management", "closure",
+                        "loadBalancer")
+                .provides("fabric", ComputeDescriptionService.FACTORY_LINK)
+                // the container host service creates the default host descriptions on start
+                .requires("management", ComputeDescriptionService.FACTORY_LINK)
+                .start();
 
         log(Level.INFO, "**** Management host started. ****");
 
@@ -268,15 +282,37 @@ public class ManagementHost extends ServiceHost implements IExtensibilityRegistr
         registerForServiceAvailability(ContainerLoadBalancerBootstrapService.startTask(this), true,
                 ContainerLoadBalancerBootstrapService.FACTORY_LINK);
 
-        HostInitComputeServicesConfig.startServices(this, false);
-        HostInitComputeBackgroundServicesConfig.startServices(this);
-        HostInitRequestServicesConfig.startServices(this);
-        HostInitImageServicesConfig.startServices(this);
-        HostInitUiServicesConfig.startServices(this);
-        HostInitHarborServices.startServices(this, startMockHostAdapterInstance);
-        HostInitDockerAdapterServiceConfig.startServices(this, startMockHostAdapterInstance);
-        HostInitKubernetesAdapterServiceConfig.startServices(this, startMockHostAdapterInstance);
-        HostInitRegistryAdapterServiceConfig.startServices(this);
+        // the service sets not depending on each other are started concurrently
+        new HostStartupGraph(this)
+                .add("compute", () -> HostInitComputeServicesConfig.startServices(this, false))
+                .add("computeBackground",
+                        () -> HostInitComputeBackgroundServicesConfig.startServices(this))
+                .add("request", () -> HostInitRequestServicesConfig.startServices(this))
+                .add("image", () -> HostInitImageServicesConfig.startServices(this))
+                .add("ui", () -> HostInitUiServicesConfig.startServices(this))
+                .add("harbor", () -> HostInitHarborServices.startServices(this,
+                        startMockHostAdapterInstance))
+                .add("dockerAdapter", () -> HostInitDockerAdapterServiceConfig.startServices(this,
+                        startMockHostAdapterInstance))
+                .add("kubernetesAdapter", () -> HostInitKubernetesAdapterServiceConfig
+                        .startServices(this, startMockHostAdapterInstance))
+                .add("registryAdapter",
+                        () -> HostInitRegistryAdapterServiceConfig.startServices(this))
+                .provides("compute", EpzComputeEnumerationTaskService.FACTORY_LINK,
+                        PlacementCapacityUpdateTaskService.FACTORY_LINK,
+                        EndpointHealthCheckTaskService.FACTORY_LINK)
+                // the periodic services trigger the compute tasks once they are started
+                .requires("computeBackground", EpzComputeEnumerationTaskService.FACTORY_LINK,
+                        PlacementCapacityUpdateTaskService.FACTORY_LINK,
+                        EndpointHealthCheckTaskService.FACTORY_LINK)
+                // the popular images, the image icons, the default Harbor registry and the
+                // registry proxy settings are read from the configuration on start
+                .requires("image", ConfigurationFactoryService.SELF_LINK)
+                .requires("ui", ConfigurationFactoryService.SELF_LINK)
+                .requires("harbor", ConfigurationFactoryService.SELF_LINK,
+                        RegistryService.FACTORY_LINK, ServiceUriPaths.CORE_CREDENTIALS)
+                .requires("registryAdapter", ConfigurationFactoryService.SELF_LINK)
+                .start();
 
         this.log(Level.INFO, "Management services started.");
     }
@@ -417,6 +453,10 @@ public class ManagementHost extends ServiceHost implements IExtensibilityRegistr
         // authorization token from a repository (Harbor may misbehave with it).
         addPrivilegedService(RegistryAdapterService.class);
 
+        // TemplateSearchService needs to be privileged to load its node-wide index with the
+        // system authorization context, it filters the results by the caller's authorization.
+        addPrivilegedService(TemplateSearchService.class);
+
         if (AuthUtil.useAuthConfig(this)) {
 
             Service authService = authProvider.getAuthenticationService();
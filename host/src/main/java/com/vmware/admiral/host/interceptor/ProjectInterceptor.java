@@ -13,7 +13,6 @@ package com.vmware.admiral.host.interceptor;
 
 import java.util.ArrayList;
 
-import com.vmware.admiral.auth.util.SecurityContextUtil;
 import com.vmware.admiral.closures.services.closure.ClosureService;
 import com.vmware.admiral.closures.services.closuredescription.ClosureDescriptionService;
 import com.vmware.admiral.common.util.OperationUtil;
@@ -73,40 +72,54 @@ public class ProjectInterceptor {
 
     public static DeferredResult<Void> handleFactoryOp(Service service, Operation op) {
         if (op.getAction() != Action.POST) {
-            return DeferredResult.completed(null);
+            return null;
         }
-        return handleClusterServiceOp(service, op)
-                .thenCompose(ignore -> setProjectLinkAsTenantLink(service, op));
+        return handleProjectOp(service, op);
     }
 
     public static DeferredResult<Void> handleServiceOp(Service service, Operation op) {
         if (op.getAction() == Action.GET) {
-            return DeferredResult.completed(null);
+            return null;
         }
-
-        return handleClusterServiceOp(service, op)
-                .thenCompose(ignore -> setProjectLinkAsTenantLink(service, op));
+        return handleProjectOp(service, op);
     }
 
-    private static DeferredResult<Void> setProjectLinkAsTenantLink(Service service, Operation op) {
+    /**
+     * Operations outside of a project are not intercepted. Others are checked and updated right
+     * away, unless the security context of the user has to be resolved first.
+     */
+    private static DeferredResult<Void> handleProjectOp(Service service, Operation op) {
         String projectLink = OperationUtil.extractProjectFromHeader(op);
-        ResourceState state = extractResourceState(service, op);
-        if (state != null) {
-            handleResourceState(state, projectLink, op);
-            return DeferredResult.completed(null);
+        if (projectLink == null || projectLink.isEmpty()) {
+            return null;
         }
 
-        MultiTenantDocument multiTenantDocument = extractMultiTenantState(service, op);
-        if (multiTenantDocument != null) {
-            handleMultiTenantState(multiTenantDocument, projectLink, op);
-            return DeferredResult.completed(null);
+        DeferredResult<Void> authorization = handleClusterServiceOp(service, op, projectLink);
+        if (authorization == null) {
+            setProjectLinkAsTenantLink(service, op, projectLink);
+            return null;
         }
+        return authorization.thenAccept(
+                ignore -> setProjectLinkAsTenantLink(service, op, projectLink));
+    }
 
-        ContainerHostSpec hostSpec = extractContainerHostSpec(op);
-        if (hostSpec != null) {
-            handleContainerHostSpec(hostSpec, projectLink, op);
+    private static void setProjectLinkAsTenantLink(Service service, Operation op,
+            String projectLink) {
+        if (!op.hasBody()) {
+            return;
+        }
+
+        ServiceDocument state = op.getBody(service.getStateType());
+        if (state instanceof ResourceState) {
+            handleResourceState((ResourceState) state, projectLink, op);
+        } else if (state instanceof MultiTenantDocument) {
+            handleMultiTenantState((MultiTenantDocument) state, projectLink, op);
+        } else {
+            ContainerHostSpec hostSpec = op.getBody(ContainerHostSpec.class);
+            if (hostSpec != null) {
+                handleContainerHostSpec(hostSpec, projectLink, op);
+            }
         }
-        return DeferredResult.completed(null);
     }
 
     private static void handleResourceState(ResourceState state, String projectLink, Operation op) {
@@ -150,57 +163,18 @@ public class ProjectInterceptor {
         }
     }
 
-    private static ResourceState extractResourceState(Service service, Operation o) {
-        if (!o.hasBody()) {
-            return null;
-        }
-
-        ServiceDocument state = o.getBody(service.getStateType());
-
-        if (state instanceof ResourceState) {
-            return (ResourceState) state;
-        }
-        return null;
-    }
-
-    private static MultiTenantDocument extractMultiTenantState(Service service, Operation o) {
-        if (!o.hasBody()) {
-            return null;
-        }
-
-        ServiceDocument state = o.getBody(service.getStateType());
-
-        if (state instanceof MultiTenantDocument) {
-            return (MultiTenantDocument) state;
-        }
-        return null;
-    }
-
-    private static ContainerHostSpec extractContainerHostSpec(Operation o) {
-        if (!o.hasBody()) {
-            return null;
-        }
-
-        return o.getBody(ContainerHostSpec.class);
-    }
-
-    private static DeferredResult<Void> handleClusterServiceOp(Service service, Operation op) {
+    private static DeferredResult<Void> handleClusterServiceOp(Service service, Operation op,
+            String projectLink) {
         // In case of authn is not enabled do not check for authorization.
         if (!service.getHost().isAuthorizationEnabled()) {
-            return DeferredResult.completed(null);
+            return null;
         }
 
         if (!(service instanceof ClusterService)) {
-            return DeferredResult.completed(null);
-        }
-
-        String projectLink = OperationUtil.extractProjectFromHeader(op);
-
-        if (projectLink == null || projectLink.isEmpty()) {
-            return DeferredResult.completed(null);
+            return null;
         }
 
-        return SecurityContextUtil.getSecurityContextForCurrentUser(service)
+        return SecurityContextCache.get(service, op)
                 .thenCompose(sc -> {
                     if (sc.isCloudAdmin()) {
                         return DeferredResult.completed(null);
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.host.interceptor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.admiral.auth.idm.SecurityContext;
+import com.vmware.admiral.auth.util.AuthUtil;
+import com.vmware.admiral.auth.util.PrincipalRolesUtil;
+import com.vmware.admiral.auth.util.SecurityContextUtil;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceHost;
+
+/**
+ * Node-local cache of the security contexts checked by the operation interceptors. An entry is
+ * valid for as long as the cached principal roles of the host are, see
+ * {@link PrincipalRolesUtil#getCachedRolesGeneration(ServiceHost)}, but no longer than the max
+ * age, since the groups of a user may change in the identity provider as well.
+ */
+final class SecurityContextCache {
+
+    static final int MAX_SIZE = Integer.getInteger(
+            "com.vmware.admiral.host.interceptor.security.context.cache.max.size", 1000);
+
+    static final long MAX_AGE_MILLIS = Long.getLong(
+            "com.vmware.admiral.host.interceptor.security.context.cache.max.age.millis",
+            TimeUnit.MINUTES.toMillis(1));
+
+    private static class CacheEntry {
+        final SecurityContext securityContext;
+        final long rolesGeneration;
+        final long expirationTimeMillis;
+
+        CacheEntry(SecurityContext securityContext, long rolesGeneration) {
+            this.securityContext = securityContext;
+            this.rolesGeneration = rolesGeneration;
+            this.expirationTimeMillis = System.currentTimeMillis() + MAX_AGE_MILLIS;
+        }
+    }
+
+    private static final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private SecurityContextCache() {
+    }
+
+    /**
+     * Returns the security context of the user of the given operation. The returned context is
+     * shared and must not be modified.
+     */
+    static DeferredResult<SecurityContext> get(Service service, Operation op) {
+        ServiceHost host = service.getHost();
+        String userId = AuthUtil.getAuthorizedUserId(op.getAuthorizationContext());
+        // read before resolving the context, so that changes made meanwhile are not missed
+        long rolesGeneration = PrincipalRolesUtil.getCachedRolesGeneration(host);
+        if (MAX_SIZE <= 0 || userId == null || rolesGeneration < 0) {
+            return SecurityContextUtil.getSecurityContextForCurrentUser(service);
+        }
+
+        String key = host.getId() + ":" + userId;
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null && entry.rolesGeneration == rolesGeneration
+                    && entry.expirationTimeMillis > System.currentTimeMillis()) {
+                return DeferredResult.completed(entry.securityContext);
+            }
+        }
+
+        return SecurityContextUtil.getSecurityContextForCurrentUser(service)
+                .thenApply(securityContext -> {
+                    synchronized (entries) {
+                        entries.put(key, new CacheEntry(securityContext, rolesGeneration));
+                    }
+                    return securityContext;
+                });
+    }
+}
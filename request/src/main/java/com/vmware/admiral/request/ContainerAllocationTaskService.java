@@ -869,10 +869,6 @@ public class ContainerAllocationTaskService extends
             return;
         }
 
-        AtomicInteger expectedSuccessfulHealthCheckCount = new AtomicInteger(
-                state.resourceLinks.size());
-        AtomicBoolean proceededToError = new AtomicBoolean(false);
-
         if (this.containerDescription.healthConfig == null) {
             logInfo("Skipping health check. No health config set.");
             proceedTo(SubStage.COMPLETED);
@@ -900,35 +896,69 @@ public class ContainerAllocationTaskService extends
                     this.healthCheckTimeout = propsMap.get(HEALTH_CHECK_TIMEOUT_PARAM_NAME);
                     this.healthCheckDelay = propsMap.get(HEALTH_CHECK_DELAY_PARAM_NAME);
 
-                    Iterator<String> it = state.resourceLinks.iterator();
-                    while (it.hasNext()) {
-                        String resourceLink = it.next();
-                        fetchContainerState(resourceLink, (cs) -> {
-                            doHealthCheck(state, cs, expectedSuccessfulHealthCheckCount,
-                                    proceededToError, System.currentTimeMillis());
-                        });
-                    }
+                    subscribeForHealthCheck(state);
                 });
     }
 
-    private void doHealthCheck(ContainerAllocationTaskState state, ContainerState containerState,
-            AtomicInteger expectedSuccessfulHealthCheckCount, AtomicBoolean proceededToError,
-            long startTime) {
+    /**
+     * Registers a one-shot healthy callback with the {@link HealthChecker} for each provisioned
+     * container and proceeds as soon as the last of them reports healthy. Active health checks
+     * are still issued, so that the containers are checked even if no periodic maintenance runs,
+     * but any successful check (including the maintenance ones) completes the wait immediately.
+     * A single timer fails the task if the containers don't become healthy in time.
+     */
+    private void subscribeForHealthCheck(ContainerAllocationTaskState state) {
+        AtomicInteger expectedSuccessfulHealthCheckCount = new AtomicInteger(
+                state.resourceLinks.size());
+        AtomicBoolean finished = new AtomicBoolean(false);
+        Map<String, AtomicBoolean> healthyContainers = new HashMap<>();
+        Map<String, Runnable> healthyCallbacks = new HashMap<>();
+
+        for (String resourceLink : state.resourceLinks) {
+            AtomicBoolean healthy = new AtomicBoolean(false);
+            healthyContainers.put(resourceLink, healthy);
+            healthyCallbacks.put(resourceLink, () -> {
+                if (healthy.compareAndSet(false, true)
+                        && expectedSuccessfulHealthCheckCount.decrementAndGet() == 0
+                        && finished.compareAndSet(false, true)) {
+                    proceedTo(SubStage.COMPLETED);
+                }
+            });
+        }
 
-        if ((System.currentTimeMillis() - startTime) > this.healthCheckTimeout) {
-            logWarning("Health check timeout exceeded.");
+        healthyCallbacks.forEach(HealthChecker.getInstance()::onHealthy);
 
-            if (proceededToError.get()) {
+        getHost().schedule(() -> {
+            if (!finished.compareAndSet(false, true)) {
                 return;
             }
 
-            proceededToError.set(true);
+            healthyCallbacks.forEach(HealthChecker.getInstance()::removeHealthyCallback);
+
+            List<String> unhealthyLinks = healthyContainers.entrySet().stream()
+                    .filter(e -> !e.getValue().get())
+                    .map(Entry::getKey)
+                    .collect(Collectors.toList());
+            logWarning("Health check timeout exceeded for: %s", unhealthyLinks);
+
             proceedTo(SubStage.ERROR, (s) -> {
                 s.taskInfo.failure = Utils.toServiceErrorResponse(
                         new Exception(String.format("Health check failed for %s",
-                                containerState.documentSelfLink)));
+                                unhealthyLinks)));
             });
+        }, this.healthCheckTimeout, TimeUnit.MILLISECONDS);
 
+        for (String resourceLink : state.resourceLinks) {
+            fetchContainerState(resourceLink, (cs) -> {
+                doHealthCheck(cs, healthyContainers.get(resourceLink),
+                        healthyCallbacks.get(resourceLink), finished);
+            });
+        }
+    }
+
+    private void doHealthCheck(ContainerState containerState, AtomicBoolean healthy,
+            Runnable healthyCallback, AtomicBoolean finished) {
+        if (healthy.get() || finished.get()) {
             return;
         }
 
@@ -936,18 +966,19 @@ public class ContainerAllocationTaskService extends
                 this.containerDescription.healthConfig, (containerStats) -> {
                     if (containerStats != null
                             && Boolean.TRUE.equals(containerStats.healthCheckSuccess)) {
-                        if (expectedSuccessfulHealthCheckCount.decrementAndGet() == 0) {
-                            proceedTo(SubStage.COMPLETED);
-                            return;
-                        }
-                    } else {
-                        logInfo("Scheduling health check for: %s", containerState.documentSelfLink);
-                        getHost().schedule(() -> {
-                            doHealthCheck(state, containerState,
-                                    expectedSuccessfulHealthCheckCount, proceededToError,
-                                    startTime);
-                        }, this.healthCheckDelay, TimeUnit.MILLISECONDS);
+                        // the callback is idempotent, the HealthChecker may have invoked it already
+                        healthyCallback.run();
+                        return;
                     }
+
+                    if (healthy.get() || finished.get()) {
+                        return;
+                    }
+
+                    logInfo("Scheduling health check for: %s", containerState.documentSelfLink);
+                    getHost().schedule(() -> {
+                        doHealthCheck(containerState, healthy, healthyCallback, finished);
+                    }, this.healthCheckDelay, TimeUnit.MILLISECONDS);
                 });
     }
 
@@ -12,6 +12,7 @@
 package com.vmware.admiral.request;
 
 import static com.vmware.admiral.common.util.AssertUtil.assertNotEmpty;
+import static com.vmware.admiral.common.util.AssertUtil.assertNotNull;
 import static com.vmware.admiral.compute.container.loadbalancer.ContainerLoadBalancers
         .CONTAINER_LOAD_BALANCER_DESCRIPTION_LINK;
 import static com.vmware.admiral.request.utils.RequestUtils.FIELD_NAME_CONTEXT_ID_KEY;
@@ -19,11 +20,19 @@ import static com.vmware.admiral.request.utils.RequestUtils.FIELD_NAME_CONTEXT_I
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -51,10 +60,8 @@ import com.vmware.admiral.request.ContainerLoadBalancerReconfigureTaskService
 import com.vmware.admiral.request.ContainerLoadBalancerReconfigureTaskService
         .ContainerLoadBalancerReconfigureTaskState.SubStage;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
-import com.vmware.admiral.service.common.ServiceTaskCallback;
 import com.vmware.xenon.common.Operation;
-import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
-import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
+import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.QueryTask;
@@ -70,26 +77,62 @@ public class ContainerLoadBalancerReconfigureTaskService extends
             .REQUEST_CONTAINER_LOAD_BALANCER_RECONFIG_TASKS;
 
     public static final String DISPLAY_NAME = "Load Balancer Reconfigure";
-    //cached load balancer description
-    private volatile Map<ContainerState, ContainerLoadBalancerDescription> loadBalancers;
-    private volatile CompositeComponent compositeComponent;
+
+    /**
+     * Delay before reconfiguring the load balancers of a composite component. Reconfiguration
+     * requests for the same composite component arriving meanwhile, e.g. during a scale up, are
+     * served by a single reconfiguration.
+     */
+    private static final long RECONFIGURE_DELAY_MILLIS = Long.getLong(
+            "com.vmware.admiral.request.load.balancer.reconfigure.delay.millis", 500);
+
+    // node-local reconfigurations of the load balancers, by composite component
+    private static final ConcurrentMap<String, Reconfiguration> reconfigurations =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Age after which a configuration pushed to a load balancer container is pushed again, even
+     * when it didn't change.
+     */
+    private static final long PUSHED_CONFIGURATION_MAX_AGE_MILLIS = Long.getLong(
+            "com.vmware.admiral.request.load.balancer.pushed.config.max.age.millis",
+            TimeUnit.HOURS.toMillis(1));
+
+    // node-local configurations pushed to the load balancer containers, by link
+    private static final ConcurrentMap<String, PushedConfiguration> pushedConfigurations =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Reconfiguration requests waiting for the next reconfiguration of the load balancers of a
+     * composite component. A single reconfiguration per composite component runs at a time.
+     */
+    private static class Reconfiguration {
+        final List<Consumer<Throwable>> waiters = new ArrayList<>();
+        boolean scheduled;
+        boolean running;
+    }
+
+    private static class PushedConfiguration {
+        final String reconfigurationKey;
+        final String configHash;
+        final long pushedMillis;
+
+        PushedConfiguration(String reconfigurationKey, String configHash) {
+            this.reconfigurationKey = reconfigurationKey;
+            this.configHash = configHash;
+            this.pushedMillis = System.currentTimeMillis();
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - pushedMillis
+                    > PUSHED_CONFIGURATION_MAX_AGE_MILLIS;
+        }
+    }
 
     public static class ContainerLoadBalancerReconfigureTaskState extends
             com.vmware.admiral.service.common
                     .TaskServiceDocument<ContainerLoadBalancerReconfigureTaskState.SubStage> {
 
-        /**
-         * Addresses according to which the service links in ContainerLoadBalancerDescription will
-         * be resolved and expanded in every load balancer of the composite component
-         */
-        @Documentation(
-                description = "Addresses according to which the service links in " +
-                        "ContainerLoadBalancerDescription will be resolved and expanded in every " +
-                        "load balancer of the composite component")
-        @PropertyOptions(indexing = PropertyIndexingOption.STORE_ONLY, usage = {
-                PropertyUsageOption.SERVICE_USE, PropertyUsageOption.AUTO_MERGE_IF_NOT_NULL})
-        public Map<String, List<String>> serviceLinksExpanded;
-
         /**
          * Will reconfigure all load balancer containers present in the composite component
          */
@@ -149,119 +192,295 @@ public class ContainerLoadBalancerReconfigureTaskService extends
     }
 
     private void reconfigure(ContainerLoadBalancerReconfigureTaskState state) {
-        state.serviceLinksExpanded = new HashMap<>();
-        loadBalancers = new HashMap<>();
-
-        getCompositeComponent(state, (component) -> {
-            List<String> containerLinks = component.componentLinks.stream()
-                    .filter(link -> link.startsWith(ContainerFactoryService.SELF_LINK))
-                    .collect(Collectors.toList());
-
-            QueryTask containerQueryTask = QueryUtil.buildQuery(ContainerState.class, true);
-
-            QueryUtil.addExpandOption(containerQueryTask);
-            QueryUtil.addListValueClause(containerQueryTask, ContainerState.FIELD_NAME_SELF_LINK,
-                    containerLinks);
-
-            new ServiceDocumentQuery<>(getHost(), ContainerState.class)
-                    .query(containerQueryTask,
-                            (r) -> {
-                                if (r.hasResult()) {
-                                    processContainer(state, r.getResult());
-                                } else {
-                                    if (r.hasException()) {
-                                        failTask("Failed to find container states of composite "
-                                                + "component", r.getException());
-                                    }
-                                    if (loadBalancers.isEmpty()) {
-                                        //nothing to reconfigure
-                                        proceedTo(SubStage.COMPLETED);
-                                    } else {
-                                        reconfigureLoadBalancers(state, loadBalancers, null);
-                                    }
-                                }
-                            });
+        String contextId = state.customProperties.get(FIELD_NAME_CONTEXT_ID_KEY);
+        joinReconfiguration(contextId, (e) -> {
+            if (e != null) {
+                failTask("Error while reconfiguring load balancers", e);
+            } else {
+                proceedTo(SubStage.COMPLETED);
+            }
         });
         proceedTo(SubStage.RECONFIGURE);
     }
 
-    private void processContainer(ContainerLoadBalancerReconfigureTaskState state, ContainerState
-            container) {
-        fetchContainerDescription(container.descriptionLink, (description) -> {
-            String loadBalancerDescription = description.customProperties ==
-                    null ?
-                    null :
-                    description.customProperties
-                            .get(CONTAINER_LOAD_BALANCER_DESCRIPTION_LINK);
-            if (loadBalancerDescription != null) {
-                sendRequest(Operation.createGet(this, loadBalancerDescription)
-                        .setCompletion((o, e) -> {
-                            if (e != null) {
-                                failTask("Failure retrieving container load balancer "
-                                        + "description", e);
-                                return;
-                            }
-                            loadBalancers.put(container, o.getBody
-                                    (ContainerLoadBalancerDescription.class));
-                        }));
-            } else {
-                List<String> serviceInstances = state.serviceLinksExpanded.get(description
-                        .name);
-                if (serviceInstances == null) {
-                    serviceInstances = new ArrayList<>();
-                    state.serviceLinksExpanded.put(description.name,
-                            serviceInstances);
+    private void joinReconfiguration(String contextId, Consumer<Throwable> waiter) {
+        String key = getHost().getId() + contextId;
+        boolean[] schedule = new boolean[] { false };
+        reconfigurations.compute(key, (k, reconfiguration) -> {
+            if (reconfiguration == null) {
+                reconfiguration = new Reconfiguration();
+            }
+            reconfiguration.waiters.add(waiter);
+            if (!reconfiguration.scheduled && !reconfiguration.running) {
+                reconfiguration.scheduled = true;
+                schedule[0] = true;
+            }
+            return reconfiguration;
+        });
+
+        if (schedule[0]) {
+            scheduleReconfiguration(contextId, key);
+        }
+    }
+
+    private void scheduleReconfiguration(String contextId, String key) {
+        getHost().schedule(() -> {
+            List<Consumer<Throwable>> waiters = new ArrayList<>();
+            reconfigurations.computeIfPresent(key, (k, reconfiguration) -> {
+                waiters.addAll(reconfiguration.waiters);
+                reconfiguration.waiters.clear();
+                reconfiguration.scheduled = false;
+                reconfiguration.running = true;
+                return reconfiguration;
+            });
+
+            AtomicBoolean done = new AtomicBoolean();
+            Consumer<Throwable> callback = (e) -> {
+                if (!done.compareAndSet(false, true)) {
+                    return;
                 }
-                assertNotEmpty(container.names, "names");
-                serviceInstances.add(container.names.get(0));
+                prunePushedConfigurations();
+
+                boolean[] schedule = new boolean[] { false };
+                reconfigurations.computeIfPresent(key, (k, reconfiguration) -> {
+                    reconfiguration.running = false;
+                    if (reconfiguration.waiters.isEmpty()) {
+                        return null;
+                    }
+                    // the requests made while reconfiguring are served by the next one
+                    reconfiguration.scheduled = true;
+                    schedule[0] = true;
+                    return reconfiguration;
+                });
+                if (schedule[0]) {
+                    scheduleReconfiguration(contextId, key);
+                }
+
+                waiters.forEach(w -> w.accept(e));
+            };
+
+            try {
+                reconfigureCompositeComponent(key, contextId, callback);
+            } catch (Throwable t) {
+                callback.accept(t);
+            }
+        }, RECONFIGURE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reconfigures all load balancer containers of the given composite component with the names
+     * of the containers of the services they balance. Failures, including the ones thrown while
+     * processing the retrieved documents, are passed to the callback.
+     */
+    private void reconfigureCompositeComponent(String key, String contextId,
+            Consumer<Throwable> callback) {
+        String compositeComponentLink = UriUtils
+                .buildUriPath(CompositeComponentFactoryService.SELF_LINK, contextId);
+        sendRequest(Operation.createGet(this, compositeComponentLink)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
+                            forgetPushedConfigurations(key, Collections.emptySet());
+                        }
+                        callback.accept(e);
+                        return;
+                    }
+
+                    try {
+                        CompositeComponent component = o.getBody(CompositeComponent.class);
+                        queryContainers(key, component, callback);
+                    } catch (Throwable t) {
+                        callback.accept(t);
+                    }
+                }));
+    }
+
+    private void queryContainers(String key, CompositeComponent component,
+            Consumer<Throwable> callback) {
+        List<String> containerLinks = component.componentLinks == null
+                ? Collections.emptyList()
+                : component.componentLinks.stream()
+                        .filter(link -> link.startsWith(ContainerFactoryService.SELF_LINK))
+                        .collect(Collectors.toList());
+        if (containerLinks.isEmpty()) {
+            // nothing to reconfigure
+            forgetPushedConfigurations(key, Collections.emptySet());
+            callback.accept(null);
+            return;
+        }
+
+        QueryTask containerQueryTask = QueryUtil.buildQuery(ContainerState.class, true);
+        QueryUtil.addExpandOption(containerQueryTask);
+        QueryUtil.addListValueClause(containerQueryTask,
+                ContainerState.FIELD_NAME_SELF_LINK, containerLinks);
+
+        List<ContainerState> containers = new ArrayList<>();
+        new ServiceDocumentQuery<>(getHost(), ContainerState.class)
+                .query(containerQueryTask, (r) -> {
+                    if (r.hasException()) {
+                        callback.accept(r.getException());
+                    } else if (r.hasResult()) {
+                        containers.add(r.getResult());
+                    } else {
+                        try {
+                            processContainers(key, containers, callback);
+                        } catch (Throwable t) {
+                            callback.accept(t);
+                        }
+                    }
+                });
+    }
+
+    private void processContainers(String key, List<ContainerState> containers,
+            Consumer<Throwable> callback) {
+        // the descriptions are retrieved once for all containers of a service
+        Set<String> descriptionLinks = containers.stream()
+                .map(c -> c.descriptionLink)
+                .collect(Collectors.toSet());
+        fetchDocuments(descriptionLinks, ContainerDescription.class, (descriptions, e) -> {
+            if (e != null) {
+                callback.accept(e);
+                return;
+            }
+
+            try {
+                processContainers(key, containers, descriptions, callback);
+            } catch (Throwable t) {
+                callback.accept(t);
             }
         });
     }
 
-    private void reconfigureLoadBalancers(ContainerLoadBalancerReconfigureTaskState state,
-                                          Map<ContainerState, ContainerLoadBalancerDescription>
-                                                  loadBalancers,
-                                          ServiceTaskCallback taskCallback) {
-        if (taskCallback == null) {
-            createCounterSubTaskCallback(state, loadBalancers.size(), false,
-                    SubStage.COMPLETED,
-                    (serviceTask) -> reconfigureLoadBalancers(state, loadBalancers, serviceTask));
+    private void processContainers(String key, List<ContainerState> containers,
+            Map<String, ContainerDescription> descriptions, Consumer<Throwable> callback) {
+        Map<String, List<String>> serviceLinksExpanded = new HashMap<>();
+        Map<ContainerState, String> loadBalancers = new HashMap<>();
+        for (ContainerState container : containers) {
+            ContainerDescription description = descriptions.get(container.descriptionLink);
+            assertNotNull(description, "description");
+            String loadBalancerDescriptionLink = description.customProperties == null
+                    ? null
+                    : description.customProperties.get(CONTAINER_LOAD_BALANCER_DESCRIPTION_LINK);
+            if (loadBalancerDescriptionLink != null) {
+                loadBalancers.put(container, loadBalancerDescriptionLink);
+            } else {
+                assertNotEmpty(container.names, "names");
+                serviceLinksExpanded.computeIfAbsent(description.name,
+                        k -> new ArrayList<>()).add(container.names.get(0));
+            }
+        }
+
+        // configurations of the load balancer containers removed since are not needed anymore
+        forgetPushedConfigurations(key, loadBalancers.keySet().stream()
+                .map(lb -> lb.documentSelfLink)
+                .collect(Collectors.toSet()));
+
+        if (loadBalancers.isEmpty()) {
+            // nothing to reconfigure
+            callback.accept(null);
             return;
         }
 
-        loadBalancers.forEach((containerState, description) -> {
-            reconfigureLoadBalancer(state, containerState, description, taskCallback);
+        // the order of the containers doesn't change the configuration
+        serviceLinksExpanded.values().forEach(Collections::sort);
+
+        fetchDocuments(new HashSet<>(loadBalancers.values()),
+                ContainerLoadBalancerDescription.class, (lbDescriptions, e) -> {
+                    if (e != null) {
+                        callback.accept(e);
+                        return;
+                    }
+                    try {
+                        reconfigureLoadBalancers(key, loadBalancers, lbDescriptions,
+                                serviceLinksExpanded, callback);
+                    } catch (Throwable t) {
+                        callback.accept(t);
+                    }
+                });
+    }
+
+    private void reconfigureLoadBalancers(String key, Map<ContainerState, String> loadBalancers,
+            Map<String, ContainerLoadBalancerDescription> lbDescriptions,
+            Map<String, List<String>> serviceLinksExpanded, Consumer<Throwable> callback) {
+        AtomicInteger counter = new AtomicInteger(loadBalancers.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        loadBalancers.forEach((loadBalancer, lbDescriptionLink) -> {
+            reconfigureLoadBalancer(key, loadBalancer, lbDescriptions.get(lbDescriptionLink),
+                    serviceLinksExpanded, (e) -> {
+                        if (e != null) {
+                            failure.compareAndSet(null, e);
+                        }
+                        if (counter.decrementAndGet() == 0) {
+                            callback.accept(failure.get());
+                        }
+                    });
         });
     }
 
-    private void reconfigureLoadBalancer(ContainerLoadBalancerReconfigureTaskState state,
-                                         ContainerState loadBalancer,
+    private void reconfigureLoadBalancer(String key, ContainerState loadBalancer,
                                          ContainerLoadBalancerDescription lbDescription,
-                                         ServiceTaskCallback taskCallback) {
+                                         Map<String, List<String>> serviceLinksExpanded,
+                                         Consumer<Throwable> callback) {
+        String config;
         try {
+            assertNotNull(lbDescription, "lbDescription");
             List<ContainerLoadBalancerFrontendDescription> expandedFrontends = expandLinks
-                    (lbDescription.frontends, state.serviceLinksExpanded);
-            ShellContainerExecutorState executorState = new ShellContainerExecutorState();
-
-            executorState.command = new String[]{"proxy-config", "--config",
-                    serializeFrontends(expandedFrontends)};
-            executorState.attachStdOut = true;
-
-            URI executeUri = UriUtils.buildUri(getHost(), ShellContainerExecutorService.SELF_LINK);
+                    (lbDescription.frontends, serviceLinksExpanded);
+            config = serializeFrontends(expandedFrontends);
+        } catch (Throwable t) {
+            callback.accept(t);
+            return;
+        }
 
-            executeUri = UriUtils.extendUriWithQuery(executeUri,
-                    ShellContainerExecutorService.CONTAINER_LINK_URI_PARAM,
+        // the configuration is pushed only when it changed since it was last pushed
+        String pushedKey = getHost().getId() + loadBalancer.documentSelfLink;
+        String configHash = loadBalancer.id + ":" + Utils.computeHash(config);
+        PushedConfiguration pushed = pushedConfigurations.get(pushedKey);
+        if (pushed != null && pushed.configHash.equals(configHash) && !pushed.isExpired()) {
+            logFine("Configuration of load balancer %s not changed",
                     loadBalancer.documentSelfLink);
-            sendRequest(Operation
-                    .createPost(executeUri)
-                    .setReferer(getHost().getUri())
-                    .setBody(executorState)
-                    .setCompletion((o, e) -> {
-                        completeSubTasksCounter(taskCallback, e);
-                    }));
-        } catch (Throwable t) {
-            failTask("Error while reconfiguring load balancers", t);
+            callback.accept(null);
+            return;
         }
+
+        ShellContainerExecutorState executorState = new ShellContainerExecutorState();
+        executorState.command = new String[]{"proxy-config", "--config", config};
+        executorState.attachStdOut = true;
+
+        URI executeUri = UriUtils.buildUri(getHost(), ShellContainerExecutorService.SELF_LINK);
+
+        executeUri = UriUtils.extendUriWithQuery(executeUri,
+                ShellContainerExecutorService.CONTAINER_LINK_URI_PARAM,
+                loadBalancer.documentSelfLink);
+        sendRequest(Operation
+                .createPost(executeUri)
+                .setReferer(getHost().getUri())
+                .setBody(executorState)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        pushedConfigurations.remove(pushedKey);
+                    } else {
+                        pushedConfigurations.put(pushedKey,
+                                new PushedConfiguration(key, configHash));
+                    }
+                    callback.accept(e);
+                }));
+    }
+
+    /**
+     * Removes the configurations pushed for the given composite component to load balancer
+     * containers other than the given ones.
+     */
+    private void forgetPushedConfigurations(String key, Set<String> loadBalancerLinks) {
+        String hostId = getHost().getId();
+        pushedConfigurations.entrySet().removeIf(entry ->
+                key.equals(entry.getValue().reconfigurationKey)
+                        && !loadBalancerLinks.contains(
+                                entry.getKey().substring(hostId.length())));
+    }
+
+    private static void prunePushedConfigurations() {
+        pushedConfigurations.values().removeIf(PushedConfiguration::isExpired);
     }
 
     private String serializeFrontends(List<ContainerLoadBalancerFrontendDescription>
@@ -306,38 +525,25 @@ public class ContainerLoadBalancerReconfigureTaskService extends
         return expandedFrontends;
     }
 
-    private void getCompositeComponent(ContainerLoadBalancerReconfigureTaskState state,
-                                       Consumer<CompositeComponent> callbackFunction) {
-        if (compositeComponent != null) {
-            callbackFunction.accept(compositeComponent);
+    private <T> void fetchDocuments(Set<String> links, Class<T> type,
+            BiConsumer<Map<String, T>, Throwable> callback) {
+        if (links.isEmpty()) {
+            callback.accept(new HashMap<>(), null);
             return;
         }
 
-        String contextId = state.customProperties.get(FIELD_NAME_CONTEXT_ID_KEY);
-        String compositeComponentLink = UriUtils
-                .buildUriPath(CompositeComponentFactoryService.SELF_LINK, contextId);
-        sendRequest(Operation.createGet(this, compositeComponentLink)
-                .setCompletion((o, e) -> {
-                    if (e != null) {
-                        failTask("Failure retrieving CompositeComponent", e);
-                    } else {
-                        CompositeComponent compositeComponent = o.getBody(CompositeComponent.class);
-                        this.compositeComponent = compositeComponent;
-                        callbackFunction.accept(compositeComponent);
-                    }
-                }));
-    }
-
-    private void fetchContainerDescription(String link, Consumer<ContainerDescription>
-            callbackFunction) {
-        sendRequest(Operation.createGet(this, link)
-                .setCompletion((o, e) -> {
-                    if (e != null) {
-                        failTask("Failure retrieving container description", e);
-                        return;
-                    }
-                    callbackFunction.accept(o.getBody(ContainerDescription.class));
-                }));
+        List<Operation> gets = links.stream()
+                .map(link -> Operation.createGet(this, link))
+                .collect(Collectors.toList());
+        OperationJoin.create(gets).setCompletion((ops, exs) -> {
+            if (exs != null) {
+                callback.accept(null, exs.values().iterator().next());
+                return;
+            }
+            Map<String, T> documents = new HashMap<>();
+            ops.values().forEach(o -> documents.put(o.getUri().getPath(), o.getBody(type)));
+            callback.accept(documents, null);
+        }).sendWith(this);
     }
 
 }
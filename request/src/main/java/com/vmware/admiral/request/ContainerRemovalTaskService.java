@@ -24,13 +24,16 @@ import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOp
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
@@ -43,6 +46,7 @@ import com.vmware.admiral.compute.container.ContainerHostDataCollectionService;
 import com.vmware.admiral.compute.container.ContainerHostDataCollectionService.ContainerHostDataCollectionState;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.compute.container.HostPortProfileService;
+import com.vmware.admiral.compute.container.util.CompositeComponentNotifier;
 import com.vmware.admiral.request.ContainerRemovalTaskService.ContainerRemovalTaskState.SubStage;
 import com.vmware.admiral.request.ReservationRemovalTaskService.ReservationRemovalTaskState;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
@@ -52,9 +56,11 @@ import com.vmware.admiral.service.common.LogService;
 import com.vmware.admiral.service.common.ServiceTaskCallback;
 import com.vmware.admiral.service.common.TaskServiceDocument;
 import com.vmware.photon.controller.model.resources.ResourceState;
+import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.Service.Action;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.UriUtils;
@@ -111,8 +117,35 @@ public class ContainerRemovalTaskService
          * whether to skip the associated reservation or not
          */
         public boolean skipReleaseResourcePlacement;
+
+        /** (Internal) Set by Task. Links of the containers waiting to be removed, by host link. */
+        @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL }, indexing = STORE_ONLY)
+        public Map<String, List<String>> pendingContainerLinks;
+
+        /** (Internal) Set by Task. Links of the containers being removed, by host link. */
+        @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL }, indexing = STORE_ONLY)
+        public Map<String, List<String>> removingContainerLinks;
     }
 
+    /**
+     * The maximum number of containers removed at the same time from a single host. The next
+     * containers of the host are removed once all of the current ones are.
+     */
+    public static final int MAX_CONCURRENT_REMOVALS_PER_HOST = Integer.getInteger(
+            "com.vmware.admiral.request.container.removal.max.concurrent.per.host", 16);
+
+    /** The maximum number of container states deleted at the same time. */
+    public static final int STATE_DELETION_BATCH_SIZE = Integer.getInteger(
+            "com.vmware.admiral.request.container.removal.state.deletion.batch.size", 100);
+
+    private static final String REMOVAL_HOST_LINK_PROP = "__removalHostLink";
+
+    // containers which removal was already requested by this instance
+    private final Set<String> removalRequestedLinks = ConcurrentHashMap.newKeySet();
+
+    // containers returned by the query of this instance, by link
+    private final Map<String, ContainerState> queriedContainers = new ConcurrentHashMap<>();
+
     public ContainerRemovalTaskService() {
         super(ContainerRemovalTaskState.class, SubStage.class, DISPLAY_NAME);
         super.toggleOption(ServiceOption.PERSISTENCE, true);
@@ -130,9 +163,10 @@ public class ContainerRemovalTaskService
             queryContainerResources(state);
             break;
         case INSTANCES_REMOVING:
-            break;// just patch with the links
+            deleteResourceInstances(state);
+            break;
         case INSTANCES_REMOVED:
-            removeResources(state, null);
+            removeResources(state);
             break;
         case REMOVING_RESOURCE_STATES:
             break;
@@ -181,11 +215,44 @@ public class ContainerRemovalTaskService
         return statusTask;
     }
 
+    @Override
+    protected void customStateValidationAndMerge(Operation patch,
+            ContainerRemovalTaskState patchBody, ContainerRemovalTaskState currentState) {
+        String hostLink = currentState.removeCustomProperty(REMOVAL_HOST_LINK_PROP);
+        if (hostLink == null || SubStage.INSTANCES_REMOVING != patchBody.taskSubStage
+                || currentState.removingContainerLinks == null) {
+            return;
+        }
+
+        // the containers of the host are removed, continue with the next ones of the host. The
+        // maps are replaced rather than modified, since the stage handlers read them while later
+        // patches are merged.
+        Map<String, List<String>> pending = new HashMap<>(currentState.pendingContainerLinks);
+        Map<String, List<String>> removing = new HashMap<>(currentState.removingContainerLinks);
+        List<String> remaining = pending.remove(hostLink);
+        if (remaining == null || remaining.isEmpty()) {
+            removing.remove(hostLink);
+        } else {
+            int count = Math.min(MAX_CONCURRENT_REMOVALS_PER_HOST, remaining.size());
+            removing.put(hostLink, new ArrayList<>(remaining.subList(0, count)));
+            if (count < remaining.size()) {
+                pending.put(hostLink, new ArrayList<>(remaining.subList(count,
+                        remaining.size())));
+            }
+        }
+        currentState.pendingContainerLinks = pending;
+        currentState.removingContainerLinks = removing;
+
+        if (removing.isEmpty()) {
+            currentState.taskSubStage = SubStage.INSTANCES_REMOVED;
+        }
+    }
+
     private void queryContainerResources(ContainerRemovalTaskState state) {
         QueryTask computeQuery = createResourcesQuery(ContainerState.class, state.resourceLinks);
         ServiceDocumentQuery<ContainerState> query = new ServiceDocumentQuery<>(getHost(),
                 ContainerState.class);
-        List<String> containerLinks = new ArrayList<>();
+        List<ContainerState> containers = new ArrayList<>();
         state.containersParentLinks = new HashSet<>();
         QueryUtil.addBroadcastOption(computeQuery);
         QueryUtil.addExpandOption(computeQuery);
@@ -193,19 +260,15 @@ public class ContainerRemovalTaskService
             if (r.hasException()) {
                 failTask("Failure retrieving query results", r.getException());
             } else if (r.hasResult()) {
-                containerLinks.add(r.getDocumentSelfLink());
+                containers.add(r.getResult());
                 state.containersParentLinks.add(r.getResult().parentLink);
             } else {
-                if (containerLinks.isEmpty()) {
+                if (containers.isEmpty()) {
                     logWarning("No available resources found to be removed with links: %s",
                             state.resourceLinks);
                     proceedTo(SubStage.COMPLETED);
                 } else {
-                    proceedTo(SubStage.INSTANCES_REMOVING, s -> {
-                        s.containersParentLinks = state.containersParentLinks;
-                    });
-
-                    deleteResourceInstances(state, containerLinks, null);
+                    startResourceInstancesRemoval(state, containers);
                 }
             }
         });
@@ -219,70 +282,137 @@ public class ContainerRemovalTaskService
         return query;
     }
 
-    private void deleteResourceInstances(ContainerRemovalTaskState state,
-            Collection<String> resourceLinks, String subTaskLink) {
-
+    private void startResourceInstancesRemoval(ContainerRemovalTaskState state,
+            List<ContainerState> containers) {
         if (state.removeOnly) {
             logFine("Skipping actual container removal by the adapter since the removeOnly flag "
                     + "was set: %s", state.documentSelfLink);
 
             // skip the actual removal of containers through the adapter
-            proceedTo(SubStage.INSTANCES_REMOVED);
+            proceedTo(SubStage.INSTANCES_REMOVED, s -> {
+                s.containersParentLinks = state.containersParentLinks;
+            });
             return;
         }
 
-        if (subTaskLink == null) {
-            createDeleteResourceCounterSubTask(state, resourceLinks);
+        Map<String, List<String>> containerLinksByHost = new HashMap<>();
+        for (ContainerState containerState : containers) {
+            if (containerState.id == null || containerState.id.isEmpty()) {
+                logWarning("No ID set for container state: [%s]  ",
+                        containerState.documentSelfLink);
+            } else if (isSystemContainer(containerState)) {
+                logWarning("Resource [%s] will not be removed because it is a system container",
+                        containerState.documentSelfLink);
+            } else {
+                containerLinksByHost.computeIfAbsent(containerState.parentLink,
+                        (k) -> new ArrayList<>()).add(containerState.documentSelfLink);
+                queriedContainers.put(containerState.documentSelfLink, containerState);
+            }
+        }
+
+        Map<String, List<String>> pending = new HashMap<>();
+        Map<String, List<String>> removing = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : containerLinksByHost.entrySet()) {
+            List<String> links = entry.getValue();
+            int count = Math.min(MAX_CONCURRENT_REMOVALS_PER_HOST, links.size());
+            removing.put(entry.getKey(), new ArrayList<>(links.subList(0, count)));
+            if (count < links.size()) {
+                pending.put(entry.getKey(), new ArrayList<>(links.subList(count, links.size())));
+            }
+        }
+
+        logInfo("Starting delete of %d container resources on %d hosts",
+                containers.size(), containerLinksByHost.size());
+        proceedTo(removing.isEmpty() ? SubStage.INSTANCES_REMOVED : SubStage.INSTANCES_REMOVING,
+                s -> {
+                    s.containersParentLinks = state.containersParentLinks;
+                    s.pendingContainerLinks = pending;
+                    s.removingContainerLinks = removing;
+                });
+    }
+
+    private void deleteResourceInstances(ContainerRemovalTaskState state) {
+        Map<String, List<String>> removing = state.removingContainerLinks;
+        if (removing == null) {
             return;
         }
 
-        try {
-            logInfo("Starting delete of %d container resources", resourceLinks.size());
+        for (Map.Entry<String, List<String>> entry : removing.entrySet()) {
+            List<String> resourceLinks = entry.getValue().stream()
+                    .filter((link) -> removalRequestedLinks.add(link))
+                    .collect(Collectors.toList());
+            if (resourceLinks.isEmpty()) {
+                continue;
+            }
+
+            List<ContainerState> containers = new ArrayList<>();
+            List<String> missingLinks = new ArrayList<>();
             for (String resourceLink : resourceLinks) {
-                sendRequest(Operation
-                        .createGet(this, resourceLink)
-                        .setCompletion(
-                                (o, e) -> {
-                                    if (e != null) {
-                                        logWarning("Failed retrieving ContainerState: "
-                                                + resourceLink);
-                                        completeSubTasksCounter(subTaskLink, e);
-                                        return;
-                                    }
-                                    ContainerState containerState = o.getBody(ContainerState.class);
-                                    if (containerState.id == null
-                                            || containerState.id.isEmpty()) {
-                                        logWarning("No ID set for container state: [%s]  ",
-                                                containerState.documentSelfLink);
-                                        completeSubTasksCounter(subTaskLink, null);
-                                    } else if (isSystemContainer(o.getBody(ContainerState.class))) {
-                                        logWarning(
-                                                "Resource [%s] will not be removed because it is a system container",
-                                                o.getBody(ContainerState.class).documentSelfLink);
-                                        completeSubTasksCounter(subTaskLink, null);
-                                    } else {
-                                        sendContainerDeleteRequest(containerState, subTaskLink);
-                                    }
-                                }));
+                ContainerState containerState = queriedContainers.remove(resourceLink);
+                if (containerState != null) {
+                    containers.add(containerState);
+                } else {
+                    missingLinks.add(resourceLink);
+                }
+            }
+
+            if (missingLinks.isEmpty()) {
+                createDeleteResourceCounterSubTask(state, entry.getKey(), containers);
+            } else {
+                // the task was restarted or moved to another owner after the query
+                queryContainers(missingLinks, containers,
+                        () -> createDeleteResourceCounterSubTask(state, entry.getKey(),
+                                containers));
             }
-        } catch (Throwable e) {
-            failTask("Unexpected exception while deleting container instances", e);
         }
     }
 
+    private void queryContainers(Collection<String> resourceLinks, List<ContainerState> result,
+            Runnable callback) {
+        QueryTask containerQuery = createResourcesQuery(ContainerState.class, resourceLinks);
+        QueryUtil.addBroadcastOption(containerQuery);
+        QueryUtil.addExpandOption(containerQuery);
+        new ServiceDocumentQuery<>(getHost(), ContainerState.class).query(containerQuery, (r) -> {
+            if (r.hasException()) {
+                failTask("Failure retrieving container states: " + resourceLinks,
+                        r.getException());
+            } else if (r.hasResult()) {
+                result.add(r.getResult());
+            } else {
+                callback.run();
+            }
+        });
+    }
+
     private void createDeleteResourceCounterSubTask(ContainerRemovalTaskState state,
-            Collection<String> resourceLinks) {
+            String hostLink, Collection<ContainerState> containers) {
         CounterSubTaskState subTaskInitState = new CounterSubTaskState();
-        subTaskInitState.completionsRemaining = resourceLinks.size();
+        // containers removed meanwhile still complete the counter once, to move to the next ones
+        subTaskInitState.completionsRemaining = Math.max(1, containers.size());
         subTaskInitState.documentExpirationTimeMicros = ServiceUtils
                 .getDefaultTaskExpirationTimeInMicros();
+        // the host is returned with the callback to continue with its next containers
+        subTaskInitState.customProperties = new HashMap<>();
+        subTaskInitState.customProperties.put(REMOVAL_HOST_LINK_PROP, hostLink);
         subTaskInitState.serviceTaskCallback = ServiceTaskCallback.create(
                 getSelfLink(),
-                TaskStage.STARTED, SubStage.INSTANCES_REMOVED,
+                TaskStage.STARTED, SubStage.INSTANCES_REMOVING,
                 TaskStage.STARTED, SubStage.ERROR);
 
         CounterSubTaskService.createSubTask(this, subTaskInitState,
-                (subTaskLink) -> deleteResourceInstances(state, resourceLinks, subTaskLink));
+                (subTaskLink) -> deleteResourceInstances(containers, subTaskLink));
+    }
+
+    private void deleteResourceInstances(Collection<ContainerState> containers,
+            String subTaskLink) {
+        logInfo("Deleting %d container resources", containers.size());
+        if (containers.isEmpty()) {
+            completeSubTasksCounter(subTaskLink, null);
+            return;
+        }
+        for (ContainerState containerState : containers) {
+            sendContainerDeleteRequest(containerState, subTaskLink);
+        }
     }
 
     private void sendContainerDeleteRequest(ContainerState containerState, String subTaskLink) {
@@ -295,6 +425,7 @@ public class ContainerRemovalTaskService
                         logWarning("Failed to modify container state isDeleted before container"
                                         + " delete: %s. Error: %s",
                                 containerState.documentSelfLink, Utils.toString(e));
+                        completeSubTasksCounter(subTaskLink, e);
                         return;
                     } else {
                         AdapterRequest adapterRequest = new AdapterRequest();
@@ -334,142 +465,214 @@ public class ContainerRemovalTaskService
                 }));
     }
 
-    private void removeResources(ContainerRemovalTaskState state, String subTaskLink) {
-        if (subTaskLink == null) {
-            // count 2 * resourceLinks (to keep track of each removal operation starting and ending)
-            createCounterSubTask(state, 2 * state.resourceLinks.size(),
-                    (link) -> removeResources(state, link));
-            return;
-        }
-
-        AtomicBoolean isRemoveHost = new AtomicBoolean(state.serviceTaskCallback.serviceSelfLink
-                .startsWith(ManagementUriParts.REQUEST_HOST_REMOVAL_OPERATIONS));
-
-        try {
-            for (String resourceLink : state.resourceLinks) {
-                sendRequest(Operation
-                        .createGet(this, resourceLink)
-                        .setCompletion((o, e) -> {
-                            // Don't fail if container is still collected but has already
-                            // been removed.
-                            if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND) {
-                                logFine("Resource [%s] not found, it should have already been"
-                                                + " removed!", resourceLink);
-                                completeSubTasksCounter(subTaskLink, null);
-                                completeSubTasksCounter(subTaskLink, null);
-                                return;
-                            }
-                            if (e != null) {
-                                failTask("Failed retrieving Container State: " + resourceLink, e);
-                                return;
-                            }
-
-                            if (isSystemContainer(o.getBody(ContainerState.class))
-                                    && !(isRemoveHost.get())) {
-                                logWarning("Resource [%s] will not be removed because it is a"
-                                                + " system container",
-                                        o.getBody(ContainerState.class).documentSelfLink);
-                                // need to complete the counter twice, because the removal
-                                // task is not created in this case
-                                completeSubTasksCounter(subTaskLink, null);
-                                completeSubTasksCounter(subTaskLink, null);
-                                return;
-                            }
-
-                            ContainerState cs = o.getBody(ContainerState.class);
-                            doDeleteResource(state, subTaskLink, cs);
-                        }));
+    private void removeResources(ContainerRemovalTaskState state) {
+        boolean isRemoveHost = state.serviceTaskCallback.serviceSelfLink
+                .startsWith(ManagementUriParts.REQUEST_HOST_REMOVAL_OPERATIONS);
+
+        // Don't fail if containers are still collected but have already been removed, the query
+        // returns only the remaining ones.
+        QueryTask containerQuery = createResourcesQuery(ContainerState.class, state.resourceLinks);
+        QueryUtil.addBroadcastOption(containerQuery);
+        QueryUtil.addExpandOption(containerQuery);
+        List<ContainerState> containers = new ArrayList<>();
+        new ServiceDocumentQuery<>(getHost(), ContainerState.class).query(containerQuery, (r) -> {
+            if (r.hasException()) {
+                failTask("Failed retrieving container states: " + state.resourceLinks,
+                        r.getException());
+            } else if (r.hasResult()) {
+                ContainerState cs = r.getResult();
+                if (isSystemContainer(cs) && !isRemoveHost) {
+                    logWarning("Resource [%s] will not be removed because it is a system"
+                            + " container", cs.documentSelfLink);
+                } else {
+                    containers.add(cs);
+                }
+            } else {
+                removeResources(state, containers);
             }
-            proceedTo(SubStage.REMOVING_RESOURCE_STATES);
-        } catch (Throwable e) {
-            failTask("Unexpected exception while deleting resources", e);
-        }
+        });
     }
 
-    private void doDeleteResource(ContainerRemovalTaskState state, String subTaskLink,
-            ContainerState cs) {
-        QueryTask compositeQueryTask = QueryUtil.buildQuery(ContainerState.class, true);
+    private void removeResources(ContainerRemovalTaskState state,
+            List<ContainerState> containers) {
+        Set<String> descriptionLinks = containers.stream()
+                .map((cs) -> getContainerDescriptionLink(cs))
+                .collect(Collectors.toSet());
+        if (descriptionLinks.isEmpty()) {
+            removeResources(state, containers, Collections.emptySet());
+            return;
+        }
 
-        String containerDescriptionLink = UriUtils.buildUriPath(
-                CONTAINER_DESC,
-                Service.getId(cs.descriptionLink));
-        QueryUtil.addListValueClause(compositeQueryTask,
-                ContainerState.FIELD_NAME_DESCRIPTION_LINK,
-                Arrays.asList(containerDescriptionLink));
+        QueryTask descriptionQuery = QueryUtil.buildQuery(ContainerState.class, true);
+        QueryUtil.addListValueClause(descriptionQuery,
+                ContainerState.FIELD_NAME_DESCRIPTION_LINK, descriptionLinks);
+        QueryUtil.addExpandOption(descriptionQuery);
 
-        final List<String> resourcesSharingDesc = new ArrayList<String>();
-        new ServiceDocumentQuery<ContainerState>(getHost(), ContainerState.class)
-                .query(compositeQueryTask, (r) -> {
+        // descriptions still used by containers which are not removed are not deleted
+        Set<String> sharedDescriptionLinks = new HashSet<>();
+        new ServiceDocumentQuery<>(getHost(), ContainerState.class).query(descriptionQuery,
+                (r) -> {
                     if (r.hasException()) {
                         logSevere("Failed to retrieve containers, sharing the same"
-                                        + " container description: %s -%s",
-                                r.getDocumentSelfLink(), r.getException());
+                                + " container descriptions: %s", r.getException());
+                        removeResources(state, containers, Collections.emptySet());
                     } else if (r.hasResult()) {
-                        resourcesSharingDesc.add(r.getDocumentSelfLink());
-                    } else {
-                        AtomicLong skipDeleteDescriptionOperationException = new AtomicLong();
-                        AtomicLong skipHostPortProfileNotFoundException = new AtomicLong();
-                        List<AtomicLong> skipOperationExceptions = Arrays.asList(
-                                skipDeleteDescriptionOperationException,
-                                skipHostPortProfileNotFoundException);
-
-                        Operation delContainerOpr = deleteContainer(cs);
-                        Operation placementOpr = releaseResourcePlacement(state, cs, subTaskLink);
-                        Operation releasePortsOpr = releasePorts(cs,
-                                skipHostPortProfileNotFoundException);
-
-                        // list of operations to execute to release container resources
-                        List<Operation> operations = new ArrayList<>();
-                        operations.add(delContainerOpr);
-                        // add placementOpr only when needed
-                        if (placementOpr != null) {
-                            operations.add(placementOpr);
-                        } else {
-                            // if ReservationRemovalTask is not started, count it as finished
-                            completeSubTasksCounter(subTaskLink, null);
-                        }
-                        if (releasePortsOpr != null) {
-                            operations.add(releasePortsOpr);
-                        }
-                        // delete container description when deleting all its containers
-                        if (state.resourceLinks.containsAll(resourcesSharingDesc)
-                                && (state.customProperties != null && !state.customProperties
-                                        .containsKey(CONTAINER_REDEPLOYMENT_CUSTOM_PROP))) {
-                            // there could be a race condition when containers are in cluster and
-                            // the same description tries to be deleted multiple times, that's why
-                            // we need to skipOperationException is the description is NOT FOUND
-                            Operation deleteContainerDescription = deleteContainerDescription(cs,
-                                    skipDeleteDescriptionOperationException);
-                            operations.add(deleteContainerDescription);
+                        if (!state.resourceLinks.contains(r.getDocumentSelfLink())) {
+                            sharedDescriptionLinks.add(r.getResult().descriptionLink);
                         }
+                    } else {
+                        Set<String> removedDescriptionLinks = new HashSet<>(descriptionLinks);
+                        removedDescriptionLinks.removeAll(sharedDescriptionLinks);
+                        removeResources(state, containers, removedDescriptionLinks);
+                    }
+                });
+    }
+
+    private void removeResources(ContainerRemovalTaskState state, List<ContainerState> containers,
+            Set<String> removedDescriptionLinks) {
+        // one reservation removal per group placement and description
+        Map<List<String>, List<ContainerState>> placementGroups = new HashMap<>();
+        for (ContainerState cs : containers) {
+            if (isPlacementReleased(state, cs)) {
+                placementGroups.computeIfAbsent(
+                        Arrays.asList(cs.groupResourcePlacementLink, cs.descriptionLink),
+                        (k) -> new ArrayList<>()).add(cs);
+            }
+        }
+
+        // count the reservation removals and the removal of the container states
+        createCounterSubTask(state, placementGroups.size() + 1, (subTaskLink) -> {
+            proceedTo(SubStage.REMOVING_RESOURCE_STATES);
+            try {
+                doDeleteResources(state, subTaskLink, containers, placementGroups.values(),
+                        removedDescriptionLinks);
+            } catch (Throwable e) {
+                failTask("Unexpected exception while deleting resources", e);
+            }
+        });
+    }
+
+    private void doDeleteResources(ContainerRemovalTaskState state, String subTaskLink,
+            List<ContainerState> containers, Collection<List<ContainerState>> placementGroups,
+            Set<String> removedDescriptionLinks) {
+        Set<Long> skippedOperationIds = ConcurrentHashMap.newKeySet();
+
+        // list of operations to execute to release container resources
+        List<Operation> operations = new ArrayList<>();
+        for (List<ContainerState> group : placementGroups) {
+            operations.add(releaseResourcePlacement(state, group, subTaskLink));
+        }
 
-                        OperationJoin.create(operations).setCompletion((ops, exs) -> {
-                            // remove skipped exceptions
-                            if (exs != null) {
-                                skipOperationExceptions
-                                        .stream()
-                                        .filter(p -> p.get() != 0)
-                                        .forEach(p -> exs.remove(p.get()));
-                            }
-                            // fail the task is there are exceptions in the children operations
-                            if (exs != null && !exs.isEmpty()) {
-                                failTask("Failed deleting container resources: "
-                                        + Utils.toString(exs), null);
-                                return;
-                            }
-
-                            // complete the counter task after all remove operations finished
-                            // successfully
-                            completeSubTasksCounter(subTaskLink, null);
-                        }).sendWith(this);
+        Map<String, Set<String>> containerLinksByHost = new HashMap<>();
+        for (ContainerState cs : containers) {
+            if (cs.parentLink != null) {
+                containerLinksByHost.computeIfAbsent(cs.parentLink, (k) -> new HashSet<>())
+                        .add(cs.documentSelfLink);
+            }
+        }
+        containerLinksByHost.forEach((hostLink, containerLinks) -> operations
+                .add(releasePorts(hostLink, containerLinks, skippedOperationIds)));
+
+        // delete container descriptions when deleting all their containers
+        if (state.customProperties != null
+                && !state.customProperties.containsKey(CONTAINER_REDEPLOYMENT_CUSTOM_PROP)) {
+            Set<String> deletedDescriptionLinks = new HashSet<>();
+            for (ContainerState cs : containers) {
+                if (removedDescriptionLinks.contains(getContainerDescriptionLink(cs))
+                        && deletedDescriptionLinks.add(cs.descriptionLink)) {
+                    // there could be a race condition when containers are in cluster and
+                    // the same description tries to be deleted multiple times, that's why
+                    // we need to skipOperationException is the description is NOT FOUND
+                    operations.add(deleteContainerDescription(cs, skippedOperationIds));
+                }
+            }
+        }
+
+        DeferredResult<Void> bookkeeping = new DeferredResult<>();
+        if (operations.isEmpty()) {
+            bookkeeping.complete(null);
+        } else {
+            OperationJoin.create(operations).setCompletion((ops, exs) -> {
+                completeOperations(exs, skippedOperationIds, bookkeeping);
+            }).sendWith(this);
+        }
+
+        bookkeeping
+                .thenCompose((ignore) -> deleteContainers(containers, 0))
+                .whenComplete((ignore, e) -> {
+                    // fail the task is there are exceptions in the children operations
+                    if (e != null) {
+                        failTask("Failed deleting container resources: " + Utils.toString(e),
+                                null);
+                        return;
                     }
+
+                    // complete the counter task after all remove operations finished
+                    // successfully
+                    completeSubTasksCounter(subTaskLink, null);
                 });
     }
 
-    private Operation deleteContainer(ContainerState cs) {
+    /**
+     * Deletes the given container states in batches of {@link #STATE_DELETION_BATCH_SIZE},
+     * starting with the one at the given index.
+     */
+    private DeferredResult<Void> deleteContainers(List<ContainerState> containers, int from) {
+        if (from >= containers.size()) {
+            return DeferredResult.completed(null);
+        }
+
+        int to = Math.min(from + STATE_DELETION_BATCH_SIZE, containers.size());
+        List<ContainerState> deleted = Collections.synchronizedList(new ArrayList<>());
+        List<Operation> operations = containers.subList(from, to).stream()
+                .map((cs) -> deleteContainer(cs, deleted))
+                .collect(Collectors.toList());
+
+        DeferredResult<Void> result = new DeferredResult<>();
+        OperationJoin.create(operations).setCompletion((ops, exs) -> {
+            notifyCompositeComponents(deleted);
+            completeOperations(exs, Collections.emptySet(), result);
+        }).sendWith(this);
+        return result.thenCompose((ignore) -> deleteContainers(containers, to));
+    }
+
+    private void completeOperations(Map<Long, Throwable> exs, Set<Long> skippedOperationIds,
+            DeferredResult<Void> result) {
+        // remove skipped exceptions
+        if (exs != null) {
+            exs.keySet().removeAll(skippedOperationIds);
+        }
+        if (exs != null && !exs.isEmpty()) {
+            result.fail(exs.values().iterator().next());
+            return;
+        }
+        result.complete(null);
+    }
+
+    private String getContainerDescriptionLink(ContainerState cs) {
+        return UriUtils.buildUriPath(CONTAINER_DESC, Service.getId(cs.descriptionLink));
+    }
+
+    /**
+     * Notifies the composite components of the deleted containers with a single update per
+     * composite component, instead of one update per container.
+     */
+    private void notifyCompositeComponents(List<ContainerState> deleted) {
+        Map<String, List<String>> linksByCompositeComponent = deleted.stream()
+                .filter((cs) -> cs.compositeComponentLink != null)
+                .collect(Collectors.groupingBy((cs) -> cs.compositeComponentLink,
+                        Collectors.mapping((cs) -> cs.documentSelfLink, Collectors.toList())));
+        linksByCompositeComponent.forEach((compositeComponentLink, containerLinks) ->
+                CompositeComponentNotifier.notifyCompositionComponent(this,
+                        compositeComponentLink, containerLinks, Action.DELETE));
+    }
+
+    private Operation deleteContainer(ContainerState cs, List<ContainerState> deleted) {
         return Operation
                 .createDelete(this, cs.documentSelfLink)
                 .setBody(new ServiceDocument())
+                .addRequestHeader(CompositeComponentNotifier.BULK_NOTIFICATION_HEADER,
+                        Boolean.TRUE.toString())
                 .setCompletion((op, ex) -> {
                     if (ex != null) {
                         logWarning("Failed deleting ContainerState: %s. Error: %s",
@@ -477,6 +680,7 @@ public class ContainerRemovalTaskService
                         return;
                     }
                     logInfo("Deleted ContainerState: %s", cs.documentSelfLink);
+                    deleted.add(cs);
                     // When removing container state, remove also if there are any logs created.
                     // This is workaround for:
                     //   https://www.pivotaltracker.com/n/projects/1471320/stories/143794415
@@ -486,7 +690,7 @@ public class ContainerRemovalTaskService
     }
 
     private Operation deleteContainerDescription(ContainerState cs,
-            AtomicLong skipOperationException) {
+            Set<Long> skippedOperationIds) {
 
         Operation deleteContainerDesc = Operation
                 .createGet(this, cs.descriptionLink)
@@ -495,7 +699,7 @@ public class ContainerRemovalTaskService
                             e instanceof CancellationException) {
                         logFine("Resource [%s] not found, it will not be removed!",
                                 cs.descriptionLink);
-                        skipOperationException.set(o.getId());
+                        skippedOperationIds.add(o.getId());
                         return;
                     }
 
@@ -531,23 +735,27 @@ public class ContainerRemovalTaskService
         return deleteContainerDesc;
     }
 
-    private Operation releaseResourcePlacement(ContainerRemovalTaskState state, ContainerState cs,
-            String subTaskLink) {
-
+    private boolean isPlacementReleased(ContainerRemovalTaskState state, ContainerState cs) {
         if (isDiscoveredContainer(cs) || state.skipReleaseResourcePlacement) {
             logFine("Skipping releasing placement because container is a discovered one: %s",
                     cs.documentSelfLink);
-            return null;
+            return false;
         }
 
         if (isSystemContainer(cs)) {
             logFine("Skipping releasing placement because container is a system one: %s",
                     cs.documentSelfLink);
-            return null;
+            return false;
         }
+        return true;
+    }
+
+    private Operation releaseResourcePlacement(ContainerRemovalTaskState state,
+            List<ContainerState> containers, String subTaskLink) {
+        ContainerState cs = containers.get(0);
 
         ReservationRemovalTaskState rsrvTask = new ReservationRemovalTaskState();
-        rsrvTask.resourceCount = 1;
+        rsrvTask.resourceCount = containers.size();
         rsrvTask.resourceDescriptionLink = cs.descriptionLink;
         rsrvTask.groupResourcePlacementLink = cs.groupResourcePlacementLink;
         rsrvTask.requestTrackerLink = state.requestTrackerLink;
@@ -570,15 +778,16 @@ public class ContainerRemovalTaskService
                 .startsWith(CLOSURES_CONTAINER_DESC);
     }
 
-    private Operation releasePorts(ContainerState cs, AtomicLong skipOperationException) {
-        String hostPortProfileLink = HostPortProfileService.getHostPortProfileLink(cs.parentLink);
+    private Operation releasePorts(String hostLink, Set<String> containerLinks,
+            Set<Long> skippedOperationIds) {
+        String hostPortProfileLink = HostPortProfileService.getHostPortProfileLink(hostLink);
         Operation operation = Operation
                 .createGet(this, hostPortProfileLink)
                 .setCompletion((o, e) -> {
                     if (o.getStatusCode() == Operation.STATUS_CODE_NOT_FOUND ||
                             e instanceof CancellationException) {
                         logWarning("Cannot find host port profile [%s]", hostPortProfileLink);
-                        skipOperationException.set(o.getId());
+                        skippedOperationIds.add(o.getId());
                     }
 
                     if (e != null) {
@@ -589,16 +798,14 @@ public class ContainerRemovalTaskService
                     HostPortProfileService.HostPortProfileState profile =
                             o.getBody(HostPortProfileService.HostPortProfileState.class);
 
-                    Set<Long> allocatedPorts = HostPortProfileService.getAllocatedPorts(
-                            profile, cs.documentSelfLink);
-
-                    if (allocatedPorts.isEmpty()) {
+                    if (profile.reservedPorts == null || profile.reservedPorts.values().stream()
+                            .noneMatch(containerLinks::contains)) {
                         return;
                     }
-                    // release all ports of the container
+                    // release all ports of the containers on the host at once
                     HostPortProfileService.HostPortProfileReservationRequest request =
                             new HostPortProfileService.HostPortProfileReservationRequest();
-                    request.containerLink = cs.documentSelfLink;
+                    request.containerLinks = containerLinks;
                     request.mode = HostPortProfileService
                             .HostPortProfileReservationRequestMode.RELEASE;
 
@@ -608,7 +815,7 @@ public class ContainerRemovalTaskService
                             .setCompletion((op, ex) -> {
                                 if (ex != null) {
                                     logWarning("Failed releasing container ports: %s. Error: %s",
-                                            cs.documentSelfLink, Utils.toString(ex));
+                                            containerLinks, Utils.toString(ex));
                                     return;
                                 }
                             }));
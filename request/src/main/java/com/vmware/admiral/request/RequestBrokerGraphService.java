@@ -37,6 +37,7 @@ import com.vmware.admiral.request.graph.ContainerRequestVisitor;
 import com.vmware.admiral.request.graph.NetworkRequestVisitor;
 import com.vmware.admiral.service.common.ServiceTaskCallback;
 import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
+import com.vmware.admiral.service.common.TaskServiceDocument;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.QueryTaskClientHelper;
 import com.vmware.xenon.common.ServiceDocument;
@@ -136,18 +137,41 @@ public class RequestBrokerGraphService extends StatelessService {
     private void retrieveAllFromContext(String requestId, String host,
             List<TaskServiceDocumentHistoryInternal> foundTasks,
             Consumer<Throwable> callback) {
-        String selfLinkQuery = String.format("/request*/%s*", requestId);
-        Query.Builder queryBuilder = Query.Builder.create()
-                .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK, selfLinkQuery,
-                        MatchType.WILDCARD)
-                .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK, "/request-status/*",
-                        MatchType.WILDCARD, Occurance.MUST_NOT_OCCUR);
-
-        QueryTask q = QueryTask.Builder.create().setQuery(queryBuilder.build())
+        // the tasks of a request share the link of its tracker, which is indexed, so they are
+        // looked up with an exact match instead of scanning the self links of all task versions
+        String requestTrackerLink = UriUtils.buildUriPath(RequestStatusFactoryService.SELF_LINK,
+                requestId);
+        Query trackerQuery = Query.Builder.create()
+                .addFieldClause(TaskServiceDocument.FIELD_NAME_REQUEST_TRACKER_LINK,
+                        requestTrackerLink)
+                .build();
+
+        retrieveAllFromContext(trackerQuery, host, foundTasks, (ex) -> {
+            if (ex != null || !foundTasks.isEmpty()) {
+                callback.accept(ex);
+                return;
+            }
+
+            // tasks not tracked by a request status, e.g. of requests created by earlier
+            // versions, are still found by their self links
+            String selfLinkQuery = String.format("/request*/%s*", requestId);
+            Query selfLinkWildcardQuery = Query.Builder.create()
+                    .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK, selfLinkQuery,
+                            MatchType.WILDCARD)
+                    .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK, "/request-status/*",
+                            MatchType.WILDCARD, Occurance.MUST_NOT_OCCUR)
+                    .build();
+            retrieveAllFromContext(selfLinkWildcardQuery, host, foundTasks, callback);
+        });
+    }
+
+    private void retrieveAllFromContext(Query query, String host,
+            List<TaskServiceDocumentHistoryInternal> foundTasks,
+            Consumer<Throwable> callback) {
+        QueryTask q = QueryTask.Builder.create().setQuery(query)
                 .addOption(QueryOption.INCLUDE_ALL_VERSIONS)
                 .addOption(QueryOption.INCLUDE_DELETED)
                 .addOption(QueryOption.EXPAND_CONTENT).build();
-
         Map<String, List<TaskServiceStage>> taskVersionsBySelfLink = new HashMap<>();
 
         QueryTaskClientHelper<TaskServiceStage> h = QueryTaskClientHelper
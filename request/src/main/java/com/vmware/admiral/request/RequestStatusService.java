@@ -26,6 +26,7 @@ import org.yaml.snakeyaml.util.UriEncoder;
 import com.vmware.admiral.compute.ResourceType;
 import com.vmware.admiral.request.composition.CompositionGraph.ResourceNode;
 import com.vmware.admiral.request.composition.CompositionSubTaskService;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusUpdate;
 import com.vmware.admiral.service.common.DefaultSubStage;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceDocument;
@@ -100,12 +101,27 @@ public class RequestStatusService extends StatefulService {
         RequestStatus body = patch.getBody(RequestStatus.class);
         RequestStatus state = getState(patch);
 
-        if (body.components != null) {
+        if (body.taskUpdates != null) {
+            // coalesced progress updates of several tasks, apply them in order. The components
+            // are never part of them, they are registered with a PATCH of their own.
+            for (TaskStatusUpdate update : body.taskUpdates) {
+                RequestStatus taskStatus = update.toTaskStatus(new RequestStatus());
+                handleUpdateProgress(state, taskStatus);
+                handleUpdateFields(state, taskStatus);
+            }
+        } else if (body.components != null) {
             handleUpdateComponents(state, body);
+            handleUpdateFields(state, body);
         } else {
             handleUpdateProgress(state, body);
+            handleUpdateFields(state, body);
         }
 
+        setState(patch, state);
+        patch.complete();
+    }
+
+    private void handleUpdateFields(RequestStatus state, RequestStatus body) {
         if (state.name == null && body.name != null) {
             state.name = body.name;
         }
@@ -115,9 +131,6 @@ public class RequestStatusService extends StatefulService {
                 && !body.resourceLinks.isEmpty()) {
             state.resourceLinks = body.resourceLinks;
         }
-
-        setState(patch, state);
-        patch.complete();
     }
 
     private void handleUpdateProgress(RequestStatus state, RequestStatus body) {
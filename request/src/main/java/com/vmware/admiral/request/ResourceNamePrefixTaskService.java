@@ -16,25 +16,17 @@ import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOp
 import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.REQUIRED;
 import static com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption.SERVICE_USE;
 
-import java.util.ArrayList;
 import java.util.IllegalFormatException;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Set;
 
 import com.vmware.admiral.common.ManagementUriParts;
-import com.vmware.admiral.common.util.QueryUtil;
-import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.service.common.AbstractTaskStatefulService;
 import com.vmware.admiral.service.common.DefaultSubStage;
-import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixRequest;
-import com.vmware.admiral.service.common.ResourceNamePrefixService.NamePrefixResponse;
-import com.vmware.admiral.service.common.ResourceNamePrefixService.ResourceNamePrefixState;
+import com.vmware.admiral.service.common.ResourceNamePrefixLeaseCache;
 import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallbackResponse;
 import com.vmware.xenon.common.LocalizableValidationException;
-import com.vmware.xenon.common.Operation;
-import com.vmware.xenon.services.common.QueryTask;
 
 /**
  * Task implementing the request for resource name prefixes.
@@ -98,20 +90,14 @@ public class ResourceNamePrefixTaskService
     }
 
     private void queryResourceNamePrefixes(ResourceNamePrefixTaskState state, boolean globalSearch) {
-        // match on group property:
-        QueryTask q = QueryUtil.buildQuery(ResourceNamePrefixState.class, true);
-        q.tenantLinks = state.tenantLinks;
-
-        List<String> documentLinks = new ArrayList<>();
-        new ServiceDocumentQuery<>(getHost(), ResourceNamePrefixState.class)
-                .query(q, (r) -> {
-                    if (r.hasException()) {
-                        failTask("Cannot retrieve prefixes", r.getException());
-                    } else if (r.hasResult()) {
-                        documentLinks.add(r.getDocumentSelfLink());
-                    } else {
-                        selectResourceNamePrefix(state, documentLinks.iterator(), globalSearch);
+        // the prefix links are cached per group on this node
+        ResourceNamePrefixLeaseCache.getInstance().getPrefixLinks(getHost(),
+                globalSearch ? null : state.tenantLinks, (links, e) -> {
+                    if (e != null) {
+                        failTask("Cannot retrieve prefixes", e);
+                        return;
                     }
+                    selectResourceNamePrefix(state, links.iterator(), globalSearch);
                 });
     }
 
@@ -133,24 +119,17 @@ public class ResourceNamePrefixTaskService
 
     private void requestResourceNamePrefix(ResourceNamePrefixTaskState state,
             String resourceNamePrefixLink, Iterator<String> iterator, boolean globalSearch) {
-
-        NamePrefixRequest namePrefixRequest = new NamePrefixRequest();
-        namePrefixRequest.resourceCount = state.resourceCount;
-
-        sendRequest(Operation
-                .createPatch(this, resourceNamePrefixLink)
-                .setBody(namePrefixRequest)
-                .setCompletion((o, e) -> {
+        // the prefixes are handed out from blocks of numbers leased by this node
+        ResourceNamePrefixLeaseCache.getInstance().allocate(getHost(), resourceNamePrefixLink,
+                state.resourceCount, (prefixes, e) -> {
                     if (e != null) {
                         logWarning("Failure requesting resource name prefixes: %s. Retrying with"
-                                        + " the next one...", e.getMessage());
+                                + " the next one...", e.getMessage());
                         selectResourceNamePrefix(state, iterator, globalSearch);
                         return;
                     }
-                    NamePrefixResponse response = o.getBody(NamePrefixResponse.class);
-                    Set<String> resourceNames = new LinkedHashSet<>(response.resourceNamePrefixes
-                            .size());
-                    for (String prefix : response.resourceNamePrefixes) {
+                    Set<String> resourceNames = new LinkedHashSet<>(prefixes.size());
+                    for (String prefix : prefixes) {
                         try {
                             resourceNames.add(String.format(state.baseResourceNameFormat,
                                     prefix));
@@ -162,7 +141,7 @@ public class ResourceNamePrefixTaskService
                     complete(DefaultSubStage.COMPLETED, s -> {
                         s.resourceNames = resourceNames;
                     });
-                }));
+                });
     }
 
 }
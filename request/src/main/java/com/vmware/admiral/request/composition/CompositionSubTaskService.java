@@ -163,6 +163,13 @@ public class CompositionSubTaskService
 
         /** Set by Task. Indicating that it is in the second phase after allocation */
         public boolean postAllocation;
+
+        /**
+         * Set by Task. Links of the tasks this task depends on which completed before this task
+         * was moved to execution.
+         */
+        @PropertyOptions(usage = { SERVICE_USE }, indexing = STORE_ONLY)
+        public Set<String> completedDependsOnLinks;
     }
 
     public CompositionSubTaskService() {
@@ -187,9 +194,65 @@ public class CompositionSubTaskService
             patch.complete();
             return true;
         }
+        if (isRepeatedMoveToExecution(patchBody, currentState)) {
+            // the parent task moves the allocated tasks to execution again after a restart or an
+            // owner change, since it doesn't know which of them it already moved
+            logFine("Ignoring repeated subStage move from %s(%s) to %s(%s). Caller: [%s]",
+                    currentState.taskInfo.stage, currentState.taskSubStage,
+                    patchBody.taskInfo.stage, patchBody.taskSubStage, patch.getReferer());
+            patch.complete();
+            return true;
+        }
+        if (isEarlyDependencyCompletion(patchBody, currentState)) {
+            // a task this task depends on was provisioned while this task is still allocating or
+            // waiting to be moved to execution: record it and keep the current subStage
+            if (SubStage.ERROR == patchBody.taskSubStage) {
+                currentState.errorCount = currentState.errorCount + 1;
+            }
+            currentState.completedDependsOnLinks = currentState.completedDependsOnLinks == null
+                    ? new HashSet<>() : currentState.completedDependsOnLinks;
+            currentState.completedDependsOnLinks.add(patchBody.currentDependsOnLink);
+            if (currentState.postAllocation && currentState.dependsOnLinks != null) {
+                currentState.dependsOnLinks.remove(patchBody.currentDependsOnLink);
+            }
+            logFine("Early completion of depends on task [%s] recorded in %s.",
+                    patchBody.currentDependsOnLink, currentState.taskSubStage);
+            patch.complete();
+            return true;
+        }
         return super.validateStageTransitionAndState(patch, patchBody, currentState);
     }
 
+    private boolean isRepeatedMoveToExecution(CompositionSubTaskState patchBody,
+            CompositionSubTaskState currentState) {
+        if (SubStage.PREPARE_EXECUTE == patchBody.taskSubStage) {
+            return currentState.postAllocation
+                    || currentState.taskInfo.stage.ordinal() > TaskStage.STARTED.ordinal();
+        }
+        // the EXECUTE patches of the dependencies name the completed dependency
+        return SubStage.EXECUTE == patchBody.taskSubStage
+                && patchBody.currentDependsOnLink == null
+                && currentState.taskSubStage == SubStage.EXECUTE;
+    }
+
+    private boolean isEarlyDependencyCompletion(CompositionSubTaskState patchBody,
+            CompositionSubTaskState currentState) {
+        // only the tasks allocated before the execution wait for the parent task to be moved to
+        // execution, the rest are executed once their dependencies complete
+        if (patchBody.currentDependsOnLink == null
+                || !currentState.allocationRequest
+                || currentState.taskInfo.stage.ordinal() > TaskStage.STARTED.ordinal()
+                || currentState.taskSubStage.ordinal() >= SubStage.EXECUTE.ordinal()) {
+            return false;
+        }
+        if (SubStage.EXECUTE == patchBody.taskSubStage) {
+            return true;
+        }
+        // errors before the allocation fail the allocation of this task instead
+        return SubStage.ERROR == patchBody.taskSubStage
+                && currentState.taskSubStage.ordinal() >= SubStage.ALLOCATING.ordinal();
+    }
+
     @Override
     protected void handleStartedStagePatch(CompositionSubTaskState state) {
         switch (state.taskSubStage) {
@@ -314,6 +377,11 @@ public class CompositionSubTaskService
 
         if (SubStage.PREPARE_EXECUTE == patchBody.taskSubStage) {
             currentState.postAllocation = true; // second phase of provisioning
+            currentState.errorCount = currentState.errorCount + patchBody.errorCount;
+            if (currentState.dependsOnLinks != null
+                    && currentState.completedDependsOnLinks != null) {
+                currentState.dependsOnLinks.removeAll(currentState.completedDependsOnLinks);
+            }
         }
     }
 
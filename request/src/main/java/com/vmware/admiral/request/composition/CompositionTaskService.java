@@ -25,11 +25,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -61,7 +62,7 @@ import com.vmware.admiral.service.common.ServiceTaskCallback.ServiceTaskCallback
 import com.vmware.admiral.service.common.TaskServiceDocument;
 import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
-import com.vmware.xenon.common.Operation.CompletionHandler;
+import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.ServiceDocument;
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
 import com.vmware.xenon.common.TaskState;
@@ -81,14 +82,18 @@ public class CompositionTaskService
     // cached description
     private volatile CompositeDescriptionExpanded compositeDescription;
 
+    // subTasks already patched to provisioning by this instance, the subTasks ignore the patches
+    // repeated by another instance after a restart or an owner change
+    private final Set<String> provisioningRequestedLinks = ConcurrentHashMap.newKeySet();
+
     public static class CompositionTaskState extends
             com.vmware.admiral.service.common.TaskServiceDocument<CompositionTaskState.SubStage> {
 
         public static enum SubStage {
-            CREATED, CONTEXT_PREPARED, RESOURCES_NAMED, COMPONENT_CREATED, DEPENDENCY_GRAPH, DISTRIBUTING, ALLOCATING, ERROR_ALLOCATING, ALLOCATED, DISTRIBUTE_TASKS, PROVISIONING, ERROR_PROVISIONING, COMPLETED, ERROR, FAILED;
+            CREATED, CONTEXT_PREPARED, RESOURCES_NAMED, COMPONENT_CREATED, DEPENDENCY_GRAPH, DISTRIBUTING, PROVISIONING, ERROR_PROVISIONING, COMPLETED, ERROR, FAILED;
 
             static final Set<SubStage> TRANSIENT_SUB_STAGES = new HashSet<>(
-                    Arrays.asList(DISTRIBUTING, DISTRIBUTE_TASKS));
+                    Arrays.asList(DISTRIBUTING));
         }
 
         /** The description that defines the requested resource. */
@@ -104,13 +109,25 @@ public class CompositionTaskService
         @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL }, indexing = STORE_ONLY)
         public String compositeComponentLink;
 
-        /** Set by Task. The count of the current allocations completed. */
+        /** Set by Task. The count of the composition sub-tasks not completed yet. */
         @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL }, indexing = STORE_ONLY)
         public Long remainingCount;
 
-        /** Set by Task. Error count of the current allocations. */
+        /** Set by Task. Error count of the composition sub-tasks. */
         public long errorCount;
 
+        /** Set by Task. Links of the composition sub-tasks with completed allocation. */
+        @PropertyOptions(usage = { SERVICE_USE }, indexing = STORE_ONLY)
+        public Set<String> allocatedLinks;
+
+        /** Set by Task. Links of the allocated composition sub-tasks moved to provisioning. */
+        @PropertyOptions(usage = { SERVICE_USE }, indexing = STORE_ONLY)
+        public Set<String> provisioningLinks;
+
+        /** Set by Task. Links of the composition sub-tasks completed or failed. */
+        @PropertyOptions(usage = { SERVICE_USE }, indexing = STORE_ONLY)
+        public Set<String> completedLinks;
+
         /** (Internal) Set by task with ContainerDescription name. */
         @PropertyOptions(usage = { SERVICE_USE, AUTO_MERGE_IF_NOT_NULL }, indexing = STORE_ONLY)
         public String descName;
@@ -153,19 +170,9 @@ public class CompositionTaskService
             break;
         case DISTRIBUTING:
             break;
-        case ALLOCATING:
-            counting(state, true);
-            break;
-        case ERROR_ALLOCATING:
-            transitionToErrorIfNoRemaining(state);
-            break;
-        case ALLOCATED:
-            patchSubTask(state);
-            break;
-        case DISTRIBUTE_TASKS:
-            break;
         case PROVISIONING:
-            counting(state, false);
+            provisionAllocatedSubTasks(state);
+            counting(state);
             break;
         case ERROR_PROVISIONING:
             transitionToErrorIfNoRemaining(state);
@@ -186,9 +193,7 @@ public class CompositionTaskService
             CompositionTaskState patchBody, CompositionTaskState currentState) {
         if (currentState.taskInfo != null
                 && TaskStage.STARTED == currentState.taskInfo.stage
-                && (SubStage.ALLOCATING == patchBody.taskSubStage
-                        || SubStage.ERROR_ALLOCATING == patchBody.taskSubStage
-                        || SubStage.PROVISIONING == patchBody.taskSubStage
+                && (SubStage.PROVISIONING == patchBody.taskSubStage
                         || SubStage.ERROR_PROVISIONING == patchBody.taskSubStage)
                 && currentState.remainingCount != null
                 && currentState.remainingCount > 0
@@ -197,10 +202,11 @@ public class CompositionTaskService
             CompositionSubTaskState state = patch.getBody(CompositionSubTaskState.class);
             String patchSelfLink = state.getCustomProperty(CompositionSubTaskService.REFERER);
             if (patchSelfLink != null) {
-                // count down how many of the subTask have callback by referrer link:
+                // track the allocation and the completion of the subTask by referrer link:
                 final ResourceNode resourceNode = currentState.resourceNodes.get(patchSelfLink);
                 if (resourceNode != null) {
-                    currentState.remainingCount--;
+                    subTaskPatched(currentState, patchSelfLink,
+                            SubStage.ERROR_PROVISIONING == patchBody.taskSubStage);
                     logInfo("Remaining count: [%s]. Stage: [%s]. Completion of resource name: [%s]"
                                     + " composition sub-task [%s] patched.",
                             currentState.remainingCount, patchBody.taskSubStage, resourceNode.name,
@@ -215,23 +221,78 @@ public class CompositionTaskService
                                 + " no referer property was found. Actual referer [%s]",
                         currentState.remainingCount, patch.getReferer().getPath());
             }
-        } else if (SubStage.ERROR_ALLOCATING == patchBody.taskSubStage) {
+        } else if (SubStage.ERROR_PROVISIONING == patchBody.taskSubStage) {
             logWarning("No remaining count: %s", currentState.remainingCount);
         }
 
-        if (TaskStage.STARTED == patchBody.taskInfo.stage) {
-            if (SubStage.ERROR_ALLOCATING == patchBody.taskSubStage) {
-                if (currentState.remainingCount != null && currentState.remainingCount > 0) {
-                    currentState.taskSubStage = SubStage.ALLOCATING;
-                    currentState.errorCount = currentState.errorCount + 1;
-                }
-            } else if (SubStage.ERROR_PROVISIONING == patchBody.taskSubStage) {
-                if (currentState.remainingCount != null && currentState.remainingCount > 0) {
-                    currentState.taskSubStage = SubStage.PROVISIONING;
-                    currentState.errorCount = currentState.errorCount + 1;
-                }
+        if (TaskStage.STARTED == patchBody.taskInfo.stage
+                && SubStage.ERROR_PROVISIONING == patchBody.taskSubStage) {
+            if (currentState.remainingCount != null && currentState.remainingCount > 0) {
+                currentState.taskSubStage = SubStage.PROVISIONING;
+                currentState.errorCount = currentState.errorCount + 1;
+            }
+        }
+    }
+
+    /**
+     * Records the allocation or the completion of the given subTask and moves to provisioning the
+     * allocated subTasks which no longer wait for other allocations. The sets are replaced rather
+     * than modified, since the stage handlers read them while later patches are merged.
+     */
+    private void subTaskPatched(CompositionTaskState state, String subTaskLink, boolean failed) {
+        if (failed || contains(state.provisioningLinks, subTaskLink)) {
+            // provisioned, failed to provision or failed to allocate
+            state.completedLinks = with(state.completedLinks, Collections.singleton(subTaskLink));
+            state.remainingCount = (long) (state.resourceNodes.size()
+                    - state.completedLinks.size());
+        } else {
+            state.allocatedLinks = with(state.allocatedLinks, Collections.singleton(subTaskLink));
+        }
+
+        Set<String> readyLinks = new HashSet<>();
+        for (Map.Entry<String, ResourceNode> entry : state.resourceNodes.entrySet()) {
+            String link = entry.getKey();
+            if (contains(state.allocatedLinks, link)
+                    && !contains(state.provisioningLinks, link)
+                    && !isWaitingForDependents(state, entry.getValue())) {
+                readyLinks.add(link);
             }
         }
+        if (!readyLinks.isEmpty()) {
+            state.provisioningLinks = with(state.provisioningLinks, readyLinks);
+        }
+    }
+
+    /**
+     * The dependencies of an allocated subTask are always allocated, but networks and volumes are
+     * provisioned on the hosts selected for the containers using them, so these also wait for the
+     * allocation of their dependents.
+     */
+    private boolean isWaitingForDependents(CompositionTaskState state, ResourceNode resourceNode) {
+        if (resourceNode.dependents == null
+                || !(ResourceType.NETWORK_TYPE.getName().equalsIgnoreCase(resourceNode.resourceType)
+                || ResourceType.VOLUME_TYPE.getName()
+                        .equalsIgnoreCase(resourceNode.resourceType))) {
+            return false;
+        }
+
+        for (String dependent : resourceNode.dependents) {
+            String link = buildCompositionSubTaskLink(dependent);
+            if (!contains(state.allocatedLinks, link) && !contains(state.completedLinks, link)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(Set<String> links, String link) {
+        return links != null && links.contains(link);
+    }
+
+    private static Set<String> with(Set<String> links, Set<String> added) {
+        Set<String> result = links == null ? new HashSet<>() : new HashSet<>(links);
+        result.addAll(added);
+        return result;
     }
 
     @Override
@@ -398,34 +459,43 @@ public class CompositionTaskService
             updateComponentsInRequestTracker(state);
         }
 
-        final AtomicBoolean error = new AtomicBoolean();
+        // create the subTasks with one operation per execution level, starting from the last
+        // level, so that the dependent subTasks exist once their dependencies are allocated
+        final Map<Integer, List<Operation>> createOpsByLevel = new TreeMap<>(
+                Collections.reverseOrder());
         for (final Map.Entry<String, ResourceNode> entry : state.resourceNodes.entrySet()) {
             final ResourceNode resourceNode = entry.getValue();
-            final String subTaskSelfLink = entry.getKey();
-            createCompositionSubTask(state, resourceNode, subTaskSelfLink, (o, e) -> {
-                if (e != null) {
-                    if (error.compareAndSet(false, true)) {
-                        failTask("Failure creating composition subTask: " + subTaskSelfLink, e);
-                    } else {
-                        logWarning(// task already failed
-                                "Failure creating composition subTask: [%s]. Error: %s",
-                                subTaskSelfLink, Utils.toString(e));
-                    }
-                    return;
-                }
-                logFine("Composition subTask created: %s", subTaskSelfLink);
-                if (!error.get()) {
-                    logFine("Composition subTask creation completed successfully.");
-                }
-            });
+            createOpsByLevel.computeIfAbsent(resourceNode.level, (l) -> new ArrayList<>())
+                    .add(createCompositionSubTask(state, resourceNode, entry.getKey()));
         }
+        createCompositionSubTasks(createOpsByLevel.values().iterator());
 
         proceedTo(SubStage.DISTRIBUTING);
     }
 
-    private void createCompositionSubTask(final CompositionTaskState state,
-            final ResourceNode resourceNode, String subTaskSelfLink,
-            final CompletionHandler completionHandler) {
+    private void createCompositionSubTasks(final Iterator<List<Operation>> createOpsByLevel) {
+        if (!createOpsByLevel.hasNext()) {
+            logFine("Composition subTask creation completed successfully.");
+            return;
+        }
+
+        OperationJoin.create(createOpsByLevel.next())
+                .setCompletion((ops, failures) -> {
+                    if (failures != null) {
+                        Map.Entry<Long, Throwable> failure = failures.entrySet().iterator().next();
+                        failTask("Failure creating composition subTask: "
+                                + ops.get(failure.getKey()).getBody(CompositionSubTaskState.class)
+                                        .documentSelfLink, failure.getValue());
+                        return;
+                    }
+                    logFine("Composition subTasks created: %s", ops.size());
+                    createCompositionSubTasks(createOpsByLevel);
+                })
+                .sendWith(this);
+    }
+
+    private Operation createCompositionSubTask(final CompositionTaskState state,
+            final ResourceNode resourceNode, String subTaskSelfLink) {
         final CompositionSubTaskState compositionSubTask = new CompositionSubTaskState();
         compositionSubTask.documentSelfLink = subTaskSelfLink;
         compositionSubTask.requestId = getSelfId();
@@ -451,49 +521,47 @@ public class CompositionTaskService
                     .collect(Collectors.toSet());
         }
 
+        // the same callback reports the allocation and later the provisioning of the subTask
         compositionSubTask.serviceTaskCallback = ServiceTaskCallback.create(getSelfLink(),
-                TaskStage.STARTED, SubStage.ALLOCATING,
-                TaskStage.STARTED, SubStage.ERROR_ALLOCATING);
+                TaskStage.STARTED, SubStage.PROVISIONING,
+                TaskStage.STARTED, SubStage.ERROR_PROVISIONING);
 
-        sendRequest(Operation.createPost(this, CompositionSubTaskFactoryService.SELF_LINK)
+        return Operation.createPost(this, CompositionSubTaskFactoryService.SELF_LINK)
                 .setBody(compositionSubTask)
-                .setContextId(compositionSubTask.requestId)
-                .setCompletion(completionHandler));
+                .setContextId(compositionSubTask.requestId);
     }
 
-    private void patchSubTask(CompositionTaskState state) {
-        final AtomicBoolean error = new AtomicBoolean();
-        final AtomicInteger countDown = new AtomicInteger(state.resourceNodes.size());
-        for (final Map.Entry<String, ResourceNode> entry : state.resourceNodes.entrySet()) {
-            final ResourceNode resourceNode = entry.getValue();
-            final String subTaskSelfLink = entry.getKey();
-            // patch each subtask to PREPARE_EXECUTE, and set new callback and dependsOn
-            patchCompositionSubTask(state, resourceNode, subTaskSelfLink, (o, e) -> {
-                if (e != null) {
-                    if (error.compareAndSet(false, true)) {
-                        failTask("Failure patching composition subTask: " + subTaskSelfLink, e);
-                    } else {
-                        logWarning(// task already failed
-                                "Failure patching composition subTask: [%s]. Error: %s",
-                                subTaskSelfLink, Utils.toString(e));
-                    }
-                    return;
-                }
-                logFine("Composition subTask patched: %s", subTaskSelfLink);
-                if (!error.get()) {
-                    logFine("Composition subTask patch completed successfully.");
-                }
-                // patch all subtasks to execute when all of them are prepared
-                if (countDown.decrementAndGet() == 0 && !error.get()) {
-                    patchSubTaskToExecute(state);
-                }
-            });
+    private void provisionAllocatedSubTasks(CompositionTaskState state) {
+        final Set<String> provisioningLinks = state.provisioningLinks;
+        if (provisioningLinks == null) {
+            return;
+        }
+
+        for (final String subTaskSelfLink : provisioningLinks) {
+            if (!provisioningRequestedLinks.add(subTaskSelfLink)) {
+                continue;
+            }
+            // once a subTask failed, the rest are only released to fail their dependents
+            boolean cancel = state.errorCount > 0;
+            Operation prepareExecute = patchCompositionSubTask(state.resourceNodes
+                    .get(subTaskSelfLink), subTaskSelfLink, cancel);
+            sendWithDeferredResult(prepareExecute)
+                    .thenCompose((o) -> sendWithDeferredResult(
+                            patchCompositionSubTaskToExecute(subTaskSelfLink)))
+                    .whenComplete((o, e) -> {
+                        if (e != null) {
+                            failTask("Failure patching composition subTask: " + subTaskSelfLink,
+                                    e);
+                            return;
+                        }
+                        logFine("Composition subTask moved to %s: %s",
+                                cancel ? "error" : "provisioning", subTaskSelfLink);
+                    });
         }
     }
 
-    private void patchCompositionSubTask(final CompositionTaskState state,
-            final ResourceNode resourceNode, String subTaskSelfLink,
-            final CompletionHandler completionHandler) {
+    private Operation patchCompositionSubTask(final ResourceNode resourceNode,
+            String subTaskSelfLink, boolean cancel) {
         final CompositionSubTaskState compositionSubTask = new CompositionSubTaskState();
         compositionSubTask.documentSelfLink = subTaskSelfLink;
         if (resourceNode.dependsOn != null && !resourceNode.dependsOn.isEmpty()) {
@@ -501,57 +569,26 @@ public class CompositionTaskService
                     .stream().map((r) -> buildCompositionSubTaskLink(r))
                     .collect(Collectors.toSet());
         }
-        compositionSubTask.serviceTaskCallback = ServiceTaskCallback.create(getSelfLink(),
-                TaskStage.STARTED, SubStage.PROVISIONING,
-                TaskStage.STARTED, SubStage.ERROR_PROVISIONING);
+        compositionSubTask.errorCount = cancel ? 1 : 0;
         compositionSubTask.taskInfo = new TaskState();
         compositionSubTask.taskInfo.stage = TaskStage.STARTED;
         compositionSubTask.taskSubStage = CompositionSubTaskState.SubStage.PREPARE_EXECUTE;
 
-        sendRequest(Operation.createPatch(this, subTaskSelfLink)
+        return Operation.createPatch(this, subTaskSelfLink)
                 .setBody(compositionSubTask)
-                .setContextId(compositionSubTask.requestId)
-                .setCompletion(completionHandler));
-    }
-
-    private void patchSubTaskToExecute(CompositionTaskState state) {
-        final AtomicBoolean error = new AtomicBoolean();
-        // patch each subtask to EXECUTE
-        for (final String subTaskSelfLink : state.resourceNodes.keySet()) {
-            patchCompositionSubTaskToExecute(subTaskSelfLink, (o, e) -> {
-                if (e != null) {
-                    if (error.compareAndSet(false, true)) {
-                        failTask("Failure patching composition subTask: " + subTaskSelfLink, e);
-                    } else {
-                        logWarning(// task already failed
-                                "Failure patching composition subTask: [%s]. Error: %s",
-                                subTaskSelfLink, Utils.toString(e));
-                    }
-                    return;
-                }
-                logFine("Composition subTask patched: %s", subTaskSelfLink);
-                if (!error.get()) {
-                    logFine("Composition subTask patch completed successfully.");
-                }
-            });
-        }
-
-        proceedTo(SubStage.DISTRIBUTE_TASKS);
+                .setContextId(getSelfId());
     }
 
-    private void patchCompositionSubTaskToExecute(
-            String subTaskSelfLink,
-            CompletionHandler completionHandler) {
+    private Operation patchCompositionSubTaskToExecute(String subTaskSelfLink) {
         final CompositionSubTaskState compositionSubTask = new CompositionSubTaskState();
         compositionSubTask.documentSelfLink = subTaskSelfLink;
         compositionSubTask.taskInfo = new TaskState();
         compositionSubTask.taskInfo.stage = TaskStage.STARTED;
         compositionSubTask.taskSubStage = CompositionSubTaskState.SubStage.EXECUTE;
 
-        sendRequest(Operation.createPatch(this, subTaskSelfLink)
+        return Operation.createPatch(this, subTaskSelfLink)
                 .setBody(compositionSubTask)
-                .setContextId(compositionSubTask.requestId)
-                .setCompletion(completionHandler));
+                .setContextId(getSelfId());
     }
 
     private String buildCompositionSubTaskLink(String name) {
@@ -560,18 +597,12 @@ public class CompositionTaskService
                 compositionSubTaskId);
     }
 
-    private void counting(CompositionTaskState state, boolean allocate) {
+    private void counting(CompositionTaskState state) {
         if (state.remainingCount == 0) {
             if (state.errorCount > 0) {
                 proceedTo(SubStage.ERROR);
             } else {
-                if (allocate) {
-                    proceedTo(SubStage.ALLOCATED, s -> {
-                        s.remainingCount = (long) state.resourceNodes.size();
-                    });
-                } else {
-                    proceedTo(SubStage.COMPLETED);
-                }
+                proceedTo(SubStage.COMPLETED);
             }
         } else {
             logFine("CompositeTask patched - remaining subTasks in progress : %s",
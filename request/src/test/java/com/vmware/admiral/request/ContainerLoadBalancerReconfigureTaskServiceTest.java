@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import static com.vmware.admiral.compute.container.loadbalancer.ContainerLoadBalancers
+        .CONTAINER_LOAD_BALANCER_DESCRIPTION_LINK;
+import static com.vmware.admiral.request.utils.RequestUtils.FIELD_NAME_CONTEXT_ID_KEY;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.compute.container.CompositeComponentFactoryService;
+import com.vmware.admiral.compute.container.CompositeComponentService.CompositeComponent;
+import com.vmware.admiral.compute.container.ContainerDescriptionService;
+import com.vmware.admiral.compute.container.ContainerDescriptionService.ContainerDescription;
+import com.vmware.admiral.compute.container.ContainerFactoryService;
+import com.vmware.admiral.compute.container.ContainerService.ContainerState;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService
+        .ShellContainerExecutorResult;
+import com.vmware.admiral.compute.container.ShellContainerExecutorService
+        .ShellContainerExecutorState;
+import com.vmware.admiral.request.ContainerLoadBalancerReconfigureTaskService
+        .ContainerLoadBalancerReconfigureTaskState;
+import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.test.TestContext;
+
+/**
+ * Tests for the {@link ContainerLoadBalancerReconfigureTaskService} class.
+ */
+public class ContainerLoadBalancerReconfigureTaskServiceTest extends ContainerLoadBalancerBaseTest {
+
+    private MockShellContainerExecutorService executor;
+    private String contextId;
+    private ContainerState backend;
+
+    @Override
+    @Before
+    public void setUp() throws Throwable {
+        super.setUp();
+
+        stopService(ShellContainerExecutorService.SELF_LINK);
+        executor = new MockShellContainerExecutorService();
+        host.startService(Operation.createPost(
+                UriUtils.buildUri(host, ShellContainerExecutorService.SELF_LINK)), executor);
+        waitForServiceAvailability(ShellContainerExecutorService.SELF_LINK);
+
+        createContainerLoadBalancerDescription(UUID.randomUUID().toString());
+
+        ContainerDescription backendDesc = new ContainerDescription();
+        backendDesc.name = "wp";
+        backendDesc.image = "wordpress";
+        backendDesc = doPost(backendDesc, ContainerDescriptionService.FACTORY_LINK);
+
+        ContainerDescription lbContainerDesc = new ContainerDescription();
+        lbContainerDesc.name = "lb";
+        lbContainerDesc.image = "haproxy";
+        lbContainerDesc.customProperties = new HashMap<>();
+        lbContainerDesc.customProperties.put(CONTAINER_LOAD_BALANCER_DESCRIPTION_LINK,
+                loadBalancerDesc.documentSelfLink);
+        lbContainerDesc = doPost(lbContainerDesc, ContainerDescriptionService.FACTORY_LINK);
+
+        ContainerState loadBalancer = createContainer(lbContainerDesc, "lb-1");
+        backend = createContainer(backendDesc, "wp-1");
+        ContainerState otherBackend = createContainer(backendDesc, "wp-2");
+
+        contextId = UUID.randomUUID().toString();
+        CompositeComponent compositeComponent = new CompositeComponent();
+        compositeComponent.documentSelfLink = contextId;
+        compositeComponent.name = "lb-app";
+        compositeComponent.componentLinks = new ArrayList<>(Arrays.asList(
+                loadBalancer.documentSelfLink, backend.documentSelfLink,
+                otherBackend.documentSelfLink));
+        doPost(compositeComponent, CompositeComponentFactoryService.SELF_LINK);
+    }
+
+    @Test
+    public void testConcurrentReconfigurationsAreCoalesced() throws Throwable {
+        List<String> taskLinks = startReconfigureTasks(3);
+        for (String taskLink : taskLinks) {
+            waitForTaskSuccess(taskLink, ContainerLoadBalancerReconfigureTaskState.class);
+        }
+
+        assertEquals(1, executor.configs.size());
+        String config = executor.configs.get(0);
+        assertTrue(config, config.contains("wp-1"));
+        assertTrue(config, config.contains("wp-2"));
+    }
+
+    @Test
+    public void testUnchangedConfigurationIsNotPushed() throws Throwable {
+        reconfigure();
+        assertEquals(1, executor.configs.size());
+
+        reconfigure();
+        assertEquals(1, executor.configs.size());
+
+        // a changed backend changes the configuration
+        backend.names = new ArrayList<>(Collections.singletonList("wp-3"));
+        doPatch(backend, backend.documentSelfLink);
+        reconfigure();
+        assertEquals(2, executor.configs.size());
+        assertTrue(executor.configs.get(1).contains("wp-3"));
+    }
+
+    private void reconfigure() throws Throwable {
+        waitForTaskSuccess(startReconfigureTasks(1).get(0),
+                ContainerLoadBalancerReconfigureTaskState.class);
+    }
+
+    private List<String> startReconfigureTasks(int count) {
+        List<String> taskLinks = Collections.synchronizedList(new ArrayList<>());
+        TestContext ctx = testCreate(count);
+        for (int i = 0; i < count; i++) {
+            ContainerLoadBalancerReconfigureTaskState task =
+                    new ContainerLoadBalancerReconfigureTaskState();
+            task.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+            task.customProperties = new HashMap<>();
+            task.customProperties.put(FIELD_NAME_CONTEXT_ID_KEY, contextId);
+            host.sendRequest(Operation
+                    .createPost(UriUtils.buildUri(host,
+                            ContainerLoadBalancerReconfigureTaskService.FACTORY_LINK))
+                    .setReferer(host.getUri())
+                    .setBody(task)
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            ctx.failIteration(e);
+                            return;
+                        }
+                        taskLinks.add(o.getBody(ContainerLoadBalancerReconfigureTaskState.class)
+                                .documentSelfLink);
+                        ctx.completeIteration();
+                    }));
+        }
+        ctx.await();
+        return taskLinks;
+    }
+
+    private ContainerState createContainer(ContainerDescription description, String name)
+            throws Throwable {
+        ContainerState container = new ContainerState();
+        container.descriptionLink = description.documentSelfLink;
+        container.id = UUID.randomUUID().toString();
+        container.names = new ArrayList<>(Collections.singletonList(name));
+        return doPost(container, ContainerFactoryService.SELF_LINK);
+    }
+
+    private void stopService(String link) {
+        TestContext ctx = testCreate(1);
+        Operation deleteOp = Operation.createDelete(UriUtils.buildUri(host, link))
+                .addPragmaDirective(Operation.PRAGMA_DIRECTIVE_NO_INDEX_UPDATE)
+                .setReplicationDisabled(true).setCompletion(ctx.getCompletion())
+                .setReferer(host.getUri());
+        host.send(deleteOp);
+        ctx.await();
+    }
+
+    /**
+     * Executor recording the configurations pushed to the load balancers.
+     */
+    private static class MockShellContainerExecutorService extends StatelessService {
+        final List<String> configs = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void handlePost(Operation op) {
+            ShellContainerExecutorState execState = op.getBody(ShellContainerExecutorState.class);
+            configs.add(execState.command[execState.command.length - 1]);
+
+            ShellContainerExecutorResult result = new ShellContainerExecutorResult();
+            result.exitCode = 0;
+            op.setBodyNoCloning(result).complete();
+        }
+    }
+}
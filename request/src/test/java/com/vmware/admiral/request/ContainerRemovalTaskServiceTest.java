@@ -23,15 +23,21 @@ import static com.vmware.admiral.common.ManagementUriParts.CLOSURES_CONTAINER_DE
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.vmware.admiral.adapter.common.AdapterRequest;
 import com.vmware.admiral.adapter.common.ContainerOperationType;
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.compute.ContainerHostService;
@@ -52,8 +58,11 @@ import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
 import com.vmware.admiral.request.util.TestRequestStateFactory;
 import com.vmware.admiral.request.utils.RequestUtils;
 import com.vmware.admiral.service.common.ServiceTaskCallback;
+import com.vmware.photon.controller.model.resources.ComputeService;
 import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.UriUtils;
 
@@ -280,6 +289,33 @@ public class ContainerRemovalTaskServiceTest extends RequestBaseTest {
         });
     }
 
+    @Test
+    public void testCompositeComponentIsNotifiedOfAllRemovedContainers() throws Throwable {
+        CompositeComponent component = new CompositeComponent();
+        component.name = "test-name";
+        component = doPost(component, CompositeComponentFactoryService.SELF_LINK);
+
+        List<String> containerStateLinks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            containerStateLinks.add(createContainer(component).documentSelfLink);
+        }
+        String remainingLink = createContainer(component).documentSelfLink;
+        String componentLink = component.documentSelfLink;
+        waitFor(() -> getDocument(CompositeComponent.class, componentLink).componentLinks
+                .size() == containerStateLinks.size() + 1);
+
+        ContainerRemovalTaskState removalTask = new ContainerRemovalTaskState();
+        removalTask.resourceLinks = new HashSet<>(containerStateLinks);
+        removalTask.skipReleaseResourcePlacement = true;
+        removalTask.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        removalTask = doPost(removalTask, ContainerRemovalTaskFactoryService.SELF_LINK);
+        waitForTaskSuccess(removalTask.documentSelfLink, ContainerRemovalTaskState.class);
+
+        // the removed containers are no longer components of the composite component
+        waitFor(() -> Collections.singletonList(remainingLink).equals(
+                getDocument(CompositeComponent.class, componentLink).componentLinks));
+    }
+
     @Test
     public void testSystemContainerRemoveOperation() throws Throwable {
         ContainerState container = TestRequestStateFactory.createContainer();
@@ -773,6 +809,49 @@ public class ContainerRemovalTaskServiceTest extends RequestBaseTest {
                 .noneMatch(p -> documentLink.equals(p.getValue())));
     }
 
+    @Test
+    public void testRemoveContainersOfSeveralHosts() throws Throwable {
+        MockRemovalAdapterService adapter = new MockRemovalAdapterService();
+        host.startService(Operation.createPost(
+                UriUtils.buildUri(host, MockRemovalAdapterService.SELF_LINK)), adapter);
+        waitForServiceAvailability(MockRemovalAdapterService.SELF_LINK);
+
+        int containersPerHost = ContainerRemovalTaskService.MAX_CONCURRENT_REMOVALS_PER_HOST + 4;
+        Set<String> containerLinks = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            String hostLink = UriUtils.buildUriPath(ComputeService.FACTORY_LINK,
+                    "removal-host-" + i);
+            for (int j = 0; j < containersPerHost; j++) {
+                ContainerState container = TestRequestStateFactory.createContainer();
+                container.id = UUID.randomUUID().toString();
+                container.parentLink = hostLink;
+                container.descriptionLink = containerDesc.documentSelfLink;
+                container.adapterManagementReference = UriUtils.buildUri(host,
+                        MockRemovalAdapterService.SELF_LINK);
+                container = doPost(container, ContainerFactoryService.SELF_LINK);
+                containerLinks.add(container.documentSelfLink);
+                adapter.hostLinks.put(container.documentSelfLink, hostLink);
+            }
+        }
+
+        ContainerRemovalTaskState removalTask = new ContainerRemovalTaskState();
+        removalTask.resourceLinks = containerLinks;
+        removalTask.skipReleaseResourcePlacement = true;
+        removalTask.serviceTaskCallback = ServiceTaskCallback.createEmpty();
+        removalTask = doPost(removalTask, ContainerRemovalTaskFactoryService.SELF_LINK);
+        waitForTaskSuccess(removalTask.documentSelfLink, ContainerRemovalTaskState.class);
+
+        // each container is removed once, never more than the bound at a time per host
+        assertEquals(containerLinks, new HashSet<>(adapter.removedLinks));
+        assertEquals(containerLinks.size(), adapter.removedLinks.size());
+        assertEquals(3, adapter.maxInFlight.size());
+        adapter.maxInFlight.values().forEach((max) -> assertTrue(String.valueOf(max),
+                max.get() <= ContainerRemovalTaskService.MAX_CONCURRENT_REMOVALS_PER_HOST));
+
+        // the container states are deleted
+        assertTrue(findResourceLinks(ContainerState.class, containerLinks).isEmpty());
+    }
+
     private ContainerState createContainer(CompositeComponent component) throws Throwable {
         ContainerState container = TestRequestStateFactory.createContainer();
         container.descriptionLink = containerDesc.documentSelfLink;
@@ -782,4 +861,38 @@ public class ContainerRemovalTaskServiceTest extends RequestBaseTest {
         container = doPost(container, ContainerFactoryService.SELF_LINK);
         return container;
     }
-}
\ No newline at end of file
+
+    /**
+     * Adapter removing the containers after a short delay, recording the most containers removed
+     * at the same time per host.
+     */
+    private static class MockRemovalAdapterService extends StatelessService {
+        static final String SELF_LINK = "/test/container-removal-adapter";
+
+        final Map<String, String> hostLinks = new ConcurrentHashMap<>();
+        final List<String> removedLinks = Collections.synchronizedList(new ArrayList<>());
+        final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+
+        @Override
+        public void handlePatch(Operation op) {
+            AdapterRequest request = op.getBody(AdapterRequest.class);
+            op.complete();
+
+            String containerLink = request.resourceReference.getPath();
+            String hostLink = hostLinks.get(containerLink);
+            int current = inFlight.computeIfAbsent(hostLink, (k) -> new AtomicInteger())
+                    .incrementAndGet();
+            maxInFlight.computeIfAbsent(hostLink, (k) -> new AtomicInteger())
+                    .accumulateAndGet(current, Math::max);
+
+            getHost().schedule(() -> {
+                inFlight.get(hostLink).decrementAndGet();
+                removedLinks.add(containerLink);
+                sendRequest(Operation.createPatch(this,
+                        request.serviceTaskCallback.serviceSelfLink)
+                        .setBody(request.serviceTaskCallback.getFinishedResponse()));
+            }, 20, TimeUnit.MILLISECONDS);
+        }
+    }
+}
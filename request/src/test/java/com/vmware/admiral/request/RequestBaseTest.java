@@ -89,6 +89,7 @@ import com.vmware.admiral.request.utils.RequestUtils;
 import com.vmware.admiral.service.common.ConfigurationService.ConfigurationFactoryService;
 import com.vmware.admiral.service.common.ConfigurationService.ConfigurationState;
 import com.vmware.admiral.service.common.CounterSubTaskService;
+import com.vmware.admiral.service.common.LocalCounterSubTaskService;
 import com.vmware.admiral.service.common.RegistryService;
 import com.vmware.admiral.service.common.ResourceNamePrefixService;
 import com.vmware.admiral.service.test.MockComputeHostInstanceAdapter;
@@ -238,6 +239,7 @@ public abstract class RequestBaseTest extends BaseTestCase {
                 ConfigurationFactoryService.SELF_LINK,
                 EventLogService.FACTORY_LINK,
                 CounterSubTaskService.FACTORY_LINK,
+                LocalCounterSubTaskService.FACTORY_LINK,
                 ReservationAllocationTaskService.FACTORY_LINK,
                 HostPortProfileService.FACTORY_LINK,
                 ContainerControlLoopService.FACTORY_LINK));
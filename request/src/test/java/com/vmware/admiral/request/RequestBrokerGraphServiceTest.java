@@ -11,8 +11,10 @@
 
 package com.vmware.admiral.request;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -34,6 +36,7 @@ import com.vmware.admiral.request.composition.CompositionSubTaskService.Composit
 import com.vmware.admiral.request.composition.CompositionTaskFactoryService;
 import com.vmware.admiral.request.composition.CompositionTaskService.CompositionTaskState;
 import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.admiral.service.common.TaskServiceDocument;
 import com.vmware.photon.controller.model.resources.ComputeDescriptionService.ComputeDescription;
 import com.vmware.photon.controller.model.resources.ResourcePoolService.ResourcePoolState;
 
@@ -70,6 +73,14 @@ public class RequestBrokerGraphServiceTest extends RequestBaseTest {
         assertNotNull(graph);
         assertNotNull(graph.tasks);
 
+        // the tasks are found by the link of the request tracker
+        for (TaskServiceDocumentHistory task : graph.tasks) {
+            for (TaskServiceStageWithLink stage : task.stages) {
+                assertEquals(request.requestTrackerLink, stage.properties
+                        .get(TaskServiceDocument.FIELD_NAME_REQUEST_TRACKER_LINK).getAsString());
+            }
+        }
+
         TaskServiceDocumentHistory requestTask = graph.tasks.remove(0);
         assertTaskPassingStages(requestTask, RequestBrokerFactoryService.SELF_LINK,
                 RequestBrokerState.SubStage.values());
@@ -157,6 +168,16 @@ public class RequestBrokerGraphServiceTest extends RequestBaseTest {
                 PlacementHostSelectionTaskState.SubStage.values());
     }
 
+    @Test
+    public void testUnknownRequest() throws Throwable {
+        RequestBrokerGraphResponse graph = getDocument(RequestBrokerGraphResponse.class,
+                ManagementUriParts.REQUEST_GRAPH, RequestBrokerGraphService.QUERY_PARAM,
+                "unknown-request-id");
+        assertNotNull(graph);
+        assertTrue(graph.tasks.isEmpty());
+        assertNull(graph.request);
+    }
+
     private void assertTaskPassingStages(TaskServiceDocumentHistory task, String factoryLink,
             Enum<?>[] taskSubStages) {
         assertTrue(task.documentSelfLink.startsWith(factoryLink));
@@ -13,6 +13,7 @@ package com.vmware.admiral.request;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.net.URI;
@@ -22,6 +23,7 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 import org.junit.After;
@@ -38,6 +40,7 @@ import com.vmware.admiral.request.RequestStatusService.RequestStatus;
 import com.vmware.admiral.request.composition.CompositionTaskFactoryService;
 import com.vmware.admiral.request.composition.CompositionTaskService.CompositionTaskState;
 import com.vmware.admiral.request.util.TestRequestStateFactory;
+import com.vmware.admiral.service.common.AbstractTaskStatefulService.TaskStatusUpdate;
 import com.vmware.admiral.service.common.DefaultSubStage;
 import com.vmware.admiral.service.test.MockDockerAdapterService;
 import com.vmware.xenon.common.Operation;
@@ -257,6 +260,55 @@ public class RequestStatusServiceTest extends RequestBaseTest {
         });
     }
 
+    @Test
+    public void testCoalescedTaskUpdates() throws Throwable {
+        requestId = UUID.randomUUID().toString();
+
+        RequestStatus requestStatus = new RequestStatus();
+        requestStatus.documentSelfLink = requestId;
+        requestStatus.phase = RequestBrokerService.DISPLAY_NAME;
+        requestStatus.taskInfo = TaskState.createAsStarted();
+        requestStatus.subStage = DefaultSubStage.CREATED.name();
+        requestStatus.progress = 0;
+        requestStatus.addTrackedTasks(ContainerAllocationTaskService.DISPLAY_NAME,
+                ReservationTaskService.DISPLAY_NAME);
+        requestStatus = doPost(requestStatus, RequestStatusFactoryService.SELF_LINK);
+
+        TaskStatusUpdate reservation = new TaskStatusUpdate();
+        reservation.taskId = requestId;
+        reservation.phase = ReservationTaskService.DISPLAY_NAME;
+        reservation.taskInfo = TaskState.createAsFinished();
+        reservation.subStage = DefaultSubStage.COMPLETED.name();
+        reservation.progress = 100;
+
+        TaskStatusUpdate allocation = new TaskStatusUpdate();
+        allocation.taskId = requestId;
+        allocation.phase = ContainerAllocationTaskService.DISPLAY_NAME;
+        allocation.taskInfo = TaskState.createAsStarted();
+        allocation.subStage = DefaultSubStage.PROCESSING.name();
+        allocation.progress = 50;
+        allocation.name = "container-name";
+
+        RequestStatus batch = new RequestStatus();
+        batch.taskUpdates = Arrays.asList(reservation, allocation);
+        doOperation(batch, UriUtils.buildUri(host, requestStatus.documentSelfLink), false,
+                Action.PATCH);
+
+        RequestStatus updatedStatus = getRequestStatus(requestId);
+        assertEquals(Integer.valueOf(100), updatedStatus.requestProgressByComponent
+                .get(ReservationTaskService.DISPLAY_NAME)
+                .get(RequestStatusService.DEFAULT_COMPONENT_NAME));
+        assertEquals(Integer.valueOf(50), updatedStatus.requestProgressByComponent
+                .get(ContainerAllocationTaskService.DISPLAY_NAME)
+                .get(RequestStatusService.DEFAULT_COMPONENT_NAME));
+        assertEquals(Integer.valueOf(75), updatedStatus.progress);
+        // the last update of the batch determines the current phase
+        assertEquals(ContainerAllocationTaskService.DISPLAY_NAME, updatedStatus.phase);
+        assertEquals(DefaultSubStage.PROCESSING.name(), updatedStatus.subStage);
+        assertEquals("container-name", updatedStatus.name);
+        assertNull(updatedStatus.taskUpdates);
+    }
+
     @After
     public void logRequestHistory() throws Throwable {
         try {
@@ -14,6 +14,7 @@ package com.vmware.admiral.request.composition;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -33,9 +34,11 @@ import com.vmware.admiral.compute.container.ContainerService.ContainerState;
 import com.vmware.admiral.request.RequestBaseTest;
 import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
 import com.vmware.admiral.request.composition.CompositionSubTaskService.CompositionSubTaskState;
+import com.vmware.admiral.request.composition.CompositionSubTaskService.CompositionSubTaskState.SubStage;
 import com.vmware.admiral.request.util.TestRequestStateFactory;
 import com.vmware.admiral.service.common.ServiceTaskCallback;
 import com.vmware.admiral.service.test.MockDockerAdapterService;
+import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.UriUtils;
 
 public class CompositionSubTaskServiceTest extends RequestBaseTest {
@@ -132,6 +135,43 @@ public class CompositionSubTaskServiceTest extends RequestBaseTest {
         assertNull(subTask2.resourceLinks);
     }
 
+    @Test
+    public void testDependencyCompletionBeforeExecutionIsRecorded() throws Throwable {
+        CompositeDescription compositeDescription = createCompositeDescription("test1");
+
+        CompositionSubTaskState subTask = createCompositionSubTask("test1",
+                compositeDescription.documentSelfLink,
+                compositeDescription.descriptionLinks.get(0));
+        String dependsOnLink = UriUtils.buildUriPath(CompositionSubTaskFactoryService.SELF_LINK,
+                UUID.randomUUID().toString());
+        subTask.dependsOnLinks = new HashSet<>(Arrays.asList(dependsOnLink));
+        subTask.allocationRequest = true;
+
+        subTask = doPost(subTask);
+
+        // the dependency is provisioned before the task is allocated
+        CompositionSubTaskState completion = new CompositionSubTaskState();
+        completion.currentDependsOnLink = dependsOnLink;
+        completion.taskInfo = TaskState.create();
+        completion.taskSubStage = SubStage.EXECUTE;
+        doPatch(completion, subTask.documentSelfLink);
+
+        subTask = getDocument(CompositionSubTaskState.class, subTask.documentSelfLink);
+        assertEquals(SubStage.CREATED, subTask.taskSubStage);
+        assertEquals(new HashSet<>(Arrays.asList(dependsOnLink)),
+                subTask.completedDependsOnLinks);
+
+        CompositionSubTaskState prepareExecute = new CompositionSubTaskState();
+        prepareExecute.dependsOnLinks = new HashSet<>(Arrays.asList(dependsOnLink));
+        prepareExecute.taskInfo = TaskState.create();
+        prepareExecute.taskSubStage = SubStage.PREPARE_EXECUTE;
+        doPatch(prepareExecute, subTask.documentSelfLink);
+
+        subTask = getDocument(CompositionSubTaskState.class, subTask.documentSelfLink);
+        assertEquals(SubStage.PREPARE_EXECUTE, subTask.taskSubStage);
+        assertTrue(subTask.dependsOnLinks.isEmpty());
+    }
+
     private CompositeDescription createCompositeDescription(
             String... names) throws Throwable {
         CompositeDescription cd = new CompositeDescription();
@@ -18,6 +18,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
@@ -38,6 +39,9 @@ import com.vmware.admiral.compute.container.GroupResourcePlacementService;
 import com.vmware.admiral.compute.container.GroupResourcePlacementService.GroupResourcePlacementState;
 import com.vmware.admiral.request.RequestBaseTest;
 import com.vmware.admiral.request.RequestBrokerService.RequestBrokerState;
+import com.vmware.admiral.request.composition.CompositionSubTaskService.CompositionSubTaskState;
+import com.vmware.admiral.request.composition.CompositionSubTaskService.CompositionSubTaskState.SubStage;
+import com.vmware.admiral.request.composition.CompositionTaskService.CompositionTaskState;
 import com.vmware.admiral.request.util.TestRequestStateFactory;
 import com.vmware.admiral.request.utils.RequestUtils;
 import com.vmware.admiral.service.test.MockDockerAdapterService;
@@ -48,9 +52,13 @@ import com.vmware.photon.controller.model.resources.LoadBalancerDescriptionServi
 import com.vmware.photon.controller.model.resources.StorageDescriptionService.StorageDescription;
 import com.vmware.photon.controller.model.resources.SubnetService;
 import com.vmware.photon.controller.model.resources.SubnetService.SubnetState;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.TaskState.TaskStage;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.test.TestContext;
 import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
 
 public class CompositionTaskServiceTest extends RequestBaseTest {
 
@@ -312,6 +320,50 @@ public class CompositionTaskServiceTest extends RequestBaseTest {
         verifyCompositesRemoved();
     }
 
+    @Test
+    public void testAllocationAndProvisioningOverlap() throws Throwable {
+        addAdditionalPlacement();
+
+        CompositeDescription compositeDesc = createComplexCompositeDesc();
+
+        RequestBrokerState request = startRequest(compositeDesc);
+        request = waitForTaskSuccess(request.documentSelfLink, RequestBrokerState.class);
+        assertValidRequest(request, compositeDesc);
+
+        // the components allocated first are moved to provisioning while the rest are allocated
+        List<CompositionTaskState> history = getCompositionTaskHistory(
+                extractId(request.documentSelfLink));
+        assertTrue(history.stream().anyMatch((s) -> s.provisioningLinks != null
+                && !s.provisioningLinks.isEmpty()
+                && (s.allocatedLinks == null
+                        || s.allocatedLinks.size() < compositeDesc.descriptionLinks.size())));
+    }
+
+    @Test
+    public void testRepeatedMoveToExecutionIsIgnored() throws Throwable {
+        ContainerDescription desc1 = TestRequestStateFactory.createContainerDescription("name1");
+        CompositeDescription compositeDesc = createCompositeDesc(desc1);
+
+        RequestBrokerState request = startRequest(compositeDesc);
+        request = waitForTaskSuccess(request.documentSelfLink, RequestBrokerState.class);
+        assertValidRequest(request, compositeDesc);
+
+        // a restarted composition task moves the allocated subTasks to execution again
+        String subTaskLink = UriUtils.buildUriPath(CompositionSubTaskFactoryService.SELF_LINK,
+                extractId(request.documentSelfLink) + "-" + desc1.name);
+        for (SubStage subStage : new SubStage[] { SubStage.PREPARE_EXECUTE, SubStage.EXECUTE }) {
+            CompositionSubTaskState patch = new CompositionSubTaskState();
+            patch.taskInfo = TaskState.create();
+            patch.taskSubStage = subStage;
+            doPatch(patch, subTaskLink);
+        }
+
+        CompositionSubTaskState subTask = getDocument(CompositionSubTaskState.class,
+                subTaskLink);
+        assertEquals(TaskStage.FINISHED, subTask.taskInfo.stage);
+        assertEquals(SubStage.COMPLETED, subTask.taskSubStage);
+    }
+
     private CompositeDescription createComplexCompositeDesc() throws Throwable {
         // Graph:
         // ..................................
@@ -410,6 +462,30 @@ public class CompositionTaskServiceTest extends RequestBaseTest {
         }
     }
 
+    private List<CompositionTaskState> getCompositionTaskHistory(String taskId)
+            throws Throwable {
+        String selfLink = UriUtils.buildUriPath(CompositionTaskFactoryService.SELF_LINK, taskId);
+        QueryTask historyQuery = QueryUtil.buildPropertyQuery(CompositionTaskState.class,
+                ServiceDocument.FIELD_NAME_SELF_LINK, selfLink);
+        historyQuery.querySpec.options = EnumSet.of(QueryOption.INCLUDE_ALL_VERSIONS,
+                QueryOption.EXPAND_CONTENT);
+
+        List<CompositionTaskState> history = new ArrayList<>();
+        TestContext ctx = testCreate(1);
+        new ServiceDocumentQuery<>(host, CompositionTaskState.class).query(historyQuery,
+                (r) -> {
+                    if (r.hasException()) {
+                        ctx.failIteration(r.getException());
+                    } else if (r.hasResult()) {
+                        history.add(r.getResult());
+                    } else {
+                        ctx.completeIteration();
+                    }
+                });
+        ctx.await();
+        return history;
+    }
+
     private void addAdditionalPlacement() throws Throwable {
         GroupResourcePlacementState additionalPlacement = TestRequestStateFactory
                 .createGroupResourcePlacementState();
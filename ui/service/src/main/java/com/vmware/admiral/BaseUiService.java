@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.logging.Level;
 
 import com.vmware.admiral.common.ManagementUriParts;
@@ -99,9 +100,7 @@ public abstract class BaseUiService extends StatelessService {
                             }
                         }
 
-                        get.setBody(o.getBodyRaw())
-                                .setStatusCode(o.getStatusCode())
-                                .setContentType(o.getContentType());
+                        UiAssetService.transferResponse(o, get);
                         if (e != null) {
                             get.fail(e);
                         } else {
@@ -130,14 +129,38 @@ public abstract class BaseUiService extends StatelessService {
             return;
         }
 
+        startUiAssetServices(pathToURIPath);
+    }
+
+    // Serve the UI resources from memory, with one service for each directory and each file at
+    // the root of the UI. A single owner of the whole UI namespace would also get the requests
+    // for any unknown path of the host when the UI is served from /
+    protected void startUiAssetServices(Map<Path, String> pathToURIPath) {
+        String basePath = getSelfLink();
+        if (!basePath.endsWith(UriUtils.URI_PATH_CHAR)) {
+            basePath += UriUtils.URI_PATH_CHAR;
+        }
+
+        Map<String, Map<String, File>> filesByRootEntry = new HashMap<>();
+        Set<String> directories = new HashSet<>();
         for (Entry<Path, String> e : pathToURIPath.entrySet()) {
-            String value = e.getValue();
+            String uriPath = e.getValue();
+            String rootEntry = uriPath;
+            int separator = uriPath.startsWith(basePath)
+                    ? uriPath.indexOf(UriUtils.URI_PATH_CHAR, basePath.length()) : -1;
+            if (separator > 0) {
+                rootEntry = uriPath.substring(0, separator);
+                directories.add(rootEntry);
+            }
+            filesByRootEntry.computeIfAbsent(rootEntry, k -> new HashMap<>())
+                    .put(uriPath, e.getKey().toFile());
+        }
 
+        for (Entry<String, Map<String, File>> e : filesByRootEntry.entrySet()) {
             Operation post = Operation
-                    .createPost(UriUtils.buildUri(getHost(), value));
-            RestrictiveFileContentService fcs = new RestrictiveFileContentService(
-                    e.getKey().toFile());
-            getHost().startService(post, fcs);
+                    .createPost(UriUtils.buildUri(getHost(), e.getKey()));
+            getHost().startService(post,
+                    new UiAssetService(e.getValue(), directories.contains(e.getKey())));
         }
     }
 
@@ -335,10 +358,7 @@ public abstract class BaseUiService extends StatelessService {
             Operation operation = get.clone();
             operation.setUri(UriUtils.buildUri(getHost(), uriPath))
                     .setCompletion((o, e) -> {
-                        get.setBody(o.getBodyRaw())
-                                .setStatusCode(o.getStatusCode())
-                                .setContentType(o.getContentType());
-                        get.transferResponseHeadersFrom(o);
+                        UiAssetService.transferResponse(o, get);
                         if (e != null) {
                             get.fail(e);
                         } else {
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import com.vmware.admiral.common.util.ConfigurationUtil;
+import com.vmware.xenon.common.FileUtils;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+
+/**
+ * Serves static UI files from memory, either all files of a directory of the UI bundle as the
+ * owner of its URI namespace or a single file. A file is read on its first request, together
+ * with its ETag, and its gzip compressed variant is computed on the first request accepting it,
+ * so nothing is read or compressed when the service starts. Requests with a matching
+ * If-None-Match header get 304 (Not Modified) and files with a content hash in their name are
+ * cacheable forever.
+ */
+public class UiAssetService extends StatelessService {
+
+    public static final String ETAG_HEADER = "etag";
+    public static final String IF_NONE_MATCH_HEADER = "if-none-match";
+    public static final String CACHE_CONTROL_HEADER = "cache-control";
+    public static final String VARY_HEADER = "vary";
+
+    static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=31536000, immutable";
+    static final String CACHE_CONTROL_REVALIDATE = "no-cache";
+
+    // e.g. main.3f2a1b9c8d7e6f50.bundle.js
+    private static final Pattern FINGERPRINTED_FILE_NAME = Pattern.compile(
+            ".*[.-][0-9a-f]{8,}[.].+");
+
+    /**
+     * A file loaded in memory. The compressed variant is computed once, when first requested.
+     */
+    private static class Asset {
+        final String contentType;
+        final byte[] content;
+        final String etag;
+        final boolean immutable;
+        private volatile byte[] gzipContent;
+        private volatile boolean compressed;
+
+        Asset(File file, byte[] content) {
+            this.contentType = FileUtils.getContentType(file.toURI());
+            this.content = content;
+            this.etag = computeEtag(content);
+            this.immutable = FINGERPRINTED_FILE_NAME.matcher(file.getName()).matches();
+        }
+
+        boolean isCompressible() {
+            return contentType != null && (contentType.startsWith("text/")
+                    || contentType.contains("javascript") || contentType.contains("json")
+                    || contentType.contains("xml") || contentType.contains("svg"));
+        }
+
+        byte[] getGzipContent() {
+            if (!compressed) {
+                synchronized (this) {
+                    if (!compressed) {
+                        byte[] gzip = gzip(content);
+                        gzipContent = gzip.length < content.length ? gzip : null;
+                        compressed = true;
+                    }
+                }
+            }
+            return gzipContent;
+        }
+    }
+
+    private final Map<String, File> files;
+    private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a service serving the given files by their URI path. A service serving a
+     * directory must be started on the path of the directory.
+     */
+    public UiAssetService(Map<String, File> files, boolean directory) {
+        this.files = files;
+        if (directory) {
+            this.options.add(ServiceOption.URI_NAMESPACE_OWNER);
+        }
+    }
+
+    @Override
+    public void authorizeRequest(Operation op) {
+        // No authorization required.
+        op.complete();
+    }
+
+    @Override
+    public void handleGet(Operation get) {
+        String path = UriUtils.normalizeUriPath(get.getUri().getPath());
+        File file = files.get(path);
+        if (file == null || (ConfigurationUtil.isEmbedded()
+                && get.getRequestHeader(ConfigurationUtil.UI_PROXY_FORWARD_HEADER) == null)) {
+            Exception notFound = new ServiceHost.ServiceNotFoundException(
+                    get.getUri().toString());
+            notFound.setStackTrace(new StackTraceElement[] {});
+            get.setContentType(Operation.MEDIA_TYPE_APPLICATION_JSON).fail(
+                    Operation.STATUS_CODE_NOT_FOUND, notFound, null);
+            return;
+        }
+
+        Asset asset;
+        try {
+            asset = getAsset(path, file);
+        } catch (IOException e) {
+            logWarning("Error loading UI resource %s: %s", file, e.getMessage());
+            get.fail(e);
+            return;
+        }
+
+        get.addResponseHeader(ETAG_HEADER, asset.etag);
+        get.addResponseHeader(CACHE_CONTROL_HEADER,
+                asset.immutable ? CACHE_CONTROL_IMMUTABLE : CACHE_CONTROL_REVALIDATE);
+        if (asset.isCompressible()) {
+            get.addResponseHeader(VARY_HEADER, Operation.ACCEPT_ENCODING_HEADER);
+        }
+
+        if (matchesEtag(asset.etag, get.getRequestHeader(IF_NONE_MATCH_HEADER))) {
+            get.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED);
+            get.setBody(null);
+            get.complete();
+            return;
+        }
+
+        byte[] body = asset.content;
+        byte[] gzipContent = asset.isCompressible() && acceptsGzip(get)
+                ? asset.getGzipContent() : null;
+        if (gzipContent != null) {
+            body = gzipContent;
+            get.addResponseHeader(Operation.CONTENT_ENCODING_HEADER,
+                    Operation.CONTENT_ENCODING_GZIP);
+            // the body is already compressed, keep the listener from compressing it again
+            get.getAndRemoveRequestHeaderAsIs(Operation.ACCEPT_ENCODING_HEADER);
+        }
+
+        get.setContentType(asset.contentType);
+        get.setBodyNoCloning(body);
+        get.complete();
+    }
+
+    /**
+     * Copies the response of a forwarded request for an asset to the original request.
+     */
+    static void transferResponse(Operation from, Operation to) {
+        to.setBody(from.getBodyRaw())
+                .setStatusCode(from.getStatusCode())
+                .setContentType(from.getContentType());
+        to.transferResponseHeadersFrom(from);
+        if (to.getResponseHeader(Operation.CONTENT_ENCODING_HEADER) != null) {
+            to.getAndRemoveRequestHeaderAsIs(Operation.ACCEPT_ENCODING_HEADER);
+        }
+    }
+
+    private Asset getAsset(String path, File file) throws IOException {
+        Asset asset = assets.get(path);
+        if (asset == null) {
+            // concurrent first requests may read the file more than once, only one is kept
+            asset = new Asset(file, Files.readAllBytes(file.toPath()));
+            Asset current = assets.putIfAbsent(path, asset);
+            if (current != null) {
+                asset = current;
+            }
+        }
+        return asset;
+    }
+
+    private static boolean acceptsGzip(Operation get) {
+        String acceptEncoding = get.getRequestHeader(Operation.ACCEPT_ENCODING_HEADER);
+        return acceptEncoding != null
+                && acceptEncoding.contains(Operation.CONTENT_ENCODING_GZIP);
+    }
+
+    private static boolean matchesEtag(String etag, String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 1);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        } catch (IOException e) {
+            // not thrown when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String computeEtag(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
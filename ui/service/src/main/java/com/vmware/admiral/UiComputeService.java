@@ -15,12 +15,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.logging.Level;
 
 import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.xenon.common.Operation;
-import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 
 public class UiComputeService extends BaseUiService {
@@ -39,15 +37,7 @@ public class UiComputeService extends BaseUiService {
             log(Level.WARNING, "Error enumerating UI resources for %s: %s", this.getSelfLink(),
                     Utils.toString(e));
         }
-        for (Entry<Path, String> e : pathToURIPath.entrySet()) {
-            String value = e.getValue();
-
-            Operation post = Operation
-                    .createPost(UriUtils.buildUri(getHost(), value));
-            RestrictiveFileContentService fcs = new RestrictiveFileContentService(
-                    e.getKey().toFile());
-            getHost().startService(post, fcs);
-        }
+        startUiAssetServices(pathToURIPath);
     }
 
     @Override
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.UriUtils;
+
+public class UiAssetServiceTest {
+
+    private static final byte[] CONTENT = new String(new char[100])
+            .replace("\0", "function() { return 42; }\n").getBytes();
+
+    private static final String INDEX_PATH = "/ui/index.html";
+    private static final String BUNDLE_PATH = "/ui/js/main.3f2a1b9c8d7e6f50.bundle.js";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UiAssetService service;
+
+    @Before
+    public void setUp() throws Throwable {
+        Map<String, File> files = new HashMap<>();
+        files.put(INDEX_PATH, createFile("index.html"));
+        files.put(BUNDLE_PATH, createFile("main.3f2a1b9c8d7e6f50.bundle.js"));
+        service = new UiAssetService(files, true);
+    }
+
+    @Test
+    public void testGetUncompressed() throws Throwable {
+        Operation get = get(INDEX_PATH, null, null);
+
+        assertEquals(Operation.STATUS_CODE_OK, get.getStatusCode());
+        assertArrayEquals(CONTENT, (byte[]) get.getBodyRaw());
+        assertEquals("text/html", get.getContentType());
+        assertNull(get.getResponseHeader(Operation.CONTENT_ENCODING_HEADER));
+        assertNotNull(get.getResponseHeader(UiAssetService.ETAG_HEADER));
+        assertEquals(UiAssetService.CACHE_CONTROL_REVALIDATE,
+                get.getResponseHeader(UiAssetService.CACHE_CONTROL_HEADER));
+    }
+
+    @Test
+    public void testGetCompressed() throws Throwable {
+        Operation get = get(BUNDLE_PATH, "gzip, deflate, br", null);
+
+        assertEquals(Operation.CONTENT_ENCODING_GZIP,
+                get.getResponseHeader(Operation.CONTENT_ENCODING_HEADER));
+        assertArrayEquals(CONTENT, gunzip((byte[]) get.getBodyRaw()));
+        assertEquals(UiAssetService.CACHE_CONTROL_IMMUTABLE,
+                get.getResponseHeader(UiAssetService.CACHE_CONTROL_HEADER));
+        // not compressed again when sent
+        assertNull(get.getRequestHeader(Operation.ACCEPT_ENCODING_HEADER));
+    }
+
+    @Test
+    public void testFilesAreReadOnFirstRequest() throws Throwable {
+        File file = folder.newFile("late.html");
+        Map<String, File> files = new HashMap<>();
+        files.put("/ui/late.html", file);
+        service = new UiAssetService(files, false);
+
+        // the file is written after the service is created, so it is not read before
+        Files.write(file.toPath(), CONTENT);
+        Operation get = get("/ui/late.html", null, null);
+        assertArrayEquals(CONTENT, (byte[]) get.getBodyRaw());
+
+        // served from memory afterwards
+        assertTrue(file.delete());
+        get = get("/ui/late.html", "gzip", null);
+        assertArrayEquals(CONTENT, gunzip((byte[]) get.getBodyRaw()));
+    }
+
+    @Test
+    public void testUnknownFileIsNotFound() throws Throwable {
+        Operation get = get("/ui/js/other.js", null, null);
+        assertEquals(Operation.STATUS_CODE_NOT_FOUND, get.getStatusCode());
+    }
+
+    @Test
+    public void testConditionalGet() throws Throwable {
+        String etag = get(INDEX_PATH, null, null).getResponseHeader(UiAssetService.ETAG_HEADER);
+
+        Operation get = get(INDEX_PATH, null, "\"other\", " + etag);
+        assertEquals(Operation.STATUS_CODE_NOT_MODIFIED, get.getStatusCode());
+        assertNull(get.getBodyRaw());
+
+        get = get(INDEX_PATH, null, "\"other\"");
+        assertEquals(Operation.STATUS_CODE_OK, get.getStatusCode());
+        assertArrayEquals(CONTENT, (byte[]) get.getBodyRaw());
+    }
+
+    private File createFile(String name) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), CONTENT);
+        return file;
+    }
+
+    private Operation get(String path, String acceptEncoding, String ifNoneMatch) {
+        Operation get = Operation.createGet(UriUtils.buildUri("http://localhost" + path))
+                .setCompletion((o, e) -> { });
+        if (acceptEncoding != null) {
+            get.addRequestHeader(Operation.ACCEPT_ENCODING_HEADER, acceptEncoding);
+        }
+        if (ifNoneMatch != null) {
+            get.addRequestHeader(UiAssetService.IF_NONE_MATCH_HEADER, ifNoneMatch);
+        }
+        service.handleGet(get);
+        return get;
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -18,6 +18,7 @@ import com.vmware.admiral.upgrade.transformation.ContainerNetworksTransformation
 import com.vmware.admiral.upgrade.transformation.ContainerVolumesTransformationService;
 import com.vmware.admiral.upgrade.transformation.ContainersTransformationService;
 import com.vmware.admiral.upgrade.transformation.ResourcePoolTransformationService;
+import com.vmware.admiral.upgrade.transformation.UpgradeTransformationsService;
 import com.vmware.xenon.common.ServiceHost;
 
 public class HostInitUpgradeServiceConfig extends HostInitServiceHelper {
@@ -31,6 +32,7 @@ public class HostInitUpgradeServiceConfig extends HostInitServiceHelper {
                 ContainerVolumesTransformationService.class,
                 ContainerNetworksTransformationService.class,
                 CompositeComponentsTransformationService.class,
-                ResourcePoolTransformationService.class);
+                ResourcePoolTransformationService.class,
+                UpgradeTransformationsService.class);
     }
 }
\ No newline at end of file
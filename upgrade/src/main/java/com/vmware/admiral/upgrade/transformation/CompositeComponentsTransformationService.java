@@ -11,24 +11,19 @@
 
 package com.vmware.admiral.upgrade.transformation;
 
-import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import com.vmware.admiral.common.ManagementUriParts;
-import com.vmware.admiral.common.util.QueryUtil;
-import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.compute.container.CompositeComponentService.CompositeComponent;
+import com.vmware.admiral.upgrade.transformation.util.DocumentTransformer;
+import com.vmware.admiral.upgrade.transformation.util.TenantLinksUtil;
 import com.vmware.photon.controller.model.resources.ResourceState;
+import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
-import com.vmware.xenon.common.OperationJoin;
 import com.vmware.xenon.common.StatelessService;
-import com.vmware.xenon.common.UriUtils;
-import com.vmware.xenon.common.Utils;
-import com.vmware.xenon.services.common.QueryTask;
 
 /**
  * The service is executed during the upgrade from VIC 1.1 to 1.2 and vRA 7.3 to 7.4. The service
@@ -38,88 +33,38 @@ public class CompositeComponentsTransformationService extends StatelessService {
 
     public static final String SELF_LINK = ManagementUriParts.COMPOSITE_COMPONENTS_UPGRADE_TRANSFORM_PATH;
 
-    AtomicInteger compositeComponentsCount;
-
     @Override
     public void handlePost(Operation post) {
-        QueryTask queryTask = QueryUtil.buildQuery(CompositeComponent.class, true);
-        QueryUtil.addExpandOption(queryTask);
-        List<CompositeComponent> compositeComponents = new ArrayList<CompositeComponent>();
-        new ServiceDocumentQuery<CompositeComponent>(getHost(), CompositeComponent.class)
-                .query(queryTask, (r) -> {
-                    if (r.hasException()) {
-                        post.fail(r.getException());
-                        logSevere("Failed to get composite components");
-                    } else if (r.hasResult()) {
-                        compositeComponents.add(r.getResult());
-                    } else {
-                        if (compositeComponents.isEmpty()) {
-                            post.complete();
-                        }
-                        logInfo("Number of applications: %d", compositeComponents.size());
-                        processApplications(compositeComponents, post);
-                    }
-                });
+        DocumentTransformer.complete(post, new DocumentTransformer<>(this,
+                CompositeComponent.class, DocumentTransformer.isDryRun(post))
+                        .transform(this::transformApplication));
     }
 
-    private void processApplications(List<CompositeComponent> compositeComponents, Operation post) {
-        if (compositeComponents.isEmpty()) {
-            logInfo("No applications found. Composite components transformation completed successfully");
-            post.complete();
-            return;
-        }
-        compositeComponentsCount = new AtomicInteger(compositeComponents.size());
-        for (CompositeComponent state : compositeComponents) {
-            processApplication(state, post);
+    private DeferredResult<List<Operation>> transformApplication(CompositeComponent state) {
+        if (state.componentLinks == null || state.componentLinks.isEmpty()) {
+            return DocumentTransformer.noUpdates();
         }
-    }
 
-    private void processApplication(CompositeComponent state, Operation post) {
-        Set<String> tenantLinks = ConcurrentHashMap.newKeySet();
-        List<Operation> getOperations = state.componentLinks.stream()
-                .map(link -> Operation.createGet(getHost(), link)
-                        .setReferer(getUri()))
+        List<DeferredResult<ResourceState>> components = state.componentLinks.stream()
+                .map(link -> sendWithDeferredResult(Operation.createGet(this, link),
+                        ResourceState.class))
                 .collect(Collectors.toList());
 
-        OperationJoin.create(getOperations).setCompletion((ops, ex) -> {
-            if (ex != null) {
-                post.fail(new Throwable(
-                        "Error retrieving composite components: " + Utils.toString(ex),
-                        ex.values().iterator().next()));
-            } else {
-                for (Operation op : ops.values()) {
-                    ResourceState document = op.getBody(ResourceState.class);
+        return DeferredResult.allOf(components).thenCompose(documents -> {
+            Set<String> tenantLinks = new LinkedHashSet<>();
+            for (ResourceState document : documents) {
+                if (document.tenantLinks != null) {
                     tenantLinks.addAll(document.tenantLinks);
                 }
-                updateApplicationTenantLinks(state, tenantLinks, post);
             }
-        }).sendWith(getHost());
-    }
-
-    private void updateApplicationTenantLinks(CompositeComponent state, Set<String> tenantLinks,
-            Operation post) {
-
-        if (state.tenantLinks == null) {
-            state.tenantLinks = new ArrayList<>();
-        }
-        state.tenantLinks.addAll(tenantLinks);
-
-        Operation.createPatch(this, state.documentSelfLink)
-                .setBody(state)
-                .setReferer(UriUtils.buildUri(getHost(), SELF_LINK))
-                .setCompletion((o, ex) -> {
-                    if (ex != null) {
-                        logSevere("Failed to update tenantLinks for composite component %s",
-                                state.documentSelfLink);
-                        post.fail(ex);
-                    } else {
-                        logInfo("Composite component %s updated with tenantLinks",
-                                state.documentSelfLink);
-                        if (compositeComponentsCount.decrementAndGet() == 0) {
-                            logInfo("Composite components tranformation completed successfully");
-                            post.complete();
-                        }
-                    }
-                }).sendWith(getHost());
+            List<String> merged = TenantLinksUtil.mergeTenantLinks(state.tenantLinks,
+                    tenantLinks);
+            if (merged == null) {
+                return DocumentTransformer.noUpdates();
+            }
+            state.tenantLinks = merged;
+            return DocumentTransformer.updates(Operation.createPatch(this, state.documentSelfLink)
+                    .setBody(state));
+        });
     }
 }
@@ -15,9 +15,9 @@ import com.vmware.admiral.common.ManagementUriParts;
 import com.vmware.admiral.compute.container.CompositeDescriptionService;
 import com.vmware.admiral.compute.container.CompositeDescriptionService.CompositeDescription;
 import com.vmware.admiral.upgrade.transformation.util.ClonePerProjectUtil;
+import com.vmware.admiral.upgrade.transformation.util.DocumentTransformer;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.StatelessService;
-import com.vmware.xenon.common.UriUtils;
 
 /**
  * The logic is executed during the upgrade from VIC 1.1 to 1.2 and vRA 7.3 to 7.4. The service
@@ -28,10 +28,8 @@ public class CompositeDescriptionTransformationService extends StatelessService
 
     @Override
     public void handlePost(Operation post) {
-        ClonePerProjectUtil.getDocuments(CompositeDescription.class,
-                (result) -> ClonePerProjectUtil.processDocuments(result, post, this,
-                        CompositeDescriptionService.SELF_LINK,
-                        UriUtils.buildUri(getHost(), SELF_LINK), getHost(), false),
-                getHost(), post);
+        DocumentTransformer.complete(post, ClonePerProjectUtil.cloneDocuments(this,
+                CompositeDescription.class, CompositeDescriptionService.SELF_LINK, false,
+                DocumentTransformer.isDryRun(post)));
     }
 }
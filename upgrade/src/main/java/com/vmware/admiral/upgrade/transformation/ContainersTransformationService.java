@@ -11,20 +11,16 @@
 
 package com.vmware.admiral.upgrade.transformation;
 
-import java.util.ArrayList;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
 
 import com.vmware.admiral.common.ManagementUriParts;
-import com.vmware.admiral.common.util.QueryUtil;
-import com.vmware.admiral.common.util.ServiceDocumentQuery;
 import com.vmware.admiral.compute.container.ContainerService.ContainerState;
-import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.admiral.upgrade.transformation.util.DocumentTransformer;
+import com.vmware.admiral.upgrade.transformation.util.TenantLinksUtil;
+import com.vmware.xenon.common.DeferredResult;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.StatelessService;
-import com.vmware.xenon.common.UriUtils;
-import com.vmware.xenon.services.common.QueryTask;
 
 /**
  * The service is executed during the upgrade from VIC 1.1 to 1.2 and vRA 7.3 to 7.4. The service
@@ -34,95 +30,33 @@ public class ContainersTransformationService extends StatelessService {
 
     public static final String SELF_LINK = ManagementUriParts.CONTAINERS_UPGRADE_TRANSFORM_PATH;
 
-    AtomicInteger hostsCount;
-
     @Override
     public void handlePost(Operation post) {
-        QueryTask queryTask = QueryUtil.buildQuery(ComputeState.class, true);
-        QueryUtil.addExpandOption(queryTask);
-        List<ComputeState> hosts = new ArrayList<ComputeState>();
-        new ServiceDocumentQuery<ComputeState>(getHost(), ComputeState.class)
-                .query(queryTask, (r) -> {
-                    if (r.hasException()) {
-                        post.fail(r.getException());
-                        logSevere("Failed to get compute states");
-                    } else if (r.hasResult()) {
-                        hosts.add(r.getResult());
-                    } else {
-                        if (hosts.isEmpty()) {
-                            post.complete();
-                        }
-                        logInfo("Number of hosts found: %d", hosts.size());
-                        processHosts(hosts, post);
-                    }
-                });
-    }
-
-    private void processHosts(List<ComputeState> hosts, Operation post) {
-        hostsCount = new AtomicInteger(hosts.size());
-        for (ComputeState state : hosts) {
-            QueryTask queryTask = QueryUtil.buildPropertyQuery(ContainerState.class,
-                    ContainerState.FIELD_NAME_PARENT_LINK,
-                    state.documentSelfLink);
-            QueryUtil.addExpandOption(queryTask);
-            List<ContainerState> containers = new ArrayList<ContainerState>();
-            new ServiceDocumentQuery<ContainerState>(getHost(),
-                    ContainerState.class)
-                            .query(queryTask, (r) -> {
-                                if (r.hasException()) {
-                                    post.fail(r.getException());
-                                    logSevere("Failed to get container states with parentLink %s",
-                                            state.documentSelfLink);
-                                } else if (r.hasResult()) {
-                                    containers.add(r.getResult());
-                                } else {
-                                    processContainers(state, containers, post);
-                                    logInfo("Number of containers found with parentLink %s %d",
-                                            state.documentSelfLink, containers.size());
-                                }
-                            });
-        }
+        DocumentTransformer<ContainerState> transformer = new DocumentTransformer<>(this,
+                ContainerState.class, DocumentTransformer.isDryRun(post));
+        DocumentTransformer.complete(post, TenantLinksUtil.getHostTenantLinks(getHost())
+                .thenCompose(hostTenantLinks -> {
+                    logInfo("Number of hosts with tenantLinks found: %d",
+                            hostTenantLinks.size());
+                    return transformer.transform(
+                            container -> transformContainer(container, hostTenantLinks));
+                }));
     }
 
-    private void processContainers(ComputeState state, List<ContainerState> containers,
-            Operation post) {
-        if (containers.size() == 0) {
-            logInfo("No containers found for host %s",
-                    state.documentSelfLink);
-            if (hostsCount.decrementAndGet() == 0) {
-                logInfo("Containers tranformation completed successfully");
-                post.complete();
-                return;
-            }
+    private DeferredResult<List<Operation>> transformContainer(ContainerState container,
+            Map<String, List<String>> hostTenantLinks) {
+        List<String> tenantLinks = container.parentLink == null ? null
+                : hostTenantLinks.get(container.parentLink);
+        if (tenantLinks == null) {
+            return DocumentTransformer.noUpdates();
         }
-        AtomicInteger containersCount = new AtomicInteger(containers.size());
-        for (ContainerState container : containers) {
-            if (container.tenantLinks == null) {
-                container.tenantLinks = state.tenantLinks;
-            } else {
-                container.tenantLinks.addAll(state.tenantLinks);
-                container.tenantLinks = new ArrayList<String>(
-                        new LinkedHashSet<String>(container.tenantLinks));
-            }
-            Operation.createPatch(this, container.documentSelfLink)
-                    .setBody(container)
-                    .setReferer(UriUtils.buildUri(getHost(), SELF_LINK))
-                    .setCompletion((o, ex) -> {
-                        if (ex != null) {
-                            logSevere("Failed to update tenantLinks for container %s",
-                                    container.documentSelfLink);
-                            post.fail(ex);
-                        } else {
-                            logInfo("Container state %s updated with tenantLinks",
-                                    container.documentSelfLink);
-                            if (containersCount.decrementAndGet() == 0) {
-                                if (hostsCount.decrementAndGet() == 0) {
-                                    logInfo("Containers tranformation completed successfully");
-                                    post.complete();
-                                }
-                            }
-                        }
-                    }).sendWith(getHost());
+        List<String> merged = TenantLinksUtil.mergeTenantLinks(container.tenantLinks,
+                tenantLinks);
+        if (merged == null) {
+            return DocumentTransformer.noUpdates();
         }
+        container.tenantLinks = merged;
+        return DocumentTransformer.updates(Operation.createPatch(this, container.documentSelfLink)
+                .setBody(container));
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.upgrade.transformation;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.vmware.admiral.common.ManagementUriParts;
+import com.vmware.admiral.upgrade.transformation.util.DocumentTransformer;
+import com.vmware.admiral.upgrade.transformation.util.DocumentTransformer.TransformationResult;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Runs all the upgrade transformations. Transformations that do not depend on each other run in
+ * parallel. With the {@link DocumentTransformer#DRY_RUN_PARAM} query parameter only the
+ * transformations supporting dry runs are run, and nothing is changed.
+ */
+public class UpgradeTransformationsService extends StatelessService {
+
+    public static final String SELF_LINK = ManagementUriParts.ALL_UPGRADE_TRANSFORM_PATH;
+
+    public static final long TRANSFORMATION_TIMEOUT_SECONDS = 1200;
+
+    /**
+     * The transformations by stage. The computes transformation adds the projects to the hosts,
+     * the containers, networks and volumes transformations take them from the hosts and the
+     * composite components transformation takes them from the containers, networks and volumes.
+     */
+    static final List<List<String>> STAGES = Arrays.asList(
+            Arrays.asList(ManagementUriParts.COMPUTE_UPGRADE_TRANSFORM_PATH,
+                    ManagementUriParts.COMPOSITE_DESCRIPTION_UPGRADE_TRANSFORM_PATH),
+            Arrays.asList(ManagementUriParts.RESOURCE_POOL_UPGRADE_TRANSFORM_PATH,
+                    ManagementUriParts.CONTAINERS_UPGRADE_TRANSFORM_PATH,
+                    ManagementUriParts.CONTAINER_NETWORKS_UPGRADE_TRANSFORM_PATH,
+                    ManagementUriParts.CONTAINER_VOLUMES_UPGRADE_TRANSFORM_PATH),
+            Arrays.asList(ManagementUriParts.COMPOSITE_COMPONENTS_UPGRADE_TRANSFORM_PATH));
+
+    static final Set<String> DRY_RUN_TRANSFORMATIONS = new HashSet<>(Arrays.asList(
+            ManagementUriParts.COMPOSITE_DESCRIPTION_UPGRADE_TRANSFORM_PATH,
+            ManagementUriParts.CONTAINERS_UPGRADE_TRANSFORM_PATH,
+            ManagementUriParts.CONTAINER_NETWORKS_UPGRADE_TRANSFORM_PATH,
+            ManagementUriParts.CONTAINER_VOLUMES_UPGRADE_TRANSFORM_PATH,
+            ManagementUriParts.COMPOSITE_COMPONENTS_UPGRADE_TRANSFORM_PATH));
+
+    public static class UpgradeTransformationsResult {
+        /** The outcome of the transformations supporting dry runs, by transformation link. */
+        public Map<String, TransformationResult> results;
+    }
+
+    @Override
+    public void handlePost(Operation post) {
+        boolean dryRun = DocumentTransformer.isDryRun(post);
+        Map<String, TransformationResult> results = new ConcurrentSkipListMap<>();
+
+        DeferredResult<Void> result = DeferredResult.completed(null);
+        for (List<String> stage : STAGES) {
+            result = result.thenCompose(ignore -> runStage(stage, dryRun, results));
+        }
+        result.whenComplete((ignore, e) -> {
+            if (e != null) {
+                logSevere("Upgrade transformations failed: %s", Utils.toString(e));
+                post.fail(e);
+                return;
+            }
+            logInfo("Upgrade transformations completed successfully");
+            UpgradeTransformationsResult body = new UpgradeTransformationsResult();
+            body.results = results;
+            post.setBody(body).complete();
+        });
+    }
+
+    private DeferredResult<Void> runStage(List<String> stage, boolean dryRun,
+            Map<String, TransformationResult> results) {
+        List<DeferredResult<Void>> transformations = stage.stream()
+                .filter(link -> !dryRun || DRY_RUN_TRANSFORMATIONS.contains(link))
+                .map(link -> runTransformation(link, dryRun, results))
+                .collect(Collectors.toList());
+        return DeferredResult.allOf(transformations).thenApply(ignore -> null);
+    }
+
+    private DeferredResult<Void> runTransformation(String link, boolean dryRun,
+            Map<String, TransformationResult> results) {
+        URI uri = UriUtils.buildUri(getHost(), link);
+        if (dryRun) {
+            uri = UriUtils.extendUriWithQuery(uri, DocumentTransformer.DRY_RUN_PARAM,
+                    Boolean.TRUE.toString());
+        }
+        logInfo("Starting transformation %s", link);
+        Operation post = Operation.createPost(uri)
+                .setBody(new ServiceDocument())
+                .setReferer(getUri())
+                .setExpiration(Utils.fromNowMicrosUtc(
+                        TimeUnit.SECONDS.toMicros(TRANSFORMATION_TIMEOUT_SECONDS)));
+        return sendWithDeferredResult(post).thenAccept(o -> {
+            logInfo("Transformation %s completed", link);
+            if (DRY_RUN_TRANSFORMATIONS.contains(link)) {
+                results.put(link, o.getBody(TransformationResult.class));
+            }
+        });
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.upgrade.transformation.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import com.vmware.photon.controller.model.query.QueryUtils;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.services.common.QueryTask;
+import com.vmware.xenon.services.common.QueryTask.NumericRange;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+
+/**
+ * Transforms the documents of a given type during the upgrade. The documents are read page by
+ * page and the next page is read only after the updates of the current one are sent, with no
+ * more than {@link #MAX_CONCURRENT_UPDATES} updates in flight. Documents created or updated after
+ * the transformation started are not transformed, so a transformation may create documents of
+ * the type it transforms.
+ */
+public class DocumentTransformer<T extends ServiceDocument> {
+
+    /**
+     * Query parameter of the transformation requests. When set to true, the documents to
+     * transform are only counted.
+     */
+    public static final String DRY_RUN_PARAM = "dryRun";
+
+    public static final int PAGE_SIZE = Integer.getInteger(
+            "com.vmware.admiral.upgrade.transformation.page.size", 500);
+
+    public static final int MAX_CONCURRENT_UPDATES = Integer.getInteger(
+            "com.vmware.admiral.upgrade.transformation.max.concurrent.updates", 16);
+
+    /**
+     * Returns the operations that transform the given document, none if the document does not
+     * need to be transformed.
+     */
+    @FunctionalInterface
+    public interface Transformation<T> {
+        DeferredResult<List<Operation>> apply(T document);
+    }
+
+    /**
+     * The outcome of a transformation, returned as body of the transformation requests.
+     */
+    public static class TransformationResult {
+        public String documentKind;
+
+        public boolean dryRun;
+
+        /** The number of documents read. */
+        public long processedCount;
+
+        /** The number of documents transformed, or to transform in case of a dry run. */
+        public long transformedCount;
+
+        /** The number of update operations sent, or to send in case of a dry run. */
+        public long updateCount;
+    }
+
+    private final Service sender;
+    private final Class<T> type;
+    private final boolean dryRun;
+    private Query query;
+    private int pageSize = PAGE_SIZE;
+
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong transformedCount = new AtomicLong();
+    private final AtomicLong updateCount = new AtomicLong();
+
+    public DocumentTransformer(Service sender, Class<T> type, boolean dryRun) {
+        this.sender = sender;
+        this.type = type;
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Restricts the transformed documents to the ones matching the given query.
+     */
+    public DocumentTransformer<T> setQuery(Query query) {
+        this.query = query;
+        return this;
+    }
+
+    DocumentTransformer<T> setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    public static boolean isDryRun(Operation op) {
+        return Boolean.parseBoolean(UriUtils.parseUriQueryParams(op.getUri()).get(DRY_RUN_PARAM));
+    }
+
+    public static DeferredResult<List<Operation>> updates(Operation... operations) {
+        return DeferredResult.completed(Arrays.asList(operations));
+    }
+
+    public static DeferredResult<List<Operation>> noUpdates() {
+        return DeferredResult.completed(Collections.emptyList());
+    }
+
+    /**
+     * Completes the given transformation request with the outcome of the transformation.
+     */
+    public static void complete(Operation post, DeferredResult<TransformationResult> result) {
+        result.whenComplete((r, e) -> {
+            if (e != null) {
+                post.fail(e);
+                return;
+            }
+            post.setBody(r).complete();
+        });
+    }
+
+    public DeferredResult<TransformationResult> transform(Transformation<T> transformation) {
+        Query.Builder queryBuilder = Query.Builder.create()
+                .addKindFieldClause(type)
+                .addRangeClause(ServiceDocument.FIELD_NAME_UPDATE_TIME_MICROS,
+                        NumericRange.createLessThanOrEqualRange(Utils.getSystemNowMicrosUtc()));
+        if (query != null) {
+            queryBuilder.addClause(query);
+        }
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .setQuery(queryBuilder.build())
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .setResultLimit(pageSize)
+                .build();
+
+        return QueryUtils.startQueryTask(sender, queryTask)
+                .thenCompose(q -> transformPages(q.results, transformation))
+                .thenApply(ignore -> {
+                    TransformationResult result = getResult();
+                    log(Level.INFO, "Transformation of %s completed: %d documents processed,"
+                            + " %d transformed", result.documentKind, result.processedCount,
+                            result.transformedCount);
+                    return result;
+                });
+    }
+
+    private DeferredResult<Void> transformPages(ServiceDocumentQueryResult page,
+            Transformation<T> transformation) {
+        List<T> documents = new ArrayList<>();
+        if (page.documents != null) {
+            for (Object document : page.documents.values()) {
+                documents.add(Utils.fromJson(document, type));
+            }
+        }
+
+        return transformDocuments(documents, transformation).thenCompose(ignore -> {
+            if (page.nextPageLink == null) {
+                return DeferredResult.completed(null);
+            }
+            if (!documents.isEmpty()) {
+                log(Level.INFO, "Transformation of %s in progress: %d documents processed,"
+                        + " %d transformed", Utils.buildKind(type), processedCount.get(),
+                        transformedCount.get());
+            }
+            Operation get = Operation.createGet(UriUtils.buildUri(sender.getHost(),
+                    page.nextPageLink))
+                    .setReferer(sender.getUri());
+            return sender.sendWithDeferredResult(get, QueryTask.class)
+                    .thenCompose(q -> transformPages(q.results, transformation));
+        });
+    }
+
+    private DeferredResult<Void> transformDocuments(List<T> documents,
+            Transformation<T> transformation) {
+        if (documents.isEmpty()) {
+            return DeferredResult.completed(null);
+        }
+
+        DeferredResult<Void> result = new DeferredResult<>();
+        Queue<T> queue = new ConcurrentLinkedQueue<>(documents);
+        AtomicInteger remaining = new AtomicInteger(documents.size());
+        for (int i = 0; i < Math.min(MAX_CONCURRENT_UPDATES, documents.size()); i++) {
+            transformNext(queue, remaining, transformation, result);
+        }
+        return result;
+    }
+
+    private void transformNext(Queue<T> queue, AtomicInteger remaining,
+            Transformation<T> transformation, DeferredResult<Void> result) {
+        T document = queue.poll();
+        if (document == null) {
+            return;
+        }
+
+        transformDocument(document, transformation).whenComplete((ignore, e) -> {
+            if (e != null) {
+                log(Level.SEVERE, "Failed to transform %s: %s", document.documentSelfLink,
+                        Utils.toString(e));
+                queue.clear();
+                result.fail(e);
+                return;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                result.complete(null);
+                return;
+            }
+            transformNext(queue, remaining, transformation, result);
+        });
+    }
+
+    private DeferredResult<Void> transformDocument(T document,
+            Transformation<T> transformation) {
+        DeferredResult<List<Operation>> updates;
+        try {
+            updates = transformation.apply(document);
+        } catch (Throwable e) {
+            return DeferredResult.failed(e);
+        }
+
+        return updates.thenCompose(operations -> {
+            processedCount.incrementAndGet();
+            if (operations == null || operations.isEmpty()) {
+                return DeferredResult.completed(null);
+            }
+            transformedCount.incrementAndGet();
+            updateCount.addAndGet(operations.size());
+            if (dryRun) {
+                return DeferredResult.completed(null);
+            }
+
+            // the updates of a document are sent one after another to keep the bound
+            DeferredResult<Operation> sent = DeferredResult.completed(null);
+            for (Operation operation : operations) {
+                if (operation.getReferer() == null) {
+                    operation.setReferer(sender.getUri());
+                }
+                sent = sent.thenCompose(ignore -> sender.sendWithDeferredResult(operation));
+            }
+            return sent.thenApply(ignore -> (Void) null);
+        });
+    }
+
+    private TransformationResult getResult() {
+        TransformationResult result = new TransformationResult();
+        result.documentKind = Utils.buildKind(type);
+        result.dryRun = dryRun;
+        result.processedCount = processedCount.get();
+        result.transformedCount = transformedCount.get();
+        result.updateCount = updateCount.get();
+        return result;
+    }
+
+    private void log(Level level, String format, Object... args) {
+        sender.getHost().log(level, (dryRun ? "[dry run] " : "") + format, args);
+    }
+}
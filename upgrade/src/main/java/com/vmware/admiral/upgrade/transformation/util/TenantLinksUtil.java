@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.upgrade.transformation.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vmware.photon.controller.model.query.QueryUtils.QueryByPages;
+import com.vmware.photon.controller.model.resources.ComputeService.ComputeState;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+/**
+ * Helpers for the transformations that add projects to existing documents.
+ */
+public class TenantLinksUtil {
+
+    /**
+     * Returns the tenant links of the hosts which have any, by host link.
+     */
+    public static DeferredResult<Map<String, List<String>>> getHostTenantLinks(
+            ServiceHost host) {
+        Query query = Query.Builder.create()
+                .addKindFieldClause(ComputeState.class)
+                .build();
+        Map<String, List<String>> tenantLinks = new ConcurrentHashMap<>();
+        return new QueryByPages<>(host, query, ComputeState.class, null)
+                .queryDocuments(compute -> {
+                    if (compute.tenantLinks != null && !compute.tenantLinks.isEmpty()) {
+                        tenantLinks.put(compute.documentSelfLink, compute.tenantLinks);
+                    }
+                })
+                .thenApply(ignore -> tenantLinks);
+    }
+
+    /**
+     * Returns the given tenant links with the added ones appended, or <code>null</code> if they
+     * already contain all of them.
+     */
+    public static List<String> mergeTenantLinks(List<String> tenantLinks,
+            Collection<String> added) {
+        Set<String> merged = tenantLinks == null ? new LinkedHashSet<>()
+                : new LinkedHashSet<>(tenantLinks);
+        if (!merged.addAll(added)) {
+            return null;
+        }
+        return new ArrayList<>(merged);
+    }
+}
@@ -62,13 +62,7 @@ else
       echo "Migration completed"
     fi
 
-    send_transformation_request $2 "upgrade-transforms/computes" $3
-    send_transformation_request $2 "upgrade-transforms/pools" $3
-    send_transformation_request $2 "upgrade-transforms/containers" $3
-    send_transformation_request $2 "upgrade-transforms/networks" $3
-    send_transformation_request $2 "upgrade-transforms/volumes" $3
-    send_transformation_request $2 "upgrade-transforms/composite-components" $3
-    send_transformation_request $2 "upgrade-transforms/composite-descriptions" $3
+    send_transformation_request $2 "upgrade-transforms/all" $3
     exit 0
   fi
 fi
\ No newline at end of file
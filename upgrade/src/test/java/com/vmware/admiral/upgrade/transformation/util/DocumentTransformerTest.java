@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product may include a number of subcomponents with separate copyright notices
+ * and license terms. Your use of these subcomponents is subject to the terms and
+ * conditions of the subcomponent's license, as noted in the LICENSE file.
+ */
+
+package com.vmware.admiral.upgrade.transformation.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vmware.admiral.upgrade.transformation.util.DocumentTransformer.Transformation;
+import com.vmware.admiral.upgrade.transformation.util.DocumentTransformer.TransformationResult;
+import com.vmware.xenon.common.DeferredResult;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.ExampleService;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+import com.vmware.xenon.services.common.QueryTask.Query;
+
+public class DocumentTransformerTest {
+
+    private static final int DOCUMENTS_COUNT = 25;
+    private static final String TRANSFORMED = "transformed";
+
+    private VerificationHost host;
+    private StatelessService sender;
+
+    @Before
+    public void setUp() throws Throwable {
+        host = VerificationHost.create(0);
+        host.start();
+        host.startFactory(new ExampleService());
+        host.waitForServiceAvailable(ExampleService.FACTORY_LINK);
+        sender = new StatelessService();
+        host.startServiceAndWait(sender, "/transformer", null);
+
+        for (int i = 0; i < DOCUMENTS_COUNT; i++) {
+            createExample("example-" + i);
+        }
+        // already transformed documents are skipped
+        createExample(TRANSFORMED);
+    }
+
+    @After
+    public void tearDown() {
+        host.tearDown();
+    }
+
+    @Test
+    public void testTransformInPages() throws Throwable {
+        TransformationResult result = transform(false, this::updateName);
+
+        assertEquals(DOCUMENTS_COUNT + 1, result.processedCount);
+        assertEquals(DOCUMENTS_COUNT, result.transformedCount);
+        assertEquals(DOCUMENTS_COUNT, result.updateCount);
+        for (ExampleServiceState example : getExamples()) {
+            assertEquals(TRANSFORMED, example.name);
+        }
+    }
+
+    @Test
+    public void testDryRun() throws Throwable {
+        TransformationResult result = transform(true, this::updateName);
+
+        assertTrue(result.dryRun);
+        assertEquals(DOCUMENTS_COUNT, result.transformedCount);
+        assertEquals(1, getExamples().stream()
+                .filter(example -> TRANSFORMED.equals(example.name))
+                .count());
+    }
+
+    @Test
+    public void testCreatedDocumentsAreNotTransformed() throws Throwable {
+        TransformationResult result = transform(false, example -> {
+            ExampleServiceState clone = new ExampleServiceState();
+            clone.name = example.name + "-clone";
+            return DocumentTransformer.updates(Operation
+                    .createPost(sender, ExampleService.FACTORY_LINK)
+                    .setBody(clone));
+        });
+
+        assertEquals(DOCUMENTS_COUNT + 1, result.processedCount);
+        assertEquals(2 * (DOCUMENTS_COUNT + 1), getExamples().size());
+    }
+
+    @Test
+    public void testQuery() throws Throwable {
+        Query query = Query.Builder.create()
+                .addFieldClause(ExampleServiceState.FIELD_NAME_NAME, TRANSFORMED)
+                .build();
+        TransformationResult result = doTransform(new DocumentTransformer<>(sender,
+                ExampleServiceState.class, false).setQuery(query), this::updateName);
+
+        assertEquals(1, result.processedCount);
+        assertEquals(0, result.transformedCount);
+    }
+
+    private DeferredResult<List<Operation>> updateName(ExampleServiceState example) {
+        if (TRANSFORMED.equals(example.name)) {
+            return DocumentTransformer.noUpdates();
+        }
+        ExampleServiceState patch = new ExampleServiceState();
+        patch.name = TRANSFORMED;
+        return DocumentTransformer.updates(Operation
+                .createPatch(sender, example.documentSelfLink)
+                .setBody(patch));
+    }
+
+    private TransformationResult transform(boolean dryRun,
+            Transformation<ExampleServiceState> transformation) {
+        return doTransform(new DocumentTransformer<>(sender, ExampleServiceState.class, dryRun)
+                .setPageSize(10), transformation);
+    }
+
+    private TransformationResult doTransform(DocumentTransformer<ExampleServiceState> transformer,
+            Transformation<ExampleServiceState> transformation) {
+        TestContext ctx = host.testCreate(1);
+        TransformationResult[] result = new TransformationResult[1];
+        transformer.transform(transformation).whenComplete((r, e) -> {
+            if (e != null) {
+                ctx.failIteration(e);
+                return;
+            }
+            result[0] = r;
+            ctx.completeIteration();
+        });
+        ctx.await();
+        return result[0];
+    }
+
+    private void createExample(String name) {
+        ExampleServiceState state = new ExampleServiceState();
+        state.name = name;
+        host.sendAndWaitExpectSuccess(Operation.createPost(host, ExampleService.FACTORY_LINK)
+                .setBody(state));
+    }
+
+    private List<ExampleServiceState> getExamples() {
+        return host.getFactoryState(UriUtils.buildExpandLinksQueryUri(
+                UriUtils.buildUri(host, ExampleService.FACTORY_LINK)))
+                .documents.values().stream()
+                .map(json -> Utils.fromJson(json,
+                        ExampleServiceState.class))
+                .collect(Collectors.toList());
+    }
+}